@@ -0,0 +1,197 @@
+package org.example;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于CompletableFuture封装原生ZooKeeper的异步API。
+ *
+ * 原生异步API的优势在于同一个会话上可以同时有大量请求在途(pipelining)，而不需要每发一个请求就用CountDownLatch等它返回。
+ * 这里用一个信号量作为在途窗口：窗口满时调用线程最多阻塞acquireTimeoutMs等待空位(背压)，等不到则返回失败的future；
+ * 每个请求还有自己的超时时间，超时后future以TimeoutException失败。
+ *
+ * 注意：超时只是让future提前失败，请求本身已经发到服务端，窗口占用要等服务端回调(或连接断开的回调)后才释放。
+ * 窗口的空位正是由zk的事件线程执行回调时释放的，所以在事件线程上(例如在回调或thenCompose里继续发请求)
+ * 不能阻塞等待空位，窗口满时直接返回失败的future。
+ */
+public class AsyncZkClient {
+
+    private final ZooKeeper zk;
+    private final int maxInFlight;
+    private final Semaphore window;
+    private final long acquireTimeoutMs;
+    private final long requestTimeoutMs;
+
+    /**
+     * @param zk               已经建立好连接的ZooKeeper句柄
+     * @param maxInFlight      最大在途请求数
+     * @param acquireTimeoutMs 在途窗口满时，等待空位的最长时间
+     * @param requestTimeoutMs 单个请求的超时时间，小于等于0表示不超时
+     */
+    public AsyncZkClient(ZooKeeper zk, int maxInFlight, long acquireTimeoutMs, long requestTimeoutMs) {
+        this.zk = zk;
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    public CompletableFuture<String> create(String path, byte[] data, List<ACL> acl, CreateMode mode) {
+        return submit((future, release) -> zk.create(path, data, acl, mode, (rc, p, ctx, name) -> {
+            release.run();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                future.complete(name);
+            } else {
+                future.completeExceptionally(KeeperException.create(KeeperException.Code.get(rc), p));
+            }
+        }, null));
+    }
+
+    public CompletableFuture<NodeData> getData(String path) {
+        return submit((future, release) -> zk.getData(path, false, (rc, p, ctx, bytes, stat) -> {
+            release.run();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                future.complete(new NodeData(bytes, stat));
+            } else {
+                future.completeExceptionally(KeeperException.create(KeeperException.Code.get(rc), p));
+            }
+        }, null));
+    }
+
+    /**
+     * @param version 期望的节点版本号，-1表示不检查版本号
+     */
+    public CompletableFuture<Stat> setData(String path, byte[] data, int version) {
+        return submit((future, release) -> zk.setData(path, data, version, (rc, p, ctx, stat) -> {
+            release.run();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                future.complete(stat);
+            } else {
+                future.completeExceptionally(KeeperException.create(KeeperException.Code.get(rc), p));
+            }
+        }, null));
+    }
+
+    /**
+     * 节点不存在时future的结果为null
+     */
+    public CompletableFuture<Stat> exists(String path) {
+        return submit((future, release) -> zk.exists(path, false, (rc, p, ctx, stat) -> {
+            release.run();
+            if (rc == KeeperException.Code.OK.intValue() || rc == KeeperException.Code.NONODE.intValue()) {
+                future.complete(stat);
+            } else {
+                future.completeExceptionally(KeeperException.create(KeeperException.Code.get(rc), p));
+            }
+        }, null));
+    }
+
+    public CompletableFuture<List<String>> getChildren(String path) {
+        return submit((future, release) -> zk.getChildren(path, false, (rc, p, ctx, children) -> {
+            release.run();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                future.complete(children);
+            } else {
+                future.completeExceptionally(KeeperException.create(KeeperException.Code.get(rc), p));
+            }
+        }, null));
+    }
+
+    public CompletableFuture<Void> delete(String path, int version) {
+        return submit((future, release) -> zk.delete(path, version, (rc, p, ctx) -> {
+            release.run();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(KeeperException.create(KeeperException.Code.get(rc), p));
+            }
+        }, null));
+    }
+
+    /**
+     * 当前在途请求数
+     */
+    public int inFlight() {
+        return maxInFlight - window.availablePermits();
+    }
+
+    public ZooKeeper getZooKeeper() {
+        return zk;
+    }
+
+    private <T> CompletableFuture<T> submit(Request<T> request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            if (onEventThread()) {
+                if (!window.tryAcquire()) {
+                    future.completeExceptionally(new RejectedExecutionException("在途请求数已达上限，事件线程上不等待空位"));
+                    return future;
+                }
+            } else if (!window.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new TimeoutException("在途请求数已达上限，等待" + acquireTimeoutMs + "ms后仍无空位"));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                window.release();
+            }
+        };
+        try {
+            request.send(future, release);
+        } catch (RuntimeException e) {
+            release.run();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return requestTimeoutMs > 0 ? future.orTimeout(requestTimeoutMs, TimeUnit.MILLISECONDS) : future;
+    }
+
+    /**
+     * zk客户端的事件线程名为"创建ZooKeeper的线程名-EventThread"，回调和watch都在这个线程上执行
+     */
+    private static boolean onEventThread() {
+        return Thread.currentThread().getName().endsWith("-EventThread");
+    }
+
+    private interface Request<T> {
+        void send(CompletableFuture<T> future, Runnable release);
+    }
+
+    /**
+     * getData的返回结果：节点数据以及节点状态
+     */
+    public static class NodeData {
+        private final byte[] data;
+        private final Stat stat;
+
+        public NodeData(byte[] data, Stat stat) {
+            this.data = data;
+            this.stat = stat;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public Stat getStat() {
+            return stat;
+        }
+    }
+}
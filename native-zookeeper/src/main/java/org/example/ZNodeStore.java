@@ -0,0 +1,170 @@
+package org.example;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 用ZNodeCodec读写节点，编码后超过chunkSize的数据自动分片存到子节点(格式见ZNodeChunks)，读的时候透明拼回。
+ * 分片的创建和读取通过AsyncZkClient流水线发出，不逐个等待。
+ *
+ * 写入用版本号CAS：分片写好后setData清单时版本号不对说明被并发覆盖，删掉自己的分片，随机退避后重试，最多MAX_ATTEMPTS次。
+ * 节点不存在时会创建，但父节点必须已经存在。
+ */
+public class ZNodeStore {
+
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final AsyncZkClient client;
+    private final int chunkSize;
+
+    /**
+     * @param client    异步客户端，同步操作直接使用它的ZooKeeper句柄
+     * @param chunkSize 单个节点最多存多少字节，需小于服务端jute.maxbuffer(默认1M)
+     */
+    public ZNodeStore(AsyncZkClient client, int chunkSize) {
+        this.client = client;
+        this.chunkSize = chunkSize;
+    }
+
+    public <T> void write(String path, T value, ZNodeCodec<T> codec) throws KeeperException, InterruptedException {
+        ZooKeeper zk = client.getZooKeeper();
+        byte[] payload = codec.encode(value);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Stat stat = new Stat();
+            byte[] current;
+            try {
+                current = zk.getData(path, false, stat);
+            } catch (KeeperException.NoNodeException e) {
+                try {
+                    zk.create(path, payload.length <= chunkSize ? payload : new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                    if (payload.length <= chunkSize) {
+                        return;
+                    }
+                } catch (KeeperException.NodeExistsException exists) {
+                    // 并发创建，下一轮按已存在处理
+                }
+                continue;
+            }
+            if (payload.length <= chunkSize) {
+                try {
+                    zk.setData(path, payload, stat.getVersion());
+                } catch (KeeperException.BadVersionException e) {
+                    backoff(attempt);
+                    continue;
+                }
+            } else {
+                long generation = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+                List<byte[]> chunks = new ArrayList<>();
+                ZNodeChunks.Manifest manifest = ZNodeChunks.split(payload, chunkSize, generation, chunks);
+                List<CompletableFuture<String>> creates = new ArrayList<>();
+                for (int i = 0; i < chunks.size(); i++) {
+                    creates.add(client.create(chunkPath(path, generation, i), chunks.get(i), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                }
+                await(creates);
+                try {
+                    zk.setData(path, ZNodeChunks.manifest(manifest), stat.getVersion());
+                } catch (KeeperException.BadVersionException e) {
+                    deleteChunks(path, generation, chunks.size());
+                    backoff(attempt);
+                    continue;
+                }
+            }
+            if (ZNodeChunks.isManifest(current)) {
+                ZNodeChunks.Manifest previous = ZNodeChunks.readManifest(current);
+                deleteChunks(path, previous.getGeneration(), previous.getChunks());
+            }
+            return;
+        }
+        throw new KeeperException.BadVersionException(path);
+    }
+
+    /**
+     * 读取并解码，分片数据在读取期间被覆盖时重读清单，仍失败抛出IllegalStateException
+     */
+    public <T> T read(String path, ZNodeCodec<T> codec) throws KeeperException, InterruptedException {
+        ZooKeeper zk = client.getZooKeeper();
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            byte[] data = zk.getData(path, false, null);
+            if (!ZNodeChunks.isManifest(data)) {
+                return codec.decode(data);
+            }
+            ZNodeChunks.Manifest manifest = ZNodeChunks.readManifest(data);
+            List<CompletableFuture<AsyncZkClient.NodeData>> reads = new ArrayList<>(manifest.getChunks());
+            for (int i = 0; i < manifest.getChunks(); i++) {
+                reads.add(client.getData(chunkPath(path, manifest.getGeneration(), i)));
+            }
+            List<byte[]> chunks = new ArrayList<>(manifest.getChunks());
+            try {
+                for (AsyncZkClient.NodeData chunk : await(reads)) {
+                    chunks.add(chunk.getData());
+                }
+            } catch (KeeperException.NoNodeException e) {
+                continue;
+            }
+            return codec.decode(ZNodeChunks.join(manifest, chunks));
+        }
+        throw new IllegalStateException("分片数据在读取期间被反复覆盖：" + path);
+    }
+
+    /**
+     * 删除节点和它的全部分片
+     */
+    public void delete(String path) throws KeeperException, InterruptedException {
+        ZooKeeper zk = client.getZooKeeper();
+        for (String child : zk.getChildren(path, false)) {
+            if (ZNodeChunks.isChunk(child)) {
+                zk.delete(path + "/" + child, -1);
+            }
+        }
+        zk.delete(path, -1);
+    }
+
+    private void deleteChunks(String path, long generation, int count) throws KeeperException, InterruptedException {
+        List<CompletableFuture<Void>> deletes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            deletes.add(client.delete(chunkPath(path, generation, i), -1).exceptionally(e -> null));
+        }
+        await(deletes);
+    }
+
+    /**
+     * 版本号冲突后的full jitter退避，上限从10ms开始翻倍，最多160ms
+     */
+    private static void backoff(int attempt) throws InterruptedException {
+        Thread.sleep(ThreadLocalRandom.current().nextLong(10L << Math.min(attempt, 4)));
+    }
+
+    private static String chunkPath(String path, long generation, int index) {
+        return path + "/" + ZNodeChunks.chunkName(generation, index);
+    }
+
+    /**
+     * 等待全部完成，把第一个失败原因按KeeperException抛出
+     */
+    private static <T> List<T> await(List<CompletableFuture<T>> futures) throws KeeperException, InterruptedException {
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof KeeperException) {
+                    throw (KeeperException) e.getCause();
+                }
+                if (e.getCause() instanceof InterruptedException) {
+                    throw (InterruptedException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+}
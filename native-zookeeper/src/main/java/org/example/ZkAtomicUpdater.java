@@ -0,0 +1,157 @@
+package org.example;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * 基于版本号的乐观并发更新(CAS)：读数据和版本号 -> 计算新值 -> setData(path, 新值, 读到的版本号)，
+ * 版本号不一致(BadVersion)说明期间被别人改过，退避一段随机时间后重读重算，直到成功或超过最大尝试次数。
+ *
+ * 退避用的是full jitter：在[0, min(maxBackoffMs, baseBackoffMs * 2^重试次数))之间随机，避免多个客户端同时重试再次冲突。
+ * 注意：updater可能被调用多次，不要在里面做有副作用的操作。
+ *
+ * 异步更新时getData的回调在zookeeper事件线程上，AsyncZkClient在事件线程上窗口满时直接拒绝，不等待空位；
+ * 所以计算新值和setData转到重试线程上执行，窗口满时在那里等待空位。在事件线程上调用updateAsync被拒绝时同样按退避重试。
+ */
+public class ZkAtomicUpdater {
+
+    private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "zk-atomic-updater-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AsyncZkClient client;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param client        异步客户端，同步更新直接使用它的ZooKeeper句柄
+     * @param maxAttempts   最大尝试次数
+     * @param baseBackoffMs 第一次冲突后的退避上限
+     * @param maxBackoffMs  退避上限的最大值
+     */
+    public ZkAtomicUpdater(AsyncZkClient client, int maxAttempts, long baseBackoffMs, long maxBackoffMs) {
+        this.client = client;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * 同步CAS更新，返回写入的新值；超过最大尝试次数仍冲突时抛出BadVersionException
+     */
+    public byte[] update(String path, UnaryOperator<byte[]> updater) throws KeeperException, InterruptedException {
+        ZooKeeper zk = client.getZooKeeper();
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            attempts.increment();
+            Stat stat = new Stat();
+            byte[] current = zk.getData(path, false, stat);
+            byte[] next = updater.apply(current);
+            try {
+                zk.setData(path, next, stat.getVersion());
+                successes.increment();
+                return next;
+            } catch (KeeperException.BadVersionException e) {
+                conflicts.increment();
+                if (attempt + 1 < maxAttempts) {
+                    Thread.sleep(backoffMs(attempt));
+                }
+            }
+        }
+        failures.increment();
+        throw new KeeperException.BadVersionException(path);
+    }
+
+    /**
+     * 异步CAS更新，冲突后的退避在调度线程上等待，不占用调用线程
+     */
+    public CompletableFuture<byte[]> updateAsync(String path, UnaryOperator<byte[]> updater) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        attemptAsync(path, updater, 0, result);
+        return result;
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    /**
+     * 版本号冲突次数，conflicts / successes 反映竞争激烈程度
+     */
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    /**
+     * 在途请求窗口已满被AsyncZkClient拒绝、退避后重试的次数
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * 超过最大尝试次数仍失败的次数
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    private void attemptAsync(String path, UnaryOperator<byte[]> updater, int attempt, CompletableFuture<byte[]> result) {
+        if (attempt >= maxAttempts) {
+            failures.increment();
+            result.completeExceptionally(new KeeperException.BadVersionException(path));
+            return;
+        }
+        attempts.increment();
+        client.getData(path).thenComposeAsync(current -> {
+            byte[] next = updater.apply(current.getData());
+            return client.setData(path, next, current.getStat().getVersion()).thenApply(stat -> next);
+        }, RETRY_SCHEDULER).whenComplete((next, e) -> {
+            if (e == null) {
+                successes.increment();
+                result.complete(next);
+                return;
+            }
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof KeeperException.BadVersionException) {
+                conflicts.increment();
+                RETRY_SCHEDULER.schedule(() -> attemptAsync(path, updater, attempt + 1, result),
+                        backoffMs(attempt), TimeUnit.MILLISECONDS);
+            } else if (cause instanceof RejectedExecutionException) {
+                rejections.increment();
+                RETRY_SCHEDULER.schedule(() -> attemptAsync(path, updater, attempt + 1, result),
+                        backoffMs(attempt), TimeUnit.MILLISECONDS);
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    private long backoffMs(int attempt) {
+        long cap = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt, 20));
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+}
@@ -0,0 +1,261 @@
+package org.example;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * 事件驱动的连接管理：
+ * 1 new ZooKeeper(...)之后不再固定sleep，而是在收到SyncConnected事件时完成一个就绪future，连上即可继续；
+ * 2 连接断开(Disconnected)后就绪future被重置，重连成功后再次完成；
+ * 3 会话过期(Expired)后旧句柄已经不可用，这里会自动新建一个ZooKeeper句柄重新建立会话。
+ *
+ * Watcher.process运行在ZooKeeper唯一的事件线程上，在里面sleep或做阻塞IO会拖慢所有后续事件(包括会话事件)，
+ * 所以process本身只做状态切换：连接状态监听器在listenerExecutor上按顺序执行；节点事件交给StripedDispatcher，
+ * 按路径分stripe并行执行，同一路径的事件保持顺序，一个慢watcher不会拖住其它路径的事件和会话事件。
+ * 自带的分发器队列满时事件线程最多等待maxBlockMs(默认DEFAULT_MAX_BLOCK_MS)，超时丢弃该节点事件并计入getEventDispatcher().getDropped()，
+ * 一个卡死的watcher不会让会话事件也停住；不能丢事件时传入maxBlockMs=0，或者自己构造分发器。
+ */
+public class ZkConnectionManager implements Watcher, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ZkConnectionManager.class);
+
+    /**
+     * 连接状态监听器，回调在listenerExecutor上执行，可以做阻塞操作
+     */
+    public interface Listener {
+        default void onConnected(ZooKeeper zk) {
+        }
+
+        default void onDisconnected() {
+        }
+
+        default void onExpired() {
+        }
+    }
+
+    private static final int DEFAULT_EVENT_STRIPES = 4;
+    private static final int DEFAULT_EVENT_QUEUE_CAPACITY = 1024;
+    private static final long DEFAULT_SLOW_HANDLER_MS = 100;
+    public static final long DEFAULT_MAX_BLOCK_MS = 1000;
+
+    private final String connectString;
+    private final int sessionTimeoutMs;
+    private final ExecutorService listenerExecutor;
+    private final StripedDispatcher eventDispatcher;
+    private final boolean ownsDispatcher;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile ZooKeeper zk;
+    private volatile CompletableFuture<ZooKeeper> ready = new CompletableFuture<>();
+    private volatile Watcher defaultWatcher;
+    private volatile boolean closed;
+
+    public ZkConnectionManager(String connectString, int sessionTimeoutMs) {
+        this(connectString, sessionTimeoutMs, Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "zk-connection-listener");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    public ZkConnectionManager(String connectString, int sessionTimeoutMs, ExecutorService listenerExecutor) {
+        this(connectString, sessionTimeoutMs, listenerExecutor, DEFAULT_MAX_BLOCK_MS);
+    }
+
+    /**
+     * @param maxBlockMs 自带分发器的队列满时事件线程最多等待多久，超时丢弃该节点事件，0表示一直等
+     */
+    public ZkConnectionManager(String connectString, int sessionTimeoutMs, ExecutorService listenerExecutor, long maxBlockMs) {
+        this(connectString, sessionTimeoutMs, listenerExecutor,
+                new StripedDispatcher("zk-event", DEFAULT_EVENT_STRIPES, DEFAULT_EVENT_QUEUE_CAPACITY,
+                        StripedDispatcher.OverflowPolicy.BLOCK, maxBlockMs, DEFAULT_SLOW_HANDLER_MS), true);
+    }
+
+    /**
+     * @param eventDispatcher 执行节点事件的分发器，由调用方负责关闭，可以在多个连接之间共用
+     */
+    public ZkConnectionManager(String connectString, int sessionTimeoutMs, ExecutorService listenerExecutor, StripedDispatcher eventDispatcher) {
+        this(connectString, sessionTimeoutMs, listenerExecutor, eventDispatcher, false);
+    }
+
+    private ZkConnectionManager(String connectString, int sessionTimeoutMs, ExecutorService listenerExecutor,
+                                StripedDispatcher eventDispatcher, boolean ownsDispatcher) {
+        this.connectString = connectString;
+        this.sessionTimeoutMs = sessionTimeoutMs;
+        this.listenerExecutor = listenerExecutor;
+        this.eventDispatcher = eventDispatcher;
+        this.ownsDispatcher = ownsDispatcher;
+    }
+
+    /**
+     * 建立会话，返回的future在收到SyncConnected事件时完成
+     */
+    public synchronized CompletableFuture<ZooKeeper> connect() throws IOException {
+        if (zk == null) {
+            zk = new ZooKeeper(connectString, sessionTimeoutMs, this);
+        }
+        return ready;
+    }
+
+    /**
+     * 建立会话并等待连接就绪
+     */
+    public ZooKeeper connectAndWait(long timeout, TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
+        connect();
+        return awaitConnected(timeout, unit);
+    }
+
+    /**
+     * 等待当前连接就绪，已连接时立即返回
+     */
+    public ZooKeeper awaitConnected(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        try {
+            return ready.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 当前连接就绪的future，断开后会被替换为一个新的未完成future
+     */
+    public CompletableFuture<ZooKeeper> readiness() {
+        return ready;
+    }
+
+    public ZooKeeper getZooKeeper() {
+        return zk;
+    }
+
+    /**
+     * 节点事件的分发器，队列深度、分发延迟、慢回调等指标从这里取
+     */
+    public StripedDispatcher getEventDispatcher() {
+        return eventDispatcher;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 节点事件(type不为None的事件)的处理器，在eventDispatcher上按路径分stripe执行
+     */
+    public void setDefaultWatcher(Watcher defaultWatcher) {
+        this.defaultWatcher = defaultWatcher;
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        if (closed) {
+            return;
+        }
+        if (event.getType() != Event.EventType.None) {
+            Watcher watcher = defaultWatcher;
+            if (watcher != null) {
+                eventDispatcher.dispatch(event.getPath(), () -> watcher.process(event));
+            }
+            return;
+        }
+        switch (event.getState()) {
+            case SyncConnected:
+            case ConnectedReadOnly:
+                ZooKeeper connected = markConnected();
+                fire(listener -> listener.onConnected(connected));
+                break;
+            case Disconnected:
+                resetReadiness();
+                fire(Listener::onDisconnected);
+                break;
+            case Expired:
+                resetReadiness();
+                fire(Listener::onExpired);
+                // 重建会话不能放在事件线程里做，否则会阻塞旧句柄的事件线程退出
+                listenerExecutor.execute(this::reconnect);
+                break;
+            case Closed:
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (zk != null) {
+            try {
+                zk.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ready.completeExceptionally(new IllegalStateException("连接已关闭"));
+        listenerExecutor.shutdown();
+        if (ownsDispatcher) {
+            eventDispatcher.close();
+        }
+    }
+
+    /**
+     * SyncConnected事件可能在ZooKeeper构造函数返回之前就到达，加锁等connect()把句柄赋值完成
+     */
+    private synchronized ZooKeeper markConnected() {
+        ready.complete(zk);
+        return zk;
+    }
+
+    private synchronized void resetReadiness() {
+        if (ready.isDone()) {
+            ready = new CompletableFuture<>();
+        }
+    }
+
+    private synchronized void reconnect() {
+        if (closed) {
+            return;
+        }
+        try {
+            zk.close();
+            zk = new ZooKeeper(connectString, sessionTimeoutMs, this);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            ready.completeExceptionally(e);
+        }
+    }
+
+    private void fire(Consumer<Listener> action) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        listenerExecutor.execute(() -> {
+            for (Listener listener : listeners) {
+                try {
+                    action.accept(listener);
+                } catch (RuntimeException e) {
+                    log.error("连接监听器执行异常", e);
+                }
+            }
+        });
+    }
+}
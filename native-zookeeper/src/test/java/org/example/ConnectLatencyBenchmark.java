@@ -0,0 +1,65 @@
+package org.example;
+
+import org.apache.zookeeper.ZooKeeper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接就绪耗时对比(进程内服务端)：
+ * 1 sleep轮询：new ZooKeeper(...)之后每隔pollMs检查一次getState()，与原来connect()里的写法一致；
+ * 2 事件驱动：ZkConnectionManager在收到SyncConnected事件时立即完成就绪future。
+ *
+ * 轮询方式单次就要秒级，不适合放进JMH；在IDE里直接运行main方法(测试classpath)，输出每种方式的平均/最大就绪耗时。
+ */
+public class ConnectLatencyBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final long POLL_MS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        try (ZkTestEnsemble ensemble = ZkTestEnsemble.standalone()) {
+            String connectString = ensemble.getConnectString();
+            // 预热，排除首次类加载的影响
+            eventDriven(connectString);
+
+            long[] polling = new long[ROUNDS];
+            long[] eventDriven = new long[ROUNDS];
+            for (int i = 0; i < ROUNDS; i++) {
+                polling[i] = polling(connectString);
+                eventDriven[i] = eventDriven(connectString);
+            }
+            report("sleep轮询", polling);
+            report("事件驱动", eventDriven);
+        }
+    }
+
+    private static long polling(String connectString) throws Exception {
+        long start = System.nanoTime();
+        ZooKeeper zk = new ZooKeeper(connectString, 5000, null);
+        while (zk.getState() != ZooKeeper.States.CONNECTED) {
+            Thread.sleep(POLL_MS);
+        }
+        long cost = System.nanoTime() - start;
+        zk.close();
+        return cost;
+    }
+
+    private static long eventDriven(String connectString) throws Exception {
+        long start = System.nanoTime();
+        ZkConnectionManager manager = new ZkConnectionManager(connectString, 5000);
+        manager.connectAndWait(5, TimeUnit.SECONDS);
+        long cost = System.nanoTime() - start;
+        manager.close();
+        return cost;
+    }
+
+    private static void report(String name, long[] costs) {
+        long sum = 0;
+        long max = 0;
+        for (long cost : costs) {
+            sum += cost;
+            max = Math.max(max, cost);
+        }
+        System.out.printf("%s: 平均 %.2f ms, 最大 %.2f ms%n", name, sum / (double) costs.length / 1e6, max / 1e6);
+    }
+}
@@ -0,0 +1,616 @@
+package org.example;
+
+import org.apache.zookeeper.*;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 原生API示例，连的是进程内的ZkTestEnsemble.shared()，每个测试结束时关闭会话(和创建它的ZkConnectionManager)，临时节点随之删除。
+ */
+public class ZKConnectTest {
+
+    static ZooKeeper zk;
+    static ZkConnectionManager manager;
+    static String zkServer = ZkTestEnsemble.shared().getConnectString();
+    static int timeout = 5000;
+
+    @After
+    public void close() throws InterruptedException {
+        if (manager != null) {
+            manager.close();
+            manager = null;
+        }
+        if (zk != null) {
+            zk.close();
+            zk = null;
+        }
+    }
+
+    /**
+     * 客户端和zk服务端链接是一个异步的过程，构造函数会立刻返回，不会阻塞当前线程，而是继续执行后续代码,实际的连接会在后台进行
+     * 由于提供了 null 作为 Watcher，因此不会有任何 Watcher 回调。
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    @Test
+    public void testAsyncConnect() throws InterruptedException, IOException {
+
+        zk = new ZooKeeper(zkServer, timeout, null);
+        System.out.println("连接状态：" + zk.getState());//这里可能还没有连上服务器
+        TimingAssertions.awaitWithin(timeout, "异步建立连接", () -> zk.getState() == ZooKeeper.States.CONNECTED);
+        System.out.println("连接状态2：" + zk.getState());
+    }
+
+
+    /**
+     * 如果没有为特定的 ZNode 设置监视器，那么 Watcher 的 process 方法只会因为会话状态的变化而被调用
+     * 这包括以下几种情况：
+     * 会话建立：当 ZooKeeper 客户端成功连接到 ZooKeeper 服务器并建立会话时，process 方法会被调用。
+     * 会话状态变化：当会话的状态发生变化时（例如从 Connecting 变为 SyncConnected)，process 方法会被调用。
+     *
+     * @throws IOException
+     */
+    @Test
+    public void connect() throws Exception {
+        //Watcher.process运行在zk的事件线程上，不能在里面sleep轮询，由ZkConnectionManager在SyncConnected事件到达时完成就绪future
+        manager = new ZkConnectionManager(zkServer, timeout);
+        manager.addListener(new ZkConnectionManager.Listener() {
+            @Override
+            public void onConnected(ZooKeeper zk) {
+                System.out.println("成功连上服务器");
+            }
+        });
+        manager.connect();
+        zk = manager.getZooKeeper();
+        System.out.println("连接状态：" + zk.getState());
+        //本机进程内服务端，连接应在几百毫秒内建立
+        TimingAssertions.assertWithin(1000, "建立连接", () -> {
+            manager.awaitConnected(timeout, TimeUnit.MILLISECONDS);
+            return null;
+        });
+        assertEquals(ZooKeeper.States.CONNECTED, zk.getState());
+    }
+
+
+    /**
+     * 节点事件按路径分stripe执行：/dispatch/slow的watcher阻塞500ms期间，/dispatch/fast的事件不受影响，
+     * 慢回调计入getSlowHandlers()
+     */
+    @Test
+    public void watchEventsDispatchedByPath() throws Exception {
+        manager = new ZkConnectionManager(zkServer, timeout);
+        BlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+        manager.setDefaultWatcher(event -> {
+            if (event.getPath().endsWith("slow")) {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            delivered.add(event.getPath());
+        });
+        zk = manager.connectAndWait(timeout, TimeUnit.MILLISECONDS);
+        // 两个路径要落在不同的stripe上
+        String slow = "/dispatch/slow";
+        String fast = "/dispatch/fast";
+        zk.create("/dispatch", null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.exists(slow, true);
+        zk.exists(fast, true);
+
+        zk.create(slow, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        zk.create(fast, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        String first = TimingAssertions.assertWithin(300, "慢watcher执行期间其它路径的事件照常送达",
+                () -> delivered.poll(300, TimeUnit.MILLISECONDS));
+        assertEquals(fast, first);
+        assertEquals(slow, delivered.poll(timeout, TimeUnit.MILLISECONDS));
+
+        StripedDispatcher dispatcher = manager.getEventDispatcher();
+        assertTrue(dispatcher.awaitIdle(timeout, TimeUnit.MILLISECONDS));
+        System.out.println(dispatcher);
+        assertEquals(1, dispatcher.getSlowHandlers());
+        assertEquals(0, dispatcher.getDropped());
+        zk.delete(fast, -1);
+        zk.delete(slow, -1);
+        zk.delete("/dispatch", -1);
+    }
+
+
+    /**
+     * 分发器队列满时BLOCK最多等maxBlockMs，超时丢弃新任务，不会让提交线程(zk事件线程)无限期停住
+     */
+    @Test
+    public void dispatcherBlockIsBounded() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        StripedDispatcher dispatcher = new StripedDispatcher(1, 1, StripedDispatcher.OverflowPolicy.BLOCK, 100, 0, executor);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger droppedCallbacks = new AtomicInteger();
+        dispatcher.dispatch("k", () -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertTrue(dispatcher.dispatch("k", () -> { }));
+        boolean accepted = TimingAssertions.assertWithin(500, "队列满时最多等maxBlockMs",
+                () -> dispatcher.dispatch("k", () -> { }, droppedCallbacks::incrementAndGet));
+        assertFalse(accepted);
+        assertEquals(1, dispatcher.getBlocked());
+        assertEquals(1, dispatcher.getDropped());
+        assertEquals(1, droppedCallbacks.get());
+        release.countDown();
+        assertTrue(dispatcher.awaitIdle(1, TimeUnit.SECONDS));
+        dispatcher.close();
+        executor.shutdown();
+
+        // ZkConnectionManager自带的分发器同样有上限
+        ZkConnectionManager bounded = new ZkConnectionManager(zkServer, timeout, Executors.newSingleThreadExecutor(), 100);
+        StripedDispatcher events = bounded.getEventDispatcher();
+        CountDownLatch started2 = new CountDownLatch(1);
+        CountDownLatch release2 = new CountDownLatch(1);
+        events.dispatch("/k", () -> {
+            started2.countDown();
+            awaitQuietly(release2);
+        });
+        assertTrue(started2.await(1, TimeUnit.SECONDS));
+        while (events.getQueueDepth() < 1024) {
+            assertTrue(events.dispatch("/k", () -> { }));
+        }
+        assertFalse(TimingAssertions.assertWithin(500, "自带分发器队列满时最多等maxBlockMs", () -> events.dispatch("/k", () -> { })));
+        assertEquals(1, events.getDropped());
+        release2.countDown();
+        assertTrue(events.awaitIdle(1, TimeUnit.SECONDS));
+        bounded.close();
+    }
+
+    /**
+     * close时已经排队的任务(超过一轮MAX_BATCH)全部执行完；调用方的线程池先关闭时，执行不了的任务计入丢弃
+     */
+    @Test
+    public void dispatcherCloseAccountsForQueuedTasks() throws Exception {
+        StripedDispatcher owned = new StripedDispatcher("close-test", 1, 1000, StripedDispatcher.OverflowPolicy.DROP_NEWEST, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        owned.dispatch("k", () -> awaitQuietly(release));
+        for (int i = 0; i < 200; i++) {
+            owned.dispatch("k", ran::incrementAndGet);
+        }
+        owned.close();
+        release.countDown();
+        TimingAssertions.awaitWithin(1000, "关闭前排队的任务全部执行", () -> ran.get() == 200);
+        assertEquals(0, owned.getDropped());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        StripedDispatcher external = new StripedDispatcher(1, 1000, StripedDispatcher.OverflowPolicy.DROP_NEWEST, 0, executor);
+        CountDownLatch release2 = new CountDownLatch(1);
+        AtomicInteger ran2 = new AtomicInteger();
+        AtomicInteger droppedCallbacks = new AtomicInteger();
+        external.dispatch("k", () -> awaitQuietly(release2));
+        for (int i = 0; i < 200; i++) {
+            external.dispatch("k", ran2::incrementAndGet, droppedCallbacks::incrementAndGet);
+        }
+        executor.shutdown();
+        release2.countDown();
+        TimingAssertions.awaitWithin(1000, "每个任务要么执行要么计入丢弃",
+                () -> ran2.get() + external.getDropped() == 200 && external.getQueueDepth() == 0);
+        System.out.println(external);
+        assertTrue(external.getDropped() > 0);
+        assertEquals(external.getDropped(), droppedCallbacks.get());
+        external.close();
+    }
+
+    /**
+     * 回调抛出的异常全部计入getHandlerErrors()，不影响同一stripe的后续任务
+     */
+    @Test
+    public void dispatcherCountsHandlerErrors() throws Exception {
+        StripedDispatcher dispatcher = new StripedDispatcher("error-test", 1, 1000, StripedDispatcher.OverflowPolicy.DROP_NEWEST, 0);
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch("k", () -> {
+                throw new IllegalStateException("boom");
+            });
+            dispatcher.dispatch("k", ran::incrementAndGet);
+        }
+        assertTrue(dispatcher.awaitIdle(1, TimeUnit.SECONDS));
+        assertEquals(100, dispatcher.getHandlerErrors());
+        assertEquals(100, ran.get());
+        dispatcher.close();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 建立会话并等待SyncConnected事件，连上即返回，不再固定sleep 5秒
+     */
+    private static ZooKeeper connectAndWait() throws IOException, InterruptedException {
+        try {
+            manager = new ZkConnectionManager(zkServer, timeout);
+            return manager.connectAndWait(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("连接" + zkServer + "超时", e);
+        }
+    }
+
+
+    /**
+     * 创建同步临时节点,
+     * 同步创建节点的命令发送到zookeeper服务器，节点创建成功之前需要等待阻塞，创建节点成功才会返回，然后继续执行后面的操作；
+     * 异步创建节点会在命令发送到Zookeeper服务器之前，就返回继续执行之后的代码，节点创建过程（包括网络通信和服务端的节点创建过程）是异步的
+     * 同步调用中，需要处理异常;
+     * 异步调用中，方法本身不会抛出异常的，所有的异常都会在回调函数中通过Result Code 来体现。
+     *
+     * @param path 创建的路径
+     * @param data 存储的数据的byte[ ]
+     * @param acl  控制权限策略
+     *             提供默认的权限OPEN_ACL_UNSAFE、CREATOR_ALL_ACL、READ_ACL_UNSAFE
+     *             OPEN_ACL_UNSAFE：完全开放
+     *             CREATOR_ALL_ACL：创建该znode的连接拥有所有权限
+     *             READ_ACL_UNSAFE：所有的客户端都可读
+     */
+    public void createSyncTempNode(String path, byte[] data, List<ACL> acl) throws InterruptedException, KeeperException, IOException {
+        zk = connectAndWait();
+
+        String result = zk.create(path, data, acl, CreateMode.EPHEMERAL);
+        System.out.println("创建节点 " + result + " 成功");
+    }
+
+    /**
+     * zk查询：
+     * [zk: localhost:2181(CONNECTED) 71] ls /
+     * [clothes, mq0000000005, pnode, servers, testEphemeralNode, zookeeper]
+     * [zk: localhost:2181(CONNECTED) 73] get /testEphemeralNode
+     * test-data
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testCreateSyncTempNode() throws IOException, InterruptedException, KeeperException {
+        createSyncTempNode("/testEphemeralNodexxxxxxxxxxx", "test-data".getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE);//OPEN_ACL_UNSAFE指定该节点可以被任何人访问
+        Stat stat = zk.exists("/testEphemeralNodexxxxxxxxxxx", false);
+        assertNotNull(stat);
+        assertEquals(zk.getSessionId(), stat.getEphemeralOwner());
+    }
+
+
+    /**
+     * 创建异步临时节点
+     * 异步调用会在命令发送到Zookeeper服务器之前，就返回继续执行之后的代码，节点创建过程（包括网络通信和服务端的节点创建过程）是异步的
+     *
+     *  processResult 方法将在以下情况下被调用：
+     * 1 异步创建节点成功：
+     * 当节点成功创建时，processResult 方法会被调用，其中 resultCode 的值将是 KeeperException.Code.OK.intValue()，即 0。
+     * 2 异步创建节点失败：
+     * 如果创建节点操作失败，例如因为节点已经存在或客户端与服务器之间的连接断开等原因，processResult 方法同样会被调用，此时 resultCode 将包含一个错误码。
+     *
+     * @param path
+     * @param data
+     * @param acl
+     */
+    public void createAsyncTempNode(String path, byte[] data, List<ACL> acl) throws InterruptedException, KeeperException, IOException {
+        zk = connectAndWait();
+
+        AsyncZkClient asyncClient = new AsyncZkClient(zk, 1000, 5000, timeout);
+        //一般来说异步调用会在命令发送到Zookeeper服务器之前，就返回继续执行之后的代码。
+        //不再需要计数锁，节点创建成功或失败都体现在返回的future上
+        CompletableFuture<String> future = asyncClient.create(path, data, acl, CreateMode.EPHEMERAL);
+        future.whenComplete((nodeName, e) -> {
+            if (e == null) {
+                System.out.println("Node created: " + nodeName);
+            } else {
+                System.out.println("Failed to create node: " + e);
+            }
+        }).join();
+        System.out.println("创建成功了");
+        //other operation,
+    }
+
+
+    /**
+     * zk查询：
+     * [zk: localhost:2181(CONNECTED) 77] ls /
+     * [clothes, mq0000000005, pnode, servers, testEphemeralNode2, zookeeper]
+     * [zk: localhost:2181(CONNECTED) 80] get /testEphemeralNode2
+     * test-data2
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testCreateAsyncTempNode() throws IOException, InterruptedException, KeeperException {
+        createAsyncTempNode("/testEphemeralNode2", "test-data2".getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE);
+        assertArrayEquals("test-data2".getBytes(StandardCharsets.UTF_8), zk.getData("/testEphemeralNode2", false, null));
+    }
+
+
+    /**
+     * 异步方式获取节点数据
+     * processResult 方法的调用时机
+     * 1 成功获取节点数据：
+     * 当节点数据成功获取时，processResult 方法被调用，其中
+     * i 的值为 KeeperException.Code.OK.intValue()，即 0。
+     * nodePath 参数是获取数据的节点路径。
+     * bytes 参数是节点的数据。
+     * ctx 参数是您传递给 zk.getData 方法的上下文对象。
+     * stat 参数是节点的状态信息。
+     *
+     * 2获取节点数据失败：
+     * 如果获取节点数据失败，processResult 方法同样被调用，其中 i 将包含一个错误码。
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testGetNodeData() throws IOException, InterruptedException, KeeperException {
+        zk = connectAndWait();
+        zk.create("/testEphemeralNode2", "test-data2".getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+
+        AsyncZkClient asyncClient = new AsyncZkClient(zk, 1000, 5000, timeout);
+        CompletableFuture<AsyncZkClient.NodeData> future = asyncClient.getData("/testEphemeralNode2");
+        for (int i = 0; i < 3; i++) {
+            System.out.println("节点数据获取是一步过程节点数据获取到之前，也可以继续做其他事情");
+        }
+        AsyncZkClient.NodeData nodeData = future.join();
+        assertEquals("test-data2", new String(nodeData.getData(), StandardCharsets.UTF_8));
+        assertEquals(0, nodeData.getStat().getVersion());
+    }
+
+
+    /**
+     * 流水线写入：同一个会话上同时保持最多maxInFlight个请求在途，不再逐个等待返回
+     * 窗口满时调用线程会阻塞等待空位(背压)，所以循环里可以放心地一直提交
+     *
+     * [zk: localhost:2181(CONNECTED) 3] ls /pipeline
+     * [n0, n1, n2, ... n9999]
+     */
+    @Test
+    public void testPipelinedCreate() throws IOException, InterruptedException, KeeperException {
+        zk = connectAndWait();
+
+        AsyncZkClient asyncClient = new AsyncZkClient(zk, 1000, 5000, timeout);
+        if (zk.exists("/pipeline", false) != null) {
+            ZKUtil.deleteRecursive(zk, "/pipeline");
+        }
+        asyncClient.create("/pipeline", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT).join();
+        int count = 10000;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            futures[i] = asyncClient.create("/pipeline/n" + i, ("v" + i).getBytes(StandardCharsets.UTF_8),
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+        CompletableFuture.allOf(futures).join();
+        long costMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("创建" + count + "个节点耗时" + costMs + "ms，ops/s = " + count * 1000L / Math.max(costMs, 1));
+        assertEquals(count, zk.getAllChildrenNumber("/pipeline"));
+        //流水线写入不再受单次往返限制，本机上1万个节点应在几秒内完成
+        assertTrue("流水线写入耗时" + costMs + "ms", costMs <= TimingAssertions.budget(10000));
+        ZKUtil.deleteRecursive(zk, "/pipeline");
+    }
+
+
+    /**
+     * 在回调链上(zk事件线程)继续发请求时窗口已满：立即失败，而不是阻塞事件线程等待只有事件线程才能释放的空位
+     */
+    @Test
+    public void testWindowFullOnEventThread() throws IOException, InterruptedException {
+        zk = connectAndWait();
+        AsyncZkClient asyncClient = new AsyncZkClient(zk, 1, 5000, timeout);
+        long start = System.nanoTime();
+        CompletableFuture<Stat> nested = asyncClient.exists("/").thenCompose(stat -> {
+            asyncClient.exists("/");
+            return asyncClient.exists("/");
+        });
+        try {
+            nested.join();
+            throw new AssertionError("窗口已满时应当失败");
+        } catch (CompletionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof RejectedExecutionException);
+        }
+        long costMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("事件线程上不等待空位，耗时" + costMs + "ms", costMs < 1000);
+    }
+
+
+    /**
+     * 修改节点
+     * 版本号在 ZooKeeper 中是用于实现乐观锁（Optimistic Locking）机制的一种方式, 用于检测节点是否在更新期间被其他线程修改过，从而避免数据不一致的情况。
+     * 版本号是在节点创建时自动分配的，并在每次更新节点数据时递增。
+     * 在 setData() 方法中，如果您指定了节点的当前版本号作，那么只有在当前节点的版本号与指定的版本号匹配时，更新操作才会成功。
+     * 如果当前节点的版本号与指定的版本号不匹配，更新操作将失败。
+     *
+     * 注意，当调用 setData() 方法时，版本号需要传递一个整数值，表示期望的节点版本号。如果传递 -1，则表示不检查版本号，直接更新节点数据。
+     *
+     * @param path
+     * @param data
+     */
+    public void updateAsyncNode(String path, byte[] data) throws InterruptedException, KeeperException {
+        //读版本号和setData之间不再sleep等待回调：ZkAtomicUpdater先读出数据和版本号，再带着版本号setData，
+        //版本号不一致说明期间被别人改过，随机退避后重读重试
+        ZkAtomicUpdater updater = new ZkAtomicUpdater(new AsyncZkClient(zk, 1000, 5000, timeout), 10, 10, 1000);
+        byte[] result = updater.update(path, current -> data);
+        System.out.println("dataAfterUpdate: " + new String(result, StandardCharsets.UTF_8));
+        System.out.println("conflicts: " + updater.getConflicts());
+    }
+
+
+    /**
+     * 多个线程并发对同一个节点做计数器自增，每次自增都是一次CAS，最终值等于总自增次数
+     * [zk: localhost:2181(CONNECTED) 5] get /counter
+     * 100
+     */
+    @Test
+    public void testAtomicCounter() throws IOException, InterruptedException, KeeperException {
+        zk = connectAndWait();
+        if (zk.exists("/counter", false) == null) {
+            zk.create("/counter", "0".getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } else {
+            zk.setData("/counter", "0".getBytes(StandardCharsets.UTF_8), -1);
+        }
+        ZkAtomicUpdater updater = new ZkAtomicUpdater(new AsyncZkClient(zk, 1000, 5000, timeout), 100, 5, 200);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[100];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = updater.updateAsync("/counter", current -> String.valueOf(
+                    Long.parseLong(new String(current, StandardCharsets.UTF_8)) + 1).getBytes(StandardCharsets.UTF_8));
+        }
+        CompletableFuture.allOf(futures).join();
+        assertEquals("100", new String(zk.getData("/counter", false, null), StandardCharsets.UTF_8));
+        System.out.println("attempts = " + updater.getAttempts() + ", conflicts = " + updater.getConflicts());
+        zk.delete("/counter", -1);
+    }
+
+    /**
+     * 并发CAS数远大于在途请求窗口：setData不在事件线程上提交，窗口满时等待空位而不是被直接拒绝，全部自增都成功
+     */
+    @Test
+    public void testAtomicCounterWithSmallWindow() throws Exception {
+        zk = connectAndWait();
+        if (zk.exists("/counter-window", false) == null) {
+            zk.create("/counter-window", "0".getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } else {
+            zk.setData("/counter-window", "0".getBytes(StandardCharsets.UTF_8), -1);
+        }
+        ZkAtomicUpdater updater = new ZkAtomicUpdater(new AsyncZkClient(zk, 2, 5000, timeout), 200, 1, 20);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[50];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = updater.updateAsync("/counter-window", current -> String.valueOf(
+                    Long.parseLong(new String(current, StandardCharsets.UTF_8)) + 1).getBytes(StandardCharsets.UTF_8));
+        }
+        CompletableFuture.allOf(futures).get(30, TimeUnit.SECONDS);
+        assertEquals("50", new String(zk.getData("/counter-window", false, null), StandardCharsets.UTF_8));
+        System.out.println("attempts = " + updater.getAttempts() + ", conflicts = " + updater.getConflicts()
+                + ", rejections = " + updater.getRejections());
+        assertEquals(0, updater.getFailures());
+        zk.delete("/counter-window", -1);
+    }
+
+
+    /**
+     * zk查询：
+     * [zk: localhost:2181(CONNECTED) 77] ls /
+     * [clothes, mq0000000005, pnode, servers, testEphemeralNode2, zookeeper]
+     * [zk: localhost:2181(CONNECTED) 80] get /testEphemeralNode2
+     * test-data2
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testUpdateSyncNode() throws IOException, InterruptedException, KeeperException {
+        zk = connectAndWait();
+        zk.create("/testEphemeralNode2", "test-data2".getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        updateAsyncNode("/testEphemeralNode2", "test-data-new".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals("test-data-new".getBytes(StandardCharsets.UTF_8), zk.getData("/testEphemeralNode2", false, null));
+    }
+
+
+    /**
+     * 持久递归watch(zookeeper 3.6+)：
+     * 普通watch是一次性的，触发后要重新注册，监听整棵子树时每个节点都要注册一个watch，且每次事件之后都要再读一次数据才能重新注册；
+     * AddWatchMode.PERSISTENT_RECURSIVE在path上注册一次即可收到整棵子树所有节点的NodeCreated/NodeDataChanged/NodeDeleted事件，
+     * 触发后仍然有效，事件只带路径，需要数据时再自己读。
+     *
+     * @param path    监听的子树根路径
+     * @param watcher 事件回调，运行在zk的事件线程上，不要在里面做阻塞操作
+     */
+    public void addPersistentRecursiveWatch(String path, Watcher watcher) throws InterruptedException, KeeperException {
+        zk.addWatch(path, watcher, AddWatchMode.PERSISTENT_RECURSIVE);
+    }
+
+
+    /**
+     * [zk: localhost:2181(CONNECTED) 1] create /sports/football
+     * [zk: localhost:2181(CONNECTED) 2] create /sports/football/club
+     * [zk: localhost:2181(CONNECTED) 3] set /sports/football/club realmadrid
+     * [zk: localhost:2181(CONNECTED) 4] delete /sports/football/club
+     *
+     * 控制台输出：
+     * NodeCreated /sports/football
+     * NodeCreated /sports/football/club
+     * NodeDataChanged /sports/football/club
+     * NodeDeleted /sports/football/club
+     */
+    @Test
+    public void testPersistentRecursiveWatch() throws IOException, InterruptedException, KeeperException {
+        zk = connectAndWait();
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        addPersistentRecursiveWatch("/sports", event -> events.add(event.getType() + " " + event.getPath()));
+        zk.create("/sports", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.create("/sports/football", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.create("/sports/football/club", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        long start = System.nanoTime();
+        zk.setData("/sports/football/club", "realmadrid".getBytes(StandardCharsets.UTF_8), -1);
+        zk.delete("/sports/football/club", -1);
+        zk.delete("/sports/football", -1);
+        zk.delete("/sports", -1);
+        assertEquals("NodeCreated /sports", poll(events));
+        assertEquals("NodeCreated /sports/football", poll(events));
+        assertEquals("NodeCreated /sports/football/club", poll(events));
+        assertEquals("NodeDataChanged /sports/football/club", poll(events));
+        assertEquals("NodeDeleted /sports/football/club", poll(events));
+        //watch触发后仍然有效，不需要重新注册；通知在写操作之后的预算内送达
+        assertTrue((System.nanoTime() - start) / 1_000_000 <= TimingAssertions.budget(200));
+        assertEquals("NodeDeleted /sports/football", poll(events));
+        assertEquals("NodeDeleted /sports", poll(events));
+        assertNull(events.poll());
+    }
+
+
+    /**
+     * 编解码和分片：字符串按UTF-8编码、超过1K用LZ4压缩；超过chunkSize(这里设成64K方便演示)的数据分片存到子节点
+     * [zk: localhost:2181(CONNECTED) 6] ls /codec
+     * [_chunk-7212318203823401467-0, _chunk-7212318203823401467-1, _chunk-7212318203823401467-2]
+     */
+    @Test
+    public void testCodecAndChunking() throws IOException, InterruptedException, KeeperException {
+        zk = connectAndWait();
+        ZNodeStore store = new ZNodeStore(new AsyncZkClient(zk, 1000, 5000, timeout), 64 * 1024);
+        ZNodeCodec<String> codec = ZNodeCodec.utf8().compressed(Compression.LZ4, 1024);
+        StringBuilder text = new StringBuilder();
+        Random random = new Random();
+        while (text.length() < 200 * 1024) {
+            text.append(Long.toHexString(random.nextLong()));
+        }
+        store.write("/codec", text.toString(), codec);
+        System.out.println("分片：" + zk.getChildren("/codec", false));
+        assertEquals(text.toString(), store.read("/codec", codec));
+        store.delete("/codec");
+        assertNull(zk.exists("/codec", false));
+    }
+
+    private static String poll(BlockingQueue<String> events) throws InterruptedException {
+        String event = events.poll(TimingAssertions.budget(200), TimeUnit.MILLISECONDS);
+        if (event == null) {
+            throw new AssertionError("watch事件未在" + TimingAssertions.budget(200) + "ms内送达");
+        }
+        return event;
+    }
+}
@@ -0,0 +1,36 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.atomic")
+public class AtomicUpdaterConf {
+    private int maxAttempts = 10;
+    private long baseBackoffMs = 10;
+    private long maxBackoffMs = 1000;
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getBaseBackoffMs() {
+        return baseBackoffMs;
+    }
+
+    public void setBaseBackoffMs(long baseBackoffMs) {
+        this.baseBackoffMs = baseBackoffMs;
+    }
+
+    public long getMaxBackoffMs() {
+        return maxBackoffMs;
+    }
+
+    public void setMaxBackoffMs(long maxBackoffMs) {
+        this.maxBackoffMs = maxBackoffMs;
+    }
+}
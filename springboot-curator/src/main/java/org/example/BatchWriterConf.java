@@ -0,0 +1,36 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.batch")
+public class BatchWriterConf {
+    private int maxOps = 500;
+    private int maxBytes = 512 * 1024;
+    private long flushIntervalMs = 5;
+
+    public int getMaxOps() {
+        return maxOps;
+    }
+
+    public void setMaxOps(int maxOps) {
+        this.maxOps = maxOps;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+}
@@ -0,0 +1,213 @@
+package org.example;
+
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCacheStorage;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 有界的CuratorCache存储：节点数据按LRU淘汰，同时受节点数和总字节数限制。
+ *
+ * 淘汰只丢掉节点数据，节点的path和stat仍然保留，原因是CuratorCache靠storage里有没有这个节点来判断
+ * 事件是CREATED还是CHANGED，以及节点删除时要不要发DELETED事件，整条删掉会丢事件。
+ * 数据被淘汰的节点读的时候回源到zookeeper，再重新放回缓存。
+ *
+ * 读命中时更新LRU顺序用的是tryLock，锁被占用就跳过，换来读路径不排队，代价是LRU顺序是近似的。
+ */
+class BoundedCacheStorage implements CuratorCacheStorage {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final boolean offHeap;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * 有数据的节点，按访问顺序排列，value为数据大小
+     */
+    private final LinkedHashMap<String, Integer> lru = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long bytes;
+    private final AtomicLong evictions = new AtomicLong();
+
+    BoundedCacheStorage(int maxEntries, long maxBytes, boolean offHeap) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    @Override
+    public Optional<ChildData> put(ChildData data) {
+        Entry entry = new Entry(data.getStat(), store(data.getData()));
+        lock.lock();
+        try {
+            Entry previous = entries.put(data.getPath(), entry);
+            Integer previousSize = lru.remove(data.getPath());
+            if (previousSize != null) {
+                bytes -= previousSize;
+            }
+            if (entry.data != null) {
+                lru.put(data.getPath(), entry.size());
+                bytes += entry.size();
+                evictIfNeeded();
+            }
+            return Optional.ofNullable(previous).map(e -> e.toChildData(data.getPath()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<ChildData> remove(String path) {
+        lock.lock();
+        try {
+            Integer previousSize = lru.remove(path);
+            if (previousSize != null) {
+                bytes -= previousSize;
+            }
+            return Optional.ofNullable(entries.remove(path)).map(e -> e.toChildData(path));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            lru.clear();
+            bytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<ChildData> get(String path) {
+        return Optional.ofNullable(entries.get(path)).map(e -> e.toChildData(path));
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public Stream<ChildData> stream() {
+        return entries.entrySet().stream().map(e -> e.getValue().toChildData(e.getKey()));
+    }
+
+    /**
+     * 读路径使用：返回缓存条目并更新LRU顺序，节点不在缓存中时返回null
+     */
+    Entry lookup(String path) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.data != null && lock.tryLock()) {
+            try {
+                lru.get(path);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 回源读到数据后放回缓存。只放回CuratorCache已经知道的节点，并且缓存里的stat没有更新过，避免覆盖watch带来的更新数据
+     */
+    void refill(String path, Stat stat, byte[] data) {
+        lock.lock();
+        try {
+            Entry current = entries.get(path);
+            if (current == null || current.stat.getMzxid() > stat.getMzxid()) {
+                return;
+            }
+            put(new ChildData(path, stat, data));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Integer>> it = lru.entrySet().iterator();
+        while ((lru.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Integer> eldest = it.next();
+            it.remove();
+            bytes -= eldest.getValue();
+            entries.computeIfPresent(eldest.getKey(), (path, e) -> new Entry(e.stat, null));
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Object store(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (!offHeap) {
+            return data;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        return buffer;
+    }
+
+    static class Entry {
+        final Stat stat;
+        /**
+         * byte[](堆内)、ByteBuffer(堆外)，或null(数据已被淘汰)
+         */
+        final Object data;
+
+        Entry(Stat stat, Object data) {
+            this.stat = stat;
+            this.data = data;
+        }
+
+        boolean hasData() {
+            return data != null;
+        }
+
+        byte[] data() {
+            if (data instanceof ByteBuffer) {
+                ByteBuffer buffer = ((ByteBuffer) data).duplicate();
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                return bytes;
+            }
+            return (byte[]) data;
+        }
+
+        int size() {
+            if (data instanceof ByteBuffer) {
+                return ((ByteBuffer) data).capacity();
+            }
+            return data == null ? 0 : ((byte[]) data).length;
+        }
+
+        ChildData toChildData(String path) {
+            return new ChildData(path, stat, data());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带合并窗口的CuratorCacheListener，同一节点窗口内的多个事件合并成一个再交给delegate：
+ * CREATED+CHANGED -> CREATED(最新数据)，CHANGED+CHANGED -> CHANGED(最早的旧数据, 最新数据)，
+ * CHANGED+DELETED -> DELETED(最早的旧数据)，DELETED+CREATED -> CHANGED，
+ * CREATED+DELETED -> 两个事件都丢弃，delegate从没见过这个节点，不应该收到它的删除事件。
+ *
+ * initialized()同样延迟一个窗口再回调，但不保证排在其它节点合并后的事件之后。
+ */
+public class CoalescingCacheListener implements CuratorCacheListener {
+
+    private final CuratorCacheListener delegate;
+    private final CoalescingDispatcher<CacheEvent> dispatcher;
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+    private final StripedDispatcher eventDispatcher;
+
+    public CoalescingCacheListener(CuratorCacheListener delegate, long windowMs,
+                                   ScheduledExecutorService scheduler, StripedDispatcher eventDispatcher) {
+        this.delegate = delegate;
+        this.windowMs = windowMs;
+        this.scheduler = scheduler;
+        this.eventDispatcher = eventDispatcher;
+        this.dispatcher = new CoalescingDispatcher<>(windowMs, scheduler, eventDispatcher,
+                CacheEvent::path, CoalescingCacheListener::merge,
+                event -> delegate.event(event.type, event.oldData, event.data));
+    }
+
+    @Override
+    public void event(Type type, ChildData oldData, ChildData data) {
+        dispatcher.accept(new CacheEvent(type, oldData, data));
+    }
+
+    @Override
+    public void initialized() {
+        scheduler.schedule(() -> eventDispatcher.dispatch(null, delegate::initialized), windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 合并计数
+     */
+    public CoalescingDispatcher<?> getDispatcher() {
+        return dispatcher;
+    }
+
+    private static CacheEvent merge(CacheEvent older, CacheEvent newer) {
+        switch (older.type) {
+            case NODE_CREATED:
+                if (newer.type == Type.NODE_CHANGED) {
+                    return new CacheEvent(Type.NODE_CREATED, null, newer.data);
+                }
+                if (newer.type == Type.NODE_DELETED) {
+                    return null;
+                }
+                return newer;
+            case NODE_CHANGED:
+                //CHANGED+DELETED保留older.oldData，即窗口开始前delegate最后看到的数据
+                if (newer.type == Type.NODE_CHANGED || newer.type == Type.NODE_DELETED) {
+                    return new CacheEvent(newer.type, older.oldData, newer.data);
+                }
+                return newer;
+            case NODE_DELETED:
+                if (newer.type == Type.NODE_CREATED) {
+                    return new CacheEvent(Type.NODE_CHANGED, older.oldData, newer.data);
+                }
+                return newer;
+            default:
+                return newer;
+        }
+    }
+
+    private static class CacheEvent {
+        final Type type;
+        final ChildData oldData;
+        final ChildData data;
+
+        CacheEvent(Type type, ChildData oldData, ChildData data) {
+            this.type = type;
+            this.oldData = oldData;
+            this.data = data;
+        }
+
+        String path() {
+            return data != null ? data.getPath() : oldData.getPath();
+        }
+    }
+}
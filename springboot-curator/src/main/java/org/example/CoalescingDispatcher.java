@@ -0,0 +1,157 @@
+package org.example;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 按路径合并事件：同一路径在窗口期内的多个事件合并成一个，窗口到期后只投递最新状态。
+ * 节点频繁变化时，下游的重新加载只针对最终值执行一次，而不是每个中间值都执行一遍。
+ *
+ * 1 窗口从该路径的第一个事件开始计时，窗口内后续事件通过merge函数与已有事件合并；
+ * 2 投递经StripedDispatcher按路径分stripe，同一路径的事件严格按顺序投递，不同路径并行；
+ *   和未合并的事件共用有界队列、溢出策略和队列深度、分发延迟、慢回调等指标；
+ * 3 merge可以返回null，表示两个事件相互抵消(如先创建后删除)，该路径本窗口不投递任何事件；
+ * 4 received/collapsed/delivered三个计数用来调整窗口大小，collapsed为被合并掉的事件数；
+ * 5 分发器丢弃了合并后的事件时，事件放回窗口和之后的事件继续合并，下个窗口再投递，不会丢失该路径的最终状态。
+ *
+ * @param <T> 事件类型
+ */
+public class CoalescingDispatcher<T> implements Consumer<T>, Closeable {
+
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+    private final StripedDispatcher dispatcher;
+    private final Function<T, String> pathOf;
+    private final BinaryOperator<T> merge;
+    private final Consumer<T> delegate;
+    private final Map<String, T> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder redispatched = new LongAdder();
+
+    /**
+     * @param windowMs         合并窗口
+     * @param scheduler  用于窗口计时，到期时在这个线程上提交给dispatcher
+     * @param dispatcher 执行delegate的分发器，同一路径落在同一stripe上
+     * @param pathOf     取事件的路径
+     * @param merge      (已有事件, 新事件) -> 合并后的事件，返回null时两个事件都丢弃
+     * @param delegate   最终的事件处理器
+     */
+    public CoalescingDispatcher(long windowMs, ScheduledExecutorService scheduler, StripedDispatcher dispatcher,
+                                Function<T, String> pathOf, BinaryOperator<T> merge, Consumer<T> delegate) {
+        this.windowMs = windowMs;
+        this.scheduler = scheduler;
+        this.dispatcher = dispatcher;
+        this.pathOf = pathOf;
+        this.merge = merge;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void accept(T event) {
+        if (closed) {
+            return;
+        }
+        received.increment();
+        coalesce(pathOf.apply(event), event);
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getCollapsed() {
+        return collapsed.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * 分发器丢弃后放回窗口重新投递的次数，分发器配置成会丢事件且回调跟不上时才会增加
+     */
+    public long getRedispatched() {
+        return redispatched.sum();
+    }
+
+    /**
+     * 正在窗口中等待合并的路径数
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pending.clear();
+    }
+
+    private void coalesce(String path, T event) {
+        boolean[] first = new boolean[1];
+        pending.compute(path, (p, older) -> {
+            if (older == null) {
+                first[0] = true;
+                return event;
+            }
+            collapsed.increment();
+            T merged = merge.apply(older, event);
+            if (merged == null) {
+                //相互抵消，older也算被合并掉；返回null把路径从pending里移除，到期的flush取不到事件直接跳过
+                collapsed.increment();
+            }
+            return merged;
+        });
+        // 窗口内的第一个事件负责安排到期投递，flush把路径从pending里移除后，下一个事件开启新的窗口
+        if (first[0]) {
+            scheduler.schedule(() -> flush(path), windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(String path) {
+        T event = pending.remove(path);
+        if (event == null || closed) {
+            return;
+        }
+        dispatcher.dispatch(path, () -> {
+            delivered.increment();
+            delegate.accept(event);
+        }, () -> {
+            // 放回窗口时排在窗口期间新到的事件之前，合并结果和没被丢弃时一样
+            if (!closed && !dispatcher.isClosed()) {
+                redispatched.increment();
+                requeue(path, event);
+            }
+        });
+    }
+
+    private void requeue(String path, T event) {
+        boolean[] first = new boolean[1];
+        pending.compute(path, (p, newer) -> {
+            if (newer == null) {
+                first[0] = true;
+                return event;
+            }
+            collapsed.increment();
+            T merged = merge.apply(event, newer);
+            if (merged == null) {
+                collapsed.increment();
+            }
+            return merged;
+        });
+        if (first[0]) {
+            scheduler.schedule(() -> flush(path), windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
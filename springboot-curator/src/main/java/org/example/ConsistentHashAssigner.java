@@ -0,0 +1,158 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 带负载上限的一致性hash分区分配(consistent hashing with bounded loads)：
+ * 1 每个成员的目标分区数为 partitions / 成员数，余数分给当前分区最多的几个成员，保证最终差值不超过1；
+ * 2 在线成员已经持有的分区尽量不动，只有超出目标数的部分被拿出来；
+ * 3 下线成员的分区和被拿出来的分区，从分区hash在环上的位置顺时针找第一个未满的成员。
+ *
+ * 成员变化时只移动必须移动的分区：一个成员下线移动它原来的分区，一个成员上线只从其它成员各拿走多出来的部分。
+ * 结果只取决于输入，任何节点算出来都一样。
+ */
+class ConsistentHashAssigner {
+
+    private final int virtualNodes;
+
+    ConsistentHashAssigner(int virtualNodes) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+    }
+
+    /**
+     * @param current    当前分配(成员 -> 分区)，可以包含已下线的成员
+     * @param members    在线成员
+     * @param partitions 分区总数，分区编号为[0, partitions)
+     * @return 新的分配，每个在线成员都有一项(可能为空)
+     */
+    Map<String, Set<Integer>> assign(Map<String, ? extends Collection<Integer>> current, Collection<String> members, int partitions) {
+        String[] ids = new TreeSet<>(members).toArray(new String[0]);
+        int n = ids.length;
+        Map<String, Set<Integer>> result = new HashMap<>();
+        if (n == 0) {
+            return result;
+        }
+        Map<String, Integer> indexOf = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            indexOf.put(ids[i], i);
+        }
+
+        // 保留在线成员已经持有的分区
+        int[] owner = new int[partitions];
+        Arrays.fill(owner, -1);
+        List<List<Integer>> owned = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            owned.add(new ArrayList<>());
+        }
+        for (Map.Entry<String, ? extends Collection<Integer>> entry : current.entrySet()) {
+            Integer index = indexOf.get(entry.getKey());
+            if (index == null) {
+                continue;
+            }
+            for (Integer p : entry.getValue()) {
+                if (p >= 0 && p < partitions && owner[p] < 0) {
+                    owner[p] = index;
+                    owned.get(index).add(p);
+                }
+            }
+        }
+
+        // 目标数：余数分给当前持有最多的成员，这样需要拿出来的分区最少
+        int[] target = new int[n];
+        Integer[] byLoad = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byLoad[i] = i;
+        }
+        Arrays.sort(byLoad, Comparator.<Integer>comparingInt(i -> -owned.get(i).size()).thenComparingInt(i -> i));
+        for (int rank = 0; rank < n; rank++) {
+            target[byLoad[rank]] = partitions / n + (rank < partitions % n ? 1 : 0);
+        }
+
+        // 超出目标数的分区拿出来重新分配
+        int[] counts = new int[n];
+        for (int i = 0; i < n; i++) {
+            List<Integer> list = owned.get(i);
+            list.sort(null);
+            while (list.size() > target[i]) {
+                owner[list.remove(list.size() - 1)] = -1;
+            }
+            counts[i] = list.size();
+        }
+
+        long[] ringHashes = new long[n * virtualNodes];
+        int[] ringMembers = new int[n * virtualNodes];
+        buildRing(ids, ringHashes, ringMembers);
+        for (int p = 0; p < partitions; p++) {
+            if (owner[p] >= 0) {
+                continue;
+            }
+            int pos = Arrays.binarySearch(ringHashes, mix(p * 0x9E3779B97F4A7C15L));
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            while (true) {
+                int member = ringMembers[pos % ringMembers.length];
+                if (counts[member] < target[member]) {
+                    owner[p] = member;
+                    counts[member]++;
+                    break;
+                }
+                pos++;
+            }
+        }
+
+        for (String id : ids) {
+            result.put(id, new TreeSet<>());
+        }
+        for (int p = 0; p < partitions; p++) {
+            result.get(ids[owner[p]]).add(p);
+        }
+        return result;
+    }
+
+    private void buildRing(String[] ids, long[] hashes, int[] members) {
+        long[][] points = new long[ids.length * virtualNodes][];
+        int k = 0;
+        for (int i = 0; i < ids.length; i++) {
+            long base = hash(ids[i]);
+            for (int v = 0; v < virtualNodes; v++) {
+                points[k++] = new long[]{mix(base + v * 0xC2B2AE3D27D4EB4FL), i};
+            }
+        }
+        Arrays.sort(points, Comparator.comparingLong(point -> point[0]));
+        for (int i = 0; i < points.length; i++) {
+            hashes[i] = points[i][0];
+            members[i] = (int) points[i][1];
+        }
+    }
+
+    /**
+     * FNV-1a
+     */
+    private static long hash(String id) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * splitmix64的混淆步骤，让相邻的输入在环上分散开
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -11,6 +11,7 @@ public class CuratorConf {
     private String connectString;
     private int sessionTimeoutMs;
     private int connectionTimeoutMs;
+    private boolean blockUntilConnected = true;
 
     public int getRetryCount() {
         return retryCount;
@@ -51,4 +52,12 @@ public class CuratorConf {
     public void setConnectionTimeoutMs(int connectionTimeoutMs) {
         this.connectionTimeoutMs = connectionTimeoutMs;
     }
+
+    public boolean isBlockUntilConnected() {
+        return blockUntilConnected;
+    }
+
+    public void setBlockUntilConnected(boolean blockUntilConnected) {
+        this.blockUntilConnected = blockUntilConnected;
+    }
 }
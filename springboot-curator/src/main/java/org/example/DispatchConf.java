@@ -0,0 +1,54 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.dispatch")
+public class DispatchConf {
+    private int stripes = 16;
+    private int queueCapacity = 10000;
+    private StripedDispatcher.OverflowPolicy overflowPolicy = StripedDispatcher.OverflowPolicy.BLOCK;
+    private long maxBlockMs;
+    private long slowHandlerMs = 100;
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public StripedDispatcher.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(StripedDispatcher.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getMaxBlockMs() {
+        return maxBlockMs;
+    }
+
+    public void setMaxBlockMs(long maxBlockMs) {
+        this.maxBlockMs = maxBlockMs;
+    }
+
+    public long getSlowHandlerMs() {
+        return slowHandlerMs;
+    }
+
+    public void setSlowHandlerMs(long slowHandlerMs) {
+        this.slowHandlerMs = slowHandlerMs;
+    }
+}
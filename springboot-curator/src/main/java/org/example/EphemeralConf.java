@@ -0,0 +1,45 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.ephemeral")
+public class EphemeralConf {
+    private int maxBatchOps = 500;
+    private int maxBatchBytes = 512 * 1024;
+    private long jitterMs = 3000;
+    private long retryDelayMs = 1000;
+
+    public int getMaxBatchOps() {
+        return maxBatchOps;
+    }
+
+    public void setMaxBatchOps(int maxBatchOps) {
+        this.maxBatchOps = maxBatchOps;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public long getJitterMs() {
+        return jitterMs;
+    }
+
+    public void setJitterMs(long jitterMs) {
+        this.jitterMs = jitterMs;
+    }
+
+    public long getRetryDelayMs() {
+        return retryDelayMs;
+    }
+
+    public void setRetryDelayMs(long retryDelayMs) {
+        this.retryDelayMs = retryDelayMs;
+    }
+}
@@ -0,0 +1,59 @@
+package org.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 负载均衡策略，从快照中选一个实例；快照一定非空。实现不应分配内存，查询路径上每次请求都会调用。
+ */
+public interface LoadBalancer {
+
+    ServiceInstance choose(ServiceSnapshot snapshot);
+
+    /**
+     * 轮询
+     */
+    LoadBalancer ROUND_ROBIN = snapshot -> snapshot.get(snapshot.nextCursor() % snapshot.size());
+
+    /**
+     * 本进程未完成请求最少的实例，数量相同时从轮询位置开始取第一个，避免总是压到列表头部
+     */
+    LoadBalancer LEAST_OUTSTANDING = snapshot -> {
+        int size = snapshot.size();
+        int start = snapshot.nextCursor() % size;
+        ServiceInstance best = null;
+        for (int i = 0; i < size; i++) {
+            ServiceInstance candidate = snapshot.get((start + i) % size);
+            if (best == null || candidate.getOutstanding() < best.getOutstanding()) {
+                best = candidate;
+            }
+        }
+        return best;
+    };
+
+    /**
+     * 按weight加权随机，权重全为0时退化为轮询
+     */
+    LoadBalancer WEIGHTED = snapshot -> {
+        int total = snapshot.getTotalWeight();
+        if (total <= 0) {
+            return ROUND_ROBIN.choose(snapshot);
+        }
+        return snapshot.byWeight(ThreadLocalRandom.current().nextInt(total));
+    };
+
+    /**
+     * 配置项curator.registry.loadBalancer的取值：round-robin、least-outstanding、weighted
+     */
+    static LoadBalancer of(String name) {
+        switch (name) {
+            case "round-robin":
+                return ROUND_ROBIN;
+            case "least-outstanding":
+                return LEAST_OUTSTANDING;
+            case "weighted":
+                return WEIGHTED;
+            default:
+                throw new IllegalArgumentException("不支持的负载均衡策略：" + name);
+        }
+    }
+}
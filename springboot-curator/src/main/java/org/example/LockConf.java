@@ -0,0 +1,36 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.lock")
+public class LockConf {
+    private String rootPath = "/locks";
+    private long holdWindowMs = 50;
+    private int maxHandoffs = 16;
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public long getHoldWindowMs() {
+        return holdWindowMs;
+    }
+
+    public void setHoldWindowMs(long holdWindowMs) {
+        this.holdWindowMs = holdWindowMs;
+    }
+
+    public int getMaxHandoffs() {
+        return maxHandoffs;
+    }
+
+    public void setMaxHandoffs(int maxHandoffs) {
+        this.maxHandoffs = maxHandoffs;
+    }
+}
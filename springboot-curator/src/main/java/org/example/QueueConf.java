@@ -0,0 +1,72 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.queue")
+public class QueueConf {
+    private String rootPath = "/queues";
+    private int buckets = 16;
+    private int maxBatchMessages = 100;
+    private int maxBatchBytes = 256 * 1024;
+    private long lingerMs = 5;
+    private long leaseTimeoutMs = 30000;
+    private long pollIntervalMs = 100;
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(int buckets) {
+        this.buckets = buckets;
+    }
+
+    public int getMaxBatchMessages() {
+        return maxBatchMessages;
+    }
+
+    public void setMaxBatchMessages(int maxBatchMessages) {
+        this.maxBatchMessages = maxBatchMessages;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public long getLeaseTimeoutMs() {
+        return leaseTimeoutMs;
+    }
+
+    public void setLeaseTimeoutMs(long leaseTimeoutMs) {
+        this.leaseTimeoutMs = leaseTimeoutMs;
+    }
+
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    public void setPollIntervalMs(long pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+    }
+}
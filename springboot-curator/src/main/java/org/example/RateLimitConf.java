@@ -0,0 +1,54 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.rate-limit")
+public class RateLimitConf {
+    private String rootPath = "/rate-limits";
+    private long windowMs = 1000;
+    private double batchRatio = 0.1;
+    private double prefetchRatio = 0.5;
+    private long leaseTimeoutMs = 1000;
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public void setWindowMs(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    public double getBatchRatio() {
+        return batchRatio;
+    }
+
+    public void setBatchRatio(double batchRatio) {
+        this.batchRatio = batchRatio;
+    }
+
+    public double getPrefetchRatio() {
+        return prefetchRatio;
+    }
+
+    public void setPrefetchRatio(double prefetchRatio) {
+        this.prefetchRatio = prefetchRatio;
+    }
+
+    public long getLeaseTimeoutMs() {
+        return leaseTimeoutMs;
+    }
+
+    public void setLeaseTimeoutMs(long leaseTimeoutMs) {
+        this.leaseTimeoutMs = leaseTimeoutMs;
+    }
+}
@@ -0,0 +1,60 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.reactive")
+public class ReactiveConf {
+    private boolean virtualThreads;
+    private boolean tomcatVirtualThreads;
+    private NodeApi nodeApi = new NodeApi();
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isTomcatVirtualThreads() {
+        return tomcatVirtualThreads;
+    }
+
+    public void setTomcatVirtualThreads(boolean tomcatVirtualThreads) {
+        this.tomcatVirtualThreads = tomcatVirtualThreads;
+    }
+
+    public NodeApi getNodeApi() {
+        return nodeApi;
+    }
+
+    public void setNodeApi(NodeApi nodeApi) {
+        this.nodeApi = nodeApi;
+    }
+
+    /**
+     * 节点REST接口(ZkNodeController)
+     */
+    public static class NodeApi {
+        private boolean enabled;
+        private String rootPath;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getRootPath() {
+            return rootPath;
+        }
+
+        public void setRootPath(String rootPath) {
+            this.rootPath = rootPath;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * CuratorFramework的Reactor门面：每个操作都是inBackground异步请求，调用线程(如Tomcat工作线程)发出请求后立即返回，
+ * 结果在zookeeper的事件线程上通过MonoSink交给下游。
+ *
+ * 1 Mono是惰性的，订阅时才发请求，每次订阅发一次；
+ * 2 结果码不是OK时以KeeperException结束，checkExists节点不存在时为空Mono；
+ * 3 下游默认运行在zookeeper的事件线程上，所有watch通知和异步回调共用这一个线程，下游不能阻塞，要阻塞先publishOn到别的线程；
+ * 4 没有异步接口的操作(ZkAtomicUpdater、ZNodeStore、锁等)用blocking()包装，在单独的线程上执行：
+ *   curator.reactive.virtualThreads开启且JDK21+时每个调用一个虚拟线程，否则用Reactor的boundedElastic线程池。
+ */
+@Component
+public class ReactiveZkClient {
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ReactiveConf reactiveConf;
+
+    private ExecutorService virtualThreads;
+    private Scheduler blockingScheduler;
+
+    @PostConstruct
+    public void start() {
+        virtualThreads = reactiveConf.isVirtualThreads() ? ZkSubscriptionEngine.newVirtualThreadExecutor() : null;
+        blockingScheduler = virtualThreads != null ? Schedulers.fromExecutorService(virtualThreads, "zk-virtual") : Schedulers.boundedElastic();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (virtualThreads != null) {
+            blockingScheduler.dispose();
+        }
+    }
+
+    public Mono<byte[]> getData(String path) {
+        return call(path, CuratorEvent::getData, callback -> client.getData().inBackground(callback).forPath(path));
+    }
+
+    /**
+     * 数据和stat一起返回
+     */
+    public Mono<ZNode> getNode(String path) {
+        return call(path, event -> new ZNode(event.getPath(), event.getData(), event.getStat()),
+                callback -> client.getData().inBackground(callback).forPath(path));
+    }
+
+    public Mono<List<String>> getChildren(String path) {
+        return call(path, CuratorEvent::getChildren, callback -> client.getChildren().inBackground(callback).forPath(path));
+    }
+
+    public Flux<String> children(String path) {
+        return getChildren(path).flatMapMany(Flux::fromIterable);
+    }
+
+    /**
+     * 节点不存在时为空Mono
+     */
+    public Mono<Stat> checkExists(String path) {
+        return Mono.create(sink -> {
+            try {
+                client.checkExists().inBackground((c, event) -> {
+                    if (event.getResultCode() == KeeperException.Code.NONODE.intValue()) {
+                        sink.success();
+                    } else {
+                        complete(sink, event, path, CuratorEvent::getStat);
+                    }
+                }).forPath(path);
+            } catch (Exception e) {
+                sink.error(e);
+            }
+        });
+    }
+
+    /**
+     * 创建节点(父节点不存在时一并创建)，返回实际创建的路径(顺序节点带序号)
+     */
+    public Mono<String> create(String path, byte[] data, CreateMode mode) {
+        return call(path, CuratorEvent::getName,
+                callback -> client.create().creatingParentsIfNeeded().withMode(mode).inBackground(callback).forPath(path, data));
+    }
+
+    /**
+     * 节点不存在时创建，存在时覆盖数据
+     */
+    public Mono<String> createOrSetData(String path, byte[] data) {
+        return call(path, CuratorEvent::getName,
+                callback -> client.create().orSetData().creatingParentsIfNeeded().inBackground(callback).forPath(path, data));
+    }
+
+    public Mono<Stat> setData(String path, byte[] data) {
+        return call(path, CuratorEvent::getStat, callback -> client.setData().inBackground(callback).forPath(path, data));
+    }
+
+    public Mono<Stat> setData(String path, byte[] data, int version) {
+        return call(path, CuratorEvent::getStat, callback -> client.setData().withVersion(version).inBackground(callback).forPath(path, data));
+    }
+
+    public Mono<Void> delete(String path) {
+        return this.<Void>call(path, event -> null, callback -> client.delete().inBackground(callback).forPath(path));
+    }
+
+    /**
+     * 连同子节点一起删除，curator内部仍是逐个子节点删除，只是不占调用线程
+     */
+    public Mono<Void> deleteRecursively(String path) {
+        return this.<Void>call(path, event -> null, callback -> client.delete().deletingChildrenIfNeeded().inBackground(callback).forPath(path));
+    }
+
+    /**
+     * 在blocking调度器上执行阻塞调用，返回null时为空Mono
+     */
+    public <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(blockingScheduler);
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads != null;
+    }
+
+    private <T> Mono<T> call(String path, Function<CuratorEvent, T> result, Request request) {
+        return Mono.create(sink -> {
+            try {
+                request.send((c, event) -> complete(sink, event, path, result));
+            } catch (Exception e) {
+                sink.error(e);
+            }
+        });
+    }
+
+    private static <T> void complete(MonoSink<T> sink, CuratorEvent event, String path, Function<CuratorEvent, T> result) {
+        if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+            sink.error(KeeperException.create(KeeperException.Code.get(event.getResultCode()), path));
+            return;
+        }
+        T value = result.apply(event);
+        if (value == null) {
+            sink.success();
+        } else {
+            sink.success(value);
+        }
+    }
+
+    /**
+     * 发出一个inBackground请求，curator的builder链在这里面拼
+     */
+    private interface Request {
+        void send(BackgroundCallback callback) throws Exception;
+    }
+
+    /**
+     * 节点路径、数据和stat
+     */
+    public static class ZNode {
+        private final String path;
+        private final byte[] data;
+        private final Stat stat;
+
+        ZNode(String path, byte[] data, Stat stat) {
+            this.path = path;
+            this.data = data;
+            this.stat = stat;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public Stat getStat() {
+            return stat;
+        }
+    }
+}
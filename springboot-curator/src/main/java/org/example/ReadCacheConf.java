@@ -0,0 +1,54 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.read-cache")
+public class ReadCacheConf {
+    private boolean enabled;
+    private String rootPath;
+    private int maxEntries = 100000;
+    private long maxBytes = 64 * 1024 * 1024;
+    private boolean offHeap;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.read-pool")
+public class ReadPoolConf {
+    private boolean enabled;
+    private int sessions = 4;
+    private boolean preferObservers = true;
+    private String observers;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(int sessions) {
+        this.sessions = sessions;
+    }
+
+    public boolean isPreferObservers() {
+        return preferObservers;
+    }
+
+    public void setPreferObservers(boolean preferObservers) {
+        this.preferObservers = preferObservers;
+    }
+
+    public String getObservers() {
+        return observers;
+    }
+
+    public void setObservers(String observers) {
+        this.observers = observers;
+    }
+}
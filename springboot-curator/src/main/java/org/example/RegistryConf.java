@@ -0,0 +1,102 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Component
+@ConfigurationProperties(prefix = "curator.registry")
+public class RegistryConf {
+    private boolean enabled = true;
+    private String rootPath = "/services";
+    private String serviceName = "springboot-curator";
+    private String host = "";
+    private int weight = 100;
+    private Map<String, String> metadata = new LinkedHashMap<>();
+    private String loadBalancer = "round-robin";
+    private double protectThreshold = 0.5;
+    private long protectWindowMs = 30000;
+    private boolean emptyProtection = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public void setServiceName(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    public void setMetadata(Map<String, String> metadata) {
+        this.metadata = metadata;
+    }
+
+    public String getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    public void setLoadBalancer(String loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    public double getProtectThreshold() {
+        return protectThreshold;
+    }
+
+    public void setProtectThreshold(double protectThreshold) {
+        this.protectThreshold = protectThreshold;
+    }
+
+    public long getProtectWindowMs() {
+        return protectWindowMs;
+    }
+
+    public void setProtectWindowMs(long protectWindowMs) {
+        this.protectWindowMs = protectWindowMs;
+    }
+
+    public boolean isEmptyProtection() {
+        return emptyProtection;
+    }
+
+    public void setEmptyProtection(boolean emptyProtection) {
+        this.emptyProtection = emptyProtection;
+    }
+}
@@ -0,0 +1,118 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.retry")
+public class RetryConf {
+    private Policy policy = Policy.FIXED;
+    private int maxRetries = 10;
+    private long baseSleepMs = 100;
+    private long maxSleepMs = 5000;
+    private long deadlineMs = 15000;
+    private boolean circuitBreaker;
+    private int latencyWindow = 1024;
+    private double latencyPercentile = 0.99;
+    private int deadlineMultiplier = 50;
+    private long minDeadlineMs = 1000;
+
+    public enum Policy {
+        /**
+         * 固定次数、固定间隔(curator.retryCount/elapsedTimeMs)，即原来的RetryNTimes
+         */
+        FIXED,
+        /**
+         * 指数退避+全抖动，最多maxRetries次
+         */
+        EXPONENTIAL,
+        /**
+         * 指数退避+全抖动，不限次数，从第一次失败起超过deadlineMs不再重试
+         */
+        DEADLINE,
+        /**
+         * 退避基数和截止时间由最近操作耗时的分位数推算
+         */
+        ADAPTIVE
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getBaseSleepMs() {
+        return baseSleepMs;
+    }
+
+    public void setBaseSleepMs(long baseSleepMs) {
+        this.baseSleepMs = baseSleepMs;
+    }
+
+    public long getMaxSleepMs() {
+        return maxSleepMs;
+    }
+
+    public void setMaxSleepMs(long maxSleepMs) {
+        this.maxSleepMs = maxSleepMs;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    public void setDeadlineMs(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+    }
+
+    public boolean isCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(boolean circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public int getLatencyWindow() {
+        return latencyWindow;
+    }
+
+    public void setLatencyWindow(int latencyWindow) {
+        this.latencyWindow = latencyWindow;
+    }
+
+    public double getLatencyPercentile() {
+        return latencyPercentile;
+    }
+
+    public void setLatencyPercentile(double latencyPercentile) {
+        this.latencyPercentile = latencyPercentile;
+    }
+
+    public int getDeadlineMultiplier() {
+        return deadlineMultiplier;
+    }
+
+    public void setDeadlineMultiplier(int deadlineMultiplier) {
+        this.deadlineMultiplier = deadlineMultiplier;
+    }
+
+    public long getMinDeadlineMs() {
+        return minDeadlineMs;
+    }
+
+    public void setMinDeadlineMs(long minDeadlineMs) {
+        this.minDeadlineMs = minDeadlineMs;
+    }
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.sequence")
+public class SequenceConf {
+    private String rootPath = "/sequences";
+    private int rangeSize = 10000;
+    private double prefetchRatio = 0.2;
+    private long leaseTimeoutMs = 5000;
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public int getRangeSize() {
+        return rangeSize;
+    }
+
+    public void setRangeSize(int rangeSize) {
+        this.rangeSize = rangeSize;
+    }
+
+    public double getPrefetchRatio() {
+        return prefetchRatio;
+    }
+
+    public void setPrefetchRatio(double prefetchRatio) {
+        this.prefetchRatio = prefetchRatio;
+    }
+
+    public long getLeaseTimeoutMs() {
+        return leaseTimeoutMs;
+    }
+
+    public void setLeaseTimeoutMs(long leaseTimeoutMs) {
+        this.leaseTimeoutMs = leaseTimeoutMs;
+    }
+}
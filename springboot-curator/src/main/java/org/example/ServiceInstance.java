@@ -0,0 +1,143 @@
+package org.example;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个服务实例，以JSON保存在 rootPath/服务名/实例id 临时节点上：
+ * {"id":"192.168.1.10:8087","name":"springboot-curator","host":"192.168.1.10","port":8087,"weight":100,
+ *  "metadata":{"zone":"a"},"registrationTime":1700000000000}
+ *
+ * outstanding是本进程发往该实例、还未完成的请求数，不写入zookeeper，供LEAST_OUTSTANDING负载均衡使用：
+ * 调用方发请求前acquire()，完成后release()。实例数据变化时计数会带到新的对象上。
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ServiceInstance {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private String id;
+    private String name;
+    private String host;
+    private int port;
+    private int weight = 100;
+    private Map<String, String> metadata = new LinkedHashMap<>();
+    private long registrationTime;
+
+    @JsonIgnore
+    private AtomicInteger outstanding = new AtomicInteger();
+
+    public ServiceInstance() {
+    }
+
+    public ServiceInstance(String name, String host, int port) {
+        this.id = host + ":" + port;
+        this.name = name;
+        this.host = host;
+        this.port = port;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    public void setMetadata(Map<String, String> metadata) {
+        this.metadata = metadata;
+    }
+
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    public void setRegistrationTime(long registrationTime) {
+        this.registrationTime = registrationTime;
+    }
+
+    /**
+     * 开始一个发往该实例的请求
+     */
+    public ServiceInstance acquire() {
+        outstanding.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * 请求完成(无论成功失败)
+     */
+    public void release() {
+        outstanding.decrementAndGet();
+    }
+
+    @JsonIgnore
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    void inheritOutstanding(ServiceInstance previous) {
+        this.outstanding = previous.outstanding;
+    }
+
+    byte[] toJson() {
+        try {
+            return MAPPER.writeValueAsBytes(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ServiceInstance fromJson(byte[] data) throws IOException {
+        return MAPPER.readValue(data, ServiceInstance.class);
+    }
+
+    @Override
+    public String toString() {
+        return name + "/" + id + "(weight=" + weight + ", outstanding=" + outstanding.get() + ")";
+    }
+}
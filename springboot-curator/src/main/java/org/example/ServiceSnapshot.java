@@ -0,0 +1,83 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 某个服务在某一时刻的实例列表，不可变。实例变化时整体替换(copy-on-write)，
+ * 查询路径上只读这个对象，不加锁、不分配内存、不访问zookeeper。
+ */
+public final class ServiceSnapshot {
+
+    private final String service;
+    private final ServiceInstance[] instances;
+    private final int[] cumulativeWeights;
+    private final int totalWeight;
+    private final AtomicInteger cursor;
+    private final boolean protectedSnapshot;
+
+    ServiceSnapshot(String service, ServiceInstance[] instances, AtomicInteger cursor, boolean protectedSnapshot) {
+        this.service = service;
+        this.instances = instances;
+        this.cursor = cursor;
+        this.protectedSnapshot = protectedSnapshot;
+        this.cumulativeWeights = new int[instances.length];
+        int total = 0;
+        for (int i = 0; i < instances.length; i++) {
+            total += Math.max(0, instances[i].getWeight());
+            cumulativeWeights[i] = total;
+        }
+        this.totalWeight = total;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public int size() {
+        return instances.length;
+    }
+
+    public ServiceInstance get(int index) {
+        return instances[index];
+    }
+
+    public List<ServiceInstance> getInstances() {
+        return Collections.unmodifiableList(Arrays.asList(instances));
+    }
+
+    /**
+     * 是否处于保护状态：zookeeper上的实例数骤降(或降为0)，列表里仍保留着已经下线的实例
+     */
+    public boolean isProtected() {
+        return protectedSnapshot;
+    }
+
+    /**
+     * 轮询游标，同一服务的所有快照共用一个，实例列表变化后轮询不会从头开始
+     */
+    int nextCursor() {
+        return cursor.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * 按权重取实例，target在[0, totalWeight)之间
+     */
+    ServiceInstance byWeight(int target) {
+        int index = Arrays.binarySearch(cumulativeWeights, target + 1);
+        if (index < 0) {
+            return instances[-index - 1];
+        }
+        // 权重为0的实例和前一个的累计值相同，退回到第一个达到该累计值的实例
+        while (index > 0 && cumulativeWeights[index - 1] == cumulativeWeights[index]) {
+            index--;
+        }
+        return instances[index];
+    }
+
+    int getTotalWeight() {
+        return totalWeight;
+    }
+}
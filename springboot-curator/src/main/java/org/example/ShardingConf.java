@@ -0,0 +1,45 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.sharding")
+public class ShardingConf {
+    private String rootPath = "/sharding";
+    private int virtualNodes = 100;
+    private long rebalanceDelayMs = 200;
+    private long joinTimeoutMs = 10000;
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public long getRebalanceDelayMs() {
+        return rebalanceDelayMs;
+    }
+
+    public void setRebalanceDelayMs(long rebalanceDelayMs) {
+        this.rebalanceDelayMs = rebalanceDelayMs;
+    }
+
+    public long getJoinTimeoutMs() {
+        return joinTimeoutMs;
+    }
+
+    public void setJoinTimeoutMs(long joinTimeoutMs) {
+        this.joinTimeoutMs = joinTimeoutMs;
+    }
+}
@@ -0,0 +1,36 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.subscription")
+public class SubscriptionConf {
+    private int listenerThreads = 4;
+    private boolean virtualThreads;
+    private long coalesceWindowMs = 100;
+
+    public int getListenerThreads() {
+        return listenerThreads;
+    }
+
+    public void setListenerThreads(int listenerThreads) {
+        this.listenerThreads = listenerThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public long getCoalesceWindowMs() {
+        return coalesceWindowMs;
+    }
+
+    public void setCoalesceWindowMs(long coalesceWindowMs) {
+        this.coalesceWindowMs = coalesceWindowMs;
+    }
+}
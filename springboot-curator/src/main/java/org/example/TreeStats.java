@@ -0,0 +1,96 @@
+package org.example;
+
+/**
+ * ZkTreeTools一次操作的统计：处理的节点数、数据字节数、跳过和失败的节点数以及耗时；
+ * added/removed/changed只有diff时才有值。
+ */
+public class TreeStats {
+    private long nodes;
+    private long bytes;
+    private long skipped;
+    private long failed;
+    private long added;
+    private long removed;
+    private long changed;
+    private long elapsedMs;
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 跳过的节点数：导出/diff时的临时节点(会话结束就消失，不应该备份)，遍历期间被删除的节点
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getAdded() {
+        return added;
+    }
+
+    public long getRemoved() {
+        return removed;
+    }
+
+    public long getChanged() {
+        return changed;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public long nodesPerSecond() {
+        return nodes * 1000 / Math.max(1, elapsedMs);
+    }
+
+    synchronized void node(int dataBytes) {
+        nodes++;
+        bytes += dataBytes;
+    }
+
+    synchronized void skip() {
+        skipped++;
+    }
+
+    synchronized void fail() {
+        failed++;
+    }
+
+    synchronized void added() {
+        added++;
+    }
+
+    synchronized void removed() {
+        removed++;
+    }
+
+    synchronized void changed() {
+        changed++;
+    }
+
+    TreeStats finish(long startNanos) {
+        elapsedMs = (System.nanoTime() - startNanos) / 1_000_000;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("节点数：").append(nodes).append("，字节数：").append(bytes)
+                .append("，跳过：").append(skipped).append("，失败：").append(failed);
+        if (added + removed + changed > 0) {
+            sb.append("，新增：").append(added).append("，删除：").append(removed).append("，修改：").append(changed);
+        }
+        return sb.append("，耗时：").append(elapsedMs).append("ms，").append(nodesPerSecond()).append("节点/秒").toString();
+    }
+}
@@ -0,0 +1,33 @@
+package org.example;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+@Configuration
+public class WebConfiguration {
+
+    @Autowired
+    private ReactiveConf reactiveConf;
+
+    /**
+     * curator.reactive.tomcatVirtualThreads开启且JDK21+时，Tomcat每个请求在一个虚拟线程上处理，
+     * 同步调用zookeeper的接口阻塞的只是虚拟线程，不再受server.tomcat.threads.max限制；低版本JDK保持Tomcat默认线程池
+     */
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> tomcatVirtualThreads() {
+        return factory -> {
+            if (!reactiveConf.isTomcatVirtualThreads()) {
+                return;
+            }
+            ExecutorService executor = ZkSubscriptionEngine.newVirtualThreadExecutor();
+            if (executor != null) {
+                factory.addProtocolHandlerCustomizers(protocolHandler -> protocolHandler.setExecutor(executor));
+            }
+        };
+    }
+}
@@ -0,0 +1,153 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 用ZNodeCodec读写节点，编码后超过chunkSize的数据自动分片存到子节点(格式见ZNodeChunks)，读的时候透明拼回。
+ *
+ * 写入用版本号CAS：分片写好后setData清单时版本号不对说明被并发覆盖，删掉自己的分片，随机退避后重试，最多MAX_ATTEMPTS次。
+ * 代数取随机数，并发写入的分片不会重名；写入方中途崩溃留下的分片不会被自动清理，delete会一起删掉。
+ */
+@Component
+public class ZNodeStore {
+
+    private static final int MAX_ATTEMPTS = 10;
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private CodecConf codecConf;
+
+    /**
+     * 给codec加上配置的压缩算法和阈值(curator.codec.compression/compressionThreshold)
+     */
+    public <T> ZNodeCodec<T> withDefaults(ZNodeCodec<T> codec) {
+        return codec.compressed(codecConf.getCompression(), codecConf.getCompressionThreshold());
+    }
+
+    public <T> ZNodeCodec<T> json(Class<T> type) {
+        return withDefaults(ZNodeCodec.json(type));
+    }
+
+    public <T> ZNodeCodec<T> binary(BinarySerializer<T> serializer) {
+        return withDefaults(ZNodeCodec.binary(serializer));
+    }
+
+    public int chunkSize() {
+        return codecConf.getChunkSize();
+    }
+
+    /**
+     * 写入节点，不存在时连同父节点一起创建
+     */
+    public <T> void write(String path, T value, ZNodeCodec<T> codec) throws Exception {
+        byte[] payload = codec.encode(value);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Stat stat = new Stat();
+            byte[] current;
+            try {
+                current = client.getData().storingStatIn(stat).forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                if (payload.length <= codecConf.getChunkSize()) {
+                    try {
+                        client.create().creatingParentsIfNeeded().forPath(path, payload);
+                        return;
+                    } catch (KeeperException.NodeExistsException exists) {
+                        continue;
+                    }
+                }
+                try {
+                    client.create().creatingParentsIfNeeded().forPath(path, new byte[0]);
+                } catch (KeeperException.NodeExistsException exists) {
+                    // 并发创建，下一轮按已存在处理
+                }
+                continue;
+            }
+            if (payload.length <= codecConf.getChunkSize()) {
+                try {
+                    client.setData().withVersion(stat.getVersion()).forPath(path, payload);
+                } catch (KeeperException.BadVersionException e) {
+                    backoff(attempt);
+                    continue;
+                }
+            } else {
+                long generation = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+                List<byte[]> chunks = new ArrayList<>();
+                ZNodeChunks.Manifest manifest = ZNodeChunks.split(payload, codecConf.getChunkSize(), generation, chunks);
+                for (int i = 0; i < chunks.size(); i++) {
+                    client.create().forPath(ZKPaths.makePath(path, ZNodeChunks.chunkName(generation, i)), chunks.get(i));
+                }
+                try {
+                    client.setData().withVersion(stat.getVersion()).forPath(path, ZNodeChunks.manifest(manifest));
+                } catch (KeeperException.BadVersionException e) {
+                    deleteChunks(path, generation, chunks.size());
+                    backoff(attempt);
+                    continue;
+                }
+            }
+            if (ZNodeChunks.isManifest(current)) {
+                ZNodeChunks.Manifest previous = ZNodeChunks.readManifest(current);
+                deleteChunks(path, previous.getGeneration(), previous.getChunks());
+            }
+            return;
+        }
+        throw new KeeperException.BadVersionException(path);
+    }
+
+    /**
+     * 读取并解码，分片数据在读取期间被覆盖时重读清单，仍失败抛出IllegalStateException
+     */
+    public <T> T read(String path, ZNodeCodec<T> codec) throws Exception {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            byte[] data = client.getData().forPath(path);
+            if (!ZNodeChunks.isManifest(data)) {
+                return codec.decode(data);
+            }
+            ZNodeChunks.Manifest manifest = ZNodeChunks.readManifest(data);
+            List<byte[]> chunks = new ArrayList<>(manifest.getChunks());
+            try {
+                for (int i = 0; i < manifest.getChunks(); i++) {
+                    chunks.add(client.getData().forPath(ZKPaths.makePath(path, ZNodeChunks.chunkName(manifest.getGeneration(), i))));
+                }
+            } catch (KeeperException.NoNodeException e) {
+                continue;
+            }
+            return codec.decode(ZNodeChunks.join(manifest, chunks));
+        }
+        throw new IllegalStateException("分片数据在读取期间被反复覆盖：" + path);
+    }
+
+    /**
+     * 删除节点和它的全部分片
+     */
+    public void delete(String path) throws Exception {
+        client.delete().deletingChildrenIfNeeded().forPath(path);
+    }
+
+    /**
+     * 版本号冲突后的full jitter退避，上限从10ms开始翻倍，最多160ms
+     */
+    private static void backoff(int attempt) throws InterruptedException {
+        Thread.sleep(ThreadLocalRandom.current().nextLong(10L << Math.min(attempt, 4)));
+    }
+
+    private void deleteChunks(String path, long generation, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            try {
+                client.delete().forPath(ZKPaths.makePath(path, ZNodeChunks.chunkName(generation, i)));
+            } catch (KeeperException.NoNodeException e) {
+                // 已经删除
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * 基于版本号的乐观并发更新(CAS)：getData().storingStatIn(stat) -> 计算新值 -> setData().withVersion(stat.getVersion())，
+ * BadVersion说明期间被别人改过，按full jitter随机退避后重读重算，最多尝试curator.atomic.maxAttempts次。
+ *
+ * 用来替代"读 -> 等一会 -> 无条件写"的写法，并发修改同一节点时不会互相覆盖。
+ * 注意：updater可能被调用多次，不要在里面做有副作用的操作。
+ */
+@Component
+public class ZkAtomicUpdater {
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private AtomicUpdaterConf atomicUpdaterConf;
+
+    private ScheduledExecutorService retryScheduler;
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zk-atomic-updater-retry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        retryScheduler.shutdownNow();
+    }
+
+    /**
+     * 同步CAS更新，返回写入的新值；超过最大尝试次数仍冲突时抛出BadVersionException
+     */
+    public byte[] update(String path, UnaryOperator<byte[]> updater) throws Exception {
+        int maxAttempts = atomicUpdaterConf.getMaxAttempts();
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            attempts.increment();
+            Stat stat = new Stat();
+            byte[] current = client.getData().storingStatIn(stat).forPath(path);
+            byte[] next = updater.apply(current);
+            try {
+                client.setData().withVersion(stat.getVersion()).forPath(path, next);
+                successes.increment();
+                return next;
+            } catch (KeeperException.BadVersionException e) {
+                conflicts.increment();
+                if (attempt + 1 < maxAttempts) {
+                    Thread.sleep(backoffMs(attempt));
+                }
+            }
+        }
+        failures.increment();
+        throw new KeeperException.BadVersionException(path);
+    }
+
+    /**
+     * 异步CAS更新，读写都走inBackground，冲突后的退避在调度线程上等待，不占用调用线程
+     */
+    public CompletableFuture<byte[]> updateAsync(String path, UnaryOperator<byte[]> updater) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        attemptAsync(path, updater, 0, result);
+        return result;
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    /**
+     * 版本号冲突次数，conflicts / successes 反映竞争激烈程度
+     */
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    /**
+     * 超过最大尝试次数仍失败的次数
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    private void attemptAsync(String path, UnaryOperator<byte[]> updater, int attempt, CompletableFuture<byte[]> result) {
+        if (attempt >= atomicUpdaterConf.getMaxAttempts()) {
+            failures.increment();
+            result.completeExceptionally(new KeeperException.BadVersionException(path));
+            return;
+        }
+        attempts.increment();
+        try {
+            //回调里抛出的异常会被curator吞掉(只打日志)，必须自己捕获并让result失败，否则调用方永远等不到结果
+            client.getData().inBackground((c, read) -> {
+                try {
+                    if (read.getResultCode() != KeeperException.Code.OK.intValue()) {
+                        result.completeExceptionally(KeeperException.create(KeeperException.Code.get(read.getResultCode()), path));
+                        return;
+                    }
+                    byte[] next = updater.apply(read.getData());
+                    c.setData().withVersion(read.getStat().getVersion()).inBackground((c2, write) -> {
+                        try {
+                            KeeperException.Code code = KeeperException.Code.get(write.getResultCode());
+                            if (code == KeeperException.Code.OK) {
+                                successes.increment();
+                                result.complete(next);
+                            } else if (code == KeeperException.Code.BADVERSION) {
+                                conflicts.increment();
+                                retryScheduler.schedule(() -> attemptAsync(path, updater, attempt + 1, result),
+                                        backoffMs(attempt), TimeUnit.MILLISECONDS);
+                            } else {
+                                result.completeExceptionally(KeeperException.create(code, path));
+                            }
+                        } catch (Exception e) {
+                            result.completeExceptionally(e);
+                        }
+                    }).forPath(path, next);
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private long backoffMs(int attempt) {
+        long cap = Math.min(atomicUpdaterConf.getMaxBackoffMs(), atomicUpdaterConf.getBaseBackoffMs() << Math.min(attempt, 20));
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+}
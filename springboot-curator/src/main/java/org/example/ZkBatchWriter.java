@@ -0,0 +1,233 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量写入：把create/setData/delete/check操作先攒在本地队列里，按时间窗口或数量/字节上限打包成一个multi事务提交，
+ * 一次quorum提交完成多个写操作，避免每个写操作都单独走一次网络往返。
+ *
+ * 注意：multi事务是原子的，只要其中一个操作失败整个事务都会回滚。这里攒到一起的操作彼此独立，
+ * 所以事务失败时只让出错的那个操作失败，其余操作放回队首在下一轮重新提交。
+ * 每个操作都会返回一个CompletableFuture，用来获取该操作自己的成功或失败结果。
+ */
+@Component
+public class ZkBatchWriter {
+
+    /**
+     * 每个操作在jute序列化后除了path和data之外的固定开销(类型、版本、acl、长度字段等)的估算值
+     */
+    private static final int OP_OVERHEAD_BYTES = 128;
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private BatchWriterConf batchWriterConf;
+
+    private final Deque<PendingOp> queue = new ArrayDeque<>();
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zk-batch-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, batchWriterConf.getFlushIntervalMs(),
+                batchWriterConf.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 关闭前把队列里剩余的操作全部提交，关闭之后再提交的操作直接返回以RejectedExecutionException失败的future
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            flusher.shutdown();
+        }
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+    }
+
+    public CompletableFuture<CuratorTransactionResult> create(String path, byte[] data, CreateMode mode) {
+        return enqueue(path, data, () -> client.transactionOp().create().withMode(mode).forPath(path, data));
+    }
+
+    public CompletableFuture<CuratorTransactionResult> setData(String path, byte[] data) {
+        return setData(path, data, -1);
+    }
+
+    /**
+     * @param version 期望的节点版本号，-1表示不检查版本号
+     */
+    public CompletableFuture<CuratorTransactionResult> setData(String path, byte[] data, int version) {
+        return enqueue(path, data, () -> client.transactionOp().setData().withVersion(version).forPath(path, data));
+    }
+
+    public CompletableFuture<CuratorTransactionResult> delete(String path) {
+        return delete(path, -1);
+    }
+
+    public CompletableFuture<CuratorTransactionResult> delete(String path, int version) {
+        return enqueue(path, null, () -> client.transactionOp().delete().withVersion(version).forPath(path));
+    }
+
+    /**
+     * 检查节点版本号，版本号不一致时返回的future以BadVersionException失败
+     */
+    public CompletableFuture<CuratorTransactionResult> check(String path, int version) {
+        return enqueue(path, null, () -> client.transactionOp().check().withVersion(version).forPath(path));
+    }
+
+    /**
+     * 当前还未提交的操作数
+     */
+    public synchronized int pending() {
+        return queue.size();
+    }
+
+    private CompletableFuture<CuratorTransactionResult> enqueue(String path, byte[] data, OpFactory factory) {
+        PendingOp op = new PendingOp();
+        op.future = new CompletableFuture<>();
+        //jute按UTF-8序列化path，中文路径一个字符占3个字节
+        op.bytes = OP_OVERHEAD_BYTES + path.getBytes(StandardCharsets.UTF_8).length + (data == null ? 0 : data.length);
+        if (op.bytes > batchWriterConf.getMaxBytes()) {
+            op.future.completeExceptionally(new IllegalArgumentException(
+                    "操作大小" + op.bytes + "超过单个事务上限" + batchWriterConf.getMaxBytes() + ": " + path));
+            return op.future;
+        }
+        try {
+            op.op = factory.build();
+        } catch (Exception e) {
+            op.future.completeExceptionally(e);
+            return op.future;
+        }
+        boolean full;
+        synchronized (this) {
+            if (flusher.isShutdown()) {
+                op.future.completeExceptionally(new RejectedExecutionException("批量写入器已关闭: " + path));
+                return op.future;
+            }
+            queue.addLast(op);
+            full = queue.size() >= batchWriterConf.getMaxOps();
+        }
+        if (full) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // 入队之后、提交flush之前被close()：close()会在最后flush一次，这个操作仍会被提交
+            }
+        }
+        return op.future;
+    }
+
+    /**
+     * 按maxOps/maxBytes把队列切成若干个事务依次提交，直到队列为空
+     */
+    void flush() {
+        List<PendingOp> batch;
+        while (!(batch = nextBatch()).isEmpty()) {
+            commit(batch);
+        }
+    }
+
+    private synchronized List<PendingOp> nextBatch() {
+        List<PendingOp> batch = new ArrayList<>();
+        int bytes = 0;
+        while (!queue.isEmpty() && batch.size() < batchWriterConf.getMaxOps()) {
+            PendingOp op = queue.peekFirst();
+            if (!batch.isEmpty() && bytes + op.bytes > batchWriterConf.getMaxBytes()) {
+                break;
+            }
+            queue.pollFirst();
+            batch.add(op);
+            bytes += op.bytes;
+        }
+        return batch;
+    }
+
+    private void commit(List<PendingOp> batch) {
+        List<CuratorOp> ops = new ArrayList<>(batch.size());
+        for (PendingOp op : batch) {
+            ops.add(op.op);
+        }
+        try {
+            List<CuratorTransactionResult> results = client.transaction().forOperations(ops);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(results.get(i));
+            }
+        } catch (KeeperException e) {
+            int failed = indexOfFailure(e.getResults());
+            if (failed < 0) {
+                // 连接丢失等非单个操作导致的失败，整批失败
+                batch.forEach(op -> op.future.completeExceptionally(e));
+                return;
+            }
+            batch.get(failed).future.completeExceptionally(KeeperException.create(
+                    KeeperException.Code.get(((OpResult.ErrorResult) e.getResults().get(failed)).getErr()),
+                    batch.get(failed).op.getTypeAndPath().getForPath()));
+            requeue(batch, failed);
+        } catch (Exception e) {
+            batch.forEach(op -> op.future.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * 事务回滚后，把除失败操作之外的其它操作按原顺序放回队首
+     */
+    private synchronized void requeue(List<PendingOp> batch, int failed) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (i != failed) {
+                queue.addFirst(batch.get(i));
+            }
+        }
+    }
+
+    private static int indexOfFailure(List<OpResult> results) {
+        if (results == null) {
+            return -1;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            OpResult result = results.get(i);
+            if (result instanceof OpResult.ErrorResult) {
+                int err = ((OpResult.ErrorResult) result).getErr();
+                if (err != KeeperException.Code.OK.intValue()
+                        && err != KeeperException.Code.RUNTIMEINCONSISTENCY.intValue()) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private interface OpFactory {
+        CuratorOp build() throws Exception;
+    }
+
+    private static class PendingOp {
+        CuratorOp op;
+        int bytes;
+        CompletableFuture<CuratorTransactionResult> future;
+    }
+}
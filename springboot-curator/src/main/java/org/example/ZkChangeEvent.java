@@ -0,0 +1,52 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 持久递归watch推送的节点变化事件，只带事件类型和路径，不带数据。
+ * 需要数据时调用fetchData()/fetchStat()才会访问服务端，不关心数据的监听器不产生任何读请求。
+ */
+public class ZkChangeEvent {
+
+    private final CuratorFramework client;
+    private final Watcher.Event.EventType type;
+    private final String path;
+
+    ZkChangeEvent(CuratorFramework client, Watcher.Event.EventType type, String path) {
+        this.client = client;
+        this.type = type;
+        this.path = path;
+    }
+
+    /**
+     * NodeCreated、NodeDataChanged、NodeDeleted；持久递归watch不会产生NodeChildrenChanged
+     */
+    public Watcher.Event.EventType getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 读取节点当前数据，节点已被删除时抛出NoNodeException。读到的是读取时刻的数据，可能比事件更新
+     */
+    public byte[] fetchData() throws Exception {
+        return client.getData().forPath(path);
+    }
+
+    /**
+     * 读取节点当前状态，节点已被删除时返回null
+     */
+    public Stat fetchStat() throws Exception {
+        return client.checkExists().forPath(path);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + path;
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import org.apache.zookeeper.ZooKeeper;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * zookeeper客户端没有公开未完成请求数和客户端watch数，这里通过反射读取：
+ * 未完成请求 = ClientCnxn.outgoingQueue(还没发出) + ClientCnxn.pendingQueue(已发出等待响应)；
+ * watch数 = ZooKeeper.getDataWatches/getExistWatches/getChildWatches/getPersistentWatches/getPersistentRecursiveWatches之和。
+ *
+ * 只用于监控，读取不加锁，数值是近似值；zookeeper版本变化导致反射失败时返回-1。
+ */
+class ZkClientIntrospector {
+
+    private static final Field CNXN = field(ZooKeeper.class, "cnxn");
+    private static final Field OUTGOING_QUEUE = field(CNXN == null ? null : CNXN.getType(), "outgoingQueue");
+    private static final Field PENDING_QUEUE = field(CNXN == null ? null : CNXN.getType(), "pendingQueue");
+    private static final Method[] WATCH_LISTS = {
+            method("getDataWatches"), method("getExistWatches"), method("getChildWatches"),
+            method("getPersistentWatches"), method("getPersistentRecursiveWatches")};
+
+    private ZkClientIntrospector() {
+    }
+
+    static int outstandingRequests(ZooKeeper zk) {
+        if (zk == null || CNXN == null || OUTGOING_QUEUE == null || PENDING_QUEUE == null) {
+            return -1;
+        }
+        try {
+            Object cnxn = CNXN.get(zk);
+            return ((Collection<?>) OUTGOING_QUEUE.get(cnxn)).size() + ((Collection<?>) PENDING_QUEUE.get(cnxn)).size();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    static int watches(ZooKeeper zk) {
+        if (zk == null) {
+            return -1;
+        }
+        int total = 0;
+        for (Method method : WATCH_LISTS) {
+            if (method == null) {
+                continue;
+            }
+            try {
+                total += ((List<?>) method.invoke(zk)).size();
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return -1;
+            }
+        }
+        return total;
+    }
+
+    private static Field field(Class<?> type, String name) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Method method(String name) {
+        try {
+            Method method = ZooKeeper.class.getDeclaredMethod(name);
+            method.setAccessible(true);
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.example;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.curator.drivers.AdvancedTracerDriver;
+import org.apache.curator.drivers.EventTrace;
+import org.apache.curator.drivers.OperationTrace;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * CuratorFramework的监控埋点，由ZkConfiguration在start之前挂到客户端上：
+ * 1 作为curator的AdvancedTracerDriver，每个操作完成时记录Timer zookeeper.client.operations，
+ *   标签为operation(GetDataBuilderImpl-Foreground等curator的操作名)、path(路径前pathPrefixDepth级)、result(OK/NONODE/...)；
+ * 2 作为ConnectionStateListener，统计连接状态变化(zookeeper.client.connection.transitions)，
+ *   重连次数(zookeeper.client.reconnects)和会话过期次数(zookeeper.client.session.expirations)是单调递增的，注册为FunctionCounter，可以直接rate()；
+ * 3 Gauge：zookeeper.client.connection.state(1已连接 0已挂起 -1已丢失 2只读)、
+ *   zookeeper.client.outstanding.requests(已发出未响应+排队未发出)、zookeeper.client.watches(客户端注册的watch数)；
+ * 4 最近recentOps个操作放在环形数组里，供ZkEndpoint列出最慢的路径；
+ * 5 ZkEphemeralManager的会话丢失后重建：Timer zookeeper.ephemeral.recovery(从发现会话丢失到全部重建完成)、
+ *   DistributionSummary zookeeper.ephemeral.storm.size(每次重建的节点数)，重建节点数/请求数/失败数为FunctionCounter，
+ *   托管节点数和当前存在的节点数为Gauge。
+ *
+ * path标签只取前几级，避免按完整路径打标签导致指标数量无限增长。
+ */
+@Component
+public class ZkClientMetrics extends AdvancedTracerDriver implements ConnectionStateListener {
+
+    private static final String SESSION_EXPIRED = "session-expired";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private ZkMetricsConf zkMetricsConf;
+
+    private volatile CuratorFramework client;
+    private volatile ConnectionState connectionState;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong sessionExpirations = new AtomicLong();
+    private final AtomicLong recentIndex = new AtomicLong();
+    private AtomicReferenceArray<RecentOp> recentOps;
+    private volatile Timer ephemeralRecovery;
+    private volatile DistributionSummary ephemeralStormSize;
+
+    /**
+     * 挂到客户端上，需在client.start()之前调用，才能统计到第一次CONNECTED
+     */
+    public void bind(CuratorFramework client) {
+        this.client = client;
+        this.recentOps = new AtomicReferenceArray<>(Math.max(1, zkMetricsConf.getRecentOps()));
+        client.getZookeeperClient().setTracerDriver(this);
+        client.getConnectionStateListenable().addListener(this);
+        Gauge.builder("zookeeper.client.connection.state", this, ZkClientMetrics::connectionStateValue)
+                .description("1已连接 0已挂起 -1已丢失 2只读").register(registry);
+        Gauge.builder("zookeeper.client.outstanding.requests", this, metrics -> metrics.outstandingRequests())
+                .description("已发出未响应以及排队未发出的请求数").register(registry);
+        Gauge.builder("zookeeper.client.watches", this, metrics -> metrics.watches())
+                .description("客户端注册的watch数").register(registry);
+        FunctionCounter.builder("zookeeper.client.reconnects", reconnects, AtomicLong::get).register(registry);
+        FunctionCounter.builder("zookeeper.client.session.expirations", sessionExpirations, AtomicLong::get).register(registry);
+    }
+
+    /**
+     * 注册ZkEphemeralManager的指标，重建完成时由recordEphemeralRecovery记录耗时和节点数
+     */
+    public void bind(ZkEphemeralManager manager) {
+        Gauge.builder("zookeeper.ephemeral.owned", manager, ZkEphemeralManager::getOwnedNodes)
+                .description("托管的临时节点数").register(registry);
+        Gauge.builder("zookeeper.ephemeral.present", manager, ZkEphemeralManager::getPresentNodes)
+                .description("在当前会话上存在的托管节点数").register(registry);
+        FunctionCounter.builder("zookeeper.ephemeral.recreated", manager, ZkEphemeralManager::getRecreatedNodes).register(registry);
+        FunctionCounter.builder("zookeeper.ephemeral.recreate.requests", manager, ZkEphemeralManager::getRecreateRequests)
+                .description("重建发出的请求数，远小于重建节点数说明批量起了作用").register(registry);
+        FunctionCounter.builder("zookeeper.ephemeral.recreate.failures", manager, ZkEphemeralManager::getRecreateFailures).register(registry);
+        ephemeralStormSize = DistributionSummary.builder("zookeeper.ephemeral.storm.size")
+                .description("一次重建的节点数").register(registry);
+        ephemeralRecovery = Timer.builder("zookeeper.ephemeral.recovery")
+                .description("从发现会话丢失到全部节点重建完成的耗时，包括jitter等待")
+                .publishPercentileHistogram(zkMetricsConf.isPercentileHistogram())
+                .register(registry);
+    }
+
+    /**
+     * 一次重建完成；recoveryMs为-1时(未记录到会话丢失的时间)只记录节点数
+     */
+    public void recordEphemeralRecovery(long recoveryMs, int stormSize) {
+        if (ephemeralStormSize == null) {
+            return;
+        }
+        ephemeralStormSize.record(stormSize);
+        if (recoveryMs >= 0) {
+            ephemeralRecovery.record(recoveryMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void addTrace(OperationTrace trace) {
+        String result = resultOf(trace.getReturnCode());
+        String prefix = pathPrefix(trace.getPath());
+        String key = trace.getName() + '|' + prefix + '|' + result;
+        Timer timer = timers.computeIfAbsent(key, k -> Timer.builder("zookeeper.client.operations")
+                .tag("operation", trace.getName())
+                .tag("path", prefix)
+                .tag("result", result)
+                .publishPercentileHistogram(zkMetricsConf.isPercentileHistogram())
+                .register(registry));
+        timer.record(trace.getLatencyMs(), TimeUnit.MILLISECONDS);
+
+        AtomicReferenceArray<RecentOp> recent = recentOps;
+        if (recent != null && trace.getPath() != null) {
+            int slot = (int) (recentIndex.getAndIncrement() % recent.length());
+            recent.set(slot, new RecentOp(trace.getName(), trace.getPath(), result, trace.getLatencyMs(), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * curator在收到zookeeper的会话事件时调用，名字是KeeperState(Expired/Disconnected/SyncConnected...)；
+     * curator判定会话过期时(收到Expired事件，或者断开超过会话超时后自己判定)另外发一个session-expired，
+     * 过期次数按session-expired统计，两条路径都只计一次
+     */
+    @Override
+    public void addEvent(EventTrace trace) {
+        String state = SESSION_EXPIRED.equals(trace.getName()) ? SESSION_EXPIRED : keeperStateOf(trace.getName());
+        if (SESSION_EXPIRED.equals(state)) {
+            sessionExpirations.incrementAndGet();
+        }
+        counter("zookeeper.client.session.events", "state", state).increment();
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        connectionState = newState;
+        if (newState == ConnectionState.RECONNECTED) {
+            reconnects.incrementAndGet();
+        }
+        counter("zookeeper.client.connection.transitions", "state", newState.name()).increment();
+    }
+
+    public ConnectionState getConnectionState() {
+        return connectionState;
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public long getSessionExpirations() {
+        return sessionExpirations.get();
+    }
+
+    public int outstandingRequests() {
+        return ZkClientIntrospector.outstandingRequests(currentZooKeeper());
+    }
+
+    public int watches() {
+        return ZkClientIntrospector.watches(currentZooKeeper());
+    }
+
+    /**
+     * 最近recentOps个操作里最慢的top个，按耗时倒序
+     */
+    public List<RecentOp> slowest(int top) {
+        AtomicReferenceArray<RecentOp> recent = recentOps;
+        if (recent == null) {
+            return new ArrayList<>();
+        }
+        List<RecentOp> ops = new ArrayList<>(recent.length());
+        for (int i = 0; i < recent.length(); i++) {
+            RecentOp op = recent.get(i);
+            if (op != null) {
+                ops.add(op);
+            }
+        }
+        return ops.stream()
+                .sorted(Comparator.comparingLong(RecentOp::getLatencyMs).reversed())
+                .limit(top)
+                .collect(Collectors.toList());
+    }
+
+    private ZooKeeper currentZooKeeper() {
+        CuratorFramework current = client;
+        if (current == null) {
+            return null;
+        }
+        try {
+            return current.getZookeeperClient().getZooKeeper();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private double connectionStateValue() {
+        ConnectionState state = connectionState;
+        if (state == null) {
+            return 0;
+        }
+        switch (state) {
+            case CONNECTED:
+            case RECONNECTED:
+                return 1;
+            case READ_ONLY:
+                return 2;
+            case LOST:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private Counter counter(String name, String tagKey, String tagValue) {
+        return counters.computeIfAbsent(name + '|' + tagValue,
+                k -> Counter.builder(name).tag(tagKey, tagValue).register(registry));
+    }
+
+    private String pathPrefix(String path) {
+        if (path == null || path.isEmpty()) {
+            return "none";
+        }
+        int depth = zkMetricsConf.getPathPrefixDepth();
+        int index = 0;
+        for (int i = 0; i < depth; i++) {
+            index = path.indexOf('/', index + 1);
+            if (index < 0) {
+                return path;
+            }
+        }
+        return path.substring(0, index);
+    }
+
+    private static String resultOf(int returnCode) {
+        KeeperException.Code code = KeeperException.Code.get(returnCode);
+        return code == null ? String.valueOf(returnCode) : code.name();
+    }
+
+    private static String keeperStateOf(String name) {
+        for (Watcher.Event.KeeperState state : Watcher.Event.KeeperState.values()) {
+            if (state.name().equals(name)) {
+                return name;
+            }
+        }
+        return "other";
+    }
+
+    /**
+     * 一次已完成的操作
+     */
+    public static class RecentOp {
+        private final String operation;
+        private final String path;
+        private final String result;
+        private final long latencyMs;
+        private final long timestamp;
+
+        RecentOp(String operation, String path, String result, long latencyMs, long timestamp) {
+            this.operation = operation;
+            this.path = path;
+            this.result = result;
+            this.latencyMs = latencyMs;
+            this.timestamp = timestamp;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getResult() {
+            return result;
+        }
+
+        public long getLatencyMs() {
+            return latencyMs;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
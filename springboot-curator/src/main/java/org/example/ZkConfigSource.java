@@ -0,0 +1,404 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationPropertiesBean;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertyName;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * zookeeper上的配置：rootPath下的子树作为spring的PropertySource，优先级高于application.yml。
+ * /config/curator/lock/holdWindowMs = "100"    对应 curator.lock.holdWindowMs=100
+ * 节点名里也可以直接带点，如/config/curator.lock.holdWindowMs；没有数据的节点只作为目录。
+ *
+ * 1 启动时用ZkTreeTools.walk并行读取整棵子树(同时在途的请求数见curator.tree.maxInFlight)，生成一份不可变快照；
+ * 2 之后用持久递归watch跟踪变化，每次变化复制出新快照整体替换(volatile引用)，PropertySource读到的总是某一份完整快照，读写都不加锁；
+ *   连接断开期间的变化watch不会补发，重连后重新遍历一遍；订阅引擎的分发队列满丢了事件时同样重新遍历一遍；
+ * 3 快照替换后，受影响的@ConfigurationProperties bean(前缀匹配变化的key)在单独的线程上重新绑定：
+ *   先绑定到一个新实例，再把属性复制到原bean上。原bean的引用不变，业务代码照常调用getXxx()，读取成本就是一次字段读取；
+ *   key被删除后恢复为application.yml里的值或默认值；
+ * 4 节点的修改时间(mtime)到重新绑定完成的间隔记为生效延迟，见getLastApplyLagMs()等，依赖服务端和本机时钟大致同步。
+ *
+ * 重新绑定是逐个属性写入的，同一个bean的多个属性不是同时生效；需要多个key保持一致时用getSnapshot()读同一份快照。
+ * 只在启动时读取一次的配置(connectString、线程数等)修改后仍需重启；在ZkConfigSource之前创建并使用了配置的bean，启动时用的也是yml里的值。
+ *
+ * 默认不开启(curator.config.enabled=false)：开启后启动时会创建rootPath并注册持久递归watch，
+ * 而且任何能写rootPath的客户端都能覆盖本进程的spring配置，只在rootPath的ACL受控时开启。
+ */
+@Component
+public class ZkConfigSource {
+
+    private static final Logger log = LoggerFactory.getLogger(ZkConfigSource.class);
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ZkTreeTools treeTools;
+
+    @Autowired
+    private ZkSubscriptionEngine subscriptionEngine;
+
+    @Autowired
+    private ConfigSourceConf configSourceConf;
+
+    @Autowired
+    private ConfigurableEnvironment environment;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    private volatile Map<String, String> snapshot = Collections.emptyMap();
+    private SnapshotPropertySource propertySource;
+    private final ConnectionStateListener connectionListener = this::connectionStateChanged;
+    private final List<Consumer<Set<String>>> listeners = new CopyOnWriteArrayList<>();
+    private ExecutorService rebindExecutor;
+    private ZkSubscriptionEngine.RecursiveSubscription subscription;
+
+    // 以下字段只在持有this监视器时访问：遍历期间收到的事件先缓存，遍历结果发布后再逐个处理
+    private boolean loading;
+    private final List<ZkChangeEvent> buffered = new ArrayList<>();
+
+    // 变化的key -> 最早的修改时间，等待重新绑定
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong version = new AtomicLong();
+    private final LongAdder applies = new LongAdder();
+    private final LongAdder rebinds = new LongAdder();
+    private final LongAdder totalApplyLagMs = new LongAdder();
+    private final LongAccumulator maxApplyLagMs = new LongAccumulator(Math::max, 0);
+    private volatile long lastApplyLagMs;
+
+    @PostConstruct
+    public void start() throws Exception {
+        if (!configSourceConf.isEnabled()) {
+            return;
+        }
+        rebindExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "zk-config-rebind");
+            t.setDaemon(true);
+            return t;
+        });
+        propertySource = new SnapshotPropertySource();
+        client.createContainers(configSourceConf.getRootPath());
+        // 先注册watch再遍历，遍历期间的变化不会漏掉
+        synchronized (this) {
+            loading = true;
+        }
+        subscription = subscriptionEngine.watchRecursive(configSourceConf.getRootPath(), this::changed, false, this::scheduleReload);
+        TreeStats stats = reload();
+        synchronized (this) {
+            environment.getPropertySources().addFirst(propertySource);
+            // 启动时加载的配置不计入生效延迟，此后的变化由重新绑定线程处理
+            pending.clear();
+        }
+        // 已经创建的bean同步绑定一次，之后创建的bean直接从environment里读到zookeeper上的值
+        rebind(snapshot.keySet());
+        client.getConnectionStateListenable().addListener(connectionListener);
+        log.info("从{}加载{}项配置，耗时{}ms", configSourceConf.getRootPath(), snapshot.size(), stats.getElapsedMs());
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (rebindExecutor == null) {
+            return;
+        }
+        client.getConnectionStateListenable().removeListener(connectionListener);
+        subscription.close();
+        rebindExecutor.shutdown();
+        rebindExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 当前快照，不可修改；同一份快照里的key彼此一致
+     */
+    public Map<String, String> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 配置重新绑定之后回调，参数是这次变化的key，在重新绑定线程上执行
+     */
+    public void addListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 快照替换的次数
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 已经生效(重新绑定完成)的key变化次数
+     */
+    public long getApplies() {
+        return applies.sum();
+    }
+
+    /**
+     * 重新绑定@ConfigurationProperties bean的次数
+     */
+    public long getRebinds() {
+        return rebinds.sum();
+    }
+
+    /**
+     * 最近一次变化从节点修改到重新绑定完成的毫秒数
+     */
+    public long getLastApplyLagMs() {
+        return lastApplyLagMs;
+    }
+
+    public long getMaxApplyLagMs() {
+        return maxApplyLagMs.get();
+    }
+
+    public double getAvgApplyLagMs() {
+        long count = applies.sum();
+        return count == 0 ? 0 : (double) totalApplyLagMs.sum() / count;
+    }
+
+    /**
+     * 并行遍历整棵子树，和当前快照比较后整体替换；遍历期间收到的事件在替换之后处理
+     */
+    private TreeStats reload() throws Exception {
+        String rootPath = configSourceConf.getRootPath();
+        Map<String, String> loaded = new ConcurrentHashMap<>();
+        Map<String, Long> mtimes = new ConcurrentHashMap<>();
+        TreeStats stats = treeTools.walk(rootPath, true, (path, data, stat) -> {
+            String value = decode(data);
+            if (!path.equals(rootPath) && value != null) {
+                loaded.put(toKey(path), value);
+                mtimes.put(toKey(path), stat.getMtime());
+            }
+        });
+        synchronized (this) {
+            Map<String, String> previous = snapshot;
+            Map<String, Long> changed = new HashMap<>();
+            Set<String> keys = new HashSet<>(previous.keySet());
+            keys.addAll(loaded.keySet());
+            for (String key : keys) {
+                if (!Objects.equals(previous.get(key), loaded.get(key))) {
+                    changed.put(key, mtimes.getOrDefault(key, System.currentTimeMillis()));
+                }
+            }
+            publish(new HashMap<>(loaded), changed);
+            loading = false;
+            List<ZkChangeEvent> events = new ArrayList<>(buffered);
+            buffered.clear();
+            events.forEach(this::changed);
+        }
+        return stats;
+    }
+
+    /**
+     * 处理一个节点变化：重新读取节点数据(读到的是当前值，比事件更新也没关系)，复制快照后整体替换
+     */
+    private synchronized void changed(ZkChangeEvent event) {
+        if (loading) {
+            buffered.add(event);
+            return;
+        }
+        String path = event.getPath();
+        if (path.equals(configSourceConf.getRootPath())) {
+            return;
+        }
+        String key = toKey(path);
+        String value = null;
+        long mtime = System.currentTimeMillis();
+        if (event.getType() != Watcher.Event.EventType.NodeDeleted) {
+            try {
+                Stat stat = new Stat();
+                value = decode(client.getData().storingStatIn(stat).forPath(path));
+                mtime = stat.getMtime();
+            } catch (KeeperException.NoNodeException e) {
+                // 已经被删除，按删除处理
+            } catch (Exception e) {
+                log.warn("读取配置节点失败：{}", path, e);
+                return;
+            }
+        }
+        if (Objects.equals(snapshot.get(key), value)) {
+            return;
+        }
+        Map<String, String> next = new HashMap<>(snapshot);
+        if (value == null) {
+            next.remove(key);
+        } else {
+            next.put(key, value);
+        }
+        publish(next, Collections.singletonMap(key, mtime));
+    }
+
+    private void publish(Map<String, String> next, Map<String, Long> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        snapshot = Collections.unmodifiableMap(next);
+        version.incrementAndGet();
+        changed.forEach((key, mtime) -> pending.merge(key, mtime, Math::min));
+        if (environment.getPropertySources().contains(propertySource.getName())) {
+            rebindExecutor.execute(this::rebindPending);
+        }
+    }
+
+    /**
+     * 取出所有等待中的变化，一次重新绑定受影响的bean
+     */
+    private void rebindPending() {
+        Map<String, Long> changed = new HashMap<>();
+        for (String key : pending.keySet()) {
+            Long mtime = pending.remove(key);
+            if (mtime != null) {
+                changed.put(key, mtime);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        try {
+            rebind(changed.keySet());
+        } catch (RuntimeException e) {
+            log.error("重新绑定配置失败：{}", changed.keySet(), e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (long mtime : changed.values()) {
+            long lagMs = Math.max(0, now - mtime);
+            applies.increment();
+            totalApplyLagMs.add(lagMs);
+            maxApplyLagMs.accumulate(lagMs);
+            lastApplyLagMs = lagMs;
+        }
+        Set<String> keys = Collections.unmodifiableSet(changed.keySet());
+        for (Consumer<Set<String>> listener : listeners) {
+            listener.accept(keys);
+        }
+    }
+
+    /**
+     * 前缀匹配任一变化key的@ConfigurationProperties bean绑定到新实例后复制到原bean上；
+     * 构造器绑定的bean(不可变对象)无法原地修改，跳过
+     */
+    private void rebind(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<ConfigurationPropertyName> names = new ArrayList<>();
+        for (String key : keys) {
+            names.add(ConfigurationPropertyName.adapt(key, '.'));
+        }
+        Binder binder = Binder.get(environment);
+        for (ConfigurationPropertiesBean bean : ConfigurationPropertiesBean.getAll(applicationContext).values()) {
+            if (bean.getBindMethod() != ConfigurationPropertiesBean.BindMethod.JAVA_BEAN) {
+                continue;
+            }
+            String prefix = bean.getAnnotation().prefix().isEmpty() ? bean.getAnnotation().value() : bean.getAnnotation().prefix();
+            ConfigurationPropertyName prefixName = ConfigurationPropertyName.of(prefix);
+            if (names.stream().noneMatch(name -> prefixName.equals(name) || prefixName.isAncestorOf(name))) {
+                continue;
+            }
+            Object live = bean.getInstance();
+            Object fresh = BeanUtils.instantiateClass(live.getClass());
+            binder.bind(prefix, Bindable.ofInstance(fresh));
+            BeanUtils.copyProperties(fresh, live);
+            rebinds.increment();
+        }
+    }
+
+    private void connectionStateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState == ConnectionState.RECONNECTED) {
+            scheduleReload();
+        }
+    }
+
+    /**
+     * 在重新绑定线程上重新遍历整棵子树：重连后，或者订阅引擎丢了事件时
+     */
+    private void scheduleReload() {
+        synchronized (this) {
+            loading = true;
+        }
+        rebindExecutor.execute(() -> {
+            try {
+                reload();
+            } catch (Exception e) {
+                synchronized (this) {
+                    loading = false;
+                }
+                log.warn("重新加载配置失败", e);
+            }
+        });
+    }
+
+    /**
+     * /config/curator/lock/holdWindowMs -> curator.lock.holdWindowMs
+     */
+    private String toKey(String path) {
+        return path.substring(configSourceConf.getRootPath().length() + 1).replace('/', '.');
+    }
+
+    private static String decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        String value = new String(data, StandardCharsets.UTF_8).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * 每次读取都取当前快照，property名列表也来自同一份快照
+     */
+    private class SnapshotPropertySource extends EnumerablePropertySource<ZkConfigSource> {
+
+        SnapshotPropertySource() {
+            super("zookeeper:" + configSourceConf.getRootPath(), ZkConfigSource.this);
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return snapshot.keySet().toArray(new String[0]);
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return snapshot.get(name);
+        }
+    }
+}
@@ -1,27 +1,56 @@
 package org.example;
 
+import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.retry.RetryNTimes;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class ZkConfiguration {
 
     @Autowired
     private CuratorConf curatorConf;
 
+    @Autowired
+    private ZkMetricsConf zkMetricsConf;
+
+    @Autowired
+    private ZkClientMetrics clientMetrics;
+
+    @Autowired
+    private ZkRetryPolicies retryPolicies;
+
     /**
      * 这里会自动调用一次start，请勿重复调用
+     * 开启blockUntilConnected时，在bean返回之前等待连接建立(收到CONNECTED事件即返回，不固定sleep)，
+     * 依赖CuratorFramework的其它bean拿到的都是已经连上的客户端；超时仍未连上则启动失败
+     * 监控埋点(ZkClientMetrics)在start之前挂上，第一次连接事件也能统计到
+     * 重试策略由curator.retry决定(见ZkRetryPolicies)。不配置curator.retry时是原来的RetryNTimes(retryCount, elapsedTimeMs)；
+     * 随附的application.yml改成了EXPONENTIAL + circuitBreaker，重试行为和原来不同：最多重试maxRetries次、指数退避，
+     * 连接SUSPENDED/LOST期间不再重试直接抛ConnectionLoss。需要原来的行为时把curator.retry.policy改回FIXED、circuitBreaker改为false
      */
-    @Bean(initMethod = "start")
-    public CuratorFramework curatorFramework() {
-        return CuratorFrameworkFactory.newClient(
+    @Bean(destroyMethod = "close")
+    public CuratorFramework curatorFramework() throws InterruptedException {
+        RetryPolicy retryPolicy = retryPolicies.newPolicy();
+        CuratorFramework client = CuratorFrameworkFactory.newClient(
                 curatorConf.getConnectString(),
                 curatorConf.getSessionTimeoutMs(),
                 curatorConf.getConnectionTimeoutMs(),
-                new RetryNTimes(curatorConf.getRetryCount(), curatorConf.getElapsedTimeMs()));
+                retryPolicy);
+        if (zkMetricsConf.isEnabled()) {
+            clientMetrics.bind(client);
+        }
+        retryPolicies.attach(client, retryPolicy);
+        client.start();
+        if (curatorConf.isBlockUntilConnected()
+                && !client.blockUntilConnected(curatorConf.getConnectionTimeoutMs(), TimeUnit.MILLISECONDS)) {
+            client.close();
+            throw new IllegalStateException("连接zookeeper超时：" + curatorConf.getConnectString());
+        }
+        return client;
     }
 }
@@ -0,0 +1,72 @@
+package org.example;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator端点 /actuator/zookeeper：连接状态、未完成请求数、watch数、重连和会话过期次数，
+ * 监听器事件分发的队列深度、分发延迟、慢回调和丢弃次数，托管临时节点的重建统计，以及最近操作里最慢的路径(?top=N，默认20)
+ */
+@Component
+@Endpoint(id = "zookeeper")
+public class ZkEndpoint {
+
+    @Autowired
+    private ZkClientMetrics clientMetrics;
+
+    @Autowired
+    private ZkSubscriptionEngine subscriptionEngine;
+
+    @Autowired
+    private ZkEphemeralManager ephemeralManager;
+
+    @ReadOperation
+    public Map<String, Object> zookeeper(@Nullable Integer top) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("connectionState", clientMetrics.getConnectionState());
+        result.put("outstandingRequests", clientMetrics.outstandingRequests());
+        result.put("watches", clientMetrics.watches());
+        result.put("reconnects", clientMetrics.getReconnects());
+        result.put("sessionExpirations", clientMetrics.getSessionExpirations());
+        result.put("dispatch", dispatch(subscriptionEngine.getDispatcher()));
+        result.put("subscriptionResyncs", subscriptionEngine.getResyncs());
+        result.put("ephemeral", ephemeral(ephemeralManager));
+        result.put("slowest", clientMetrics.slowest(top == null ? 20 : top));
+        return result;
+    }
+
+    private static Map<String, Object> dispatch(StripedDispatcher dispatcher) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("queueDepth", dispatcher.getQueueDepth());
+        result.put("maxQueueDepth", dispatcher.getMaxQueueDepth());
+        result.put("avgLagMs", dispatcher.getAvgLagMs());
+        result.put("maxLagMs", dispatcher.getMaxLagMs());
+        result.put("slowHandlers", dispatcher.getSlowHandlers());
+        result.put("maxHandlerMs", dispatcher.getMaxHandlerMs());
+        result.put("handlerErrors", dispatcher.getHandlerErrors());
+        result.put("dropped", dispatcher.getDropped());
+        result.put("blocked", dispatcher.getBlocked());
+        return result;
+    }
+
+    private static Map<String, Object> ephemeral(ZkEphemeralManager manager) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ownedNodes", manager.getOwnedNodes());
+        result.put("presentNodes", manager.getPresentNodes());
+        result.put("recoveries", manager.getRecoveries());
+        result.put("recreatedNodes", manager.getRecreatedNodes());
+        result.put("recreateRequests", manager.getRecreateRequests());
+        result.put("recreateFailures", manager.getRecreateFailures());
+        result.put("lastStormSize", manager.getLastStormSize());
+        result.put("maxStormSize", manager.getMaxStormSize());
+        result.put("lastRecoveryMs", manager.getLastRecoveryMs());
+        result.put("maxRecoveryMs", manager.getMaxRecoveryMs());
+        return result;
+    }
+}
@@ -0,0 +1,428 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批量管理本进程拥有的临时节点。临时节点属于创建它的会话，会话过期后全部消失；
+ * curator的PersistentNode会在新会话上重建节点，但每个节点各自一个请求，一个进程有几千个临时节点时，
+ * 会话过期后(往往是一批进程同时过期)会在同一时刻打出几千个create。这里改为：
+ * 1 记录每个节点的数据和创建它的会话id，会话id不等于当前会话的节点就是需要重建的节点；
+ * 2 收到CONNECTED/RECONNECTED后发现会话变了，先随机等待[0, jitterMs)，把多个进程的重建错开；
+ * 3 重建时按maxBatchOps/maxBatchBytes分组，每组一个multi事务，几千个节点只需要几个请求；
+ * 4 某一组事务因为父节点不存在失败时，先建父节点再整组提交一次；因为旧会话的节点还没被服务端删除而失败时，这一组逐个创建，
+ *   创建不了的节点retryDelayMs后再试。
+ *
+ * 从发现会话丢失到全部节点重建完成的耗时、每次重建的节点数(风暴大小)、发出的请求数通过getter暴露，
+ * 开启curator.metrics时同时注册到ZkClientMetrics(zookeeper.ephemeral.*)，/actuator/zookeeper里也能看到。
+ */
+@Component
+public class ZkEphemeralManager {
+
+    private static final Logger log = LoggerFactory.getLogger(ZkEphemeralManager.class);
+
+    private static final int OP_OVERHEAD_BYTES = 128;
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private EphemeralConf ephemeralConf;
+
+    @Autowired
+    private ZkMetricsConf zkMetricsConf;
+
+    @Autowired
+    private ZkClientMetrics clientMetrics;
+
+    private final Map<String, OwnedNode> nodes = new ConcurrentHashMap<>();
+    private final ConnectionStateListener connectionListener = this::connectionStateChanged;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pendingRecovery;
+    private volatile long lostAtNanos;
+
+    private final LongAdder recoveries = new LongAdder();
+    private final LongAdder recreatedNodes = new LongAdder();
+    private final LongAdder recreateRequests = new LongAdder();
+    private final LongAdder recreateFailures = new LongAdder();
+    private final LongAccumulator maxStormSize = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxRecoveryMs = new LongAccumulator(Math::max, 0);
+    private volatile long lastStormSize;
+    private volatile long lastRecoveryMs;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zk-ephemeral");
+            t.setDaemon(true);
+            return t;
+        });
+        client.getConnectionStateListenable().addListener(connectionListener);
+        if (zkMetricsConf.isEnabled()) {
+            clientMetrics.bind(this);
+        }
+    }
+
+    /**
+     * 节点随curator会话关闭一起被服务端删除，这里不再逐个删除
+     */
+    @PreDestroy
+    public void close() {
+        client.getConnectionStateListenable().removeListener(connectionListener);
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 创建并托管一个临时节点，父节点不存在时自动创建
+     */
+    public void register(String path, byte[] data) throws Exception {
+        registerAll(Collections.singletonMap(path, data));
+    }
+
+    /**
+     * 批量创建并托管临时节点，和会话过期后的重建一样按批用multi事务创建。
+     * 连接断开或节点暂时被旧会话占用时不抛异常，节点留在托管列表里由后台重建
+     */
+    public void registerAll(Map<String, byte[]> entries) throws Exception {
+        List<String> paths = new ArrayList<>(entries.size());
+        entries.forEach((path, data) -> {
+            nodes.put(path, new OwnedNode(data));
+            paths.add(path);
+        });
+        try {
+            if (create(paths, currentSession()) < paths.size()) {
+                scheduleRecovery(ephemeralConf.getRetryDelayMs());
+            }
+        } catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+            // 重连后connectionStateChanged会发现这些节点还没有创建
+        }
+    }
+
+    /**
+     * 修改托管节点的数据，会话过期后用新数据重建
+     */
+    public void setData(String path, byte[] data) throws Exception {
+        OwnedNode node = nodes.get(path);
+        if (node == null) {
+            throw new IllegalArgumentException("不是托管的临时节点：" + path);
+        }
+        node.data = data;
+        if (node.owner != 0) {
+            client.setData().forPath(path, data);
+        }
+    }
+
+    /**
+     * 删除节点并停止托管
+     */
+    public void unregister(String path) throws Exception {
+        OwnedNode node = nodes.remove(path);
+        if (node == null || node.owner == 0) {
+            return;
+        }
+        try {
+            client.delete().guaranteed().forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            // 已经随会话消失
+        }
+    }
+
+    /**
+     * 节点在当前会话上是否存在(按本地记录，不访问zookeeper)
+     */
+    public boolean isPresent(String path) {
+        OwnedNode node = nodes.get(path);
+        return node != null && node.owner != 0;
+    }
+
+    public int getOwnedNodes() {
+        return nodes.size();
+    }
+
+    public int getPresentNodes() {
+        return (int) nodes.values().stream().filter(node -> node.owner != 0).count();
+    }
+
+    /**
+     * 会话丢失后完成重建的次数
+     */
+    public long getRecoveries() {
+        return recoveries.sum();
+    }
+
+    public long getRecreatedNodes() {
+        return recreatedNodes.sum();
+    }
+
+    /**
+     * 重建发出的请求数(multi事务和逐个创建都算一次)，远小于getRecreatedNodes()才说明批量起了作用
+     */
+    public long getRecreateRequests() {
+        return recreateRequests.sum();
+    }
+
+    public long getRecreateFailures() {
+        return recreateFailures.sum();
+    }
+
+    /**
+     * 最近一次重建的节点数
+     */
+    public long getLastStormSize() {
+        return lastStormSize;
+    }
+
+    public long getMaxStormSize() {
+        return maxStormSize.get();
+    }
+
+    /**
+     * 最近一次从发现会话丢失到全部节点重建完成的耗时，包括jitter等待
+     */
+    public long getLastRecoveryMs() {
+        return lastRecoveryMs;
+    }
+
+    public long getMaxRecoveryMs() {
+        return maxRecoveryMs.get();
+    }
+
+    private void connectionStateChanged(CuratorFramework c, ConnectionState state) {
+        if (state == ConnectionState.LOST) {
+            // LOST之后curator会丢掉旧句柄，重连上的一定是新会话
+            markLost();
+            nodes.values().forEach(node -> node.owner = 0);
+        } else if (state == ConnectionState.CONNECTED || state == ConnectionState.RECONNECTED) {
+            scheduler.execute(this::checkSession);
+        }
+    }
+
+    private void markLost() {
+        if (lostAtNanos == 0) {
+            lostAtNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * 有节点不属于当前会话时，随机等待一段时间后批量重建
+     */
+    private void checkSession() {
+        long session;
+        try {
+            session = currentSession();
+        } catch (Exception e) {
+            return;
+        }
+        boolean stale = false;
+        for (OwnedNode node : nodes.values()) {
+            if (node.owner != session) {
+                node.owner = 0;
+                stale = true;
+            }
+        }
+        if (stale) {
+            markLost();
+            long jitterMs = ephemeralConf.getJitterMs();
+            scheduleRecovery(jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs) : 0);
+        } else {
+            // 没有托管节点时的LOST，或者原会话重连上了，不算一次重建
+            lostAtNanos = 0;
+        }
+    }
+
+    private synchronized void scheduleRecovery(long delayMs) {
+        if (pendingRecovery != null && !pendingRecovery.isDone()) {
+            return;
+        }
+        pendingRecovery = scheduler.schedule(this::recover, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void recover() {
+        List<String> missing = new ArrayList<>();
+        nodes.forEach((path, node) -> {
+            if (node.owner == 0) {
+                missing.add(path);
+            }
+        });
+        if (missing.isEmpty()) {
+            return;
+        }
+        int created;
+        try {
+            long session = currentSession();
+            created = create(missing, session);
+            if (currentSession() != session) {
+                // 重建过程中会话又变了，这次重建期间的RECONNECTED被pendingRecovery挡掉，这里补一次检查
+                scheduler.execute(this::checkSession);
+            }
+        } catch (Exception e) {
+            log.warn("重建临时节点失败，{}ms后重试", ephemeralConf.getRetryDelayMs(), e);
+            created = 0;
+        }
+        recreatedNodes.add(created);
+        if (created < missing.size()) {
+            recreateFailures.add(missing.size() - created);
+            synchronized (this) {
+                pendingRecovery = scheduler.schedule(this::recover, ephemeralConf.getRetryDelayMs(), TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        lastStormSize = missing.size();
+        maxStormSize.accumulate(missing.size());
+        long lostAt = lostAtNanos;
+        long recoveryMs = -1;
+        if (lostAt != 0) {
+            recoveryMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lostAt);
+            lastRecoveryMs = recoveryMs;
+            maxRecoveryMs.accumulate(recoveryMs);
+            lostAtNanos = 0;
+        }
+        recoveries.increment();
+        clientMetrics.recordEphemeralRecovery(recoveryMs, missing.size());
+        log.info("会话变化后重建临时节点{}个，耗时{}ms", missing.size(), lastRecoveryMs);
+    }
+
+    /**
+     * 按maxBatchOps/maxBatchBytes分组用multi事务创建，返回创建成功(或已属于当前会话)的节点数
+     */
+    private int create(List<String> paths, long session) throws Exception {
+        int created = 0;
+        List<String> batch = new ArrayList<>();
+        int bytes = 0;
+        for (String path : paths) {
+            OwnedNode node = nodes.get(path);
+            if (node == null) {
+                continue;
+            }
+            int size = path.getBytes(StandardCharsets.UTF_8).length + node.data.length + OP_OVERHEAD_BYTES;
+            if (!batch.isEmpty() && (batch.size() >= ephemeralConf.getMaxBatchOps() || bytes + size > ephemeralConf.getMaxBatchBytes())) {
+                created += createBatch(batch, session);
+                batch = new ArrayList<>();
+                bytes = 0;
+            }
+            batch.add(path);
+            bytes += size;
+        }
+        if (!batch.isEmpty()) {
+            created += createBatch(batch, session);
+        }
+        return created;
+    }
+
+    private int createBatch(List<String> paths, long session) throws Exception {
+        if (paths.size() > 1) {
+            List<CuratorOp> ops = new ArrayList<>(paths.size());
+            List<OwnedNode> owned = new ArrayList<>(paths.size());
+            for (String path : paths) {
+                OwnedNode node = nodes.get(path);
+                if (node != null) {
+                    ops.add(client.transactionOp().create().withMode(CreateMode.EPHEMERAL).forPath(path, node.data));
+                    owned.add(node);
+                }
+            }
+            for (int attempt = 0; attempt < 2; attempt++) {
+                recreateRequests.increment();
+                try {
+                    client.transaction().forOperations(ops);
+                    owned.forEach(node -> node.owner = session);
+                    return owned.size();
+                } catch (KeeperException.NoNodeException e) {
+                    // 父节点不存在(比如父节点是容器节点，子节点全部消失后被服务端删除)，建好父节点后整组再提交一次
+                    createParents(paths);
+                } catch (KeeperException.NodeExistsException e) {
+                    break;
+                }
+            }
+            // 事务整体回滚，这一组逐个创建
+        }
+        int created = 0;
+        for (String path : paths) {
+            if (createOne(path, session)) {
+                created++;
+            }
+        }
+        return created;
+    }
+
+    private void createParents(List<String> paths) throws Exception {
+        Set<String> parents = new LinkedHashSet<>();
+        for (String path : paths) {
+            parents.add(ZKPaths.getPathAndNode(path).getPath());
+        }
+        for (String parent : parents) {
+            recreateRequests.increment();
+            try {
+                client.create().creatingParentsIfNeeded().forPath(parent);
+            } catch (KeeperException.NodeExistsException e) {
+                // 已经存在
+            }
+        }
+    }
+
+    /**
+     * 逐个创建，父节点不存在时一并创建。节点已存在且属于当前会话视为成功；属于旧会话时等服务端删除后再试
+     */
+    private boolean createOne(String path, long session) throws Exception {
+        OwnedNode node = nodes.get(path);
+        if (node == null) {
+            return false;
+        }
+        recreateRequests.increment();
+        try {
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, node.data);
+            node.owner = session;
+            return true;
+        } catch (KeeperException.NodeExistsException e) {
+            Stat stat = client.checkExists().forPath(path);
+            if (stat != null && stat.getEphemeralOwner() == session) {
+                node.owner = session;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private long currentSession() throws Exception {
+        return client.getZookeeperClient().getZooKeeper().getSessionId();
+    }
+
+    private static class OwnedNode {
+        private volatile byte[] data;
+        /**
+         * 创建该节点的会话id，0表示节点当前不存在
+         */
+        private volatile long owner;
+
+        OwnedNode(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock;
+import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分布式锁服务。直接用InterProcessMutex时每次加锁都要创建节点、列子节点、删除节点，本进程内多个线程争同一把锁时还要各自排队。
+ * 这里每个锁名在本进程只有一个持有者(LockHolder)去zookeeper拿锁，本地线程在它前面排队：
+ * 1 本地线程之间用LockHolder的监视器排队，同一线程可重入，不访问zookeeper；
+ * 2 释放时如果本地还有线程在等，zookeeper锁直接交给下一个本地线程(hand-off)，连续交接超过maxHandoffs次后必须真正释放一次，
+ *   避免其它节点一直拿不到锁；
+ * 3 本地没有线程等待时，zookeeper锁再保留holdWindowMs，窗口内本地再次加锁直接复用；
+ * 4 读锁在本地共享一把zookeeper读锁，写锁与互斥锁相同；
+ * 5 所有加锁都带超时，超时返回null。
+ *
+ * 用法：
+ * try (ZkLockService.Held held = lockService.tryLock("order", 3, TimeUnit.SECONDS)) {
+ *     if (held == null) { 超时处理 }
+ * }
+ * Held只能由加锁的线程关闭。持有写锁的线程再去加同名读锁不会降级，而是等到写锁释放(或超时)。
+ * 会话丢失时，正在持有的线程不会被打断，但此后zookeeper已经不再为它提供互斥保证。
+ */
+@Component
+public class ZkLockService {
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private LockConf lockConf;
+
+    private ScheduledExecutorService releaseScheduler;
+    private final Map<String, LockHolder> holders = new ConcurrentHashMap<>();
+    private final ConnectionStateListener connectionListener = this::connectionStateChanged;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder zkAcquisitions = new LongAdder();
+    private final LongAdder reuses = new LongAdder();
+    private final LongAdder handoffs = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder lostLeases = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    @PostConstruct
+    public void start() {
+        releaseScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zk-lock-release");
+            t.setDaemon(true);
+            return t;
+        });
+        client.getConnectionStateListenable().addListener(connectionListener);
+    }
+
+    @PreDestroy
+    public void close() {
+        client.getConnectionStateListenable().removeListener(connectionListener);
+        releaseScheduler.shutdownNow();
+        holders.values().forEach(LockHolder::shutdown);
+    }
+
+    /**
+     * 互斥锁
+     */
+    public Held tryLock(String name, long timeout, TimeUnit unit) throws Exception {
+        return acquire("mutex:" + name, name, Mode.EXCLUSIVE, timeout, unit);
+    }
+
+    /**
+     * 读锁，与同名写锁互斥，读锁之间共享
+     */
+    public Held tryReadLock(String name, long timeout, TimeUnit unit) throws Exception {
+        return acquire("read:" + name, name, Mode.READ, timeout, unit);
+    }
+
+    /**
+     * 写锁，与同名读锁、写锁互斥
+     */
+    public Held tryWriteLock(String name, long timeout, TimeUnit unit) throws Exception {
+        return acquire("write:" + name, name, Mode.WRITE, timeout, unit);
+    }
+
+    /**
+     * 本地加锁成功的总次数
+     */
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * 真正到zookeeper加锁的次数，acquisitions - zkAcquisitions即省掉的zookeeper加锁
+     */
+    public long getZkAcquisitions() {
+        return zkAcquisitions.sum();
+    }
+
+    /**
+     * 复用已持有的zookeeper锁的次数(hand-off、保留窗口内再次加锁、读锁共享)
+     */
+    public long getReuses() {
+        return reuses.sum();
+    }
+
+    /**
+     * 释放时直接把zookeeper锁交给本地下一个等待线程的次数
+     */
+    public long getHandoffs() {
+        return handoffs.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * 因连接丢失而作废的zookeeper锁
+     */
+    public long getLostLeases() {
+        return lostLeases.sum();
+    }
+
+    public double getAvgWaitMs() {
+        long count = acquisitions.sum() + timeouts.sum();
+        return count == 0 ? 0 : totalWaitNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxWaitMs() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    private Held acquire(String key, String name, Mode mode, long timeout, TimeUnit unit) throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        try {
+            while (true) {
+                LockHolder holder = holders.computeIfAbsent(key, k -> new LockHolder(k, name, mode));
+                Boolean acquired = holder.acquire(deadline);
+                if (acquired == null) {
+                    // holder已经退役，换一个新的重试
+                    continue;
+                }
+                if (acquired) {
+                    acquisitions.increment();
+                    return new Held(holder, Thread.currentThread());
+                }
+                timeouts.increment();
+                return null;
+            }
+        } finally {
+            long waited = System.nanoTime() - start;
+            totalWaitNanos.add(waited);
+            maxWaitNanos.accumulate(waited);
+        }
+    }
+
+    private void connectionStateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState == ConnectionState.LOST) {
+            holders.values().forEach(LockHolder::leaseLost);
+        }
+    }
+
+    private enum Mode {
+        EXCLUSIVE, READ, WRITE
+    }
+
+    /**
+     * 已加上的锁，close释放；只能由加锁的线程关闭
+     */
+    public static class Held implements AutoCloseable {
+        private final LockHolder holder;
+        private final Thread thread;
+        private boolean closed;
+
+        Held(LockHolder holder, Thread thread) {
+            this.holder = holder;
+            this.thread = thread;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            if (Thread.currentThread() != thread) {
+                throw new IllegalMonitorStateException("锁只能由加锁的线程释放：" + holder.key);
+            }
+            closed = true;
+            holder.release(thread);
+        }
+    }
+
+    /**
+     * zookeeper上的一把锁
+     */
+    private interface ZkLease {
+        boolean acquire(long timeoutNanos) throws Exception;
+
+        void release() throws Exception;
+
+        default void shutdown() {
+        }
+    }
+
+    /**
+     * InterProcessSemaphoreMutex不绑定线程，任何线程都可以释放，适合交接给其它本地线程
+     */
+    private static class SemaphoreLease implements ZkLease {
+        private final InterProcessSemaphoreMutex mutex;
+
+        SemaphoreLease(InterProcessSemaphoreMutex mutex) {
+            this.mutex = mutex;
+        }
+
+        @Override
+        public boolean acquire(long timeoutNanos) throws Exception {
+            return mutex.acquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void release() throws Exception {
+            mutex.release();
+        }
+    }
+
+    /**
+     * InterProcessReadWriteLock的读锁和写锁是InterProcessMutex，只能由加锁的线程释放，
+     * 所以加锁和释放都放到这把锁专属的线程上执行
+     */
+    private static class ThreadBoundLease implements ZkLease {
+        private final InterProcessMutex mutex;
+        private final ExecutorService leaseThread;
+
+        ThreadBoundLease(InterProcessMutex mutex, String key) {
+            this.mutex = mutex;
+            this.leaseThread = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "zk-lock-" + key);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        /**
+         * 调用线程等待期间被中断时，锁可能稍后才在专属线程上加上：由专属线程发现调用方已经放弃并立即释放
+         */
+        @Override
+        public boolean acquire(long timeoutNanos) throws Exception {
+            // 0等待结果，1已交给调用方，2调用方已放弃
+            AtomicInteger state = new AtomicInteger();
+            Future<Boolean> future = leaseThread.submit(() -> {
+                boolean acquired = mutex.acquire(timeoutNanos, TimeUnit.NANOSECONDS);
+                if (acquired && !state.compareAndSet(0, 1)) {
+                    mutex.release();
+                    return false;
+                }
+                return acquired;
+            });
+            try {
+                return call(future);
+            } catch (InterruptedException e) {
+                if (!state.compareAndSet(0, 2)) {
+                    // 专属线程已经加上了锁，排在它后面释放
+                    leaseThread.execute(() -> {
+                        try {
+                            mutex.release();
+                        } catch (Exception ignored) {
+                            // 锁节点已经不在
+                        }
+                    });
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void release() throws Exception {
+            call(leaseThread.submit(() -> {
+                mutex.release();
+                return null;
+            }));
+        }
+
+        @Override
+        public void shutdown() {
+            leaseThread.shutdown();
+        }
+
+        private static <T> T call(Future<T> future) throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
+    /**
+     * 一个锁名在本进程内的唯一持有者，所有状态由自身的监视器保护
+     */
+    private class LockHolder {
+        private final String key;
+        private final boolean shared;
+        private final ZkLease lease;
+
+        private boolean leased;
+        private boolean transitioning;
+        private boolean draining;
+        private boolean retired;
+        private Thread owner;
+        private int ownerHolds;
+        private final Map<Thread, Integer> readers = new HashMap<>();
+        private int waiting;
+        private int reusesSinceAcquire;
+        private ScheduledFuture<?> pendingRelease;
+
+        LockHolder(String key, String name, Mode mode) {
+            this.key = key;
+            this.shared = mode == Mode.READ;
+            if (mode == Mode.EXCLUSIVE) {
+                lease = new SemaphoreLease(new InterProcessSemaphoreMutex(client, lockConf.getRootPath() + "/mutex/" + name));
+            } else {
+                InterProcessReadWriteLock readWriteLock = new InterProcessReadWriteLock(client, lockConf.getRootPath() + "/rw/" + name);
+                lease = new ThreadBoundLease(mode == Mode.READ ? readWriteLock.readLock() : readWriteLock.writeLock(), key);
+            }
+        }
+
+        /**
+         * @return true加锁成功，false超时，null表示holder已退役需要重试
+         */
+        Boolean acquire(long deadline) throws Exception {
+            Thread me = Thread.currentThread();
+            synchronized (this) {
+                if (retired) {
+                    return null;
+                }
+                if (reenter(me)) {
+                    return true;
+                }
+                waiting++;
+                boolean ready = false;
+                try {
+                    while (!canEnter()) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        if (retired) {
+                            return null;
+                        }
+                    }
+                    ready = true;
+                } finally {
+                    waiting--;
+                    if (!ready) {
+                        releaseAbandoned();
+                    }
+                }
+                enter(me);
+                cancelPendingRelease();
+                if (leased) {
+                    reuses.increment();
+                    reusesSinceAcquire++;
+                    if (shared && reusesSinceAcquire >= lockConf.getMaxHandoffs()) {
+                        // 读锁一直有人共享就永远不会释放，写锁会饿死，共享次数到上限后不再接纳新的读者
+                        draining = true;
+                    }
+                    return true;
+                }
+                transitioning = true;
+            }
+
+            boolean ok = false;
+            try {
+                ok = lease.acquire(Math.max(0, deadline - System.nanoTime()));
+                return ok;
+            } finally {
+                synchronized (this) {
+                    transitioning = false;
+                    if (ok) {
+                        zkAcquisitions.increment();
+                        leased = true;
+                        reusesSinceAcquire = 0;
+                    } else {
+                        leave(me);
+                        retireIfIdle();
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        void release(Thread me) {
+            synchronized (this) {
+                if (!shared && ownerHolds > 1) {
+                    ownerHolds--;
+                    return;
+                }
+                if (shared && readers.getOrDefault(me, 0) > 1) {
+                    readers.merge(me, -1, Integer::sum);
+                    return;
+                }
+                leave(me);
+                if (shared && !readers.isEmpty()) {
+                    return;
+                }
+                if (!leased) {
+                    // 连接丢失后zookeeper锁已经作废，让等待的线程重新去拿
+                    notifyAll();
+                    retireIfIdle();
+                    return;
+                }
+                if (!draining && waiting > 0 && reusesSinceAcquire < lockConf.getMaxHandoffs()) {
+                    handoffs.increment();
+                    notifyAll();
+                    return;
+                }
+                if (!draining && waiting == 0 && lockConf.getHoldWindowMs() > 0) {
+                    pendingRelease = releaseScheduler.schedule(this::releaseIfIdle, lockConf.getHoldWindowMs(), TimeUnit.MILLISECONDS);
+                    return;
+                }
+                beginRelease();
+            }
+            releaseLease();
+        }
+
+        void leaseLost() {
+            synchronized (this) {
+                if (!leased) {
+                    return;
+                }
+                lostLeases.increment();
+                leased = false;
+                cancelPendingRelease();
+            }
+            // 会话已经丢失，释放大概率失败，只是尽量清理
+            releaseScheduler.execute(() -> {
+                try {
+                    lease.release();
+                } catch (Exception e) {
+                    // ignore
+                }
+            });
+        }
+
+        void shutdown() {
+            lease.shutdown();
+        }
+
+        private void releaseIfIdle() {
+            synchronized (this) {
+                pendingRelease = null;
+                if (!leased || transitioning || owner != null || !readers.isEmpty() || waiting > 0) {
+                    return;
+                }
+                beginRelease();
+            }
+            releaseLease();
+        }
+
+        /**
+         * 等待的线程超时或被中断后放弃：release()可能因为有人等待而把zookeeper锁交接给了它，
+         * 没有其它人接手时安排释放，否则锁一直留在本进程里(leased且无人持有)
+         */
+        private void releaseAbandoned() {
+            if (leased && !transitioning && owner == null && readers.isEmpty() && waiting == 0 && pendingRelease == null) {
+                pendingRelease = releaseScheduler.schedule(this::releaseIfIdle, lockConf.getHoldWindowMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void beginRelease() {
+            transitioning = true;
+            leased = false;
+            draining = false;
+        }
+
+        private void releaseLease() {
+            try {
+                lease.release();
+            } catch (Exception e) {
+                // 锁节点已经不在(例如会话过期)，不影响本地状态
+            } finally {
+                synchronized (this) {
+                    transitioning = false;
+                    notifyAll();
+                    retireIfIdle();
+                }
+            }
+        }
+
+        private boolean reenter(Thread me) {
+            if (shared) {
+                Integer holds = readers.get(me);
+                if (holds != null) {
+                    readers.put(me, holds + 1);
+                    return true;
+                }
+                return false;
+            }
+            if (owner == me) {
+                ownerHolds++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean canEnter() {
+            if (transitioning || draining) {
+                return false;
+            }
+            return shared || owner == null;
+        }
+
+        private void enter(Thread me) {
+            if (shared) {
+                readers.put(me, 1);
+            } else {
+                owner = me;
+                ownerHolds = 1;
+            }
+        }
+
+        private void leave(Thread me) {
+            if (shared) {
+                readers.remove(me);
+            } else if (owner == me) {
+                owner = null;
+                ownerHolds = 0;
+            }
+        }
+
+        private void cancelPendingRelease() {
+            if (pendingRelease != null) {
+                pendingRelease.cancel(false);
+                pendingRelease = null;
+            }
+        }
+
+        /**
+         * 没有人持有、等待，zookeeper锁也已释放时从holders中移除，避免锁名越来越多
+         */
+        private void retireIfIdle() {
+            if (leased || transitioning || owner != null || !readers.isEmpty() || waiting > 0 || pendingRelease != null) {
+                return;
+            }
+            retired = true;
+            holders.remove(key, this);
+            lease.shutdown();
+        }
+    }
+}
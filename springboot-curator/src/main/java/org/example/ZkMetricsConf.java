@@ -0,0 +1,45 @@
+package org.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "curator.metrics")
+public class ZkMetricsConf {
+    private boolean enabled = true;
+    private int pathPrefixDepth = 1;
+    private boolean percentileHistogram;
+    private int recentOps = 1024;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getPathPrefixDepth() {
+        return pathPrefixDepth;
+    }
+
+    public void setPathPrefixDepth(int pathPrefixDepth) {
+        this.pathPrefixDepth = pathPrefixDepth;
+    }
+
+    public boolean isPercentileHistogram() {
+        return percentileHistogram;
+    }
+
+    public void setPercentileHistogram(boolean percentileHistogram) {
+        this.percentileHistogram = percentileHistogram;
+    }
+
+    public int getRecentOps() {
+        return recentOps;
+    }
+
+    public void setRecentOps(int recentOps) {
+        this.recentOps = recentOps;
+    }
+}
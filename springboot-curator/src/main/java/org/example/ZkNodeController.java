@@ -0,0 +1,211 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UrlPathHelper;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 节点增删改查的REST接口，URL里/zk/nodes之后的部分就是节点路径，节点数据按UTF-8字符串收发：
+ * GET    /zk/nodes/a/b                 读数据和stat
+ * GET    /zk/nodes/a/b?children=true   列出子节点
+ * PUT    /zk/nodes/a/b  body=数据       不存在则创建(父节点一并创建)，存在则覆盖
+ * DELETE /zk/nodes/a/b?recursive=true  删除，recursive时连同子节点
+ *
+ * /zk/nodes走ReactiveZkClient，返回Mono，Tomcat工作线程发出请求后立即释放，响应在zookeeper回调里异步写回；
+ * /zk/blocking/nodes是同样的接口，用CuratorFramework同步调用，每次往返都占着一个工作线程，用于对比(WebLoadBenchmark)。
+ *
+ * 接口没有鉴权，递归删除可以删掉整棵子树，所以默认不注册，curator.reactive.nodeApi.enabled开启；
+ * 只能访问curator.reactive.nodeApi.rootPath子树内的节点(rootPath不能是/)，其它路径返回403。
+ */
+@RestController
+@RequestMapping("/zk")
+@ConditionalOnProperty(prefix = "curator.reactive.node-api", name = "enabled", havingValue = "true")
+public class ZkNodeController {
+
+    private static final String NODES = "/zk/nodes";
+    private static final String BLOCKING_NODES = "/zk/blocking/nodes";
+    private static final UrlPathHelper URL_PATH_HELPER = new UrlPathHelper();
+
+    @Autowired
+    private ReactiveZkClient reactiveClient;
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ReactiveConf reactiveConf;
+
+    private String rootPath;
+
+    @PostConstruct
+    public void start() {
+        rootPath = reactiveConf.getNodeApi().getRootPath();
+        if (rootPath == null || rootPath.isEmpty() || rootPath.equals("/")) {
+            throw new IllegalStateException("开启节点接口时必须指定curator.reactive.nodeApi.rootPath，且不能是/：" + rootPath);
+        }
+    }
+
+    @GetMapping("/nodes/**")
+    public Mono<Map<String, Object>> get(HttpServletRequest request, @RequestParam(defaultValue = "false") boolean children) {
+        String path = nodePath(request, NODES);
+        if (children) {
+            return reactiveClient.getChildren(path).map(list -> children(path, list));
+        }
+        return reactiveClient.getNode(path).map(node -> node(path, node.getData(), node.getStat()));
+    }
+
+    @PutMapping("/nodes/**")
+    public Mono<Map<String, Object>> put(HttpServletRequest request, @RequestBody(required = false) String data) {
+        String path = nodePath(request, NODES);
+        return reactiveClient.createOrSetData(path, bytes(data)).map(ZkNodeController::created);
+    }
+
+    @DeleteMapping("/nodes/**")
+    public Mono<ResponseEntity<Void>> delete(HttpServletRequest request, @RequestParam(defaultValue = "false") boolean recursive) {
+        String path = nodePath(request, NODES);
+        Mono<Void> deleted = recursive ? reactiveClient.deleteRecursively(path) : reactiveClient.delete(path);
+        return deleted.then(Mono.just(ResponseEntity.noContent().<Void>build()));
+    }
+
+    @GetMapping("/blocking/nodes/**")
+    public Map<String, Object> getBlocking(HttpServletRequest request, @RequestParam(defaultValue = "false") boolean children) throws Exception {
+        String path = nodePath(request, BLOCKING_NODES);
+        if (children) {
+            return children(path, client.getChildren().forPath(path));
+        }
+        Stat stat = new Stat();
+        byte[] data = client.getData().storingStatIn(stat).forPath(path);
+        return node(path, data, stat);
+    }
+
+    @PutMapping("/blocking/nodes/**")
+    public Map<String, Object> putBlocking(HttpServletRequest request, @RequestBody(required = false) String data) throws Exception {
+        String path = nodePath(request, BLOCKING_NODES);
+        return created(client.create().orSetData().creatingParentsIfNeeded().forPath(path, bytes(data)));
+    }
+
+    @DeleteMapping("/blocking/nodes/**")
+    public ResponseEntity<Void> deleteBlocking(HttpServletRequest request, @RequestParam(defaultValue = "false") boolean recursive) throws Exception {
+        String path = nodePath(request, BLOCKING_NODES);
+        if (recursive) {
+            client.delete().deletingChildrenIfNeeded().forPath(path);
+        } else {
+            client.delete().forPath(path);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Mono以异常结束时同样会走到这里
+     */
+    @ExceptionHandler(KeeperException.class)
+    public ResponseEntity<Map<String, Object>> keeperException(KeeperException e) {
+        HttpStatus status;
+        switch (e.code()) {
+            case NONODE:
+                status = HttpStatus.NOT_FOUND;
+                break;
+            case NODEEXISTS:
+            case NOTEMPTY:
+            case BADVERSION:
+                status = HttpStatus.CONFLICT;
+                break;
+            case BADARGUMENTS:
+                status = HttpStatus.BAD_REQUEST;
+                break;
+            case CONNECTIONLOSS:
+            case SESSIONEXPIRED:
+            case OPERATIONTIMEOUT:
+                status = HttpStatus.SERVICE_UNAVAILABLE;
+                break;
+            default:
+                status = HttpStatus.INTERNAL_SERVER_ERROR;
+                break;
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("path", e.getPath());
+        body.put("error", e.code().name());
+        return ResponseEntity.status(status).body(body);
+    }
+
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<Map<String, Object>> rejected(ResponseStatusException e) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", e.getReason());
+        return ResponseEntity.status(e.getStatus()).body(body);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> illegalArgument(IllegalArgumentException e) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", e.getMessage());
+        return ResponseEntity.badRequest().body(body);
+    }
+
+    /**
+     * 去掉接口前缀后的节点路径，/zk/nodes本身对应根节点；路径不合法时由curator抛出IllegalArgumentException，
+     * 不在rootPath子树内时返回403。路径里的.和..会被curator当作不合法路径拒绝，不能借此跳出子树
+     */
+    private String nodePath(HttpServletRequest request, String prefix) {
+        String path = URL_PATH_HELPER.getPathWithinApplication(request).substring(prefix.length());
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        path = path.isEmpty() ? "/" : path;
+        if (!path.equals(rootPath) && !path.startsWith(rootPath + "/")) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "只能访问" + rootPath + "下的节点：" + path);
+        }
+        return path;
+    }
+
+    private static byte[] bytes(String data) {
+        return data == null ? new byte[0] : data.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, Object> node(String path, byte[] data, Stat stat) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("path", path);
+        body.put("data", data == null ? null : new String(data, StandardCharsets.UTF_8));
+        body.put("version", stat.getVersion());
+        body.put("mzxid", stat.getMzxid());
+        body.put("mtime", stat.getMtime());
+        body.put("numChildren", stat.getNumChildren());
+        body.put("ephemeral", stat.getEphemeralOwner() != 0);
+        return body;
+    }
+
+    private static Map<String, Object> children(String path, List<String> children) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("path", path);
+        body.put("children", children);
+        return body;
+    }
+
+    private static Map<String, Object> created(String path) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("path", path);
+        return body;
+    }
+}
@@ -0,0 +1,776 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 集群限流。InterProcessSemaphoreV2每个许可都要建节点、列子节点、删节点，放在请求路径上太慢；
+ * 这里每个节点从共享的额度节点按批租用许可，本地无锁分配，只有批次用完时才访问zookeeper。
+ *
+ * 两种限流器，节点结构相同：
+ * rootPath/limiters(或semaphores)/名称/budget            额度节点，租用和归还都是对它的CAS(版本号)
+ * rootPath/limiters(或semaphores)/名称/members/成员id    临时节点(PersistentNode，会话过期后自动重建)
+ *
+ * 1 RateLimiter：每个时间窗口(windowMs)全集群最多permitsPerWindow个许可。额度节点保存"窗口号:剩余"，
+ *   租用时如果节点里是旧窗口就先重置剩余额度；本地令牌桶用AtomicLong的CAS扣减，剩余不足prefetchRatio时异步租下一批；
+ *   窗口号由各节点的本地时钟计算，依赖时钟大致同步；
+ * 2 Semaphore：全集群同时持有的许可不超过maxPermits。额度节点保存"成员=租用数,..."，
+ *   租用时先去掉已经没有成员节点的条目(成员下线或会话过期)，再从剩余额度里分配；release先回到本地池，池子超过两批时归还多出的部分；
+ * 3 每批的大小 = 额度 / 成员数 * batchRatio，成员数来自members子节点的订阅(ZkSubscriptionEngine)，
+ *   成员变化时重新计算批大小，本地多出的令牌立即归还，新加入的节点不会因为额度都被老节点预占而饿死；
+ * 4 会话过期(LOST)时丢弃本地未用的令牌，重连后归还给额度节点(Semaphore改为按实际持有数重写自己的条目)；
+ *   bean关闭时归还所有未用的令牌并删除成员节点。
+ *
+ * 同一名称在所有节点上的额度必须一致；额度节点访问失败时tryAcquire返回false(按限流处理)，次数见getLeaseFailures()。
+ */
+@Component
+public class ZkRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ZkRateLimiter.class);
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ZkAtomicUpdater atomicUpdater;
+
+    @Autowired
+    private ZkSubscriptionEngine subscriptionEngine;
+
+    @Autowired
+    private RateLimitConf rateLimitConf;
+
+    private final String memberId = UUID.randomUUID().toString();
+    private final Map<String, Limiter> limiters = new ConcurrentHashMap<>();
+    private final ConnectionStateListener connectionListener = this::connectionStateChanged;
+    private ExecutorService leaseExecutor;
+
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder leaseWaits = new LongAdder();
+    private final LongAdder leaseFailures = new LongAdder();
+    private final LongAdder returnedTokens = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        leaseExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "zk-rate-limit-lease");
+            t.setDaemon(true);
+            return t;
+        });
+        client.getConnectionStateListenable().addListener(connectionListener);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        client.getConnectionStateListenable().removeListener(connectionListener);
+        limiters.values().forEach(Limiter::close);
+        limiters.clear();
+        leaseExecutor.shutdown();
+        leaseExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 按时间窗口限流，每个窗口(curator.rate-limit.windowMs)全集群最多permitsPerWindow个许可
+     */
+    public synchronized RateLimiter rateLimiter(String name, long permitsPerWindow) throws Exception {
+        Limiter existing = limiters.get("limiters/" + name);
+        if (existing != null) {
+            return (RateLimiter) existing;
+        }
+        RateLimiter limiter = new RateLimiter(name, permitsPerWindow);
+        limiter.start();
+        limiters.put("limiters/" + name, limiter);
+        return limiter;
+    }
+
+    /**
+     * 并发数限制，全集群同时持有的许可不超过maxPermits，用完必须release
+     */
+    public synchronized Semaphore semaphore(String name, long maxPermits) throws Exception {
+        Limiter existing = limiters.get("semaphores/" + name);
+        if (existing != null) {
+            return (Semaphore) existing;
+        }
+        Semaphore semaphore = new Semaphore(name, maxPermits);
+        semaphore.start();
+        limiters.put("semaphores/" + name, semaphore);
+        return semaphore;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    /**
+     * 从额度节点租用令牌的次数
+     */
+    public long getLeases() {
+        return leases.sum();
+    }
+
+    /**
+     * 本地令牌用完、调用线程不得不等待租用的次数
+     */
+    public long getLeaseWaits() {
+        return leaseWaits.sum();
+    }
+
+    /**
+     * 租用失败(连接断开、超时、冲突超过重试次数)而按限流处理的次数
+     */
+    public long getLeaseFailures() {
+        return leaseFailures.sum();
+    }
+
+    /**
+     * 归还给额度节点的令牌数(成员变化、会话过期、关闭)
+     */
+    public long getReturnedTokens() {
+        return returnedTokens.sum();
+    }
+
+    private void connectionStateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState == ConnectionState.LOST) {
+            limiters.values().forEach(Limiter::sessionLost);
+        } else if (newState == ConnectionState.RECONNECTED) {
+            limiters.values().forEach(Limiter::reconnected);
+        }
+    }
+
+    /**
+     * 从本地计数中取走超过keep的部分，返回取走的数量
+     */
+    private static long takeExcess(AtomicLong tokens, long keep) {
+        while (true) {
+            long current = tokens.get();
+            if (current <= keep) {
+                return 0;
+            }
+            if (tokens.compareAndSet(current, keep)) {
+                return current - keep;
+            }
+        }
+    }
+
+    /**
+     * 两种限流器共用的部分：额度节点、成员节点和成员数订阅
+     */
+    private abstract class Limiter implements Closeable {
+        final String name;
+        final String budgetPath;
+        final String membersPath;
+        private final PersistentNode memberNode;
+        private final Set<String> members = ConcurrentHashMap.newKeySet();
+        private ZkSubscriptionEngine.Subscription membersSubscription;
+
+        Limiter(String kind, String name) {
+            this.name = name;
+            String basePath = rateLimitConf.getRootPath() + "/" + kind + "/" + name;
+            this.budgetPath = basePath + "/budget";
+            this.membersPath = basePath + "/members";
+            this.memberNode = new PersistentNode(client, CreateMode.EPHEMERAL, false, membersPath + "/" + memberId, new byte[0]);
+        }
+
+        void start() throws Exception {
+            try {
+                client.create().creatingParentsIfNeeded().forPath(budgetPath, initialBudget());
+            } catch (KeeperException.NodeExistsException e) {
+                // 其它节点已经创建过
+            }
+            client.createContainers(membersPath);
+            memberNode.start();
+            if (!memberNode.waitForInitialCreate(rateLimitConf.getLeaseTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                memberNode.close();
+                throw new IllegalStateException("创建成员节点超时：" + memberNode.getActualPath());
+            }
+            members.add(memberNode.getActualPath());
+            membersSubscription = subscriptionEngine.subscribe(membersPath, 1, membersPath + "/", new CuratorCacheListener() {
+                @Override
+                public void event(Type type, ChildData oldData, ChildData data) {
+                    boolean changed = type == Type.NODE_CREATED ? members.add(data.getPath())
+                            : type == Type.NODE_DELETED && members.remove(oldData.getPath());
+                    if (changed) {
+                        membersChanged();
+                    }
+                }
+            });
+        }
+
+        /**
+         * 当前成员数，至少为1
+         */
+        public int getMembers() {
+            return Math.max(1, members.size());
+        }
+
+        /**
+         * 每批租用的令牌数 = 额度 / 成员数 * batchRatio，至少为1
+         */
+        long batchSize(long budget) {
+            return Math.max(1, (long) (budget / (double) getMembers() * rateLimitConf.getBatchRatio()));
+        }
+
+        abstract byte[] initialBudget();
+
+        abstract void membersChanged();
+
+        abstract void sessionLost();
+
+        abstract void reconnected();
+
+        abstract void returnAll() throws Exception;
+
+        @Override
+        public void close() {
+            try {
+                if (client.getZookeeperClient().isConnected()) {
+                    returnAll();
+                }
+            } catch (Exception e) {
+                log.warn("归还令牌失败：{}", budgetPath, e);
+            }
+            if (membersSubscription != null) {
+                membersSubscription.close();
+            }
+            try {
+                memberNode.close();
+            } catch (Exception e) {
+                log.warn("删除成员节点失败：{}", memberNode.getActualPath(), e);
+            }
+        }
+    }
+
+    /**
+     * 一个窗口内租到的令牌，窗口过去后自动作废，不需要归还
+     */
+    private static class Bucket {
+        private static final Bucket EMPTY = new Bucket(-1, 0, 0, false);
+
+        final long window;
+        final AtomicLong tokens;
+        final long prefetchAt;
+        volatile boolean exhausted;
+
+        Bucket(long window, long tokens, long prefetchAt, boolean exhausted) {
+            this.window = window;
+            this.tokens = new AtomicLong(tokens);
+            this.prefetchAt = prefetchAt;
+            this.exhausted = exhausted;
+        }
+    }
+
+    /**
+     * 一次租用的结果，remaining为租用后额度节点里剩下的令牌
+     */
+    private static class Grant {
+        final long window;
+        final long count;
+        final long remaining;
+
+        Grant(long window, long count, long remaining) {
+            this.window = window;
+            this.count = count;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * 按时间窗口限流
+     */
+    public class RateLimiter extends Limiter {
+        private final long permitsPerWindow;
+        private volatile Bucket bucket = Bucket.EMPTY;
+        private final AtomicReference<CompletableFuture<Grant>> pending = new AtomicReference<>();
+        private final Object refillLock = new Object();
+        private volatile Grant lost;
+
+        RateLimiter(String name, long permitsPerWindow) {
+            super("limiters", name);
+            this.permitsPerWindow = permitsPerWindow;
+        }
+
+        /**
+         * 取一个许可，本地有令牌时只是一次CAS；本窗口全集群额度已用完时返回false，不等待
+         */
+        public boolean tryAcquire() {
+            long window = System.currentTimeMillis() / rateLimitConf.getWindowMs();
+            while (true) {
+                Bucket current = bucket;
+                if (current.window == window) {
+                    long tokens = current.tokens.get();
+                    if (tokens > 0) {
+                        if (current.tokens.compareAndSet(tokens, tokens - 1)) {
+                            if (tokens - 1 == current.prefetchAt && !current.exhausted) {
+                                prefetch(window);
+                            }
+                            return true;
+                        }
+                        continue;
+                    }
+                    if (current.exhausted) {
+                        return false;
+                    }
+                }
+                if (!refill(current, window)) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * 取一个许可，本窗口额度已用完时等到下一个窗口再试，超时返回false
+         */
+        public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+            while (!tryAcquire()) {
+                long now = System.currentTimeMillis();
+                long nextWindow = (now / rateLimitConf.getWindowMs() + 1) * rateLimitConf.getWindowMs();
+                if (nextWindow > deadline) {
+                    return false;
+                }
+                Thread.sleep(nextWindow - now);
+            }
+            return true;
+        }
+
+        /**
+         * 本地当前窗口未用的令牌数
+         */
+        public long getLocalTokens() {
+            Bucket current = bucket;
+            return current.window == System.currentTimeMillis() / rateLimitConf.getWindowMs() ? current.tokens.get() : 0;
+        }
+
+        /**
+         * 本地令牌用完，等待一次租用；返回false表示本窗口无法再取到许可
+         */
+        private boolean refill(Bucket seen, long window) {
+            synchronized (refillLock) {
+                Bucket current = bucket;
+                if (current.window > window) {
+                    // 其它节点的时钟快，额度节点已经进入下一个窗口，等本地时钟赶上
+                    return false;
+                }
+                if (current.window == window && (current.tokens.get() > 0 || current.exhausted)) {
+                    return current.tokens.get() > 0;
+                }
+                if (!client.getZookeeperClient().isConnected()) {
+                    leaseFailures.increment();
+                    return false;
+                }
+                CompletableFuture<Grant> future = prefetch(window);
+                if (!future.isDone()) {
+                    leaseWaits.increment();
+                }
+                try {
+                    future.get(rateLimitConf.getLeaseTimeoutMs(), TimeUnit.MILLISECONDS);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (ExecutionException | TimeoutException e) {
+                    leaseFailures.increment();
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * 只有一个租用在进行，其它线程拿到同一个future；租到的令牌直接加到本地桶里
+         */
+        private CompletableFuture<Grant> prefetch(long window) {
+            CompletableFuture<Grant> future = new CompletableFuture<>();
+            while (!pending.compareAndSet(null, future)) {
+                CompletableFuture<Grant> inFlight = pending.get();
+                if (inFlight != null) {
+                    return inFlight;
+                }
+            }
+            lease(window).whenComplete((grant, e) -> {
+                if (e != null) {
+                    pending.compareAndSet(future, null);
+                    future.completeExceptionally(e);
+                } else {
+                    apply(grant);
+                    pending.compareAndSet(future, null);
+                    future.complete(grant);
+                }
+            });
+            return future;
+        }
+
+        private CompletableFuture<Grant> lease(long window) {
+            long batch = batchSize(permitsPerWindow);
+            // 冲突时updater会被重新调用，最后一次调用的结果就是写入成功的那次
+            AtomicReference<Grant> granted = new AtomicReference<>();
+            return atomicUpdater.updateAsync(budgetPath, data -> {
+                long[] budget = decode(data);
+                long effectiveWindow = Math.max(budget[0], window);
+                long remaining = budget[0] < effectiveWindow ? permitsPerWindow : budget[1];
+                long count = Math.min(batch, remaining);
+                granted.set(new Grant(effectiveWindow, count, remaining - count));
+                return encode(effectiveWindow, remaining - count);
+            }).thenApply(next -> {
+                leases.increment();
+                return granted.get();
+            });
+        }
+
+        private synchronized void apply(Grant grant) {
+            Bucket current = bucket;
+            if (grant.window == current.window) {
+                current.tokens.addAndGet(grant.count);
+                current.exhausted = grant.remaining == 0;
+            } else if (grant.window > current.window) {
+                long prefetchAt = (long) (batchSize(permitsPerWindow) * rateLimitConf.getPrefetchRatio());
+                bucket = new Bucket(grant.window, grant.count, prefetchAt, grant.remaining == 0);
+            }
+            // 更早窗口的令牌已经作废，直接丢弃
+        }
+
+        /**
+         * 把本地没用的令牌还给额度节点，额度节点已经进入其它窗口时不用还
+         */
+        private CompletableFuture<byte[]> giveBack(long window, long count) {
+            if (count <= 0 || window < System.currentTimeMillis() / rateLimitConf.getWindowMs()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            returnedTokens.add(count);
+            return atomicUpdater.updateAsync(budgetPath, data -> {
+                long[] budget = decode(data);
+                return budget[0] == window ? encode(window, Math.min(permitsPerWindow, budget[1] + count)) : data;
+            });
+        }
+
+        @Override
+        byte[] initialBudget() {
+            return encode(0, 0);
+        }
+
+        @Override
+        void membersChanged() {
+            Bucket current = bucket;
+            giveBack(current.window, takeExcess(current.tokens, batchSize(permitsPerWindow)));
+        }
+
+        @Override
+        void sessionLost() {
+            Bucket current = bucket;
+            long unused = current.tokens.getAndSet(0);
+            if (unused > 0) {
+                lost = new Grant(current.window, unused, 0);
+            }
+        }
+
+        @Override
+        void reconnected() {
+            Grant unused = lost;
+            lost = null;
+            if (unused != null) {
+                giveBack(unused.window, unused.count);
+            }
+        }
+
+        @Override
+        void returnAll() throws Exception {
+            Bucket current = bucket;
+            giveBack(current.window, current.tokens.getAndSet(0)).get(rateLimitConf.getLeaseTimeoutMs(), TimeUnit.MILLISECONDS);
+        }
+
+        private byte[] encode(long window, long remaining) {
+            return (window + ":" + remaining).getBytes(StandardCharsets.UTF_8);
+        }
+
+        private long[] decode(byte[] data) {
+            String text = new String(data, StandardCharsets.UTF_8);
+            int colon = text.indexOf(':');
+            return new long[]{Long.parseLong(text.substring(0, colon)), Long.parseLong(text.substring(colon + 1))};
+        }
+    }
+
+    /**
+     * 全集群并发数限制
+     */
+    public class Semaphore extends Limiter {
+        private final long maxPermits;
+        private final AtomicLong pool = new AtomicLong();
+        private final AtomicLong inUse = new AtomicLong();
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+        private final Object leaseLock = new Object();
+        private volatile boolean reconcile;
+
+        Semaphore(String name, long maxPermits) {
+            super("semaphores", name);
+            this.maxPermits = maxPermits;
+        }
+
+        /**
+         * 取一个许可，本地池里有许可时只是一次CAS；全集群已经没有空闲许可时返回false
+         */
+        public boolean tryAcquire() {
+            while (true) {
+                long available = pool.get();
+                if (available > 0) {
+                    if (pool.compareAndSet(available, available - 1)) {
+                        inUse.incrementAndGet();
+                        if (available - 1 == (long) (batchSize(maxPermits) * rateLimitConf.getPrefetchRatio())) {
+                            prefetch();
+                        }
+                        return true;
+                    }
+                    continue;
+                }
+                if (!lease()) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * 取一个许可，没有空闲许可时轮询等待，超时返回false
+         */
+        public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!tryAcquire()) {
+                if (System.nanoTime() - deadline > 0) {
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+            return true;
+        }
+
+        /**
+         * 归还一个许可到本地池，池里超过两批时把多出的部分还给额度节点
+         */
+        public void release() {
+            inUse.decrementAndGet();
+            long batch = batchSize(maxPermits);
+            if (pool.incrementAndGet() > batch * 2) {
+                leaseExecutor.execute(() -> trim(batch));
+            }
+        }
+
+        /**
+         * 本地池里已租未用的许可数
+         */
+        public long getLocalPermits() {
+            return pool.get();
+        }
+
+        /**
+         * 本地正在使用的许可数
+         */
+        public long getInUse() {
+            return inUse.get();
+        }
+
+        /**
+         * 本地池空了，在调用线程上同步租用一批
+         */
+        private boolean lease() {
+            synchronized (leaseLock) {
+                if (pool.get() > 0) {
+                    return true;
+                }
+                if (!client.getZookeeperClient().isConnected()) {
+                    leaseFailures.increment();
+                    return false;
+                }
+                leaseWaits.increment();
+                try {
+                    long granted = leaseBatch();
+                    pool.addAndGet(granted);
+                    return granted > 0;
+                } catch (Exception e) {
+                    leaseFailures.increment();
+                    return false;
+                }
+            }
+        }
+
+        private void prefetch() {
+            if (!prefetching.compareAndSet(false, true)) {
+                return;
+            }
+            leaseExecutor.execute(() -> {
+                try {
+                    synchronized (leaseLock) {
+                        pool.addAndGet(leaseBatch());
+                    }
+                } catch (Exception e) {
+                    leaseFailures.increment();
+                } finally {
+                    prefetching.set(false);
+                }
+            });
+        }
+
+        /**
+         * 在剩余额度里租用一批。每次尝试都在读额度节点之后再列成员节点：条目是成员节点创建之后才写入的，
+         * 读到的条目如果此时没有对应的成员节点，说明这个成员已经下线，它占用的额度可以回收
+         */
+        private long leaseBatch() throws Exception {
+            long batch = batchSize(maxPermits);
+            AtomicLong granted = new AtomicLong();
+            atomicUpdater.update(budgetPath, data -> {
+                Map<String, Long> held = decode(data);
+                held.keySet().retainAll(liveMembers());
+                long used = held.values().stream().mapToLong(Long::longValue).sum();
+                long count = Math.max(0, Math.min(batch, maxPermits - used));
+                granted.set(count);
+                if (count > 0) {
+                    held.merge(memberId, count, Long::sum);
+                }
+                return encode(held);
+            });
+            leases.increment();
+            return granted.get();
+        }
+
+        private Set<String> liveMembers() {
+            try {
+                return new HashSet<>(client.getChildren().forPath(membersPath));
+            } catch (Exception e) {
+                throw new IllegalStateException("读取成员节点失败：" + membersPath, e);
+            }
+        }
+
+        /**
+         * 本地池只保留keep个，其余还给额度节点
+         */
+        private void trim(long keep) {
+            long excess = takeExcess(pool, keep);
+            if (excess <= 0) {
+                return;
+            }
+            try {
+                synchronized (leaseLock) {
+                    atomicUpdater.update(budgetPath, data -> {
+                        Map<String, Long> held = decode(data);
+                        long remaining = held.getOrDefault(memberId, 0L) - excess;
+                        if (remaining > 0) {
+                            held.put(memberId, remaining);
+                        } else {
+                            held.remove(memberId);
+                        }
+                        return encode(held);
+                    });
+                }
+                returnedTokens.add(excess);
+            } catch (Exception e) {
+                // 没还回去就放回本地池，下次再还
+                pool.addAndGet(excess);
+                log.warn("归还许可失败：{}", budgetPath, e);
+            }
+        }
+
+        /**
+         * 把自己的条目重写为实际在用的许可数
+         */
+        private void rewriteHeld(long count) throws Exception {
+            synchronized (leaseLock) {
+                atomicUpdater.update(budgetPath, data -> {
+                    Map<String, Long> held = decode(data);
+                    if (count > 0) {
+                        held.put(memberId, count);
+                    } else {
+                        held.remove(memberId);
+                    }
+                    return encode(held);
+                });
+            }
+        }
+
+        @Override
+        byte[] initialBudget() {
+            return new byte[0];
+        }
+
+        @Override
+        void membersChanged() {
+            leaseExecutor.execute(() -> trim(batchSize(maxPermits)));
+        }
+
+        @Override
+        void sessionLost() {
+            // 会话过期期间其它节点可能已经回收了这个成员的条目，池里的许可作废
+            pool.set(0);
+            reconcile = true;
+        }
+
+        @Override
+        void reconnected() {
+            if (!reconcile) {
+                return;
+            }
+            reconcile = false;
+            leaseExecutor.execute(() -> {
+                try {
+                    rewriteHeld(inUse.get() + pool.get());
+                } catch (Exception e) {
+                    reconcile = true;
+                    log.warn("重连后核对许可失败：{}", budgetPath, e);
+                }
+            });
+        }
+
+        @Override
+        void returnAll() throws Exception {
+            // 成员节点随后删除，其它节点会回收这个成员剩下的条目，这里先把未用的许可还掉
+            long unused = pool.getAndSet(0);
+            returnedTokens.add(unused);
+            rewriteHeld(inUse.get());
+        }
+
+        private byte[] encode(Map<String, Long> held) {
+            StringBuilder sb = new StringBuilder();
+            held.forEach((member, count) -> sb.append(sb.length() == 0 ? "" : ",").append(member).append('=').append(count));
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private Map<String, Long> decode(byte[] data) {
+            Map<String, Long> held = new LinkedHashMap<>();
+            String text = data == null ? "" : new String(data, StandardCharsets.UTF_8);
+            if (text.isEmpty()) {
+                return held;
+            }
+            for (String entry : text.split(",")) {
+                int eq = entry.indexOf('=');
+                held.put(entry.substring(0, eq), Long.parseLong(entry.substring(eq + 1)));
+            }
+            return held;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地读缓存：基于CuratorCache把rootPath下的整棵子树缓存在本地，getData/getChildren/exists直接读内存，
+ * 节点变化由CuratorCache的watch推送过来更新缓存，不再每次读都访问zookeeper。
+ *
+ * 1 节点数据受maxEntries/maxBytes限制，超出后按LRU淘汰，淘汰后的节点读的时候回源；
+ *   淘汰只丢数据，path和stat仍然保留，所以内存随子树的节点数增长，rootPath必须是一棵有界的子树，不能是/；
+ * 2 offHeap开启时节点数据放在堆外，读的时候拷贝一份返回；
+ * 3 缓存是最终一致的，必须读到最新值的地方用getDataLinearizable，先sync()再从服务端读。
+ *
+ * 注意：堆内模式下getData返回的数组就是缓存里的那一份，调用方不要修改它。
+ */
+@Component
+public class ZkReadCache {
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ReadCacheConf readCacheConf;
+
+    private BoundedCacheStorage storage;
+    private CuratorCache cache;
+    private volatile boolean initialized;
+
+    /**
+     * 子节点索引：父节点path -> 子节点名称，只保存名称，不受LRU淘汰影响
+     */
+    private final Map<String, Set<String>> children = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleReads = new LongAdder();
+    private final AtomicLong maxStalenessMs = new AtomicLong();
+    private final LongAdder totalStalenessMs = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        if (!readCacheConf.isEnabled()) {
+            return;
+        }
+        String root = readCacheConf.getRootPath();
+        if (root == null || root.isEmpty() || root.equals("/")) {
+            throw new IllegalStateException("启用读缓存时必须指定curator.readCache.rootPath，且不能是/：" + root);
+        }
+        storage = new BoundedCacheStorage(readCacheConf.getMaxEntries(), readCacheConf.getMaxBytes(), readCacheConf.isOffHeap());
+        cache = CuratorCache.builder(client, readCacheConf.getRootPath()).withStorage(storage).build();
+        cache.listenable().addListener(new CuratorCacheListener() {
+            @Override
+            public void event(Type type, ChildData oldData, ChildData data) {
+                switch (type) {
+                    case NODE_CREATED:
+                        addChild(data.getPath());
+                        recordStaleness(data);
+                        break;
+                    case NODE_CHANGED:
+                        recordStaleness(data);
+                        break;
+                    case NODE_DELETED:
+                        removeChild(oldData.getPath());
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            @Override
+            public void initialized() {
+                initialized = true;
+            }
+        });
+        cache.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    /**
+     * 读节点数据，节点不存在时抛出NoNodeException，与client.getData().forPath一致
+     */
+    public byte[] getData(String path) throws Exception {
+        if (!cacheable(path)) {
+            misses.increment();
+            return client.getData().forPath(path);
+        }
+        BoundedCacheStorage.Entry entry = storage.lookup(path);
+        if (entry == null) {
+            hits.increment();
+            throw new KeeperException.NoNodeException(path);
+        }
+        if (entry.hasData()) {
+            hits.increment();
+            return entry.data();
+        }
+        // 数据已被淘汰，回源
+        misses.increment();
+        Stat stat = new Stat();
+        byte[] data = client.getData().storingStatIn(stat).forPath(path);
+        storage.refill(path, stat, data);
+        return data;
+    }
+
+    /**
+     * 先sync()让当前连接的服务端追上leader，再从服务端读，保证读到sync之前所有已提交的写
+     */
+    public byte[] getDataLinearizable(String path) throws Exception {
+        client.sync().forPath(path);
+        Stat stat = new Stat();
+        byte[] data = client.getData().storingStatIn(stat).forPath(path);
+        if (cacheable(path)) {
+            BoundedCacheStorage.Entry entry = storage.lookup(path);
+            if (entry != null && entry.stat.getMzxid() < stat.getMzxid()) {
+                staleReads.increment();
+            }
+            storage.refill(path, stat, data);
+        }
+        return data;
+    }
+
+    public List<String> getChildren(String path) throws Exception {
+        if (!cacheable(path)) {
+            misses.increment();
+            return client.getChildren().forPath(path);
+        }
+        hits.increment();
+        if (storage.lookup(path) == null) {
+            throw new KeeperException.NoNodeException(path);
+        }
+        Set<String> names = children.get(path);
+        return names == null ? new ArrayList<>() : new ArrayList<>(names);
+    }
+
+    /**
+     * 节点不存在时返回null，与client.checkExists().forPath一致
+     */
+    public Stat exists(String path) throws Exception {
+        if (!cacheable(path)) {
+            misses.increment();
+            return client.checkExists().forPath(path);
+        }
+        hits.increment();
+        BoundedCacheStorage.Entry entry = storage.lookup(path);
+        return entry == null ? null : entry.stat;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return storage == null ? 0 : storage.evictions();
+    }
+
+    public long getCachedBytes() {
+        return storage == null ? 0 : storage.bytes();
+    }
+
+    public int getCachedNodes() {
+        return storage == null ? 0 : storage.size();
+    }
+
+    /**
+     * 线性一致读发现缓存比服务端旧的次数
+     */
+    public long getStaleReads() {
+        return staleReads.sum();
+    }
+
+    /**
+     * 节点修改时间(mtime)到本地缓存更新之间的最大延迟，包含客户端与服务端的时钟偏差
+     */
+    public long getMaxStalenessMs() {
+        return maxStalenessMs.get();
+    }
+
+    public double getAvgStalenessMs() {
+        long count = updates.sum();
+        return count == 0 ? 0 : totalStalenessMs.sum() / (double) count;
+    }
+
+    /**
+     * 只有初始化完成之后，且在缓存子树内的路径才从缓存读，其它情况直接读zookeeper
+     */
+    private boolean cacheable(String path) {
+        if (!initialized) {
+            return false;
+        }
+        String root = readCacheConf.getRootPath();
+        return path.equals(root) || path.startsWith(root + "/");
+    }
+
+    private void addChild(String path) {
+        if (path.equals(readCacheConf.getRootPath())) {
+            return;
+        }
+        ZKPaths.PathAndNode pathAndNode = ZKPaths.getPathAndNode(path);
+        children.computeIfAbsent(pathAndNode.getPath(), p -> ConcurrentHashMap.newKeySet()).add(pathAndNode.getNode());
+    }
+
+    private void removeChild(String path) {
+        children.remove(path);
+        if (path.equals(readCacheConf.getRootPath())) {
+            return;
+        }
+        ZKPaths.PathAndNode pathAndNode = ZKPaths.getPathAndNode(path);
+        Set<String> names = children.get(pathAndNode.getPath());
+        if (names != null) {
+            names.remove(pathAndNode.getNode());
+        }
+    }
+
+    private void recordStaleness(ChildData data) {
+        if (!initialized) {
+            // 初始加载的节点mtime是历史时间，不算延迟
+            return;
+        }
+        long lag = Math.max(0, System.currentTimeMillis() - data.getStat().getMtime());
+        updates.increment();
+        totalStalenessMs.add(lag);
+        maxStalenessMs.accumulateAndGet(lag, Math::max);
+    }
+}
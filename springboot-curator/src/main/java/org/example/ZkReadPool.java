@@ -0,0 +1,277 @@
+package org.example;
+
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.ConnectStringParser;
+import org.apache.zookeeper.client.HostProvider;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.quorum.QuorumPeer;
+import org.apache.zookeeper.server.quorum.flexible.QuorumMaj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读会话池：在CuratorFramework主会话之外再建sessions个会话，分散连到集群的不同成员上(有observer时优先observer)，
+ * 读请求不再全部挤在主会话的一个socket和一台服务端上。
+ *
+ * 1 写请求和watch仍然走主会话(primary())，读会话只用来读；
+ * 2 同一个path的读总是落在同一个读会话上(按path哈希)。一个会话内的读是按顺序的，重连到别的成员时服务端也不会比会话已经看到的更旧，
+ *   所以同一节点不会先读到新值再读到旧值(单调读)；
+ * 3 读会话断开时该path的读等待它重连(与主会话一样按重试策略等待，超时失败)，不退回主会话：主会话连的服务端可能比读会话的更旧，
+ *   来回切换会话会读到回退的值；
+ * 4 读会话连的服务端可能落后于leader，getData/getChildren/checkExists只保证单调读，不保证读到自己刚在主会话上写的值，
+ *   需要读己之写的地方用getDataAfterSync，或者先sync(path)再读。
+ *
+ * 每个会话的服务端列表是固定顺序的：第i个会话先连成员列表中的第i个，断开后依次尝试后面的成员，
+ * 不像默认的StaticHostProvider那样随机打乱。observer从/zookeeper/config识别，也可以用curator.readPool.observers显式指定。
+ * 未开启(curator.readPool.enabled=false)时所有读都走主会话。
+ */
+@Component
+public class ZkReadPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ZkReadPool.class);
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private CuratorConf curatorConf;
+
+    @Autowired
+    private ReadPoolConf readPoolConf;
+
+    @Autowired
+    private ZkRetryPolicies retryPolicies;
+
+    private final List<CuratorFramework> sessions = new ArrayList<>();
+
+    /**
+     * 每个读会话优先连的服务端，与sessions一一对应
+     */
+    private final List<String> preferredServers = new ArrayList<>();
+
+    @PostConstruct
+    public void start() throws Exception {
+        if (!readPoolConf.isEnabled() || readPoolConf.getSessions() <= 0) {
+            return;
+        }
+        ConnectStringParser parser = new ConnectStringParser(curatorConf.getConnectString());
+        String chroot = parser.getChrootPath() == null ? "" : parser.getChrootPath();
+        List<InetSocketAddress> members = new ArrayList<>(parser.getServerAddresses());
+        List<InetSocketAddress> observers = readPoolConf.isPreferObservers() ? observers() : new ArrayList<>();
+        // observer放在最前面，第i个会话从第i个observer开始；没有observer时从第i个成员开始
+        List<InetSocketAddress> ordered = new ArrayList<>(observers);
+        for (InetSocketAddress member : members) {
+            if (!contains(ordered, member)) {
+                ordered.add(member);
+            }
+        }
+        int preferred = observers.isEmpty() ? ordered.size() : observers.size();
+        for (int i = 0; i < readPoolConf.getSessions(); i++) {
+            List<InetSocketAddress> hosts = new ArrayList<>();
+            for (int j = 0; j < ordered.size(); j++) {
+                // 先在优先的那组里轮转，再接上其余成员
+                int index = j < preferred ? (i + j) % preferred : j;
+                hosts.add(ordered.get(index));
+            }
+            RetryPolicy retryPolicy = retryPolicies.newPolicy();
+            CuratorFramework session = CuratorFrameworkFactory.builder()
+                    .connectString(connectString(hosts, chroot))
+                    .sessionTimeoutMs(curatorConf.getSessionTimeoutMs())
+                    .connectionTimeoutMs(curatorConf.getConnectionTimeoutMs())
+                    .retryPolicy(retryPolicy)
+                    .zookeeperFactory((connectString, sessionTimeout, watcher, canBeReadOnly) ->
+                            new ZooKeeper(connectString, sessionTimeout, watcher, canBeReadOnly, new OrderedHostProvider(hosts)))
+                    .build();
+            retryPolicies.attach(session, retryPolicy);
+            session.start();
+            sessions.add(session);
+            preferredServers.add(hosts.get(0).getHostString() + ":" + hosts.get(0).getPort());
+        }
+        for (CuratorFramework session : sessions) {
+            if (!session.blockUntilConnected(curatorConf.getConnectionTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                log.warn("读会话连接超时，连上之前该会话负责的读会等待重连：{}", preferredServers.get(sessions.indexOf(session)));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (CuratorFramework session : sessions) {
+            session.close();
+        }
+        sessions.clear();
+        preferredServers.clear();
+    }
+
+    /**
+     * 写请求、watch、事务都用主会话
+     */
+    public CuratorFramework primary() {
+        return client;
+    }
+
+    /**
+     * path对应的读会话，未开启读会话池时返回主会话。读会话断开时仍返回它，不换会话，保证同一path的单调读
+     */
+    public CuratorFramework reader(String path) {
+        if (sessions.isEmpty()) {
+            return client;
+        }
+        return sessions.get(Math.floorMod(path.hashCode(), sessions.size()));
+    }
+
+    public byte[] getData(String path) throws Exception {
+        return reader(path).getData().forPath(path);
+    }
+
+    public byte[] getData(String path, Stat stat) throws Exception {
+        return reader(path).getData().storingStatIn(stat).forPath(path);
+    }
+
+    public List<String> getChildren(String path) throws Exception {
+        return reader(path).getChildren().forPath(path);
+    }
+
+    public Stat checkExists(String path) throws Exception {
+        return reader(path).checkExists().forPath(path);
+    }
+
+    /**
+     * 让path对应的读会话所连的服务端追上leader，之后对该path的读能看到sync之前所有已提交的写(包括主会话刚写的)
+     */
+    public void sync(String path) throws Exception {
+        reader(path).sync().forPath(path);
+    }
+
+    /**
+     * 先sync再读，读会话池里唯一保证读己之写的读法：能读到调用前主会话上已经完成的写
+     */
+    public byte[] getDataAfterSync(String path) throws Exception {
+        CuratorFramework reader = reader(path);
+        reader.sync().forPath(path);
+        return reader.getData().forPath(path);
+    }
+
+    public int getSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * 每个读会话优先连的服务端，断开重连后实际连的可能是列表里后面的成员
+     */
+    public List<String> getPreferredServers() {
+        return new ArrayList<>(preferredServers);
+    }
+
+    /**
+     * 显式配置的observer优先；否则从/zookeeper/config里找出observer的客户端地址，读不到(低版本服务端、没有权限)时当作没有observer
+     */
+    private List<InetSocketAddress> observers() {
+        if (readPoolConf.getObservers() != null && !readPoolConf.getObservers().trim().isEmpty()) {
+            return new ArrayList<>(new ConnectStringParser(readPoolConf.getObservers().trim()).getServerAddresses());
+        }
+        List<InetSocketAddress> observers = new ArrayList<>();
+        try {
+            Properties config = new Properties();
+            config.load(new StringReader(new String(client.getConfig().forEnsemble(), StandardCharsets.UTF_8)));
+            for (QuorumPeer.QuorumServer server : new QuorumMaj(config).getObservingMembers().values()) {
+                InetSocketAddress address = server.clientAddr;
+                if (address == null) {
+                    continue;
+                }
+                // 服务端监听0.0.0.0时客户端地址取成员的主机名
+                if (address.getAddress() != null && address.getAddress().isAnyLocalAddress()) {
+                    address = InetSocketAddress.createUnresolved(server.hostname, address.getPort());
+                }
+                observers.add(address);
+            }
+        } catch (Exception e) {
+            log.warn("读取集群配置失败，不区分observer", e);
+        }
+        return observers;
+    }
+
+    private static boolean contains(List<InetSocketAddress> addresses, InetSocketAddress address) {
+        for (InetSocketAddress a : addresses) {
+            if (a.getHostString().equals(address.getHostString()) && a.getPort() == address.getPort()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String connectString(List<InetSocketAddress> hosts, String chroot) {
+        StringBuilder sb = new StringBuilder();
+        for (InetSocketAddress host : hosts) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(host.getHostString()).append(':').append(host.getPort());
+        }
+        return sb.append(chroot).toString();
+    }
+
+    /**
+     * 按给定顺序尝试服务端，从上次连上的那台之后继续；一轮都连不上时等spinDelay再开始下一轮，与StaticHostProvider一致
+     */
+    private static class OrderedHostProvider implements HostProvider {
+        private final List<InetSocketAddress> hosts;
+        private int current = -1;
+        private int last = -1;
+
+        OrderedHostProvider(List<InetSocketAddress> hosts) {
+            this.hosts = new ArrayList<>(hosts);
+        }
+
+        @Override
+        public int size() {
+            return hosts.size();
+        }
+
+        @Override
+        public InetSocketAddress next(long spinDelay) {
+            current = (current + 1) % hosts.size();
+            if (current == last && spinDelay > 0) {
+                try {
+                    Thread.sleep(spinDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else if (last == -1) {
+                last = 0;
+            }
+            InetSocketAddress host = hosts.get(current);
+            // 每次重新解析，DNS变化后能连到新地址
+            return new InetSocketAddress(host.getHostString(), host.getPort());
+        }
+
+        @Override
+        public void onConnected() {
+            last = current;
+        }
+
+        /**
+         * 不支持动态调整成员列表，保持会话的固定顺序
+         */
+        @Override
+        public boolean updateServerList(Collection<InetSocketAddress> serverAddresses, InetSocketAddress currentHost) {
+            return false;
+        }
+    }
+}
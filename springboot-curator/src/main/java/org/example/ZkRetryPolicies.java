@@ -0,0 +1,210 @@
+package org.example;
+
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.RetrySleeper;
+import org.apache.curator.drivers.AdvancedTracerDriver;
+import org.apache.curator.drivers.EventTrace;
+import org.apache.curator.drivers.OperationTrace;
+import org.apache.curator.drivers.TracerDriver;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.zookeeper.KeeperException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 按curator.retry创建客户端的重试策略：
+ * FIXED：原来的RetryNTimes(retryCount, elapsedTimeMs)，所有线程同时失败、同时在固定间隔后一起重试；
+ * EXPONENTIAL：第n次重试前随机等待[0, min(maxSleepMs, baseSleepMs * 2^n)]，各线程、各实例的重试时间被打散；
+ * DEADLINE：同样的退避，不限次数，从第一次失败起超过deadlineMs就不再重试，最后一次等待不会越过截止时间；
+ * ADAPTIVE：退避基数取最近latencyWindow个成功操作耗时的中位数，截止时间取latencyPercentile分位数 * deadlineMultiplier，
+ *   并限制在[minDeadlineMs, deadlineMs]之间，集群变慢时自动放宽，正常时很快失败。
+ *
+ * circuitBreaker开启时在外面再包一层熔断：连接处于SUSPENDED/LOST期间不再重试，操作直接抛出ConnectionLoss，
+ * 重新连上后恢复。注意curator在每次尝试之前仍会等待连接最多connectionTimeoutMs，熔断省掉的是后面的重试。
+ *
+ * 熔断要监听连接状态、ADAPTIVE要统计操作耗时，所以策略创建后还要用attach挂到对应的客户端上；每个客户端用单独的策略实例。
+ */
+@Component
+public class ZkRetryPolicies {
+
+    @Autowired
+    private CuratorConf curatorConf;
+
+    @Autowired
+    private RetryConf retryConf;
+
+    public RetryPolicy newPolicy() {
+        RetryPolicy policy;
+        switch (retryConf.getPolicy()) {
+            case EXPONENTIAL:
+                policy = new BackoffRetry(retryConf::getBaseSleepMs, retryConf.getMaxSleepMs(), retryConf.getMaxRetries(), () -> Long.MAX_VALUE, null);
+                break;
+            case DEADLINE:
+                policy = new BackoffRetry(retryConf::getBaseSleepMs, retryConf.getMaxSleepMs(), Integer.MAX_VALUE, retryConf::getDeadlineMs, null);
+                break;
+            case ADAPTIVE:
+                LatencyWindow latencies = new LatencyWindow(retryConf.getLatencyWindow());
+                policy = new BackoffRetry(
+                        () -> Math.max(1, latencies.percentile(0.5)),
+                        retryConf.getMaxSleepMs(),
+                        Integer.MAX_VALUE,
+                        () -> Math.min(retryConf.getDeadlineMs(), Math.max(retryConf.getMinDeadlineMs(),
+                                latencies.percentile(retryConf.getLatencyPercentile()) * retryConf.getDeadlineMultiplier())),
+                        latencies);
+                break;
+            default:
+                policy = new RetryNTimes(curatorConf.getRetryCount(), curatorConf.getElapsedTimeMs());
+                break;
+        }
+        return retryConf.isCircuitBreaker() ? new CircuitBreakerRetry(policy) : policy;
+    }
+
+    /**
+     * 把策略挂到客户端上，需在client.start()之前、其它TracerDriver(ZkClientMetrics)设置之后调用
+     */
+    public void attach(CuratorFramework client, RetryPolicy policy) {
+        if (policy instanceof CircuitBreakerRetry) {
+            client.getConnectionStateListenable().addListener((CircuitBreakerRetry) policy);
+            policy = ((CircuitBreakerRetry) policy).delegate;
+        }
+        if (policy instanceof BackoffRetry && ((BackoffRetry) policy).latencies != null) {
+            LatencyWindow latencies = ((BackoffRetry) policy).latencies;
+            latencies.delegate = client.getZookeeperClient().getTracerDriver();
+            client.getZookeeperClient().setTracerDriver(latencies);
+        }
+    }
+
+    /**
+     * 指数退避+全抖动，baseSleepMs和deadlineMs每次重试时重新取值(ADAPTIVE下随耗时统计变化)
+     */
+    static class BackoffRetry implements RetryPolicy {
+        private final LongSupplier baseSleepMs;
+        private final long maxSleepMs;
+        private final int maxRetries;
+        private final LongSupplier deadlineMs;
+        final LatencyWindow latencies;
+
+        BackoffRetry(LongSupplier baseSleepMs, long maxSleepMs, int maxRetries, LongSupplier deadlineMs, LatencyWindow latencies) {
+            this.baseSleepMs = baseSleepMs;
+            this.maxSleepMs = maxSleepMs;
+            this.maxRetries = maxRetries;
+            this.deadlineMs = deadlineMs;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public boolean allowRetry(int retryCount, long elapsedTimeMs, RetrySleeper sleeper) {
+            long remaining = deadlineMs.getAsLong() - elapsedTimeMs;
+            if (retryCount >= maxRetries || remaining <= 0) {
+                return false;
+            }
+            long cap = Math.min(maxSleepMs, baseSleepMs.getAsLong() << Math.min(retryCount, 30));
+            long sleepMs = Math.min(remaining, ThreadLocalRandom.current().nextLong(Math.max(1, cap) + 1));
+            try {
+                sleeper.sleepFor(sleepMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 连接SUSPENDED/LOST期间拒绝重试，CONNECTED/RECONNECTED后恢复
+     */
+    static class CircuitBreakerRetry implements RetryPolicy, ConnectionStateListener {
+        private final RetryPolicy delegate;
+        private volatile boolean open;
+        private final LongAdder rejected = new LongAdder();
+
+        CircuitBreakerRetry(RetryPolicy delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean allowRetry(int retryCount, long elapsedTimeMs, RetrySleeper sleeper) {
+            if (open) {
+                rejected.increment();
+                return false;
+            }
+            return delegate.allowRetry(retryCount, elapsedTimeMs, sleeper);
+        }
+
+        @Override
+        public boolean allowRetry(Throwable exception) {
+            return delegate.allowRetry(exception);
+        }
+
+        @Override
+        public void stateChanged(CuratorFramework client, ConnectionState newState) {
+            open = newState == ConnectionState.SUSPENDED || newState == ConnectionState.LOST;
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        long getRejected() {
+            return rejected.sum();
+        }
+    }
+
+    /**
+     * 最近size个成功操作的耗时，作为TracerDriver挂在客户端上，原来的TracerDriver(ZkClientMetrics)照常收到所有记录
+     */
+    static class LatencyWindow extends AdvancedTracerDriver {
+        private final long[] latencies;
+        private final AtomicLong index = new AtomicLong();
+        private volatile TracerDriver delegate;
+
+        LatencyWindow(int size) {
+            this.latencies = new long[Math.max(1, size)];
+        }
+
+        @Override
+        public void addTrace(OperationTrace trace) {
+            if (trace.getReturnCode() == KeeperException.Code.OK.intValue()) {
+                latencies[(int) (index.getAndIncrement() % latencies.length)] = trace.getLatencyMs();
+            }
+            TracerDriver driver = delegate;
+            if (driver instanceof AdvancedTracerDriver) {
+                ((AdvancedTracerDriver) driver).addTrace(trace);
+            } else if (driver != null) {
+                driver.addTrace(trace.getName(), trace.getLatencyMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void addEvent(EventTrace trace) {
+            TracerDriver driver = delegate;
+            if (driver instanceof AdvancedTracerDriver) {
+                ((AdvancedTracerDriver) driver).addEvent(trace);
+            }
+        }
+
+        /**
+         * 还没有任何记录时返回0；数组只有size个元素，重试时才计算，不影响正常操作
+         */
+        long percentile(double percentile) {
+            int count = (int) Math.min(index.get(), latencies.length);
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, rank))];
+        }
+    }
+}
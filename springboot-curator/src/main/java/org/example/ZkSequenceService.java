@@ -0,0 +1,190 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分布式ID生成：不再每个ID创建一个顺序节点(如mq0000000005)，而是从计数节点按段租用ID，本地分配。
+ *
+ * 1 计数节点 rootPath/名称 保存下一个未租出的ID(十进制字符串)，租用一段就是对它做一次CAS(ZkAtomicUpdater)：值 += rangeSize；
+ * 2 当前段内的ID通过AtomicLong.getAndIncrement分配，不加锁，不访问zookeeper；
+ * 3 当前段剩余不足prefetchRatio时异步租下一段，用完时直接切换，正常情况下调用线程不会等待zookeeper；
+ * 4 预取没赶上(例如下一段还在租用中)时才阻塞等待，等待次数见getLeaseWaits()；
+ *   等待频繁说明一次租用(两次往返)期间消耗的ID超过了rangeSize * prefetchRatio，应调大rangeSize。
+ *
+ * ID在所有节点间唯一、单个节点内递增，但多个节点之间不保证有序；进程退出时没用完的段会被丢弃，ID不连续。
+ */
+@Component
+public class ZkSequenceService {
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ZkAtomicUpdater atomicUpdater;
+
+    @Autowired
+    private SequenceConf sequenceConf;
+
+    private final Map<String, Sequence> sequences = new ConcurrentHashMap<>();
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder leaseWaits = new LongAdder();
+
+    /**
+     * 取下一个ID
+     */
+    public long next(String name) {
+        return sequences.computeIfAbsent(name, Sequence::new).next();
+    }
+
+    /**
+     * 从zookeeper租用ID段的次数
+     */
+    public long getLeases() {
+        return leases.sum();
+    }
+
+    /**
+     * 当前段用完时下一段还没租到、调用线程不得不等待的次数
+     */
+    public long getLeaseWaits() {
+        return leaseWaits.sum();
+    }
+
+    /**
+     * [start, end)内的ID，cursor到达prefetchAt时触发预取下一段
+     */
+    private static class Range {
+        private static final Range EMPTY = new Range(0, 0, -1);
+
+        final AtomicLong cursor;
+        final long end;
+        final long prefetchAt;
+
+        Range(long start, long end, long prefetchOffset) {
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchOffset < 0 ? -1 : start + prefetchOffset;
+        }
+    }
+
+    private class Sequence {
+        private final String name;
+        private final String path;
+        private volatile boolean counterCreated;
+        private volatile Range current = Range.EMPTY;
+        private final AtomicReference<CompletableFuture<Range>> nextRange = new AtomicReference<>();
+
+        Sequence(String name) {
+            this.name = name;
+            this.path = sequenceConf.getRootPath() + "/" + name;
+        }
+
+        long next() {
+            while (true) {
+                Range range = current;
+                long id = range.cursor.getAndIncrement();
+                if (id < range.end) {
+                    if (id == range.prefetchAt) {
+                        prefetch();
+                    }
+                    return id;
+                }
+                advance(range);
+            }
+        }
+
+        /**
+         * 只有一个线程能发起预取，其它线程拿到已经在进行的预取直接返回。
+         * CAS失败后nextRange可能已经被清空(advance取走了这一段，或者预取失败)，此时重新CAS，不能返回null
+         */
+        private CompletableFuture<Range> prefetch() {
+            while (true) {
+                CompletableFuture<Range> existing = nextRange.get();
+                if (existing != null) {
+                    return existing;
+                }
+                CompletableFuture<Range> future = new CompletableFuture<>();
+                if (nextRange.compareAndSet(null, future)) {
+                    lease().whenComplete((range, e) -> {
+                        if (e != null) {
+                            // 失败的预取不保留，下次用完时重新租用
+                            nextRange.compareAndSet(future, null);
+                            future.completeExceptionally(e);
+                        } else {
+                            future.complete(range);
+                        }
+                    });
+                    return future;
+                }
+            }
+        }
+
+        private CompletableFuture<Range> lease() {
+            int rangeSize = sequenceConf.getRangeSize();
+            CompletableFuture<Range> leased = new CompletableFuture<>();
+            try {
+                // 计数节点只在第一次租用时创建，此时调用线程本来就要等待第一段
+                if (!counterCreated) {
+                    try {
+                        client.create().creatingParentsIfNeeded().forPath(path, "0".getBytes(StandardCharsets.UTF_8));
+                    } catch (KeeperException.NodeExistsException e) {
+                        // 其它节点已经创建过
+                    }
+                    counterCreated = true;
+                }
+            } catch (Exception e) {
+                leased.completeExceptionally(e);
+                return leased;
+            }
+            atomicUpdater.updateAsync(path, value -> String.valueOf(
+                    Long.parseLong(new String(value, StandardCharsets.UTF_8)) + rangeSize).getBytes(StandardCharsets.UTF_8))
+                    .whenComplete((next, e) -> {
+                        if (e != null) {
+                            leased.completeExceptionally(e);
+                            return;
+                        }
+                        leases.increment();
+                        long end = Long.parseLong(new String(next, StandardCharsets.UTF_8));
+                        leased.complete(new Range(end - rangeSize, end, (long) (rangeSize * (1 - sequenceConf.getPrefetchRatio()))));
+                    });
+            return leased;
+        }
+
+        /**
+         * 当前段已用完，换成预取好的下一段；多个线程同时用完时只有一个线程切换，其余线程切换完成后重试
+         */
+        private synchronized void advance(Range exhausted) {
+            if (current != exhausted) {
+                return;
+            }
+            CompletableFuture<Range> future = prefetch();
+            if (!future.isDone()) {
+                leaseWaits.increment();
+            }
+            try {
+                Range range = future.get(sequenceConf.getLeaseTimeoutMs(), TimeUnit.MILLISECONDS);
+                nextRange.compareAndSet(future, null);
+                current = range;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("租用ID段被中断：" + name, e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IllegalStateException("租用ID段失败：" + name, e);
+            }
+        }
+    }
+}
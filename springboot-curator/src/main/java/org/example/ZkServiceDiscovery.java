@@ -0,0 +1,255 @@
+package org.example;
+
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端服务发现：通过ZkSubscriptionEngine订阅rootPath下两层(服务名/实例id)，在本地维护每个服务的实例快照。
+ * lookup只读volatile快照 + 负载均衡选择，不加锁、不分配内存，也不访问zookeeper；实例变化时在监听线程上重建快照。
+ *
+ * 防抖保护：zookeeper集群故障、网络分区或大批会话同时过期时，实例会在短时间内大量消失，
+ * 此时把所有实例都摘掉只会让调用方无处可去，所以：
+ * 1 protectWindowMs内实例数跌到峰值的protectThreshold以下时，快照里继续保留消失的实例(isProtected()为true)，
+ *   恢复到阈值以上或窗口结束后才接受新列表；
+ * 2 emptyProtection开启时，实例全部消失的列表永远不会发布，始终保留最后一批实例。
+ * 被保护的实例可能已经下线，调用方仍需要自己处理调用失败。
+ */
+@Component
+public class ZkServiceDiscovery {
+
+    private static final Logger log = LoggerFactory.getLogger(ZkServiceDiscovery.class);
+
+    @Autowired
+    private ZkSubscriptionEngine subscriptionEngine;
+
+    @Autowired
+    private RegistryConf registryConf;
+
+    private final Map<String, ServiceEntry> entries = new ConcurrentHashMap<>();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder protections = new LongAdder();
+    private LoadBalancer defaultBalancer;
+    private ScheduledExecutorService protectScheduler;
+    private ZkSubscriptionEngine.Subscription subscription;
+
+    @PostConstruct
+    public void start() {
+        defaultBalancer = LoadBalancer.of(registryConf.getLoadBalancer());
+        protectScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zk-discovery-protect");
+            t.setDaemon(true);
+            return t;
+        });
+        String rootPath = registryConf.getRootPath();
+        subscription = subscriptionEngine.subscribe(rootPath, 2, null, new CuratorCacheListener() {
+            @Override
+            public void event(Type type, ChildData oldData, ChildData data) {
+                String path = data != null ? data.getPath() : oldData.getPath();
+                ZKPaths.PathAndNode instancePath = ZKPaths.getPathAndNode(path);
+                ZKPaths.PathAndNode servicePath = ZKPaths.getPathAndNode(instancePath.getPath());
+                if (!servicePath.getPath().equals(rootPath) || servicePath.getNode().isEmpty()) {
+                    // 根节点或服务节点本身
+                    return;
+                }
+                ServiceEntry entry = entries.computeIfAbsent(servicePath.getNode(), ServiceEntry::new);
+                if (type == Type.NODE_DELETED) {
+                    entry.remove(instancePath.getNode());
+                } else {
+                    try {
+                        entry.put(ServiceInstance.fromJson(data.getData()));
+                    } catch (IOException e) {
+                        log.warn("无法解析服务实例{}", path, e);
+                    }
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (subscription != null) {
+            subscription.close();
+        }
+        protectScheduler.shutdownNow();
+    }
+
+    /**
+     * 用默认负载均衡策略(curator.registry.loadBalancer)选一个实例，没有可用实例时返回null
+     */
+    public ServiceInstance lookup(String service) {
+        return lookup(service, defaultBalancer);
+    }
+
+    public ServiceInstance lookup(String service, LoadBalancer balancer) {
+        ServiceEntry entry = entries.get(service);
+        if (entry == null) {
+            return null;
+        }
+        ServiceSnapshot snapshot = entry.snapshot;
+        return snapshot.size() == 0 ? null : balancer.choose(snapshot);
+    }
+
+    /**
+     * 服务当前的实例快照，不存在的服务返回null
+     */
+    public ServiceSnapshot getSnapshot(String service) {
+        ServiceEntry entry = entries.get(service);
+        return entry == null ? null : entry.snapshot;
+    }
+
+    public Set<String> getServices() {
+        return entries.keySet();
+    }
+
+    /**
+     * 快照重建次数
+     */
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    /**
+     * 进入保护状态的次数
+     */
+    public long getProtections() {
+        return protections.sum();
+    }
+
+    /**
+     * 一个服务：live是zookeeper上的实例(只在监听线程和保护检查线程上、持有锁时修改)，snapshot是发布给查询路径的快照
+     */
+    private class ServiceEntry {
+        private final String service;
+        private final AtomicInteger cursor = new AtomicInteger();
+        private final Map<String, ServiceInstance> live = new HashMap<>();
+        // 窗口内下线的实例，按下线时间排序；实例是逐个删除的，进入保护时要把之前已经摘掉的也找回来
+        private final Map<String, Removal> recentlyRemoved = new LinkedHashMap<>();
+        private volatile ServiceSnapshot snapshot;
+
+        private int peak;
+        private long peakTime;
+        private int accepted;
+        private long protectedUntil;
+
+        ServiceEntry(String service) {
+            this.service = service;
+            this.snapshot = new ServiceSnapshot(service, new ServiceInstance[0], cursor, false);
+        }
+
+        synchronized void put(ServiceInstance instance) {
+            ServiceInstance previous = live.put(instance.getId(), instance);
+            recentlyRemoved.remove(instance.getId());
+            if (previous == null) {
+                previous = find(instance.getId());
+            }
+            if (previous != null) {
+                instance.inheritOutstanding(previous);
+            }
+            publish();
+        }
+
+        synchronized void remove(String id) {
+            ServiceInstance instance = live.remove(id);
+            if (instance != null) {
+                recentlyRemoved.put(id, new Removal(instance, System.currentTimeMillis()));
+                publish();
+            }
+        }
+
+        synchronized void publish() {
+            long now = System.currentTimeMillis();
+            long window = registryConf.getProtectWindowMs();
+            int size = live.size();
+            Iterator<Removal> removals = recentlyRemoved.values().iterator();
+            while (removals.hasNext() && now - removals.next().time > window) {
+                removals.remove();
+            }
+            boolean empty = size == 0 && accepted > 0 && registryConf.isEmptyProtection();
+            if (protectedUntil == 0) {
+                if (now - peakTime > window) {
+                    // 峰值过期，以最后接受的实例数为新的基准
+                    peak = accepted;
+                    peakTime = now;
+                }
+                if (size >= peak) {
+                    peak = size;
+                    peakTime = now;
+                }
+                if (empty || size < peak * registryConf.getProtectThreshold()) {
+                    protectedUntil = peakTime + window;
+                    protections.increment();
+                    protectScheduler.schedule(this::publish, Math.max(0, protectedUntil - now) + 1, TimeUnit.MILLISECONDS);
+                    retain();
+                    return;
+                }
+            } else if (empty || (size < peak * registryConf.getProtectThreshold() && now < protectedUntil)) {
+                retain();
+                return;
+            }
+            protectedUntil = 0;
+            if (now >= peakTime + window) {
+                peak = size;
+                peakTime = now;
+            }
+            accepted = size;
+            updates.increment();
+            snapshot = new ServiceSnapshot(service, live.values().toArray(new ServiceInstance[0]), cursor, false);
+        }
+
+        /**
+         * 保护状态：zookeeper上仍存在的实例用最新数据，窗口内下线的实例和上一个快照里的实例继续保留
+         */
+        private void retain() {
+            Map<String, ServiceInstance> retained = new HashMap<>(live);
+            for (Removal removal : recentlyRemoved.values()) {
+                retained.putIfAbsent(removal.instance.getId(), removal.instance);
+            }
+            ServiceSnapshot previous = snapshot;
+            for (int i = 0; i < previous.size(); i++) {
+                retained.putIfAbsent(previous.get(i).getId(), previous.get(i));
+            }
+            updates.increment();
+            snapshot = new ServiceSnapshot(service, retained.values().toArray(new ServiceInstance[0]), cursor, true);
+        }
+
+        private ServiceInstance find(String id) {
+            ServiceSnapshot current = snapshot;
+            for (int i = 0; i < current.size(); i++) {
+                if (current.get(i).getId().equals(id)) {
+                    return current.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Removal {
+        final ServiceInstance instance;
+        final long time;
+
+        Removal(ServiceInstance instance, long time) {
+            this.instance = instance;
+            this.time = time;
+        }
+    }
+}
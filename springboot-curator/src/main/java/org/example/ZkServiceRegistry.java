@@ -0,0 +1,116 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 服务注册：每个实例一个临时节点 rootPath/服务名/实例id，节点数据是ServiceInstance的JSON。
+ * 用PersistentNode维护节点，会话过期后自动重建，不需要应用自己监听连接状态。
+ *
+ * curator.registry.enabled开启时，启动后把本应用(serviceName, host, server.port)注册上去，关闭时删除。
+ */
+@Component
+public class ZkServiceRegistry {
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private RegistryConf registryConf;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private volatile Registration self;
+
+    @PostConstruct
+    public void start() throws UnknownHostException {
+        if (!registryConf.isEnabled()) {
+            return;
+        }
+        String host = registryConf.getHost().isEmpty() ? InetAddress.getLocalHost().getHostAddress() : registryConf.getHost();
+        ServiceInstance instance = new ServiceInstance(registryConf.getServiceName(), host, serverPort);
+        instance.setWeight(registryConf.getWeight());
+        instance.setMetadata(new LinkedHashMap<>(registryConf.getMetadata()));
+        self = register(instance);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (Registration registration : registrations) {
+            registration.close();
+        }
+    }
+
+    /**
+     * 注册一个实例，返回后节点在后台创建，close时删除
+     */
+    public Registration register(ServiceInstance instance) {
+        if (instance.getRegistrationTime() == 0) {
+            instance.setRegistrationTime(System.currentTimeMillis());
+        }
+        String path = ZKPaths.makePath(registryConf.getRootPath(), instance.getName(), instance.getId());
+        Registration registration = new Registration(instance, new PersistentNode(client, CreateMode.EPHEMERAL, false, path, instance.toJson()));
+        registrations.add(registration);
+        registration.node.start();
+        return registration;
+    }
+
+    /**
+     * 本应用自己的注册，没有开启curator.registry.enabled时为null
+     */
+    public Registration getSelf() {
+        return self;
+    }
+
+    /**
+     * 一次注册，update可以修改权重和元数据，close即下线
+     */
+    public class Registration implements Closeable {
+        private final PersistentNode node;
+        private volatile ServiceInstance instance;
+
+        Registration(ServiceInstance instance, PersistentNode node) {
+            this.instance = instance;
+            this.node = node;
+        }
+
+        public ServiceInstance getInstance() {
+            return instance;
+        }
+
+        /**
+         * 修改节点数据，id、name不能变
+         */
+        public void update(ServiceInstance updated) throws Exception {
+            if (!updated.getId().equals(instance.getId()) || !updated.getName().equals(instance.getName())) {
+                throw new IllegalArgumentException("不能修改实例的id和服务名：" + updated);
+            }
+            node.setData(updated.toJson());
+            instance = updated;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (registrations.remove(this)) {
+                node.close();
+            }
+        }
+    }
+}
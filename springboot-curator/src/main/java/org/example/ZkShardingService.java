@@ -0,0 +1,371 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.LeaderLatchListener;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 成员管理和分区分配。一个分组(group)下的节点：
+ * rootPath/group/members/成员id        临时节点，成员在线期间存在(PersistentNode，会话过期后自动重建)
+ * rootPath/group/leader                LeaderLatch选主
+ * rootPath/group/assignments/成员id    持久节点，"版本号\n分区1,分区2,..."
+ *
+ * 1 leader监听members的子节点变化，用ConsistentHashAssigner重新计算分配，只移动必须移动的分区；
+ * 2 有变化的分配节点在一个multi事务里写入，事务里带一个对leader自身latch节点的check，失去leader身份后写入失败；
+ * 3 每个成员只监听自己的分配节点，收到变化后把新增、移除的分区回调给AssignmentListener。
+ *
+ * 一个分组内所有成员的partitions必须一致；成员变化后等rebalanceDelayMs再计算，批量上下线只触发一次再平衡。
+ */
+@Component
+public class ZkShardingService {
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ShardingConf shardingConf;
+
+    /**
+     * 分配变化回调按成员分stripe串行执行，不丢事件
+     */
+    private static final int LISTENER_STRIPES = 4;
+    private static final int LISTENER_QUEUE_CAPACITY = 1024;
+    private static final long SLOW_LISTENER_MS = 100;
+
+    private StripedDispatcher listenerDispatcher;
+    private ScheduledExecutorService rebalanceScheduler;
+    private ConsistentHashAssigner assigner;
+
+    @PostConstruct
+    public void start() {
+        listenerDispatcher = new StripedDispatcher("zk-sharding-listener", LISTENER_STRIPES, LISTENER_QUEUE_CAPACITY,
+                StripedDispatcher.OverflowPolicy.BLOCK, SLOW_LISTENER_MS);
+        rebalanceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zk-sharding-rebalance");
+            t.setDaemon(true);
+            return t;
+        });
+        assigner = new ConsistentHashAssigner(shardingConf.getVirtualNodes());
+    }
+
+    @PreDestroy
+    public void close() {
+        rebalanceScheduler.shutdownNow();
+        listenerDispatcher.close();
+    }
+
+    /**
+     * 加入分组，返回后成员节点已经创建，分区分配通过listener异步回调
+     *
+     * @param group      分组名
+     * @param memberId   成员id，同一分组内唯一，例如 主机名:端口
+     * @param partitions 分区总数
+     * @param listener   分配变化回调，同一成员的回调串行执行
+     */
+    public ShardMember join(String group, String memberId, int partitions, AssignmentListener listener) throws Exception {
+        ShardMember member = new ShardMember(group, memberId, partitions, listener);
+        try {
+            member.start();
+        } catch (Exception e) {
+            member.close();
+            throw e;
+        }
+        return member;
+    }
+
+    /**
+     * 分配变化回调
+     */
+    public interface AssignmentListener {
+        /**
+         * @param added   新分到的分区
+         * @param removed 被拿走的分区，回调返回前应停止处理这些分区
+         * @param current 当前持有的全部分区
+         */
+        void assignmentChanged(Set<Integer> added, Set<Integer> removed, Set<Integer> current);
+    }
+
+    static byte[] encode(long epoch, Set<Integer> partitions) {
+        StringBuilder sb = new StringBuilder().append(epoch).append('\n');
+        boolean first = true;
+        for (Integer p : partitions) {
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(p);
+            first = false;
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static long decodeEpoch(byte[] data) {
+        String text = new String(data, StandardCharsets.UTF_8);
+        int newline = text.indexOf('\n');
+        return Long.parseLong(newline < 0 ? text : text.substring(0, newline));
+    }
+
+    static Set<Integer> decodePartitions(byte[] data) {
+        String text = new String(data, StandardCharsets.UTF_8);
+        int newline = text.indexOf('\n');
+        Set<Integer> partitions = new TreeSet<>();
+        if (newline < 0 || newline == text.length() - 1) {
+            return partitions;
+        }
+        for (String p : text.substring(newline + 1).split(",")) {
+            partitions.add(Integer.parseInt(p));
+        }
+        return partitions;
+    }
+
+    /**
+     * 分组中的一个成员，close后退出分组，它的分区由leader重新分配给其它成员
+     */
+    public class ShardMember implements Closeable {
+        private final String memberId;
+        private final int partitions;
+        private final AssignmentListener listener;
+        private final String membersPath;
+        private final String assignmentsPath;
+        private final PersistentNode memberNode;
+        private final CuratorCache assignmentCache;
+        private final LeaderLatch leaderLatch;
+        private final Executor serialExecutor;
+        private volatile boolean closed;
+        private volatile Set<Integer> current = Collections.emptySet();
+        private volatile long epoch = -1;
+
+        // 以下字段只在rebalanceScheduler线程上访问
+        private final AtomicBoolean rebalanceScheduled = new AtomicBoolean();
+        private final CuratorWatcher membersWatcher = event -> scheduleRebalance();
+        private Map<String, Set<Integer>> published;
+        private long publishedEpoch;
+
+        private volatile int rebalances;
+        private volatile int lastMoved;
+        private volatile long lastRebalanceMs;
+
+        ShardMember(String group, String memberId, int partitions, AssignmentListener listener) {
+            this.memberId = memberId;
+            this.partitions = partitions;
+            this.listener = listener;
+            String groupPath = shardingConf.getRootPath() + "/" + group;
+            this.membersPath = groupPath + "/members";
+            this.assignmentsPath = groupPath + "/assignments";
+            String key = assignmentsPath + "/" + memberId;
+            this.serialExecutor = task -> listenerDispatcher.dispatch(key, task);
+            this.memberNode = new PersistentNode(client, CreateMode.EPHEMERAL, false, membersPath + "/" + memberId, new byte[0]);
+            this.assignmentCache = CuratorCache.build(client, assignmentsPath + "/" + memberId, CuratorCache.Options.SINGLE_NODE_CACHE);
+            this.leaderLatch = new LeaderLatch(client, groupPath + "/leader", memberId);
+        }
+
+        void start() throws Exception {
+            client.createContainers(assignmentsPath);
+            memberNode.start();
+            if (!memberNode.waitForInitialCreate(shardingConf.getJoinTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("创建成员节点超时：" + memberNode.getActualPath());
+            }
+            assignmentCache.listenable().addListener(new CuratorCacheListener() {
+                @Override
+                public void event(Type type, ChildData oldData, ChildData data) {
+                    if (type == Type.NODE_DELETED) {
+                        apply(epoch, Collections.emptySet());
+                    } else {
+                        apply(decodeEpoch(data.getData()), decodePartitions(data.getData()));
+                    }
+                }
+            }, serialExecutor);
+            assignmentCache.start();
+            leaderLatch.addListener(new LeaderLatchListener() {
+                @Override
+                public void isLeader() {
+                    published = null;
+                    scheduleRebalance();
+                }
+
+                @Override
+                public void notLeader() {
+                    // rebalance时会检查hasLeadership，这里不需要处理
+                }
+            }, rebalanceScheduler);
+            leaderLatch.start();
+        }
+
+        public String getMemberId() {
+            return memberId;
+        }
+
+        /**
+         * 当前持有的分区
+         */
+        public Set<Integer> getPartitions() {
+            return current;
+        }
+
+        /**
+         * 当前分配的版本号
+         */
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public boolean isLeader() {
+            return leaderLatch.hasLeadership();
+        }
+
+        /**
+         * 作为leader执行再平衡的次数
+         */
+        public int getRebalances() {
+            return rebalances;
+        }
+
+        /**
+         * 最近一次再平衡移动的分区数
+         */
+        public int getLastMoved() {
+            return lastMoved;
+        }
+
+        /**
+         * 最近一次再平衡从读取成员列表到事务提交的耗时
+         */
+        public long getLastRebalanceMs() {
+            return lastRebalanceMs;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            try {
+                leaderLatch.close();
+            } catch (IllegalStateException e) {
+                // 还没有start
+            }
+            assignmentCache.close();
+            memberNode.close();
+        }
+
+        private void apply(long newEpoch, Set<Integer> partitions) {
+            if (closed) {
+                return;
+            }
+            Set<Integer> previous = current;
+            Set<Integer> added = new TreeSet<>(partitions);
+            added.removeAll(previous);
+            Set<Integer> removed = new TreeSet<>(previous);
+            removed.removeAll(partitions);
+            current = Collections.unmodifiableSet(partitions);
+            epoch = newEpoch;
+            if (!added.isEmpty() || !removed.isEmpty()) {
+                listener.assignmentChanged(added, removed, current);
+            }
+        }
+
+        private void scheduleRebalance() {
+            if (closed || !rebalanceScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            rebalanceScheduler.schedule(() -> {
+                rebalanceScheduled.set(false);
+                rebalance();
+            }, shardingConf.getRebalanceDelayMs(), TimeUnit.MILLISECONDS);
+        }
+
+        private void rebalance() {
+            if (closed || !leaderLatch.hasLeadership()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                // 重新注册成员列表的watch，处理期间的变化会再触发一次再平衡
+                List<String> members = client.getChildren().usingWatcher(membersWatcher).forPath(membersPath);
+                if (published == null) {
+                    loadPublished();
+                }
+                Map<String, Set<Integer>> next = assigner.assign(published, members, partitions);
+                long nextEpoch = publishedEpoch + 1;
+                List<CuratorOp> ops = new ArrayList<>();
+                ops.add(client.transactionOp().check().forPath(leaderLatch.getOurPath()));
+                int moved = 0;
+                for (Map.Entry<String, Set<Integer>> entry : next.entrySet()) {
+                    Set<Integer> before = published.get(entry.getKey());
+                    if (entry.getValue().equals(before)) {
+                        continue;
+                    }
+                    String path = assignmentsPath + "/" + entry.getKey();
+                    byte[] data = encode(nextEpoch, entry.getValue());
+                    ops.add(before == null ? client.transactionOp().create().forPath(path, data)
+                            : client.transactionOp().setData().forPath(path, data));
+                    for (Integer p : entry.getValue()) {
+                        if (before == null || !before.contains(p)) {
+                            moved++;
+                        }
+                    }
+                }
+                for (String gone : published.keySet()) {
+                    if (!next.containsKey(gone)) {
+                        ops.add(client.transactionOp().delete().forPath(assignmentsPath + "/" + gone));
+                    }
+                }
+                if (ops.size() > 1) {
+                    client.transaction().forOperations(ops);
+                    published = next;
+                    publishedEpoch = nextEpoch;
+                    rebalances++;
+                    lastMoved = moved;
+                    lastRebalanceMs = (System.nanoTime() - start) / 1_000_000;
+                }
+            } catch (Exception e) {
+                // 事务失败(例如失去leader身份、分配节点被外部修改)，下次重新从zookeeper读取
+                published = null;
+                if (!closed && leaderLatch.hasLeadership()) {
+                    scheduleRebalance();
+                }
+            }
+        }
+
+        private void loadPublished() throws Exception {
+            Map<String, Set<Integer>> loaded = new HashMap<>();
+            long maxEpoch = 0;
+            for (String child : client.getChildren().forPath(assignmentsPath)) {
+                try {
+                    byte[] data = client.getData().forPath(assignmentsPath + "/" + child);
+                    loaded.put(child, decodePartitions(data));
+                    maxEpoch = Math.max(maxEpoch, decodeEpoch(data));
+                } catch (KeeperException.NoNodeException e) {
+                    // 读取期间被删除
+                }
+            }
+            published = loaded;
+            publishedEpoch = maxEpoch;
+        }
+    }
+}
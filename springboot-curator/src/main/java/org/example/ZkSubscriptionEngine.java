@@ -0,0 +1,519 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.framework.recipes.watch.PersistentWatcher;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 统一的订阅引擎，替代已废弃的NodeCache/PathChildrenCache/TreeCache：
+ * 1 同一个根路径只建一个CuratorCache，所有订阅者共享一套watch和一次初始加载；
+ * 2 订阅时可以指定深度(根节点为0，直接子节点为1，-1不限)和路径前缀，只收到符合条件的事件；
+ * 3 回调不在zookeeper事件线程上执行，而是经StripedDispatcher(curator.dispatch)转交给监听线程池(可选虚拟线程)：
+ *   默认按订阅者分stripe，同一订阅者的事件保持顺序；parallel订阅按节点路径分stripe，只保证同一路径的事件有序，
+ *   同一订阅者不同路径的事件并行投递，监听器需要线程安全。队列有界，满了按overflowPolicy等待(最多maxBlockMs)或丢弃，
+ *   队列深度、分发延迟、慢回调、丢弃次数见getDispatcher()。
+ *   默认BLOCK且maxBlockMs=0，不丢事件；配置成会丢事件(DROP_*或maxBlockMs>0)时，每个订阅记录已经投递给监听器的节点状态，
+ *   丢过事件的订阅会在RESYNC_DELAY_MS后按CuratorCache当前内容补发差异(新增NODE_CREATED、变化NODE_CHANGED、消失NODE_DELETED)，
+ *   按mzxid跳过重复和过期的事件，监听器最终看到的和缓存一致；持久递归watch没有缓存可比，丢事件后回调订阅时传入的onLost，由订阅者自己全量核对。
+ *
+ * 另外提供watchRecursive：基于zookeeper 3.6+的持久递归watch(AddWatchMode.PERSISTENT_RECURSIVE)，
+ * 一个watch覆盖整棵子树，触发后不需要重新注册，也不会在事件之后主动读数据，适合只关心"哪个节点变了"的大子树。
+ *
+ * 注意：CuratorCache本身不支持限制深度，深度只过滤投递的事件，watch仍覆盖整棵子树。
+ * 已经初始化完成的根路径上新增订阅时，会先把当前缓存内容以NODE_CREATED事件回放给新订阅者，再回调initialized()。
+ */
+@Component
+public class ZkSubscriptionEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(ZkSubscriptionEngine.class);
+
+    /**
+     * 丢事件后等这么久再补发，过载时不会每丢一个事件就排一次补发
+     */
+    private static final long RESYNC_DELAY_MS = 100;
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private SubscriptionConf subscriptionConf;
+
+    @Autowired
+    private DispatchConf dispatchConf;
+
+    private ExecutorService executor;
+    private StripedDispatcher dispatcher;
+    private boolean lossy;
+    private final AtomicInteger subscriptionIds = new AtomicInteger();
+    private final LongAdder resyncs = new LongAdder();
+    private ScheduledExecutorService scheduler;
+    private final Map<String, SharedCache> caches = new HashMap<>();
+
+    @PostConstruct
+    public void start() {
+        executor = subscriptionConf.isVirtualThreads() ? newVirtualThreadExecutor() : null;
+        if (executor == null) {
+            AtomicInteger index = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(subscriptionConf.getListenerThreads(), r -> {
+                Thread t = new Thread(r, "zk-subscription-" + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        dispatcher = new StripedDispatcher(dispatchConf.getStripes(), dispatchConf.getQueueCapacity(),
+                dispatchConf.getOverflowPolicy(), dispatchConf.getMaxBlockMs(), dispatchConf.getSlowHandlerMs(), executor);
+        lossy = dispatchConf.getOverflowPolicy() != StripedDispatcher.OverflowPolicy.BLOCK || dispatchConf.getMaxBlockMs() > 0;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zk-subscription-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public synchronized void close() throws InterruptedException {
+        caches.values().forEach(shared -> shared.cache.close());
+        caches.clear();
+        dispatcher.close();
+        scheduler.shutdown();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 订阅rootPath整棵子树
+     */
+    public Subscription subscribe(String rootPath, CuratorCacheListener listener) {
+        return subscribe(rootPath, -1, null, listener);
+    }
+
+    /**
+     * @param rootPath   订阅的根路径
+     * @param maxDepth   最大深度，根节点为0，直接子节点为1，-1表示不限
+     * @param pathPrefix 只接收path以此前缀开头的事件，null表示不过滤
+     * @param listener   事件回调，在监听线程池上执行
+     */
+    public Subscription subscribe(String rootPath, int maxDepth, String pathPrefix, CuratorCacheListener listener) {
+        return subscribe(rootPath, maxDepth, pathPrefix, listener, false);
+    }
+
+    /**
+     * @param parallel 为true时按节点路径分stripe投递，只保证同一路径的事件有序，initialized()也不保证在初始事件之后
+     */
+    public synchronized Subscription subscribe(String rootPath, int maxDepth, String pathPrefix, CuratorCacheListener listener, boolean parallel) {
+        SharedCache shared = caches.get(rootPath);
+        boolean created = shared == null;
+        if (created) {
+            shared = new SharedCache(rootPath);
+            caches.put(rootPath, shared);
+        }
+        Subscription subscription = new Subscription(shared, maxDepth, pathPrefix, listener, parallel);
+        shared.add(subscription);
+        if (created) {
+            shared.cache.start();
+        }
+        return subscription;
+    }
+
+    /**
+     * 用持久递归watch监听rootPath整棵子树，事件不带数据，需要时由监听器调用ZkChangeEvent.fetchData()读取。
+     * 连接断开重连后PersistentWatcher会自动重新注册watch；断开期间的变化不会补发，监听器可以在重连后自行全量核对。
+     */
+    public RecursiveSubscription watchRecursive(String rootPath, Consumer<ZkChangeEvent> listener) {
+        return watchRecursive(rootPath, listener, false);
+    }
+
+    /**
+     * @param parallel 为true时按节点路径分stripe投递，同一路径的事件有序，不同路径并行，监听器需要线程安全
+     */
+    public RecursiveSubscription watchRecursive(String rootPath, Consumer<ZkChangeEvent> listener, boolean parallel) {
+        return watchRecursive(rootPath, listener, parallel, null);
+    }
+
+    /**
+     * @param onLost 有事件因为分发队列满被丢弃时在调度线程上回调，订阅者在这里安排一次全量核对；
+     *               回调开始之后再丢的事件会再回调一次，为null表示不关心
+     */
+    public RecursiveSubscription watchRecursive(String rootPath, Consumer<ZkChangeEvent> listener, boolean parallel, Runnable onLost) {
+        RecursiveSubscription subscription = new RecursiveSubscription(rootPath, listener, parallel, onLost);
+        subscription.watcher.start();
+        return subscription;
+    }
+
+    /**
+     * 给监听器加上合并窗口(curator.subscription.coalesceWindowMs)，同一节点窗口内的连续变化只投递最终状态，
+     * 用法：subscribe("/sports", coalesce(listener))，合并计数见返回值的getDispatcher()；
+     * 合并后的事件同样经本引擎的分发器投递，受同样的队列容量和溢出策略约束，计入同样的指标
+     */
+    public CoalescingCacheListener coalesce(CuratorCacheListener listener) {
+        return coalesce(listener, subscriptionConf.getCoalesceWindowMs());
+    }
+
+    public CoalescingCacheListener coalesce(CuratorCacheListener listener, long windowMs) {
+        return new CoalescingCacheListener(listener, windowMs, scheduler, dispatcher);
+    }
+
+    /**
+     * 持久递归watch监听器的合并版本，用法：watchRecursive("/sports", coalesce(consumer, 200))。
+     * 窗口内先创建后修改的节点投递NodeCreated，其它情况投递最后一个事件，数据由监听器按需读取，读到的就是最新值
+     */
+    public CoalescingDispatcher<ZkChangeEvent> coalesce(Consumer<ZkChangeEvent> listener, long windowMs) {
+        return new CoalescingDispatcher<>(windowMs, scheduler, dispatcher, ZkChangeEvent::getPath,
+                (older, newer) -> older.getType() == Watcher.Event.EventType.NodeCreated
+                        && newer.getType() == Watcher.Event.EventType.NodeDataChanged ? older : newer,
+                listener);
+    }
+
+    /**
+     * 所有订阅共用的事件分发器，队列深度、分发延迟、慢回调、丢弃次数从这里取
+     */
+    public StripedDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * 丢事件后补发差异(或回调onLost)的次数，默认配置下不丢事件，一直为0
+     */
+    public long getResyncs() {
+        return resyncs.sum();
+    }
+
+    /**
+     * 当前共享的CuratorCache个数，即实际持有watch的子树个数
+     */
+    public synchronized int sharedCaches() {
+        return caches.size();
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        SharedCache shared = subscription.shared;
+        if (shared.remove(subscription)) {
+            shared.cache.close();
+            caches.remove(shared.rootPath);
+        }
+    }
+
+    /**
+     * JDK21+才有Executors.newVirtualThreadPerTaskExecutor，这里按Java 11编译，只能反射调用
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.info("当前JDK不支持虚拟线程，回退到普通线程池");
+            return null;
+        }
+    }
+
+    private int depth(String rootPath, String path) {
+        if (path.length() <= rootPath.length()) {
+            return 0;
+        }
+        String relative = rootPath.equals("/") ? path : path.substring(rootPath.length());
+        int depth = 0;
+        for (int i = 0; i < relative.length(); i++) {
+            if (relative.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * 一个根路径对应的CuratorCache，以及订阅它的所有订阅者
+     */
+    private class SharedCache implements CuratorCacheListener {
+        private final String rootPath;
+        private final CuratorCache cache;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private volatile boolean initialized;
+
+        SharedCache(String rootPath) {
+            this.rootPath = rootPath;
+            this.cache = CuratorCache.build(client, rootPath);
+            this.cache.listenable().addListener(this);
+        }
+
+        synchronized void add(Subscription subscription) {
+            subscriptions.add(subscription);
+            if (initialized) {
+                cache.stream().forEach(data -> subscription.offer(Type.NODE_CREATED, null, data));
+                subscription.offerInitialized();
+            }
+        }
+
+        /**
+         * @return 是否已经没有订阅者
+         */
+        synchronized boolean remove(Subscription subscription) {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty();
+        }
+
+        @Override
+        public synchronized void event(Type type, ChildData oldData, ChildData data) {
+            for (Subscription subscription : subscriptions) {
+                subscription.offer(type, oldData, data);
+            }
+        }
+
+        @Override
+        public synchronized void initialized() {
+            initialized = true;
+            for (Subscription subscription : subscriptions) {
+                subscription.offerInitialized();
+            }
+        }
+    }
+
+    /**
+     * 一个订阅者的投递：默认用订阅者自己的key，所有事件落在同一个stripe上保持顺序；parallel时用事件路径作key
+     */
+    private class Delivery {
+        private final String key = "subscription-" + subscriptionIds.incrementAndGet();
+        private final boolean parallel;
+        private final AtomicInteger backlog = new AtomicInteger();
+
+        Delivery(boolean parallel) {
+            this.parallel = parallel;
+        }
+
+        /**
+         * @param onDropped 事件被分发器丢弃时回调，为null表示不关心
+         */
+        void offer(String path, Runnable task, Runnable onDropped) {
+            backlog.incrementAndGet();
+            dispatcher.dispatch(parallel && path != null ? path : key, () -> {
+                backlog.decrementAndGet();
+                task.run();
+            }, () -> {
+                backlog.decrementAndGet();
+                if (onDropped != null) {
+                    onDropped.run();
+                }
+            });
+        }
+
+        int backlog() {
+            return backlog.get();
+        }
+    }
+
+    /**
+     * 持久递归watch订阅，close时从服务端移除watch
+     */
+    public class RecursiveSubscription implements Closeable {
+        private final PersistentWatcher watcher;
+        private final Delivery delivery;
+        private final Runnable onLost;
+        private final AtomicBoolean lost = new AtomicBoolean();
+        private volatile boolean closed;
+
+        RecursiveSubscription(String rootPath, Consumer<ZkChangeEvent> listener, boolean parallel, Runnable onLost) {
+            this.watcher = new PersistentWatcher(client, rootPath, true);
+            this.delivery = new Delivery(parallel);
+            this.onLost = onLost;
+            this.watcher.getListenable().addListener(event -> {
+                if (event.getType() == Watcher.Event.EventType.None || event.getPath() == null) {
+                    return;
+                }
+                ZkChangeEvent changeEvent = new ZkChangeEvent(client, event.getType(), event.getPath());
+                delivery.offer(event.getPath(), () -> {
+                    if (!closed) {
+                        listener.accept(changeEvent);
+                    }
+                }, onLost == null ? null : this::markLost);
+            });
+        }
+
+        private void markLost() {
+            if (!closed && lost.compareAndSet(false, true)) {
+                scheduler.schedule(() -> {
+                    lost.set(false);
+                    if (!closed) {
+                        resyncs.increment();
+                        onLost.run();
+                    }
+                }, RESYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 还未投递给监听器的事件数
+         */
+        public int backlog() {
+            return delivery.backlog();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            watcher.close();
+        }
+    }
+
+    /**
+     * 一个订阅，close后不再收到事件，最后一个订阅关闭时对应的CuratorCache也会关闭
+     */
+    public class Subscription implements Closeable {
+        private final SharedCache shared;
+        private final int maxDepth;
+        private final String pathPrefix;
+        private final CuratorCacheListener listener;
+        private final Delivery delivery;
+        /**
+         * 已经投递给监听器的节点状态，只在分发器会丢事件时记录，null表示不记录
+         */
+        private final Map<String, ChildData> delivered;
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private volatile boolean initializedDelivered;
+        private volatile boolean closed;
+
+        Subscription(SharedCache shared, int maxDepth, String pathPrefix, CuratorCacheListener listener, boolean parallel) {
+            this.shared = shared;
+            this.maxDepth = maxDepth;
+            this.pathPrefix = pathPrefix;
+            this.listener = listener;
+            this.delivery = new Delivery(parallel);
+            this.delivered = lossy ? new ConcurrentHashMap<>() : null;
+        }
+
+        void offer(CuratorCacheListener.Type type, ChildData oldData, ChildData data) {
+            String path = data != null ? data.getPath() : oldData.getPath();
+            if (!accepts(path)) {
+                return;
+            }
+            delivery.offer(path, () -> deliver(type, oldData, data), this::markDirty);
+        }
+
+        void offerInitialized() {
+            delivery.offer(null, this::deliverInitialized, this::markDirty);
+        }
+
+        private void deliver(CuratorCacheListener.Type type, ChildData oldData, ChildData data) {
+            if (closed || delivered != null && !track(type, oldData, data)) {
+                return;
+            }
+            listener.event(type, oldData, data);
+        }
+
+        private void deliverInitialized() {
+            // 补发和排队中的initialized都可能送达，只回调一次
+            if (!closed && !initializedDelivered) {
+                initializedDelivered = true;
+                listener.initialized();
+            }
+        }
+
+        /**
+         * 更新已投递状态，返回false表示监听器已经看到过同样或更新的状态(补发之后姗姗来迟的旧事件)，跳过
+         */
+        private boolean track(CuratorCacheListener.Type type, ChildData oldData, ChildData data) {
+            boolean[] fresh = new boolean[1];
+            if (type == CuratorCacheListener.Type.NODE_DELETED) {
+                delivered.computeIfPresent(oldData.getPath(), (path, previous) -> {
+                    // 补发时已经投递了重新创建的节点，删除的是旧节点
+                    fresh[0] = previous.getStat().getCzxid() <= oldData.getStat().getCzxid();
+                    return fresh[0] ? null : previous;
+                });
+            } else {
+                delivered.compute(data.getPath(), (path, previous) -> {
+                    fresh[0] = previous == null || previous.getStat().getMzxid() < data.getStat().getMzxid();
+                    return fresh[0] ? data : previous;
+                });
+            }
+            return fresh[0];
+        }
+
+        private void markDirty() {
+            if (delivered != null && !closed && dirty.compareAndSet(false, true)) {
+                scheduler.schedule(this::offerResync, RESYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void offerResync() {
+            if (!closed) {
+                // 补发本身也被丢弃时会再次markDirty，稍后重试
+                delivery.offer(null, this::resync, () -> {
+                    dirty.set(false);
+                    markDirty();
+                });
+            }
+        }
+
+        /**
+         * 在订阅者的stripe上执行：把CuratorCache当前内容和已投递状态的差异补发给监听器
+         */
+        private void resync() {
+            // 先清标记再读缓存，读缓存之后丢的事件会再排一次补发
+            dirty.set(false);
+            if (closed) {
+                return;
+            }
+            resyncs.increment();
+            Set<String> present = new HashSet<>();
+            shared.cache.stream().filter(data -> accepts(data.getPath())).forEach(data -> {
+                present.add(data.getPath());
+                ChildData previous = delivered.get(data.getPath());
+                deliver(previous == null ? CuratorCacheListener.Type.NODE_CREATED : CuratorCacheListener.Type.NODE_CHANGED, previous, data);
+            });
+            for (ChildData previous : new ArrayList<>(delivered.values())) {
+                if (!present.contains(previous.getPath())) {
+                    deliver(CuratorCacheListener.Type.NODE_DELETED, previous, null);
+                }
+            }
+            if (!initializedDelivered && shared.initialized) {
+                deliverInitialized();
+            }
+        }
+
+        /**
+         * 还未投递给监听器的事件数
+         */
+        public int backlog() {
+            return delivery.backlog();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                unsubscribe(this);
+            }
+        }
+
+        private boolean accepts(String path) {
+            if (pathPrefix != null && !path.startsWith(pathPrefix)) {
+                return false;
+            }
+            return maxDepth < 0 || depth(shared.rootPath, path) <= maxDepth;
+        }
+    }
+}
@@ -0,0 +1,556 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 子树批量工具：导出、导入、diff、并行删除，面向几十万节点的子树。
+ *
+ * 遍历：异步getData/getChildren，同时最多maxInFlight个节点的请求在途(curator.tree.maxInFlight)，
+ * 一个节点的子节点列表返回后立即把子节点的请求发出去，不像deletingChildrenIfNeeded那样逐个串行往返。
+ * 回调在每次遍历独占的单线程上执行，同一会话的请求按顺序返回，所以父节点一定先于子节点被访问。
+ *
+ * 导出文件：魔数"ZKT1" + gzip压缩的记录流，每条记录 = varint(与上一条路径的公共前缀长度) + varint(后缀长度) + 后缀
+ * + varint(数据长度+1，0表示null) + 数据；路径是相对导出根节点的路径，根节点自己为空串。临时节点不导出。
+ * 导入通过ZkBatchWriter打包成multi事务提交，目标节点已存在时改为setData(每个已存在的节点多一次往返)。
+ */
+@Component
+public class ZkTreeTools {
+
+    private static final byte[] MAGIC = "ZKT1".getBytes(StandardCharsets.US_ASCII);
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ZkBatchWriter batchWriter;
+
+    @Autowired
+    private TreeToolsConf treeToolsConf;
+
+    /**
+     * 遍历时对每个节点的回调，data在只遍历子节点(withData=false)时为null
+     */
+    public interface NodeVisitor {
+        void visit(String path, byte[] data, Stat stat) throws Exception;
+    }
+
+    /**
+     * diff结果回调，path是相对根节点的路径
+     */
+    public interface DiffListener {
+        void added(String path);
+
+        void removed(String path);
+
+        void changed(String path);
+    }
+
+    /**
+     * 并行遍历子树，阻塞到遍历完成；根节点是"/"时跳过/zookeeper系统节点
+     */
+    public TreeStats walk(String root, boolean withData, NodeVisitor visitor) throws Exception {
+        long start = System.nanoTime();
+        TreeStats stats = new TreeStats();
+        new Walk(root, withData, visitor, stats).run();
+        return stats.finish(start);
+    }
+
+    /**
+     * 把子树导出到out，不关闭out
+     */
+    public TreeStats exportTree(String root, OutputStream out) throws Exception {
+        out.write(MAGIC);
+        GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(out), 64 * 1024);
+        RecordWriter writer = new RecordWriter(new DataOutputStream(new BufferedOutputStream(gzip, 64 * 1024)));
+        TreeStats stats = walk(root, true, (path, data, stat) -> writer.write(relative(root, path), data));
+        writer.out.flush();
+        gzip.finish();
+        return stats;
+    }
+
+    /**
+     * 把导出文件导入到targetRoot下(targetRoot对应导出时的根节点)，不关闭in。
+     * 有节点导入失败时等所有请求结束后抛IllegalStateException，消息里带失败节点数，cause是第一个错误；
+     * 已经写入的节点不回滚，修复原因后可以重新导入(已存在的节点改为setData)
+     */
+    public TreeStats importTree(InputStream in, String targetRoot) throws Exception {
+        long start = System.nanoTime();
+        TreeStats stats = new TreeStats();
+        RecordReader reader = open(in);
+        Semaphore permits = new Semaphore(treeToolsConf.getMaxInFlight());
+        String parent = ZKPaths.getPathAndNode(targetRoot).getPath();
+        if (!parent.equals("/")) {
+            client.createContainers(parent);
+        }
+        // 已存在的节点直接setData：multi里一个create因NodeExists失败会让同一批的其他操作重新排队，逐个失败代价很高
+        Set<String> existing = new HashSet<>();
+        if (client.checkExists().forPath(targetRoot) != null) {
+            walk(targetRoot, false, (path, data, stat) -> existing.add(path));
+        }
+        List<Throwable> errors = new ArrayList<>();
+        while (reader.next()) {
+            String path = ZKPaths.makePath(targetRoot, reader.path);
+            byte[] data = reader.data == null ? new byte[0] : reader.data;
+            stats.node(data.length);
+            if (path.equals("/")) {
+                client.setData().forPath(path, data);
+                continue;
+            }
+            permits.acquire();
+            if (existing.contains(path)) {
+                batchWriter.setData(path, data).whenComplete((result, e) -> {
+                    if (e != null) {
+                        stats.fail();
+                        synchronized (errors) {
+                            if (errors.isEmpty()) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                    permits.release();
+                });
+                continue;
+            }
+            batchWriter.create(path, data, CreateMode.PERSISTENT).handle((result, e) -> {
+                if (e instanceof KeeperException.NodeExistsException) {
+                    return batchWriter.setData(path, data);
+                }
+                return e == null ? CompletableFuture.completedFuture(result) : CompletableFuture.failedFuture(e);
+            }).thenCompose(f -> f).whenComplete((result, e) -> {
+                if (e != null) {
+                    stats.fail();
+                    synchronized (errors) {
+                        if (errors.isEmpty()) {
+                            errors.add(e);
+                        }
+                    }
+                }
+                permits.release();
+            });
+        }
+        permits.acquire(treeToolsConf.getMaxInFlight());
+        stats.finish(start);
+        if (!errors.isEmpty()) {
+            Throwable first = errors.get(0) instanceof CompletionException ? errors.get(0).getCause() : errors.get(0);
+            throw new IllegalStateException("导入到" + targetRoot + "时" + stats.getNodes() + "个节点中有"
+                    + stats.getFailed() + "个失败，第一个错误：" + first, first);
+        }
+        return stats;
+    }
+
+    /**
+     * 比较两个导出文件，other相对base的新增、删除、修改通过listener逐条回调；
+     * 只把base的路径和数据摘要(长度+CRC32)放在内存里，other是流式读取的
+     */
+    public TreeStats diff(InputStream base, InputStream other, DiffListener listener) throws IOException {
+        long start = System.nanoTime();
+        TreeStats stats = new TreeStats();
+        Map<String, Long> digests = load(base);
+        RecordReader reader = open(other);
+        while (reader.next()) {
+            compare(digests, reader.path, reader.data, listener, stats);
+        }
+        return finishDiff(digests, listener, stats, start);
+    }
+
+    /**
+     * 比较导出文件和当前的子树，live相对base的变化通过listener逐条回调
+     */
+    public TreeStats diff(InputStream base, String liveRoot, DiffListener listener) throws Exception {
+        long start = System.nanoTime();
+        TreeStats stats = new TreeStats();
+        Map<String, Long> digests = load(base);
+        walk(liveRoot, true, (path, data, stat) -> compare(digests, relative(liveRoot, path), data, listener, stats));
+        return finishDiff(digests, listener, stats, start);
+    }
+
+    /**
+     * 并行删除整棵子树(包括root本身)：先并行遍历出所有节点，再从最深的一层开始，每层的删除打包成multi事务提交
+     */
+    public TreeStats deleteTree(String root) throws Exception {
+        long start = System.nanoTime();
+        TreeStats stats = new TreeStats();
+        List<List<String>> levels = new ArrayList<>();
+        int rootDepth = depth(root);
+        walk(root, false, (path, data, stat) -> {
+            int level = depth(path) - rootDepth;
+            while (levels.size() <= level) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(level).add(path);
+        });
+        Semaphore permits = new Semaphore(treeToolsConf.getMaxInFlight());
+        for (int level = levels.size() - 1; level >= 0; level--) {
+            for (String path : levels.get(level)) {
+                if (path.equals("/")) {
+                    continue;
+                }
+                permits.acquire();
+                batchWriter.delete(path).whenComplete((result, e) -> {
+                    if (e == null) {
+                        stats.node(0);
+                    } else if (e instanceof KeeperException.NoNodeException) {
+                        stats.skip();
+                    } else {
+                        stats.fail();
+                    }
+                    permits.release();
+                });
+            }
+        }
+        permits.acquire(treeToolsConf.getMaxInFlight());
+        return stats.finish(start);
+    }
+
+    private static int depth(String path) {
+        if (path.equals("/")) {
+            return 0;
+        }
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    private static String relative(String root, String path) {
+        if (path.equals(root)) {
+            return "";
+        }
+        return root.equals("/") ? path : path.substring(root.length());
+    }
+
+    /**
+     * null和空数组视为相同：导入时null数据按空数组写入
+     */
+    private static long digest(byte[] data) {
+        if (data == null) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (long) data.length << 32 | crc.getValue();
+    }
+
+    private Map<String, Long> load(InputStream base) throws IOException {
+        Map<String, Long> digests = new HashMap<>();
+        RecordReader reader = open(base);
+        while (reader.next()) {
+            digests.put(reader.path, digest(reader.data));
+        }
+        return digests;
+    }
+
+    private static void compare(Map<String, Long> digests, String path, byte[] data, DiffListener listener, TreeStats stats) {
+        stats.node(data == null ? 0 : data.length);
+        Long previous = digests.remove(path);
+        if (previous == null) {
+            stats.added();
+            listener.added(path);
+        } else if (previous != digest(data)) {
+            stats.changed();
+            listener.changed(path);
+        }
+    }
+
+    private static TreeStats finishDiff(Map<String, Long> digests, DiffListener listener, TreeStats stats, long start) {
+        for (String path : digests.keySet()) {
+            stats.removed();
+            listener.removed(path);
+        }
+        return stats.finish(start);
+    }
+
+    private static RecordReader open(InputStream in) throws IOException {
+        byte[] magic = in.readNBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("不是ZkTreeTools导出的文件");
+        }
+        return new RecordReader(new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 64 * 1024), 64 * 1024)));
+    }
+
+    /**
+     * 一次并行遍历。pending是待访问的路径，outstanding是已发现但还没访问完的节点数(含pending)，降到0即遍历完成
+     */
+    private class Walk {
+        private final String root;
+        private final boolean withData;
+        private final NodeVisitor visitor;
+        private final TreeStats stats;
+        private final Semaphore permits = new Semaphore(treeToolsConf.getMaxInFlight());
+        private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final ExecutorService callbacks = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "zk-tree-walk");
+            t.setDaemon(true);
+            return t;
+        });
+
+        Walk(String root, boolean withData, NodeVisitor visitor, TreeStats stats) {
+            this.root = root;
+            this.withData = withData;
+            this.visitor = visitor;
+            this.stats = stats;
+        }
+
+        void run() throws Exception {
+            outstanding.incrementAndGet();
+            pending.add(root);
+            try {
+                pump();
+                done.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } finally {
+                callbacks.shutdown();
+            }
+        }
+
+        private void pump() {
+            while (!pending.isEmpty() && permits.tryAcquire()) {
+                String path = pending.poll();
+                if (path == null) {
+                    permits.release();
+                    return;
+                }
+                try {
+                    visit(path);
+                } catch (Exception e) {
+                    done.completeExceptionally(e);
+                    return;
+                }
+            }
+        }
+
+        private void visit(String path) throws Exception {
+            NodeVisit node = new NodeVisit(path, withData ? 2 : 1);
+            if (withData) {
+                client.getData().inBackground((c, event) -> onData(node, event), callbacks).forPath(path);
+            }
+            client.getChildren().inBackground((c, event) -> onChildren(node, event), callbacks).forPath(path);
+        }
+
+        private void onData(NodeVisit node, CuratorEvent event) {
+            if (ok(node, event)) {
+                node.data = event.getData();
+                node.stat = event.getStat();
+            }
+            completeIfDone(node);
+        }
+
+        private void onChildren(NodeVisit node, CuratorEvent event) {
+            if (ok(node, event)) {
+                if (!withData) {
+                    node.stat = event.getStat();
+                }
+                for (String child : event.getChildren()) {
+                    String childPath = ZKPaths.makePath(node.path, child);
+                    if (childPath.equals("/zookeeper")) {
+                        continue;
+                    }
+                    outstanding.incrementAndGet();
+                    pending.add(childPath);
+                }
+            }
+            completeIfDone(node);
+        }
+
+        private boolean ok(NodeVisit node, CuratorEvent event) {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                return true;
+            }
+            if (event.getResultCode() == KeeperException.Code.NONODE.intValue()) {
+                node.missing = true;
+            } else {
+                done.completeExceptionally(KeeperException.create(KeeperException.Code.get(event.getResultCode()), node.path));
+            }
+            return false;
+        }
+
+        /**
+         * getData和getChildren都返回后才回调visitor，子节点的请求在getChildren返回时已经入队
+         */
+        private void completeIfDone(NodeVisit node) {
+            if (--node.remaining > 0) {
+                return;
+            }
+            permits.release();
+            if (node.missing) {
+                stats.skip();
+            } else if (node.stat.getEphemeralOwner() != 0 && withData) {
+                stats.skip();
+            } else {
+                stats.node(node.data == null ? 0 : node.data.length);
+                try {
+                    visitor.visit(node.path, node.data, node.stat);
+                } catch (Exception e) {
+                    done.completeExceptionally(e);
+                }
+            }
+            if (outstanding.decrementAndGet() == 0) {
+                done.complete(null);
+            } else {
+                pump();
+            }
+        }
+    }
+
+    /**
+     * 一个节点的访问状态，只在回调线程上读写
+     */
+    private static class NodeVisit {
+        final String path;
+        int remaining;
+        boolean missing;
+        byte[] data;
+        Stat stat;
+
+        NodeVisit(String path, int remaining) {
+            this.path = path;
+            this.remaining = remaining;
+        }
+    }
+
+    private static class RecordWriter {
+        private final DataOutputStream out;
+        private byte[] previous = new byte[0];
+
+        RecordWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(String path, byte[] data) throws IOException {
+            byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int max = Math.min(bytes.length, previous.length);
+            while (shared < max && bytes[shared] == previous[shared]) {
+                shared++;
+            }
+            writeVarint(out, shared);
+            writeVarint(out, bytes.length - shared);
+            out.write(bytes, shared, bytes.length - shared);
+            if (data == null) {
+                writeVarint(out, 0);
+            } else {
+                writeVarint(out, data.length + 1);
+                out.write(data);
+            }
+            previous = bytes;
+        }
+    }
+
+    private static class RecordReader {
+        private final DataInputStream in;
+        private byte[] previous = new byte[0];
+        String path;
+        byte[] data;
+
+        RecordReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * 读下一条记录，文件结束返回false
+         */
+        boolean next() throws IOException {
+            int shared;
+            try {
+                shared = readVarint(in);
+            } catch (EOFException e) {
+                return false;
+            }
+            int suffix = readVarint(in);
+            byte[] bytes = Arrays.copyOf(previous, shared + suffix);
+            in.readFully(bytes, shared, suffix);
+            int dataLength = readVarint(in);
+            if (dataLength == 0) {
+                data = null;
+            } else {
+                data = new byte[dataLength - 1];
+                in.readFully(data);
+            }
+            previous = bytes;
+            path = new String(bytes, StandardCharsets.UTF_8);
+            return true;
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint格式错误");
+    }
+
+    /**
+     * gzip.finish()只写完压缩流，不关闭调用方传进来的out
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分布式工作队列。zookeeper上常见的队列写法(每条消息一个顺序节点，如mq0000000005)每次出队都要getChildren、排序、删除，
+ * 子节点越多越慢；这里改为：
+ * rootPath/队列名/buckets/b00 ~ b{buckets-1}/batch-0000000012   持久顺序节点，一个节点打包多条消息
+ * rootPath/队列名/leases/b03-batch-0000000012                    临时节点，消费者领取该批消息的租约
+ *
+ * 1 生产者的消息先在本地攒批(maxBatchMessages/maxBatchBytes/lingerMs)，一批写成一个节点，多个批次的create再经ZkBatchWriter合并成multi事务；
+ *   批次轮流写到各个桶里，单个桶的子节点数是积压批次数 / buckets；
+ * 2 消费者一次列出一个桶，按顺序号排序后去掉已经有租约的批次，作为本地候选，用完再列下一个桶，每个批次只摊到一次列表；
+ *   领取一个批次就是创建它的租约节点，创建成功才读取数据，NodeExists说明被其它消费者抢先；
+ *   读到数据后再带版本号把原数据写回批次节点，写入后的版本号就是这次领取的凭证，之后每次领取都会让版本号变化；
+ * 3 ack在一个multi事务里带着凭证版本号删除批次节点并删除租约节点，可以一次确认多个批次；nack只删除租约，批次立即可以被重新领取；
+ *   租约节点被回收后可能被其它消费者重新创建，只看租约节点分不清是谁的，所以ack/nack/renew都以批次节点的版本号为准；
+ * 4 租约是临时节点，消费者会话过期后自动消失；消费者还活着但超过leaseTimeoutMs没有ack的批次，由回收任务删除租约重新入队，
+ *   处理时间可能超过leaseTimeoutMs的消费者用Consumer.renew续约。
+ *
+ * 投递语义是至少一次：租约被回收后原消费者仍在处理，其它消费者可能再领到同一批消息，此时原消费者的ack失败(见getLostLeases())。
+ * 消息只在同一个桶内按写入顺序领取，不同桶之间不保证顺序。超时回收依赖各节点时钟大致同步。
+ */
+@Component
+public class ZkWorkQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(ZkWorkQueue.class);
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ZkBatchWriter batchWriter;
+
+    @Autowired
+    private QueueConf queueConf;
+
+    private final String memberId = UUID.randomUUID().toString();
+    private final Map<String, Producer> producers = new ConcurrentHashMap<>();
+    private final Set<String> initialized = ConcurrentHashMap.newKeySet();
+    private final Set<String> consumedQueues = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder publishedMessages = new LongAdder();
+    private final LongAdder publishedBatches = new LongAdder();
+    private final LongAdder claimedBatches = new LongAdder();
+    private final LongAdder ackedBatches = new LongAdder();
+    private final LongAdder claimConflicts = new LongAdder();
+    private final LongAdder requeuedBatches = new LongAdder();
+    private final LongAdder lostLeases = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zk-work-queue");
+            t.setDaemon(true);
+            return t;
+        });
+        long reapIntervalMs = Math.max(100, queueConf.getLeaseTimeoutMs() / 2);
+        scheduler.scheduleWithFixedDelay(this::reapAll, reapIntervalMs, reapIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 关闭前把本地攒着的消息写出去，ZkBatchWriter关闭时再提交它队列里剩下的create
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        producers.values().forEach(Producer::flush);
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 发送一条消息，返回的future在消息所在的批次节点创建成功后完成
+     */
+    public CompletableFuture<Void> offer(String queue, byte[] message) {
+        return producers.computeIfAbsent(queue, Producer::new).add(message);
+    }
+
+    /**
+     * 立即写出本地攒着的消息，不等lingerMs
+     */
+    public void flush(String queue) {
+        Producer producer = producers.get(queue);
+        if (producer != null) {
+            producer.flush();
+        }
+    }
+
+    /**
+     * 创建一个消费者。消费者不是线程安全的，每个消费线程用自己的消费者
+     */
+    public Consumer consumer(String queue) throws Exception {
+        ensureQueue(queue);
+        consumedQueues.add(queue);
+        return new Consumer(queue);
+    }
+
+    /**
+     * 队列里还没有被确认的批次数(包括已被领取的)
+     */
+    public int backlog(String queue) throws Exception {
+        ensureQueue(queue);
+        int batches = 0;
+        for (int i = 0; i < queueConf.getBuckets(); i++) {
+            Stat stat = client.checkExists().forPath(bucketPath(queue, i));
+            batches += stat == null ? 0 : stat.getNumChildren();
+        }
+        return batches;
+    }
+
+    /**
+     * 回收队列里超过leaseTimeoutMs还没有ack的租约，批次重新入队，返回回收的数量
+     */
+    public int requeueExpired(String queue) throws Exception {
+        String leasesPath = leasesPath(queue);
+        int requeued = 0;
+        long now = System.currentTimeMillis();
+        for (String lease : client.getChildren().forPath(leasesPath)) {
+            String path = leasesPath + "/" + lease;
+            Stat stat = new Stat();
+            byte[] data;
+            try {
+                data = client.getData().storingStatIn(stat).forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                continue;
+            }
+            if (leaseDeadline(data) > now) {
+                continue;
+            }
+            try {
+                client.delete().withVersion(stat.getVersion()).forPath(path);
+                requeued++;
+            } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+                // 刚好被ack或者续约
+            }
+        }
+        requeuedBatches.add(requeued);
+        return requeued;
+    }
+
+    public long getPublishedMessages() {
+        return publishedMessages.sum();
+    }
+
+    /**
+     * 写入的批次节点数，publishedMessages / publishedBatches即平均每个节点打包的消息数
+     */
+    public long getPublishedBatches() {
+        return publishedBatches.sum();
+    }
+
+    public long getClaimedBatches() {
+        return claimedBatches.sum();
+    }
+
+    public long getAckedBatches() {
+        return ackedBatches.sum();
+    }
+
+    /**
+     * 领取时租约已被其它消费者抢先创建的次数，消费者多、积压少时会变多
+     */
+    public long getClaimConflicts() {
+        return claimConflicts.sum();
+    }
+
+    /**
+     * 重新入队的批次数(nack、关闭消费者时未确认的批次、超时回收)
+     */
+    public long getRequeuedBatches() {
+        return requeuedBatches.sum();
+    }
+
+    /**
+     * ack时租约已经不在的批次数，这些批次可能被其它消费者重复处理
+     */
+    public long getLostLeases() {
+        return lostLeases.sum();
+    }
+
+    private void reapAll() {
+        for (String queue : consumedQueues) {
+            try {
+                requeueExpired(queue);
+            } catch (Exception e) {
+                log.warn("回收过期租约失败：{}", queue, e);
+            }
+        }
+    }
+
+    private void ensureQueue(String queue) throws Exception {
+        if (initialized.contains(queue)) {
+            return;
+        }
+        // 桶用持久节点而不是容器节点，桶被消费空之后不会被服务端删掉
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < queueConf.getBuckets(); i++) {
+            paths.add(bucketPath(queue, i));
+        }
+        paths.add(leasesPath(queue));
+        for (String path : paths) {
+            try {
+                client.create().creatingParentsIfNeeded().forPath(path);
+            } catch (KeeperException.NodeExistsException e) {
+                // 其它节点已经创建过
+            }
+        }
+        initialized.add(queue);
+    }
+
+    private String bucketName(int bucket) {
+        return String.format("b%02d", bucket);
+    }
+
+    private String bucketPath(String queue, int bucket) {
+        return queueConf.getRootPath() + "/" + queue + "/buckets/" + bucketName(bucket);
+    }
+
+    private String leasesPath(String queue) {
+        return queueConf.getRootPath() + "/" + queue + "/leases";
+    }
+
+    private static long leaseDeadline(byte[] data) {
+        String text = new String(data, StandardCharsets.UTF_8);
+        return Long.parseLong(text.substring(text.lastIndexOf('\n') + 1));
+    }
+
+    static byte[] pack(List<byte[]> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(messages.size());
+            for (byte[] message : messages) {
+                out.writeInt(message.length);
+                out.write(message);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<byte[]> unpack(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int count = in.readInt();
+            List<byte[]> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                messages.add(message);
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new IllegalStateException("批次数据损坏", e);
+        }
+    }
+
+    /**
+     * 一个队列的本地攒批，攒够一批或者lingerMs到期时写成一个批次节点
+     */
+    private class Producer {
+        private final String queue;
+        private List<byte[]> messages = new ArrayList<>();
+        private List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private int bytes;
+        private int nextBucket = ThreadLocalRandom.current().nextInt(queueConf.getBuckets());
+        private ScheduledFuture<?> linger;
+
+        Producer(String queue) {
+            this.queue = queue;
+        }
+
+        synchronized CompletableFuture<Void> add(byte[] message) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            if (!messages.isEmpty() && bytes + message.length + 4 > queueConf.getMaxBatchBytes()) {
+                flush();
+            }
+            messages.add(message);
+            futures.add(future);
+            bytes += message.length + 4;
+            if (messages.size() >= queueConf.getMaxBatchMessages() || bytes >= queueConf.getMaxBatchBytes()) {
+                flush();
+            } else if (linger == null) {
+                linger = scheduler.schedule(this::flush, queueConf.getLingerMs(), TimeUnit.MILLISECONDS);
+            }
+            return future;
+        }
+
+        synchronized void flush() {
+            if (linger != null) {
+                linger.cancel(false);
+                linger = null;
+            }
+            if (messages.isEmpty()) {
+                return;
+            }
+            List<byte[]> batch = messages;
+            List<CompletableFuture<Void>> batchFutures = futures;
+            messages = new ArrayList<>();
+            futures = new ArrayList<>();
+            bytes = 0;
+            try {
+                ensureQueue(queue);
+            } catch (Exception e) {
+                batchFutures.forEach(future -> future.completeExceptionally(e));
+                return;
+            }
+            String path = bucketPath(queue, nextBucket) + "/batch-";
+            nextBucket = (nextBucket + 1) % queueConf.getBuckets();
+            batchWriter.create(path, pack(batch), CreateMode.PERSISTENT_SEQUENTIAL).whenComplete((result, e) -> {
+                if (e != null) {
+                    batchFutures.forEach(future -> future.completeExceptionally(e));
+                    return;
+                }
+                publishedBatches.increment();
+                publishedMessages.add(batch.size());
+                batchFutures.forEach(future -> future.complete(null));
+            });
+        }
+    }
+
+    /**
+     * 领取到的一批消息，处理完后用Consumer.ack确认
+     */
+    public static class Batch {
+        private final String path;
+        private final String leasePath;
+        private final int claimVersion;
+        private final List<byte[]> messages;
+
+        Batch(String path, String leasePath, int claimVersion, List<byte[]> messages) {
+            this.path = path;
+            this.leasePath = leasePath;
+            this.claimVersion = claimVersion;
+            this.messages = messages;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public List<byte[]> getMessages() {
+            return messages;
+        }
+    }
+
+    /**
+     * 一个消费者，从随机的桶开始轮流领取各个桶里的批次
+     */
+    public class Consumer implements Closeable {
+        private final String queue;
+        private final String leasesPath;
+        private final Deque<String> candidates = new ArrayDeque<>();
+        private final Map<String, Batch> outstanding = new LinkedHashMap<>();
+        private final Object signal = new Object();
+        private final CuratorWatcher bucketWatcher = event -> {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        };
+        private int cursor = ThreadLocalRandom.current().nextInt(queueConf.getBuckets());
+
+        Consumer(String queue) {
+            this.queue = queue;
+            this.leasesPath = leasesPath(queue);
+        }
+
+        /**
+         * 领取一批消息，没有可领取的批次时最多等待timeout，超时返回null
+         */
+        public Batch poll(long timeout, TimeUnit unit) throws Exception {
+            List<Batch> batches = poll(1, timeout, unit);
+            return batches.isEmpty() ? null : batches.get(0);
+        }
+
+        /**
+         * 最多领取maxBatches批，领到至少一批就返回；没有可领取的批次时最多等待timeout，超时返回空列表
+         */
+        public synchronized List<Batch> poll(int maxBatches, long timeout, TimeUnit unit) throws Exception {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            List<Batch> claimed = new ArrayList<>();
+            while (true) {
+                while (claimed.size() < maxBatches) {
+                    String candidate = candidates.pollFirst();
+                    if (candidate == null) {
+                        if (!refill()) {
+                            break;
+                        }
+                        continue;
+                    }
+                    Batch batch = claim(candidate);
+                    if (batch != null) {
+                        claimed.add(batch);
+                    }
+                }
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (!claimed.isEmpty() || remainingMs <= 0) {
+                    return claimed;
+                }
+                // 列桶时已经注册了子节点watch，有新批次写入时提前醒来
+                synchronized (signal) {
+                    signal.wait(Math.min(queueConf.getPollIntervalMs(), remainingMs));
+                }
+            }
+        }
+
+        /**
+         * 在一个multi事务里确认多批消息：带着领取时的版本号删除批次节点(版本号变了说明被其它消费者重新领取过)，再删除租约节点。
+         * 返回确认成功的批数，租约已经丢失的批次不会被确认(可能已被其它消费者领取)
+         */
+        public synchronized int ack(Collection<Batch> batches) throws Exception {
+            if (batches.isEmpty()) {
+                return 0;
+            }
+            List<CuratorOp> ops = new ArrayList<>(batches.size() * 2);
+            for (Batch batch : batches) {
+                ops.add(client.transactionOp().delete().withVersion(batch.claimVersion).forPath(batch.path));
+                ops.add(client.transactionOp().delete().forPath(batch.leasePath));
+            }
+            try {
+                client.transaction().forOperations(ops);
+                batches.forEach(batch -> outstanding.remove(batch.leasePath));
+                ackedBatches.add(batches.size());
+                return batches.size();
+            } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+                if (batches.size() == 1) {
+                    Batch batch = batches.iterator().next();
+                    outstanding.remove(batch.leasePath);
+                    lostLeases.increment();
+                    return 0;
+                }
+                // 事务整体回滚，逐批重新确认，找出租约已经丢失的那些
+                int acked = 0;
+                for (Batch batch : batches) {
+                    acked += ack(Collections.singletonList(batch));
+                }
+                return acked;
+            }
+        }
+
+        public int ack(Batch batch) throws Exception {
+            return ack(Collections.singletonList(batch));
+        }
+
+        /**
+         * 放弃这批消息，删除租约后其它消费者可以立即领取
+         */
+        public synchronized void nack(Batch batch) throws Exception {
+            outstanding.remove(batch.leasePath);
+            try {
+                client.transaction().forOperations(
+                        client.transactionOp().check().withVersion(batch.claimVersion).forPath(batch.path),
+                        client.transactionOp().delete().forPath(batch.leasePath));
+                requeuedBatches.increment();
+            } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+                lostLeases.increment();
+            }
+        }
+
+        /**
+         * 续约：把租约的到期时间推迟到现在 + leaseTimeoutMs。返回false表示租约已经丢失，这批消息不要再ack
+         */
+        public synchronized boolean renew(Batch batch) throws Exception {
+            try {
+                client.transaction().forOperations(
+                        client.transactionOp().check().withVersion(batch.claimVersion).forPath(batch.path),
+                        client.transactionOp().setData().forPath(batch.leasePath, lease()));
+                return true;
+            } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+                outstanding.remove(batch.leasePath);
+                lostLeases.increment();
+                return false;
+            }
+        }
+
+        /**
+         * 已领取还没有确认的批次数
+         */
+        public synchronized int outstanding() {
+            return outstanding.size();
+        }
+
+        /**
+         * 未确认的批次全部nack，重新入队
+         */
+        @Override
+        public synchronized void close() {
+            for (Batch batch : new ArrayList<>(outstanding.values())) {
+                try {
+                    nack(batch);
+                } catch (Exception e) {
+                    log.warn("释放租约失败：{}", batch.leasePath, e);
+                }
+            }
+        }
+
+        /**
+         * 从cursor开始找下一个非空的桶，把其中没有租约的批次按顺序号放进候选列表；所有桶都空时返回false
+         */
+        private boolean refill() throws Exception {
+            Set<String> leased = new HashSet<>(client.getChildren().forPath(leasesPath));
+            for (int i = 0; i < queueConf.getBuckets(); i++) {
+                int bucket = cursor;
+                cursor = (cursor + 1) % queueConf.getBuckets();
+                String bucketPath = bucketPath(queue, bucket);
+                List<String> children = client.getChildren().usingWatcher(bucketWatcher).forPath(bucketPath);
+                Collections.sort(children);
+                for (String child : children) {
+                    if (!leased.contains(bucketName(bucket) + "-" + child)) {
+                        candidates.addLast(bucketPath + "/" + child);
+                    }
+                }
+                if (!candidates.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 创建租约节点领取一个批次，再带版本号把数据写回批次节点，写入后的版本号作为这次领取的凭证
+         */
+        private Batch claim(String path) throws Exception {
+            String bucket = path.substring(path.lastIndexOf('/', path.lastIndexOf('/') - 1) + 1, path.lastIndexOf('/'));
+            String leasePath = leasesPath + "/" + bucket + "-" + path.substring(path.lastIndexOf('/') + 1);
+            try {
+                client.create().withMode(CreateMode.EPHEMERAL).forPath(leasePath, lease());
+            } catch (KeeperException.NodeExistsException e) {
+                claimConflicts.increment();
+                return null;
+            }
+            byte[] data;
+            Stat claimed;
+            try {
+                Stat stat = new Stat();
+                data = client.getData().storingStatIn(stat).forPath(path);
+                claimed = client.setData().withVersion(stat.getVersion()).forPath(path, data);
+            } catch (KeeperException.NoNodeException e) {
+                // 列表之后已经被其它消费者确认掉了
+                client.delete().guaranteed().forPath(leasePath);
+                return null;
+            } catch (KeeperException.BadVersionException e) {
+                // 租约在读写之间被回收，其它消费者已经重新领取，租约节点现在是它的，不能删除
+                claimConflicts.increment();
+                return null;
+            }
+            Batch batch = new Batch(path, leasePath, claimed.getVersion(), unpack(data));
+            outstanding.put(leasePath, batch);
+            claimedBatches.increment();
+            return batch;
+        }
+
+        /**
+         * 租约节点的数据：成员id\n到期时间
+         */
+        private byte[] lease() {
+            return (memberId + "\n" + (System.currentTimeMillis() + queueConf.getLeaseTimeoutMs())).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package org.example;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * 故障注入：应用连的是自己独占的ZkTestEnsemble(经过ZkFaultProxy)，不影响其它测试共用的实例。
+ * 1 网络延迟：每次往返的耗时随注入的延迟增加，且不超出延迟之外的预算；
+ * 2 网络分区：客户端在会话超时的2/3内发现连接断开(SUSPENDED)，熔断期间请求不再重试，恢复后原会话重连；
+ * 3 会话过期：临时节点随会话消失，ZkServiceRegistry用新会话重建注册节点，读缓存继续跟上后续变化；
+ *   ZkEphemeralManager托管的大量临时节点按批用multi事务重建。
+ *
+ * 会话超时设得很短，让分区和过期在几秒内发生。
+ */
+@SpringBootTest(classes = BootApplication.class, properties = {
+        "curator.registry.enabled=false",
+        "curator.sessionTimeoutMs=4000",
+        "curator.connectionTimeoutMs=2000",
+        "curator.retry.circuitBreaker=true",
+        "curator.ephemeral.jitterMs=500",
+        "curator.readCache.enabled=true",
+        "curator.readCache.rootPath=/zkfault"})
+@DirtiesContext
+public class FaultInjectionWithCuratorTest {
+
+    private static final ZkTestEnsemble ENSEMBLE = start();
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private CuratorConf curatorConf;
+
+    @Autowired
+    private ZkServiceRegistry serviceRegistry;
+
+    @Autowired
+    private ZkReadCache readCache;
+
+    @Autowired
+    private ZkEphemeralManager ephemeralManager;
+
+    @Autowired
+    private ZkEndpoint endpoint;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final List<ConnectionState> states = new CopyOnWriteArrayList<>();
+    private final ConnectionStateListener stateListener = (c, state) -> states.add(state);
+
+    @DynamicPropertySource
+    static void zookeeper(DynamicPropertyRegistry registry) {
+        registry.add("curator.connectString", ENSEMBLE::getConnectString);
+    }
+
+    private static ZkTestEnsemble start() {
+        try {
+            return ZkTestEnsemble.standalone().closeOnExit();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @BeforeEach
+    public void listen() throws Exception {
+        ENSEMBLE.heal();
+        ENSEMBLE.setLatencyMs(0);
+        client.blockUntilConnected();
+        client.getConnectionStateListenable().addListener(stateListener);
+    }
+
+    @AfterEach
+    public void unlisten() {
+        client.getConnectionStateListenable().removeListener(stateListener);
+        ENSEMBLE.heal();
+        ENSEMBLE.setLatencyMs(0);
+    }
+
+
+    /**
+     * 注入20ms单向延迟后，每次getData至少多一个40ms的往返，p99不超过往返 + 50ms
+     */
+    @Test
+    public void latency() throws Exception {
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/zkfault/latency", "v".getBytes(StandardCharsets.UTF_8));
+        ENSEMBLE.setLatencyMs(20);
+        LatencyStats stats = new LatencyStats("20ms延迟下的getData");
+        for (int i = 0; i < 50; i++) {
+            stats.time(() -> client.getData().forPath("/zkfault/latency"));
+        }
+        System.out.println(stats);
+        assertTrue(stats.percentileMs(0.5) >= 40, "延迟生效：" + stats);
+        stats.assertPercentile(0.99, 40 + 50);
+        ENSEMBLE.setLatencyMs(0);
+        client.delete().forPath("/zkfault/latency");
+    }
+
+
+    /**
+     * 分区后客户端靠读超时(会话超时的2/3)发现连接断开，熔断期间的请求不重试；
+     * 分区在会话过期之前恢复，原会话重新连上，临时节点还在
+     */
+    @Test
+    public void partitionAndHeal() throws Exception {
+        String ephemeral = client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                .forPath("/zkfault/partition/e");
+        long sessionId = client.getZookeeperClient().getZooKeeper().getSessionId();
+        int sessionTimeoutMs = client.getZookeeperClient().getZooKeeper().getSessionTimeout();
+
+        ENSEMBLE.partition();
+        long detectMs = TimingAssertions.awaitWithin(sessionTimeoutMs * 2 / 3 + 500, "分区后进入SUSPENDED",
+                () -> states.contains(ConnectionState.SUSPENDED));
+        System.out.println("会话超时" + sessionTimeoutMs + "ms，" + detectMs + "ms后发现分区");
+
+
+        ENSEMBLE.heal();
+        long reconnectMs = TimingAssertions.awaitWithin(sessionTimeoutMs, "恢复后重新连上",
+                () -> states.contains(ConnectionState.RECONNECTED));
+        System.out.println(reconnectMs + "ms后重新连上");
+        assertEquals(sessionId, client.getZookeeperClient().getZooKeeper().getSessionId(), "会话没有过期");
+        assertNotNull(client.checkExists().forPath(ephemeral), "临时节点还在");
+        client.delete().deletingChildrenIfNeeded().forPath("/zkfault/partition");
+    }
+
+
+    /**
+     * 熔断期间不再重试：请求只经历curator一次等待连接(connectionTimeoutMs)和zookeeper客户端一次连接尝试(最长会话超时)就失败，
+     * 不会按重试策略反复等待。这段时间可能超过会话超时，恢复后不要求还是原会话
+     */
+    @Test
+    public void partitionFailsWithoutRetry() throws Exception {
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/zkfault/breaker");
+        int sessionTimeoutMs = client.getZookeeperClient().getZooKeeper().getSessionTimeout();
+
+        ENSEMBLE.partition();
+        TimingAssertions.awaitWithin(sessionTimeoutMs * 2 / 3 + 500, "分区后进入SUSPENDED",
+                () -> states.contains(ConnectionState.SUSPENDED));
+        KeeperException failure = TimingAssertions.assertWithin(curatorConf.getConnectionTimeoutMs() + sessionTimeoutMs, "熔断期间请求失败",
+                () -> assertThrows(KeeperException.class, () -> client.getData().forPath("/zkfault/breaker")));
+        System.out.println("熔断期间：" + failure.code());
+
+        ENSEMBLE.heal();
+        TimingAssertions.awaitWithin(sessionTimeoutMs, "恢复后重新连上", () -> client.getZookeeperClient().isConnected());
+        assertNotNull(client.checkExists().forPath("/zkfault/breaker"));
+        client.delete().deletingChildrenIfNeeded().forPath("/zkfault/breaker");
+    }
+
+
+    /**
+     * 会话过期后ZkServiceRegistry用新会话重建注册节点，读缓存重新加载后继续跟上变化
+     */
+    @Test
+    public void sessionExpiry() throws Exception {
+        ZkServiceRegistry.Registration registration = serviceRegistry.register(new ServiceInstance("fault-service", "127.0.0.1", 9101));
+        String path = "/services/fault-service/" + registration.getInstance().getId();
+        TimingAssertions.awaitWithin(1000, "注册节点创建", () -> exists(path) != null);
+        long oldOwner = exists(path).getEphemeralOwner();
+
+        ENSEMBLE.expireSession(client.getZookeeperClient().getZooKeeper());
+        TimingAssertions.awaitWithin(5000, "会话过期后收到LOST", () -> states.contains(ConnectionState.LOST));
+        long reRegisterMs = TimingAssertions.awaitWithin(5000, "新会话重建注册节点", () -> {
+            Stat stat = exists(path);
+            return stat != null && stat.getEphemeralOwner() != oldOwner;
+        });
+        System.out.println(reRegisterMs + "ms后重新注册");
+        assertNotEquals(oldOwner, client.getZookeeperClient().getZooKeeper().getSessionId());
+
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/zkfault/cache", "after-expiry".getBytes(StandardCharsets.UTF_8));
+        TimingAssertions.awaitWithin(1000, "会话过期后读缓存跟上变化", () -> {
+            try {
+                byte[] data = readCache.getData("/zkfault/cache");
+                return data != null && "after-expiry".equals(new String(data, StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                return false;
+            }
+        });
+        registration.close();
+        client.delete().deletingChildrenIfNeeded().forPath("/zkfault");
+    }
+
+    /**
+     * 2000个托管临时节点在会话过期后全部用新会话重建，请求数按maxBatchOps分批，而不是每个节点一个
+     */
+    @Test
+    public void bulkEphemeralRecovery() throws Exception {
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            entries.put("/zkfault/ephemeral/n" + i, ("v" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        ephemeralManager.registerAll(entries);
+        assertEquals(2000, ephemeralManager.getPresentNodes());
+        long oldOwner = exists("/zkfault/ephemeral/n0").getEphemeralOwner();
+        long requestsBefore = ephemeralManager.getRecreateRequests();
+
+        ENSEMBLE.expireSession(client.getZookeeperClient().getZooKeeper());
+        TimingAssertions.awaitWithin(5000, "会话过期后收到LOST", () -> states.contains(ConnectionState.LOST));
+        long recoverMs = TimingAssertions.awaitWithin(10000, "新会话重建全部临时节点",
+                () -> ephemeralManager.getPresentNodes() == 2000 && ephemeralManager.getRecoveries() > 0);
+        System.out.println(recoverMs + "ms后重建完成，重建节点数：" + ephemeralManager.getLastStormSize()
+                + "，请求数：" + (ephemeralManager.getRecreateRequests() - requestsBefore) + "，恢复耗时：" + ephemeralManager.getLastRecoveryMs() + "ms");
+
+        assertEquals(2000, client.getChildren().forPath("/zkfault/ephemeral").size());
+        Stat stat = exists("/zkfault/ephemeral/n1999");
+        assertNotEquals(oldOwner, stat.getEphemeralOwner());
+        assertEquals("v1999", new String(client.getData().forPath("/zkfault/ephemeral/n1999"), StandardCharsets.UTF_8));
+        assertEquals(2000, ephemeralManager.getLastStormSize());
+        assertTrue(ephemeralManager.getRecreateRequests() - requestsBefore <= 10, "按批重建");
+
+        //同样的统计在micrometer和/actuator/zookeeper里
+        assertEquals(2000, meterRegistry.get("zookeeper.ephemeral.storm.size").summary().max());
+        assertTrue(meterRegistry.get("zookeeper.ephemeral.recovery").timer().count() >= 1, "记录了重建耗时");
+        assertEquals(2000, meterRegistry.get("zookeeper.ephemeral.present").gauge().value());
+        assertTrue(meterRegistry.get("zookeeper.client.session.expirations").functionCounter().count() >= 1, "会话过期计数");
+        Map<?, ?> ephemeral = (Map<?, ?>) endpoint.zookeeper(null).get("ephemeral");
+        assertEquals(2000L, ephemeral.get("lastStormSize"));
+        for (String path : entries.keySet()) {
+            ephemeralManager.unregister(path);
+        }
+        client.delete().deletingChildrenIfNeeded().forPath("/zkfault");
+    }
+
+    private Stat exists(String path) {
+        try {
+            return client.checkExists().forPath(path);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
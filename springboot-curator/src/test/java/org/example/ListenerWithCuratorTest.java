@@ -0,0 +1,503 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * zookeeper提供的原生API操作过于烦琐，curator框架是对zookeeper提供的原生API进行了封装，
+ * 提供了更高级的API接口，使客户端程序员使用zookeeper更加容易及高效。
+ * 官网：http://curator.apache.org/
+ *
+ * 原来的示例要在zkCli里手动改节点、看控制台输出，现在由测试自己改节点，并断言事件在setData等操作之后DELIVERY_BUDGET_MS内送达监听器。
+ */
+@SpringBootTest(classes = BootApplication.class, properties = {"curator.registry.enabled=false", "curator.config.enabled=true"})
+public class ListenerWithCuratorTest {
+
+    /**
+     * 从写操作返回到监听器收到事件的预算：watch通知 + CuratorCache处理 + 监听线程池调度，本机上通常几毫秒
+     */
+    private static final long DELIVERY_BUDGET_MS = 200;
+
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private ZkSubscriptionEngine subscriptionEngine;
+
+    @Autowired
+    private ZkConfigSource configSource;
+
+    @Autowired
+    private LockConf lockConf;
+
+    @DynamicPropertySource
+    static void zookeeper(DynamicPropertyRegistry registry) {
+        registry.add("curator.connectString", () -> ZkTestEnsemble.shared().getConnectString());
+    }
+
+
+    /**
+     * odeCache 提供了一个简单的方式来自动管理节点的缓存，并在节点数据发生变化时通知您的应用程序。
+     *
+     * nodeChanged方法对一个指定节点进行监听，会在以下情况下被调用：
+     * 1 节点数据发生变化：
+     * 当节点数据被更新时，nodeChanged 方法会被调用。
+     * 事件里的data即为最新的节点数据。
+     * 2 节点被删除：
+     * 当节点被删除时，nodeChanged 方法同样会被调用。
+     * 在这种情况下，事件里的data为null，oldData为删除前的节点数据。
+     *
+     * [zk: localhost:2181(CONNECTED) 19] set /clothes pants
+     * [zk: localhost:2181(CONNECTED) 20] set /clothes shoes
+     * [zk: localhost:2181(CONNECTED) 24] delete /clothes
+     *
+     * 控制台输出：
+     * /clothes changed
+     * pants
+     * /clothes changed
+     * shoes
+     *  /clothes changed
+     * @throws Exception
+     */
+    @Test
+    public void nodeCacheWatch() throws Exception {
+        client.create().orSetData().forPath("/clothes", "init".getBytes(StandardCharsets.UTF_8));
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        CountDownLatch initialized = new CountDownLatch(1);
+        //深度0：只关心/clothes节点本身，事件里已经带了最新数据，不必再getData访问一次服务端
+        ZkSubscriptionEngine.Subscription subscription = subscriptionEngine.subscribe("/clothes", 0, null, new CuratorCacheListener() {
+            @Override
+            public void event(Type type, ChildData oldData, ChildData data) {
+                events.add(type + " " + (data != null ? new String(data.getData(), StandardCharsets.UTF_8) : oldData.getPath()));
+            }
+
+            @Override
+            public void initialized() {
+                initialized.countDown();
+            }
+        });
+        assertTrue(initialized.await(TimingAssertions.budget(5000), TimeUnit.MILLISECONDS), "初始加载完成");
+        assertEquals("NODE_CREATED init", events.take());
+
+        LatencyStats delivery = new LatencyStats("setData到nodeChanged");
+        for (int i = 0; i < 100; i++) {
+            long start = System.nanoTime();
+            client.setData().forPath("/clothes", ("pants" + i).getBytes(StandardCharsets.UTF_8));
+            assertEquals("NODE_CHANGED pants" + i, poll(events));
+            delivery.record(System.nanoTime() - start);
+        }
+        System.out.println(delivery);
+        delivery.assertPercentile(0.99, DELIVERY_BUDGET_MS);
+
+        client.delete().forPath("/clothes");
+        assertEquals("NODE_DELETED /clothes", poll(events));
+        subscription.close();
+    }
+
+
+    /**
+     * PathChildrenCache: 对指定路径节点的一级子目录监听，不对该节点的操作监听，对其子目录的增删改操作监听
+     * PathChildrenCache 主要用于监听指定路径下的 直接子节点(不能递归监听) 变化，可以分别监听子节点的添加、删除和数据更新。
+     *
+     * 调用时机:
+     * 1 初始化完成 (INITIALIZED)：
+     * 当 PathChildrenCache 启动并且已经从 ZooKeeper 获取了所有初始数据时，PathChildrenCacheEvent 的 INITIALIZED 类型事件会被触发。
+     *
+     * 2 子节点添加 (CHILD_ADDED)：
+     * 当一个新的子节点被添加到监听的路径下时，PathChildrenCacheEvent 的 CHILD_ADDED 类型事件会被触发。
+     *
+     * 3 子节点更新 (CHILD_UPDATED)：
+     * 当已存在的子节点的数据被更新时，PathChildrenCacheEvent 的 CHILD_UPDATED 类型事件会被触发。
+     *
+     * 4 子节点删除 (CHILD_REMOVED)：
+     * 当一个已存在的子节点被删除时，PathChildrenCacheEvent 的 CHILD_REMOVED 类型事件会被触发。
+     *
+     * 监听/sports下的直接子节点的添加、删除和数据更新。
+     * [zk: localhost:2181(CONNECTED) 5] create /sports
+     * [zk: localhost:2181(CONNECTED) 7] create /sports/football
+     * [zk: localhost:2181(CONNECTED) 8] create /sports/basketball
+     * [zk: localhost:2181(CONNECTED) 18] delete /sports/football
+     * [zk: localhost:2181(CONNECTED) 19] set /sports/basketball nba
+     * [zk: localhost:2181(CONNECTED) 20] set /sports/basketball cba
+     *
+     * 不能监听/sports下的二级子节点
+     * [zk: localhost:2181(CONNECTED) 10] create /sports/football/club
+     * @throws Exception
+     */
+    @Test
+    public void testpathChildrenCacheWatch() throws Exception {
+        client.create().orSetData().forPath("/sports");
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        CountDownLatch initialized = new CountDownLatch(1);
+        //深度1 + 前缀"/sports/"：只接收直接子节点的事件，不接收/sports本身的事件
+        ZkSubscriptionEngine.Subscription subscription = subscriptionEngine.subscribe("/sports", 1, "/sports/", new CuratorCacheListener() {
+            @Override
+            public void event(Type type, ChildData oldData, ChildData data) {
+                switch (type) {
+                    case NODE_CREATED:
+                        events.add("CHILD_ADDED: " + data.getPath());
+                        break;
+                    case NODE_CHANGED:
+                        events.add("CHILD_UPDATED: " + data.getPath());
+                        break;
+                    case NODE_DELETED:
+                        events.add("CHILD_REMOVED: " + oldData.getPath());
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            @Override
+            public void initialized() {
+                initialized.countDown();
+            }
+        });
+        assertTrue(initialized.await(TimingAssertions.budget(5000), TimeUnit.MILLISECONDS), "初始加载完成");
+
+        client.create().forPath("/sports/football");
+        assertEquals("CHILD_ADDED: /sports/football", poll(events));
+        client.create().forPath("/sports/basketball");
+        assertEquals("CHILD_ADDED: /sports/basketball", poll(events));
+        //二级子节点不在深度范围内
+        client.create().forPath("/sports/football/club");
+        client.delete().deletingChildrenIfNeeded().forPath("/sports/football");
+        assertEquals("CHILD_REMOVED: /sports/football", poll(events));
+        client.setData().forPath("/sports/basketball", "nba".getBytes(StandardCharsets.UTF_8));
+        assertEquals("CHILD_UPDATED: /sports/basketball", poll(events));
+        subscription.close();
+        client.delete().deletingChildrenIfNeeded().forPath("/sports");
+        assertNull(events.poll(), "没有多余的事件");
+    }
+
+
+
+    /**
+     * TreeCache 主要用于监听整个子树的变化(可以设置监听深度)，包括节点的添加、删除以及数据的更新。它会自动维护一个本地缓存来反映 ZooKeeper 中的数据结构。
+     * 调用时机
+     * 1 初始化完成 (INITIALIZED)：
+     * 当 TreeCache 启动并且已经从 ZooKeeper 获取了所有初始数据时，TreeCacheEvent 的 INITIALIZED 类型事件会被触发。
+     * 2 节点添加 (NODE_ADDED)：
+     * 当一个新节点被添加到监听的路径下时，TreeCacheEvent 的 NODE_ADDED 类型事件会被触发。
+     * 3 节点更新 (NODE_UPDATED)：
+     * 当已存在的节点的数据被更新时，TreeCacheEvent 的 NODE_UPDATED 类型事件会被触发。
+     * 4 节点删除 (NODE_REMOVED)：
+     * 当一个已存在的节点被删除时，TreeCacheEvent 的 NODE_REMOVED 类型事件会被触发。
+     *
+     * TreeCache和PathChildrenCache监听范围：
+     * TreeCache 监听的是整个子树，包括根节点及其所有子节点。
+     * PathChildrenCache 只监听指定路径下的直接子节点。
+     *
+     * [zk: localhost:2181(CONNECTED) 18] create /sports/football/club
+     * @throws Exception
+     */
+    @Test
+    public void treeCacheWatch() throws Exception {
+        client.create().orSetData().forPath("/sports");
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        //与其它/sports的订阅共用同一个CuratorCache，不会重复注册watch和重复初始加载
+        ZkSubscriptionEngine.Subscription subscription = subscriptionEngine.subscribe("/sports", (type, oldData, data) -> {
+            switch (type) {
+                case NODE_CREATED:
+                    events.add("/sports节点添加" + data.getPath());
+                    break;
+                case NODE_CHANGED:
+                    events.add(data.getPath() + "节点数据更新\t更新数据为：" + new String(data.getData(), StandardCharsets.UTF_8) + "\t版本为：" + data.getStat().getVersion());
+                    break;
+                case NODE_DELETED:
+                    events.add(oldData.getPath() + "节点被删除");
+                    break;
+                default:
+                    break;
+            }
+        });
+        assertEquals("/sports节点添加/sports", poll(events));
+
+        client.create().creatingParentsIfNeeded().forPath("/sports/football/club");
+        assertEquals("/sports节点添加/sports/football", poll(events));
+        assertEquals("/sports节点添加/sports/football/club", poll(events));
+        client.setData().forPath("/sports/football/club", "realmadrid".getBytes(StandardCharsets.UTF_8));
+        assertEquals("/sports/football/club节点数据更新\t更新数据为：realmadrid\t版本为：1", poll(events));
+        client.delete().forPath("/sports/football/club");
+        assertEquals("/sports/football/club节点被删除", poll(events));
+        subscription.close();
+        client.delete().deletingChildrenIfNeeded().forPath("/sports");
+    }
+
+
+    /**
+     * 合并窗口：/sports下的节点在窗口内连续变化时只投递最终状态
+     * [zk: localhost:2181(CONNECTED) 1] set /sports/basketball nba
+     * [zk: localhost:2181(CONNECTED) 2] set /sports/basketball cba
+     * [zk: localhost:2181(CONNECTED) 3] set /sports/basketball wnba
+     * 三次set在窗口内完成时，控制台只输出一次：/sports/basketball -> wnba
+     * @throws Exception
+     */
+    @Test
+    public void coalescedTreeWatch() throws Exception {
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/coalesce/basketball");
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        CoalescingCacheListener listener = subscriptionEngine.coalesce((type, oldData, data) -> {
+            if (data != null) {
+                events.add(data.getPath() + " -> " + new String(data.getData(), StandardCharsets.UTF_8));
+            }
+        }, 200);
+        ZkSubscriptionEngine.Subscription subscription = subscriptionEngine.subscribe("/coalesce", listener);
+        //初始加载的两个节点
+        poll(events, 200);
+        poll(events, 200);
+
+        for (String value : new String[]{"nba", "cba", "wnba"}) {
+            client.setData().forPath("/coalesce/basketball", value.getBytes(StandardCharsets.UTF_8));
+        }
+        //窗口200ms，最终状态应在窗口结束后DELIVERY_BUDGET_MS内送达
+        assertEquals("/coalesce/basketball -> wnba", poll(events, 200));
+        assertNull(events.poll(TimingAssertions.budget(300), TimeUnit.MILLISECONDS), "窗口内的中间状态被合并");
+        CoalescingDispatcher<?> dispatcher = listener.getDispatcher();
+        System.out.println("received = " + dispatcher.getReceived() + ", collapsed = " + dispatcher.getCollapsed()
+                + ", delivered = " + dispatcher.getDelivered());
+        //CuratorCache重新注册watch时可能直接读到更新的值，zookeeper层面已经跳过了部分中间状态，这里至少合并掉一个
+        assertTrue(dispatcher.getCollapsed() >= 1, "合并了中间状态");
+        subscription.close();
+        client.delete().deletingChildrenIfNeeded().forPath("/coalesce");
+    }
+
+    /**
+     * 窗口内先创建后删除的节点两个事件相互抵消，delegate什么都收不到；先修改后删除投递DELETED，带着修改前的旧数据
+     */
+    @Test
+    public void coalescedCreateThenDelete() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        CoalescingCacheListener listener = subscriptionEngine.coalesce((type, oldData, data) ->
+                events.add(type + " " + (oldData != null ? new String(oldData.getData(), StandardCharsets.UTF_8) : null)), 200);
+        ChildData v1 = new ChildData("/coalesce/temp", new Stat(), "v1".getBytes(StandardCharsets.UTF_8));
+        ChildData v2 = new ChildData("/coalesce/temp", new Stat(), "v2".getBytes(StandardCharsets.UTF_8));
+
+        listener.event(CuratorCacheListener.Type.NODE_CREATED, null, v1);
+        listener.event(CuratorCacheListener.Type.NODE_DELETED, v1, null);
+        assertNull(events.poll(TimingAssertions.budget(400), TimeUnit.MILLISECONDS), "先创建后删除不投递");
+        assertEquals(0, listener.getDispatcher().getPending());
+        assertEquals(2, listener.getDispatcher().getCollapsed());
+
+        listener.event(CuratorCacheListener.Type.NODE_CHANGED, v1, v2);
+        listener.event(CuratorCacheListener.Type.NODE_DELETED, v2, null);
+        assertEquals("NODE_DELETED v1", poll(events, 200));
+        assertNull(events.poll(TimingAssertions.budget(300), TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 配置热更新：改/config下的节点，LockConf原地重新绑定，删除后恢复为application.yml里的值
+     * [zk: localhost:2181(CONNECTED) 1] create /config/curator/lock/holdWindowMs 120
+     * [zk: localhost:2181(CONNECTED) 2] set /config/curator/lock/holdWindowMs 80
+     * [zk: localhost:2181(CONNECTED) 3] delete /config/curator/lock/holdWindowMs
+     * @throws Exception
+     */
+    @Test
+    public void configHotReload() throws Exception {
+        long ymlValue = lockConf.getHoldWindowMs();
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/config/curator/lock/holdWindowMs", "120".getBytes(StandardCharsets.UTF_8));
+        TimingAssertions.awaitWithin(DELIVERY_BUDGET_MS, "新建配置生效", () -> lockConf.getHoldWindowMs() == 120);
+        assertEquals("120", configSource.getSnapshot().get("curator.lock.holdWindowMs"));
+
+        client.setData().forPath("/config/curator/lock/holdWindowMs", "80".getBytes(StandardCharsets.UTF_8));
+        TimingAssertions.awaitWithin(DELIVERY_BUDGET_MS, "修改配置生效", () -> lockConf.getHoldWindowMs() == 80);
+        System.out.println("生效延迟：" + configSource.getLastApplyLagMs() + "ms，最大" + configSource.getMaxApplyLagMs()
+                + "ms，快照版本：" + configSource.getVersion());
+
+        client.delete().forPath("/config/curator/lock/holdWindowMs");
+        TimingAssertions.awaitWithin(DELIVERY_BUDGET_MS, "删除后恢复yml里的值", () -> lockConf.getHoldWindowMs() == ymlValue);
+        client.delete().deletingChildrenIfNeeded().forPath("/config/curator");
+    }
+
+    /**
+     * parallel订阅按路径分stripe投递：/dispatch/slow的回调阻塞500ms期间，/dispatch/fast的事件照常送达，
+     * 慢回调计入分发器的指标(也可以在/actuator/zookeeper的dispatch里看到)
+     * @throws Exception
+     */
+    @Test
+    public void parallelDispatchByPath() throws Exception {
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/dispatch/slow");
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/dispatch/fast");
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        ZkSubscriptionEngine.RecursiveSubscription subscription = subscriptionEngine.watchRecursive("/dispatch", event -> {
+            if (event.getPath().endsWith("slow")) {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            events.add(event.getPath());
+        }, true);
+        //持久递归watch是异步注册的，收到第一个事件说明已经注册好
+        TimingAssertions.awaitWithin(5000, "持久递归watch注册", () -> {
+            try {
+                client.setData().forPath("/dispatch/fast");
+                return events.poll(50, TimeUnit.MILLISECONDS) != null;
+            } catch (Exception e) {
+                return false;
+            }
+        });
+        StripedDispatcher dispatcher = subscriptionEngine.getDispatcher();
+        assertTrue(dispatcher.awaitIdle(1000, TimeUnit.MILLISECONDS));
+        events.clear();
+        long slowBefore = dispatcher.getSlowHandlers();
+
+        client.setData().forPath("/dispatch/slow");
+        client.setData().forPath("/dispatch/fast");
+        assertEquals("/dispatch/fast", poll(events), "慢回调执行期间其它路径的事件照常送达");
+        assertEquals("/dispatch/slow", poll(events, 500));
+        assertTrue(dispatcher.awaitIdle(1000, TimeUnit.MILLISECONDS));
+        System.out.println(dispatcher);
+        assertEquals(slowBefore + 1, dispatcher.getSlowHandlers());
+        assertEquals(0, subscription.backlog());
+        subscription.close();
+        client.delete().deletingChildrenIfNeeded().forPath("/dispatch");
+    }
+
+    /**
+     * 合并后的事件走有界的StripedDispatcher：被丢弃时放回窗口，和之后的事件继续合并，最终状态仍然送达
+     * @throws Exception
+     */
+    @Test
+    public void coalescedEventRedispatchedAfterDrop() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        StripedDispatcher stripes = new StripedDispatcher("coalesce-test", 1, 1, StripedDispatcher.OverflowPolicy.DROP_NEWEST, 0);
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        CoalescingDispatcher<String> coalescing = new CoalescingDispatcher<>(50, scheduler, stripes,
+                event -> event.substring(0, event.indexOf('=')), (older, newer) -> newer, events::add);
+        CountDownLatch release = new CountDownLatch(1);
+        stripes.dispatch("busy", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        TimingAssertions.awaitWithin(1000, "占住唯一的stripe", () -> stripes.getQueueDepth() == 0);
+        stripes.dispatch("busy", () -> { });
+
+        coalescing.accept("/a=1");
+        TimingAssertions.awaitWithin(1000, "队列满，合并后的事件被丢弃", () -> coalescing.getRedispatched() > 0);
+        coalescing.accept("/a=2");
+        release.countDown();
+        assertEquals("/a=2", poll(events, 200));
+        assertNull(events.poll(TimingAssertions.budget(200), TimeUnit.MILLISECONDS), "丢弃后只投递一次最终状态");
+        assertEquals(coalescing.getReceived(), coalescing.getCollapsed() + coalescing.getDelivered());
+        coalescing.close();
+        stripes.close();
+        scheduler.shutdown();
+    }
+
+    /**
+     * 分发器配置成会丢事件(单stripe、队列容量1、DROP_NEWEST)：回调阻塞期间的修改、删除、新增几乎全被丢弃，
+     * 回调放开后订阅按CuratorCache当前内容补发差异，监听器看到的节点状态最终和zookeeper一致，initialized()也会补上
+     * @throws Exception
+     */
+    @Test
+    public void droppedEventsAreResynced() throws Exception {
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/resync/keep", bytes("v1"));
+        client.create().orSetData().forPath("/resync/gone", bytes("x"));
+        SubscriptionConf subscriptionConf = new SubscriptionConf();
+        DispatchConf dispatchConf = new DispatchConf();
+        dispatchConf.setStripes(1);
+        dispatchConf.setQueueCapacity(1);
+        dispatchConf.setOverflowPolicy(StripedDispatcher.OverflowPolicy.DROP_NEWEST);
+        try (AnnotationConfigApplicationContext engineContext = new AnnotationConfigApplicationContext()) {
+            // client由测试上下文管理，不让这个容器关闭时推断出close()
+            engineContext.registerBean(CuratorFramework.class, () -> client, definition -> definition.setDestroyMethodName(""));
+            engineContext.registerBean(SubscriptionConf.class, () -> subscriptionConf);
+            engineContext.registerBean(DispatchConf.class, () -> dispatchConf);
+            engineContext.register(ZkSubscriptionEngine.class);
+            engineContext.refresh();
+            ZkSubscriptionEngine lossyEngine = engineContext.getBean(ZkSubscriptionEngine.class);
+
+            Map<String, String> view = new ConcurrentHashMap<>();
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch initialized = new CountDownLatch(1);
+            lossyEngine.subscribe("/resync", 1, "/resync/", new CuratorCacheListener() {
+                @Override
+                public void event(Type type, ChildData oldData, ChildData data) {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (type == Type.NODE_DELETED) {
+                        view.remove(oldData.getPath());
+                    } else {
+                        view.put(data.getPath(), new String(data.getData(), StandardCharsets.UTF_8));
+                    }
+                }
+
+                @Override
+                public void initialized() {
+                    initialized.countDown();
+                }
+            });
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            client.setData().forPath("/resync/keep", bytes("v2"));
+            client.delete().forPath("/resync/gone");
+            Map<String, String> expected = new HashMap<>();
+            expected.put("/resync/keep", "v2");
+            for (int i = 0; i < 10; i++) {
+                client.create().forPath("/resync/n" + i, bytes("n" + i));
+                expected.put("/resync/n" + i, "n" + i);
+            }
+            StripedDispatcher dispatcher = lossyEngine.getDispatcher();
+            TimingAssertions.awaitWithin(1000, "回调阻塞期间的事件被丢弃", () -> dispatcher.getDropped() > 0);
+            release.countDown();
+
+            TimingAssertions.awaitWithin(2000, "补发后监听器看到的状态和zookeeper一致", () -> expected.equals(view));
+            assertTrue(initialized.await(1, TimeUnit.SECONDS), "被丢弃的initialized()补发");
+            assertTrue(lossyEngine.getResyncs() > 0);
+            System.out.println(dispatcher + ", 补发" + lossyEngine.getResyncs() + "次");
+        }
+        client.delete().deletingChildrenIfNeeded().forPath("/resync");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String poll(BlockingQueue<String> events) throws InterruptedException {
+        return poll(events, 0);
+    }
+
+    /**
+     * 在windowMs + DELIVERY_BUDGET_MS内取下一个事件，超时失败
+     */
+    private static String poll(BlockingQueue<String> events, long windowMs) throws InterruptedException {
+        String event = events.poll(TimingAssertions.budget(windowMs + DELIVERY_BUDGET_MS), TimeUnit.MILLISECONDS);
+        if (event == null) {
+            throw new AssertionError("事件未在" + TimingAssertions.budget(windowMs + DELIVERY_BUDGET_MS) + "ms内送达");
+        }
+        return event;
+    }
+}
@@ -0,0 +1,764 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.framework.api.transaction.OperationType;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+
+/**
+ * zookeeper提供的原生API操作过于烦琐，curator框架是对zookeeper提供的原生API进行了封装，
+ * 提供了更高级的API接口，使客户端程序员使用zookeeper更加容易及高效。
+ * 官网：http://curator.apache.org/
+ *
+ * 连的是进程内的ZkTestEnsemble.shared()，每个测试用自己的路径、自己准备数据、结束时清理，可以单独运行也可以以任意顺序运行。
+ */
+@SpringBootTest(classes = BootApplication.class, properties = {
+        "curator.registry.enabled=false",
+        "curator.atomic.maxAttempts=100",
+        "curator.readCache.enabled=true",
+        "curator.readCache.rootPath=/zkblog/cache",
+        "curator.reactive.nodeApi.enabled=true",
+        "curator.reactive.nodeApi.rootPath=/zkweb"})
+@AutoConfigureMockMvc
+public class NodeBasicOperateWithCuratorTest {
+    @Autowired
+    private CuratorFramework client;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ZkBatchWriter batchWriter;
+
+    @Autowired
+    private ZkReadCache readCache;
+
+    @Autowired
+    private ZkAtomicUpdater atomicUpdater;
+
+    @Autowired
+    private ZkSequenceService sequenceService;
+
+    @Autowired
+    private ZkLockService lockService;
+
+    @Autowired
+    private ZkShardingService shardingService;
+
+    @Autowired
+    private ZkRateLimiter rateLimiter;
+
+    @Autowired
+    private ZkWorkQueue workQueue;
+
+    @Autowired
+    private ZkServiceRegistry serviceRegistry;
+
+    @Autowired
+    private ZkServiceDiscovery serviceDiscovery;
+
+    @Autowired
+    private ZNodeStore nodeStore;
+
+    @Autowired
+    private ZkTreeTools treeTools;
+
+    @Autowired
+    private ZkReadPool readPool;
+
+    @Autowired
+    private ReactiveZkClient reactiveClient;
+
+    @DynamicPropertySource
+    static void zookeeper(DynamicPropertyRegistry registry) {
+        registry.add("curator.connectString", () -> ZkTestEnsemble.shared().getConnectString());
+    }
+
+
+    /**
+     * 递归创建持久化/临时节点
+     * zkserver上查看创建的节点以及数据
+     *  [zk: localhost:2181(CONNECTED) 0] ls /
+     * [clothes, mq0000000005, pnode, servers, zkblog, zookeeper]
+     *
+     * [zk: localhost:2181(CONNECTED) 1] get /zkblog/p1
+     * Java博客
+     */
+    @Test
+    public void createPersistentNode() throws Exception {
+        // 父节点不存在则创建
+        String persistentNode = client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath("/zkblog/create/p1",
+                "Java博客".getBytes(StandardCharsets.UTF_8));
+        assertEquals("/zkblog/create/p1", persistentNode);
+        assertEquals("Java博客", new String(client.getData().forPath("/zkblog/create/p1"), StandardCharsets.UTF_8));
+        client.delete().deletingChildrenIfNeeded().forPath("/zkblog/create");
+    }
+
+
+    /**
+     * 读单个节点，本机进程内服务端上p99应在几毫秒以内
+     */
+    @Test
+    public void getNodeData() throws Exception {
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/zkblog/get/p1", "Java博客".getBytes(StandardCharsets.UTF_8));
+        LatencyStats stats = new LatencyStats("getData");
+        for (int i = 0; i < 200; i++) {
+            byte[] data = stats.time(() -> client.getData().forPath("/zkblog/get/p1"));
+            assertEquals("Java博客", new String(data, StandardCharsets.UTF_8));
+        }
+        System.out.println(stats);
+        stats.assertPercentile(0.99, 20);
+        client.delete().deletingChildrenIfNeeded().forPath("/zkblog/get");
+    }
+
+
+    /**
+     * 从本地读缓存读取节点数据，节点变化由watch推送更新，不访问服务端：
+     * 命中时p99应远低于一次网络往返，setData之后缓存在预算内跟上
+     * @throws Exception
+     */
+    @Test
+    public void getNodeDataFromCache() throws Exception {
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/zkblog/cache/p1", "v1".getBytes(StandardCharsets.UTF_8));
+        TimingAssertions.awaitWithin(1000, "读缓存加载新节点",
+                () -> "v1".equals(cached("/zkblog/cache/p1")));
+        long hits = readCache.getHits();
+        LatencyStats stats = new LatencyStats("readCache.getData");
+        for (int i = 0; i < 1000; i++) {
+            stats.time(() -> readCache.getData("/zkblog/cache/p1"));
+        }
+        System.out.println(stats);
+        assertTrue(readCache.getHits() - hits >= 1000, "全部命中缓存");
+        stats.assertPercentile(0.99, 1);
+
+        client.setData().forPath("/zkblog/cache/p1", "v2".getBytes(StandardCharsets.UTF_8));
+        long staleMs = TimingAssertions.awaitWithin(500, "setData之后读缓存更新",
+                () -> "v2".equals(cached("/zkblog/cache/p1")));
+        System.out.println("读缓存" + staleMs + "ms后跟上");
+        assertEquals("v2", new String(readCache.getDataLinearizable("/zkblog/cache/p1"), StandardCharsets.UTF_8));
+        client.delete().deletingChildrenIfNeeded().forPath("/zkblog/cache");
+    }
+
+
+    /**
+     * 临时节点属于创建它的会话，会话还在时节点一直存在，ephemeralOwner就是会话id
+     * @throws Exception
+     */
+    @Test
+    public void createEphemeralNode() throws Exception {
+        String ephemeralNode = client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath("/zkblog/ephemeral/p2",
+                "Zookeeper博客".getBytes(StandardCharsets.UTF_8));
+        Stat stat = client.checkExists().forPath(ephemeralNode);
+        assertNotNull(stat);
+        assertEquals(client.getZookeeperClient().getZooKeeper().getSessionId(), stat.getEphemeralOwner());
+        client.delete().deletingChildrenIfNeeded().forPath("/zkblog/ephemeral");
+    }
+
+
+    /**
+     * 修改节点数据，每次修改版本号加1
+     * @throws Exception
+     */
+    @Test
+    public void setNodeData() throws Exception {
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/zkblog/set/p1", "Java博客".getBytes(StandardCharsets.UTF_8));
+        Stat before = client.checkExists().forPath("/zkblog/set/p1");
+        Stat after = client.setData().forPath("/zkblog/set/p1", "kafka博客".getBytes(StandardCharsets.UTF_8));
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertEquals("kafka博客", new String(client.getData().forPath("/zkblog/set/p1"), StandardCharsets.UTF_8));
+        client.delete().deletingChildrenIfNeeded().forPath("/zkblog/set");
+    }
+
+
+    /**
+     * 递归删除
+     * @throws Exception
+     */
+    @Test
+    public void deleteNode() throws Exception {
+        client.create().creatingParentsIfNeeded().forPath("/zkblog/delete/a/b");
+        //如果节点下面还有子节点，则不能删除
+        //client.delete().forPath("/zkblog/delete");
+
+        client.delete().guaranteed().deletingChildrenIfNeeded().forPath("/zkblog/delete");
+        assertNull(client.checkExists().forPath("/zkblog/delete"));
+    }
+
+
+    /**
+     * 批量写入：多个create/setData在一个攒批窗口内合并成一个multi事务提交，
+     * 101个操作合并后只有一两次往返，整体应在预算内完成
+     * [zk: localhost:2181(CONNECTED) 2] ls /zkbatch
+     * [n0, n1, n2, ... n99]
+     * @throws Exception
+     */
+    @Test
+    public void batchWrite() throws Exception {
+        client.create().orSetData().forPath("/zkbatch");
+        List<CompletableFuture<CuratorTransactionResult>> futures = TimingAssertions.assertWithin(1000, "批量写入101个操作", () -> {
+            List<CompletableFuture<CuratorTransactionResult>> submitted = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                submitted.add(batchWriter.create("/zkbatch/n" + i, ("v" + i).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT));
+            }
+            submitted.add(batchWriter.setData("/zkbatch/n0", "v0-new".getBytes(StandardCharsets.UTF_8)));
+            CompletableFuture.allOf(submitted.toArray(new CompletableFuture[0])).join();
+            return submitted;
+        });
+        assertEquals(OperationType.CREATE, futures.get(0).get().getType());
+        assertEquals(OperationType.SET_DATA, futures.get(100).get().getType());
+        assertEquals(100, client.getChildren().forPath("/zkbatch").size());
+        assertEquals("v0-new", new String(client.getData().forPath("/zkbatch/n0"), StandardCharsets.UTF_8));
+        client.delete().deletingChildrenIfNeeded().forPath("/zkbatch");
+    }
+
+
+    /**
+     * 计数器自增：多个并发的CAS更新，冲突的自动退避重试，最终值等于自增次数。
+     * 100个更新同时争一个节点，每轮只有一个能成功，最后成功的那个要尝试将近100次，所以这里把curator.atomic.maxAttempts调到了100
+     * [zk: localhost:2181(CONNECTED) 3] get /zkcounter
+     * 100
+     * @throws Exception
+     */
+    @Test
+    public void atomicIncrement() throws Exception {
+        client.create().orSetData().forPath("/zkcounter", "0".getBytes(StandardCharsets.UTF_8));
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(atomicUpdater.updateAsync("/zkcounter", current -> String.valueOf(
+                    Long.parseLong(new String(current, StandardCharsets.UTF_8)) + 1).getBytes(StandardCharsets.UTF_8)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        assertEquals("100", new String(client.getData().forPath("/zkcounter"), StandardCharsets.UTF_8));
+        System.out.println("尝试次数：" + atomicUpdater.getAttempts() + "，冲突次数：" + atomicUpdater.getConflicts());
+
+        //updater抛出的异常从future里返回，而不是在curator的回调线程里被吞掉
+        CompletableFuture<byte[]> failed = atomicUpdater.updateAsync("/zkcounter", current -> {
+            throw new IllegalStateException("updater失败");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+        client.delete().forPath("/zkcounter");
+    }
+
+
+    /**
+     * 分布式ID：按段从/sequences/order租用，段内本地分配，不再每个ID创建一个顺序节点，
+     * 1万个ID只需要租用一两次，单个ID的分配p99在微秒级
+     * [zk: localhost:2181(CONNECTED) 4] get /sequences/order
+     * 20000
+     */
+    @Test
+    public void nextId() throws Exception {
+        Set<Long> ids = new HashSet<>();
+        LatencyStats stats = new LatencyStats("sequence.next");
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(ids.add(stats.time(() -> sequenceService.next("order"))), "ID不重复");
+        }
+        System.out.println(stats + "，租用次数：" + sequenceService.getLeases());
+        assertTrue(sequenceService.getLeases() <= 3, "按段租用");
+        stats.assertPercentile(0.99, 1);
+    }
+
+
+    /**
+     * 多个线程同时用完一段、同时触发预取，ID仍然不重复也不丢段
+     */
+    @Test
+    public void nextIdConcurrent() throws Exception {
+        int threads = 8;
+        int perThread = 4000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    assertTrue(ids.add(sequenceService.next("orderConcurrent")), "ID不重复");
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertEquals(threads * perThread, ids.size());
+        client.delete().forPath("/sequences/orderConcurrent");
+    }
+
+
+    /**
+     * 分布式锁：本进程10个线程争同一把锁，zookeeper上只有一个持有者，锁在本地线程之间直接交接，
+     * 同一时刻最多一个线程持有
+     * [zk: localhost:2181(CONNECTED) 5] ls /locks/mutex/order
+     * [leases, locks]
+     * @throws Exception
+     */
+    @Test
+    public void distributedLock() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try (ZkLockService.Held held = lockService.tryLock("order", 3, TimeUnit.SECONDS)) {
+                    assertNotNull(held, "3秒内加锁成功");
+                    maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    holders.decrementAndGet();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        assertEquals(1, maxHolders.get());
+        System.out.println("加锁次数：" + lockService.getAcquisitions() + "，zookeeper加锁次数：" + lockService.getZkAcquisitions()
+                + "，交接次数：" + lockService.getHandoffs() + "，平均等待：" + lockService.getAvgWaitMs() + "ms");
+        assertTrue(lockService.getZkAcquisitions() < lockService.getAcquisitions(), "本地线程之间交接，不是每次都访问zookeeper");
+    }
+
+    /**
+     * 等锁的线程被中断后不会把zookeeper锁留在本进程里：
+     * 1 互斥锁释放时交接给正在等待的线程，该线程恰好被中断放弃，锁要在holdWindowMs后真正释放；
+     * 2 写锁在专属线程上加锁，调用线程等待期间被中断，专属线程稍后加上锁时立即释放
+     * @throws Exception
+     */
+    @Test
+    public void interruptedWaiterDoesNotStrandLock() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 50; i++) {
+            CountDownLatch locked = new CountDownLatch(1);
+            CountDownLatch unlock = new CountDownLatch(1);
+            Future<?> owner = threads.submit(() -> {
+                try (ZkLockService.Held held = lockService.tryLock("strand", 3, TimeUnit.SECONDS)) {
+                    assertNotNull(held);
+                    locked.countDown();
+                    unlock.await();
+                }
+                return null;
+            });
+            assertTrue(locked.await(3, TimeUnit.SECONDS));
+            Future<?> waiter = threads.submit(() -> {
+                try (ZkLockService.Held held = lockService.tryLock("strand", 3, TimeUnit.SECONDS)) {
+                    return held;
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            });
+            Thread.sleep(2);
+            // 释放和中断同时发生，等待的线程可能已经被交接了锁
+            unlock.countDown();
+            waiter.cancel(true);
+            owner.get(3, TimeUnit.SECONDS);
+        }
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(3, TimeUnit.SECONDS));
+        TimingAssertions.awaitWithin(1000, "互斥锁在zookeeper上释放", () -> {
+            try {
+                return client.getChildren().forPath("/locks/mutex/strand/leases").isEmpty();
+            } catch (Exception e) {
+                return false;
+            }
+        });
+
+        InterProcessMutex other = new InterProcessReadWriteLock(client, "/locks/rw/stranded").writeLock();
+        assertTrue(other.acquire(3, TimeUnit.SECONDS), "模拟其它进程持有写锁");
+        CountDownLatch waiting = new CountDownLatch(1);
+        Thread caller = new Thread(() -> {
+            waiting.countDown();
+            try {
+                lockService.tryWriteLock("stranded", 10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                // 被中断
+            }
+        });
+        caller.start();
+        assertTrue(waiting.await(3, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        caller.interrupt();
+        caller.join(3000);
+        assertFalse(caller.isAlive());
+        other.release();
+        // 专属线程随后加上写锁并发现调用方已经放弃，立即释放，其它进程可以再次加锁
+        assertTrue(other.acquire(3, TimeUnit.SECONDS), "写锁没有被放弃的调用方占住");
+        other.release();
+    }
+
+
+    /**
+     * 集群限流：每秒1000个许可，按批(额度/成员数*batchRatio)从额度节点租用，本地CAS分配；
+     * 一个窗口内超出额度的请求被拒绝。并发数限制最多5个，释放后可以再取
+     * [zk: localhost:2181(CONNECTED) 8] get /rate-limits/limiters/api/budget
+     * 29412345:0
+     * @throws Exception
+     */
+    @Test
+    public void rateLimit() throws Exception {
+        ZkRateLimiter.RateLimiter limiter = rateLimiter.rateLimiter("api", 1000);
+        // 从下一个窗口开头开始，保证2000次请求落在同一个窗口里
+        Thread.sleep(1000 - System.currentTimeMillis() % 1000 + 10);
+        LatencyStats stats = new LatencyStats("rateLimiter.tryAcquire");
+        int granted = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (stats.time(limiter::tryAcquire)) {
+                granted++;
+            }
+        }
+        System.out.println(stats + "，租用次数：" + rateLimiter.getLeases() + "，等待租用：" + rateLimiter.getLeaseWaits());
+        assertEquals(1000, granted, "一个窗口内最多1000个许可");
+        assertTrue(rateLimiter.getLeases() <= 20, "按批租用");
+
+        ZkRateLimiter.Semaphore semaphore = rateLimiter.semaphore("jobs", 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(semaphore.tryAcquire());
+        }
+        assertFalse(semaphore.tryAcquire(), "最多5个");
+        semaphore.release();
+        assertTrue(semaphore.tryAcquire(100, TimeUnit.MILLISECONDS), "释放后可以再取");
+        for (int i = 0; i < 5; i++) {
+            semaphore.release();
+        }
+        assertEquals(0, semaphore.getInUse());
+    }
+
+
+    /**
+     * 工作队列：1000条消息打包成若干批次节点，两个消费者按批领取、用一个multi事务确认
+     * [zk: localhost:2181(CONNECTED) 8] ls /queues/jobs/buckets/b03
+     * [batch-0000000000, batch-0000000001]
+     * [zk: localhost:2181(CONNECTED) 9] ls /queues/jobs/leases
+     * [b03-batch-0000000000]
+     * @throws Exception
+     */
+    @Test
+    public void workQueue() throws Exception {
+        long lostBefore = workQueue.getLostLeases();
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            sent.add(workQueue.offer("jobs", String.valueOf(i).getBytes(StandardCharsets.UTF_8)));
+        }
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertTrue(workQueue.getPublishedBatches() <= 20, "按批写入");
+
+        Set<String> received = new HashSet<>();
+        try (ZkWorkQueue.Consumer first = workQueue.consumer("jobs");
+             ZkWorkQueue.Consumer second = workQueue.consumer("jobs")) {
+            // 领取后不确认就放弃，批次重新入队
+            ZkWorkQueue.Batch abandoned = first.poll(1, TimeUnit.SECONDS);
+            assertNotNull(abandoned);
+            first.nack(abandoned);
+
+            ZkWorkQueue.Consumer[] consumers = {first, second};
+            for (int i = 0; received.size() < 1000; i++) {
+                ZkWorkQueue.Consumer consumer = consumers[i % 2];
+                List<ZkWorkQueue.Batch> batches = consumer.poll(4, 1, TimeUnit.SECONDS);
+                assertFalse(batches.isEmpty(), "还有消息没有收到");
+                batches.forEach(batch -> batch.getMessages().forEach(m -> received.add(new String(m, StandardCharsets.UTF_8))));
+                assertEquals(batches.size(), consumer.ack(batches));
+            }
+            assertNull(first.poll(100, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(1000, received.size());
+        assertEquals(0, workQueue.backlog("jobs"));
+        assertEquals(lostBefore, workQueue.getLostLeases());
+    }
+
+
+    /**
+     * 租约被回收后批次被另一个消费者重新领取，新租约节点和旧的同名、版本号也都是0；
+     * 凭证是领取时批次节点的版本号，原消费者的续约和ack都失败，只有新的领取者能确认
+     */
+    @Test
+    public void workQueueLostLease() throws Exception {
+        long lostBefore = workQueue.getLostLeases();
+        CompletableFuture<Void> sent = workQueue.offer("lease-jobs", "job".getBytes(StandardCharsets.UTF_8));
+        workQueue.flush("lease-jobs");
+        sent.get(5, TimeUnit.SECONDS);
+        try (ZkWorkQueue.Consumer first = workQueue.consumer("lease-jobs");
+             ZkWorkQueue.Consumer second = workQueue.consumer("lease-jobs")) {
+            ZkWorkQueue.Batch stale = first.poll(1, TimeUnit.SECONDS);
+            assertNotNull(stale);
+            assertTrue(first.renew(stale), "租约还在时可以续约");
+            // 相当于超时回收：删除租约节点
+            for (String lease : client.getChildren().forPath("/queues/lease-jobs/leases")) {
+                client.delete().forPath("/queues/lease-jobs/leases/" + lease);
+            }
+            ZkWorkQueue.Batch reclaimed = second.poll(1, TimeUnit.SECONDS);
+            assertNotNull(reclaimed);
+            assertEquals(stale.getPath(), reclaimed.getPath());
+
+            assertFalse(first.renew(stale), "租约已被其它消费者重新领取");
+            assertEquals(0, first.ack(stale));
+            assertEquals(1, second.ack(reclaimed));
+        }
+        assertEquals(0, workQueue.backlog("lease-jobs"));
+        assertEquals(2, workQueue.getLostLeases() - lostBefore);
+        client.delete().deletingChildrenIfNeeded().forPath("/queues/lease-jobs");
+    }
+
+
+    /**
+     * 分片：3个成员加入同一分组分担12个分区，其中一个退出后它的分区只迁移给剩下的成员
+     * [zk: localhost:2181(CONNECTED) 6] ls /sharding/orders/assignments
+     * [m1, m2, m3]
+     * [zk: localhost:2181(CONNECTED) 7] get /sharding/orders/assignments/m1
+     * 1
+     * 0,5,9,11
+     * @throws Exception
+     */
+    @Test
+    public void sharding() throws Exception {
+        List<ZkShardingService.ShardMember> members = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            String memberId = "m" + i;
+            members.add(shardingService.join("orders", memberId, 12, (added, removed, current) ->
+                    System.out.println(memberId + " 新增：" + added + "，移除：" + removed + "，当前：" + current)));
+        }
+        TimingAssertions.awaitWithin(5000, "3个成员分完12个分区", () -> assigned(members) == 12
+                && members.stream().allMatch(member -> !member.getPartitions().isEmpty()));
+        Set<Integer> kept = new HashSet<>(members.get(0).getPartitions());
+        kept.addAll(members.get(1).getPartitions());
+
+        members.get(2).close();
+        List<ZkShardingService.ShardMember> remaining = members.subList(0, 2);
+        TimingAssertions.awaitWithin(5000, "m3退出后剩下的成员接管全部分区", () -> assigned(remaining) == 12);
+        for (ZkShardingService.ShardMember member : remaining) {
+            System.out.println(member.getMemberId() + " 版本：" + member.getEpoch() + "，分区：" + member.getPartitions());
+        }
+        Set<Integer> after = new HashSet<>(members.get(0).getPartitions());
+        after.addAll(members.get(1).getPartitions());
+        assertTrue(after.containsAll(kept), "原有分区不迁移");
+        for (ZkShardingService.ShardMember member : remaining) {
+            member.close();
+        }
+    }
+
+
+    /**
+     * 服务注册与发现：注册两个order-service实例，lookup只读本地快照，注册后在预算内可见
+     * [zk: localhost:2181(CONNECTED) 8] ls /services/order-service
+     * [127.0.0.1:9001, 127.0.0.1:9002]
+     * [zk: localhost:2181(CONNECTED) 9] get /services/order-service/127.0.0.1:9001
+     * {"id":"127.0.0.1:9001","name":"order-service","host":"127.0.0.1","port":9001,"weight":100,"metadata":{},"registrationTime":1700000000000}
+     * @throws Exception
+     */
+    @Test
+    public void serviceDiscovery() throws Exception {
+        ZkServiceRegistry.Registration first = serviceRegistry.register(new ServiceInstance("order-service", "127.0.0.1", 9001));
+        ServiceInstance heavy = new ServiceInstance("order-service", "127.0.0.1", 9002);
+        heavy.setWeight(300);
+        ZkServiceRegistry.Registration second = serviceRegistry.register(heavy);
+        TimingAssertions.awaitWithin(1000, "两个实例注册后可见", () -> serviceDiscovery.getSnapshot("order-service") != null
+                && serviceDiscovery.getSnapshot("order-service").size() == 2);
+        Set<Integer> ports = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            ports.add(serviceDiscovery.lookup("order-service", LoadBalancer.ROUND_ROBIN).getPort());
+            assertNotNull(serviceDiscovery.lookup("order-service", LoadBalancer.WEIGHTED));
+        }
+        assertEquals(Set.of(9001, 9002), ports, "轮询覆盖两个实例");
+        first.close();
+        second.close();
+    }
+
+
+    /**
+     * 编解码和分片：2万个配置项的JSON约600K，LZ4压缩后直接存一个节点；不压缩时超过chunkSize，自动分片存到子节点
+     * [zk: localhost:2181(CONNECTED) 10] ls /zkcodec/plain
+     * [_chunk-4409187316842296917-0, _chunk-4409187316842296917-1]
+     * @throws Exception
+     */
+    @Test
+    public void codecAndChunking() throws Exception {
+        Map<String, String> config = new LinkedHashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            config.put("service.order.key" + i, "value-" + (i % 100));
+        }
+        ZNodeCodec<Map> compressed = nodeStore.json(Map.class);
+        ZNodeCodec<Map> plain = ZNodeCodec.json(Map.class);
+        nodeStore.write("/zkcodec/compressed", config, compressed);
+        nodeStore.write("/zkcodec/plain", config, plain);
+        assertEquals(Compression.LZ4, ZNodeCodec.compressionOf(client.getData().forPath("/zkcodec/compressed")));
+        assertTrue(client.getChildren().forPath("/zkcodec/plain").size() > 1, "未压缩时分片");
+        assertEquals(config, nodeStore.read("/zkcodec/plain", plain));
+        assertEquals(config, nodeStore.read("/zkcodec/compressed", compressed));
+        nodeStore.delete("/zkcodec/plain");
+        nodeStore.delete("/zkcodec/compressed");
+    }
+
+    /**
+     * 子树导出、导入到另一个路径、快照diff，最后并行删除
+     */
+    @Test
+    public void treeExportImportDiff() throws Exception {
+        for (int g = 0; g < 10; g++) {
+            client.create().creatingParentsIfNeeded().forPath("/zktree/src/group" + g);
+        }
+        List<CompletableFuture<CuratorTransactionResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(batchWriter.create("/zktree/src/group" + (i % 10) + "/node" + i, ("v" + i).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        TreeStats exported = TimingAssertions.assertWithin(2000, "导出1011个节点", () -> treeTools.exportTree("/zktree/src", snapshot));
+        assertEquals(1011, exported.getNodes());
+        TreeStats imported = treeTools.importTree(new ByteArrayInputStream(snapshot.toByteArray()), "/zktree/copy");
+        assertEquals(1011, imported.getNodes());
+
+        //临时节点下不能建子节点，导入整体失败，异常里带失败数和第一个错误
+        client.create().withMode(CreateMode.EPHEMERAL).forPath("/zktree/ephemeral");
+        IllegalStateException failed = assertThrows(IllegalStateException.class,
+                () -> treeTools.importTree(new ByteArrayInputStream(snapshot.toByteArray()), "/zktree/ephemeral/copy"));
+        System.out.println(failed.getMessage());
+        assertTrue(failed.getMessage().contains("1011个节点中有1011个失败"), failed.getMessage());
+        assertTrue(failed.getCause() instanceof KeeperException, String.valueOf(failed.getCause()));
+        client.delete().forPath("/zktree/ephemeral");
+
+        client.setData().forPath("/zktree/copy/group1/node1", "changed".getBytes(StandardCharsets.UTF_8));
+        client.delete().forPath("/zktree/copy/group2/node2");
+        client.create().forPath("/zktree/copy/group3/extra");
+        List<String> differences = new ArrayList<>();
+        TreeStats diff = treeTools.diff(new ByteArrayInputStream(snapshot.toByteArray()), "/zktree/copy", new ZkTreeTools.DiffListener() {
+            @Override
+            public void added(String path) {
+                differences.add("+ " + path);
+            }
+
+            @Override
+            public void removed(String path) {
+                differences.add("- " + path);
+            }
+
+            @Override
+            public void changed(String path) {
+                differences.add("~ " + path);
+            }
+        });
+        System.out.println("diff：" + diff + " " + differences);
+        assertEquals(1, diff.getAdded());
+        assertEquals(1, diff.getRemoved());
+        assertEquals(1, diff.getChanged());
+        treeTools.deleteTree("/zktree");
+        assertNull(client.checkExists().forPath("/zktree"));
+    }
+
+    /**
+     * 读会话池：写走主会话，读按path分散到读会话，先sync再读保证读到刚写的值
+     */
+    @Test
+    public void readPool() throws Exception {
+        readPool.primary().create().orSetData().creatingParentsIfNeeded().forPath("/zkpool/node", "v1".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals("v1".getBytes(StandardCharsets.UTF_8), readPool.getDataAfterSync("/zkpool/node"));
+        assertEquals(List.of("node"), readPool.getChildren("/zkpool"));
+        readPool.primary().delete().deletingChildrenIfNeeded().forPath("/zkpool");
+    }
+
+    /**
+     * Reactor门面：请求在订阅时异步发出，这里用block()只是为了在测试里等结果
+     */
+    @Test
+    public void reactiveClient() {
+        assertEquals("/zkreactive/node", reactiveClient.createOrSetData("/zkreactive/node", "v1".getBytes(StandardCharsets.UTF_8)).block());
+        assertEquals("v1", new String(reactiveClient.getData("/zkreactive/node").block(), StandardCharsets.UTF_8));
+        assertEquals(List.of("node"), reactiveClient.getChildren("/zkreactive").block());
+        assertNull(reactiveClient.checkExists("/zkreactive/none").block(), "不存在的节点为空Mono");
+        reactiveClient.deleteRecursively("/zkreactive").block();
+    }
+
+    /**
+     * 节点REST接口只能访问nodeApi.rootPath子树，子树外(包括根节点和/zookeeper)一律403，不会被递归删除
+     */
+    @Test
+    public void nodeApiLimitedToRootPath() throws Exception {
+        mockMvc.perform(put("/zk/blocking/nodes/zkweb/a").content("v1"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/zk/blocking/nodes/zkweb/a"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data").value("v1"));
+        MvcResult pending = mockMvc.perform(get("/zk/nodes/zkweb").param("children", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.children[0]").value("a"));
+
+        mockMvc.perform(delete("/zk/nodes").param("recursive", "true"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(delete("/zk/blocking/nodes/zkweb2").param("recursive", "true"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/zk/blocking/nodes/zookeeper"))
+                .andExpect(status().isForbidden());
+        assertNotNull(client.checkExists().forPath("/zkweb/a"));
+
+        mockMvc.perform(delete("/zk/blocking/nodes/zkweb").param("recursive", "true"))
+                .andExpect(status().isNoContent());
+        assertNull(client.checkExists().forPath("/zkweb"));
+    }
+
+    private String cached(String path) {
+        try {
+            byte[] data = readCache.getData(path);
+            return data == null ? null : new String(data, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static int assigned(List<ZkShardingService.ShardMember> members) {
+        Set<Integer> partitions = new HashSet<>();
+        int total = 0;
+        for (ZkShardingService.ShardMember member : members) {
+            partitions.addAll(member.getPartitions());
+            total += member.getPartitions().size();
+        }
+        // 同一个分区不能同时分给两个成员
+        return total == partitions.size() ? partitions.size() : -1;
+    }
+
+}
@@ -0,0 +1,216 @@
+package org.example;
+
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.zookeeper.KeeperException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * 重试策略在集群成员停机/重启下的表现：进程内3节点集群(经过ZkFaultProxy)，ADAPTIVE策略 + 熔断。
+ * 1 停掉客户端正连着的成员：多数派还在，客户端切到其它成员，读请求在重试期间内成功；
+ * 2 停掉两个成员：失去多数派，熔断期间请求不按重试策略反复等待，很快失败；
+ * 3 重启后多数派恢复，请求重新成功。
+ *
+ * 会话超时比停机时间长，测的是重试和切换成员，不是会话过期。
+ */
+public class RetryFailoverTest {
+
+    private static final int SESSION_TIMEOUT_MS = 10000;
+    private static final int CONNECTION_TIMEOUT_MS = 2000;
+
+    private static ZkTestEnsemble ensemble;
+
+    private final Set<Integer> killed = new HashSet<>();
+    private AnnotationConfigApplicationContext context;
+    private CuratorFramework client;
+
+    @BeforeAll
+    public static void startCluster() throws Exception {
+        ensemble = ZkTestEnsemble.cluster(3);
+    }
+
+    @AfterAll
+    public static void stopCluster() {
+        ensemble.close();
+    }
+
+    @BeforeEach
+    public void connect() throws Exception {
+        CuratorConf curatorConf = new CuratorConf();
+        curatorConf.setConnectString(ensemble.getConnectString());
+        RetryConf retryConf = new RetryConf();
+        retryConf.setPolicy(RetryConf.Policy.ADAPTIVE);
+        retryConf.setCircuitBreaker(true);
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(CuratorConf.class, () -> curatorConf);
+        context.registerBean(RetryConf.class, () -> retryConf);
+        context.register(ZkRetryPolicies.class);
+        context.refresh();
+        ZkRetryPolicies retryPolicies = context.getBean(ZkRetryPolicies.class);
+
+        RetryPolicy retryPolicy = retryPolicies.newPolicy();
+        client = CuratorFrameworkFactory.newClient(ensemble.getConnectString(), SESSION_TIMEOUT_MS, CONNECTION_TIMEOUT_MS, retryPolicy);
+        retryPolicies.attach(client, retryPolicy);
+        client.start();
+        assertTrue(client.blockUntilConnected(SESSION_TIMEOUT_MS, TimeUnit.MILLISECONDS), "连上集群");
+        client.create().orSetData().creatingParentsIfNeeded().forPath("/retry/n", "v".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    public void close() throws Exception {
+        for (int member : killed) {
+            ensemble.restart(member);
+        }
+        killed.clear();
+        TimingAssertions.awaitWithin(SESSION_TIMEOUT_MS, "集群恢复", () -> read() != null);
+        client.delete().deletingChildrenIfNeeded().forPath("/retry");
+        client.close();
+        context.close();
+    }
+
+
+    /**
+     * 停掉客户端正连着的成员，读请求切到其它成员后成功；成员重启后重新加入集群，客户端不受影响
+     */
+    @Test
+    public void memberKilledAndRestarted() throws Exception {
+        int member = connectedMember();
+        kill(member);
+        String data = TimingAssertions.assertWithin(SESSION_TIMEOUT_MS, "成员停机后切到其它成员", () -> {
+            String value;
+            while ((value = read()) == null) {
+                Thread.sleep(10);
+            }
+            return value;
+        });
+        assertEquals("v", data);
+
+        restart(member);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("v", new String(client.getData().forPath("/retry/n"), StandardCharsets.UTF_8));
+        }
+    }
+
+
+    /**
+     * 失去多数派时熔断：请求只经历一次等待连接和一次连接尝试就失败；多数派恢复后重新成功
+     */
+    @Test
+    public void quorumLostAndRestored() throws Exception {
+        int member = connectedMember();
+        kill((member + 1) % ensemble.size());
+        kill((member + 2) % ensemble.size());
+        KeeperException failure = TimingAssertions.assertWithin(CONNECTION_TIMEOUT_MS + SESSION_TIMEOUT_MS, "失去多数派后请求失败",
+                () -> assertThrows(KeeperException.class, () -> {
+                    while (true) {
+                        client.getData().forPath("/retry/n");
+                    }
+                }));
+        System.out.println("失去多数派：" + failure.code());
+
+        restart((member + 1) % ensemble.size());
+        restart((member + 2) % ensemble.size());
+        long recoverMs = TimingAssertions.awaitWithin(SESSION_TIMEOUT_MS, "多数派恢复后请求成功", () -> read() != null);
+        System.out.println(recoverMs + "ms后恢复");
+    }
+
+    /**
+     * 读会话连着的成员停机：path仍然分配给原来的读会话(不退回主会话)，等它重连到其它成员后继续读；
+     * 主会话写完后getDataAfterSync能读到
+     */
+    @Test
+    public void readSessionFailover() throws Exception {
+        CuratorConf curatorConf = new CuratorConf();
+        curatorConf.setConnectString(ensemble.getConnectString());
+        curatorConf.setSessionTimeoutMs(SESSION_TIMEOUT_MS);
+        curatorConf.setConnectionTimeoutMs(CONNECTION_TIMEOUT_MS);
+        ReadPoolConf readPoolConf = new ReadPoolConf();
+        readPoolConf.setEnabled(true);
+        readPoolConf.setSessions(1);
+        readPoolConf.setPreferObservers(false);
+        try (AnnotationConfigApplicationContext poolContext = new AnnotationConfigApplicationContext()) {
+            // client由测试自己关闭，不让容器关闭时推断出close()
+            poolContext.registerBean(CuratorFramework.class, () -> client, definition -> definition.setDestroyMethodName(""));
+            poolContext.registerBean(CuratorConf.class, () -> curatorConf);
+            poolContext.registerBean(ReadPoolConf.class, () -> readPoolConf);
+            poolContext.register(RetryConf.class, ZkRetryPolicies.class, ZkReadPool.class);
+            poolContext.refresh();
+            ZkReadPool readPool = poolContext.getBean(ZkReadPool.class);
+            CuratorFramework session = readPool.reader("/retry/n");
+            assertTrue(session != client, "path分配到读会话");
+            assertEquals("v", new String(readPool.getData("/retry/n"), StandardCharsets.UTF_8));
+
+            // 单个读会话先连成员列表里的第0个
+            kill(0);
+            assertTrue(readPool.reader("/retry/n") == session, "读会话断开时不换会话");
+            // 重连期间的读按重试策略等待，重试用完时失败，不会改走主会话
+            String data = TimingAssertions.assertWithin(SESSION_TIMEOUT_MS, "读会话重连到其它成员后继续读", () -> {
+                while (true) {
+                    try {
+                        return new String(readPool.getData("/retry/n"), StandardCharsets.UTF_8);
+                    } catch (KeeperException e) {
+                        assertTrue(readPool.reader("/retry/n") == session, "重连期间仍是原来的读会话");
+                        Thread.sleep(10);
+                    }
+                }
+            });
+            assertEquals("v", data);
+
+            TimingAssertions.awaitWithin(SESSION_TIMEOUT_MS, "主会话可写", () -> {
+                try {
+                    client.setData().forPath("/retry/n", "v2".getBytes(StandardCharsets.UTF_8));
+                    return true;
+                } catch (Exception e) {
+                    return false;
+                }
+            });
+            assertEquals("v2", new String(readPool.getDataAfterSync("/retry/n"), StandardCharsets.UTF_8));
+        }
+    }
+
+    private void kill(int member) throws Exception {
+        ensemble.kill(member);
+        killed.add(member);
+    }
+
+    private void restart(int member) throws Exception {
+        ensemble.restart(member);
+        killed.remove(member);
+    }
+
+    private String read() {
+        try {
+            return new String(client.getData().forPath("/retry/n"), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 客户端当前连着的成员：只有它的故障代理上有连接
+     */
+    private int connectedMember() {
+        for (int i = 0; i < ensemble.size(); i++) {
+            if (ensemble.getProxy(i).getConnections() > 0) {
+                return i;
+            }
+        }
+        throw new AssertionError("客户端没有连着任何成员");
+    }
+}
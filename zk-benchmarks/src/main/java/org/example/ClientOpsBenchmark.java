@@ -0,0 +1,243 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * create/getData/setData/delete三种写法的对比，每次调用执行BATCH个操作：
+ * sync：逐个forPath，每个操作等一个往返；
+ * async：inBackground一次发出BATCH个请求，再等全部回调；
+ * batched：交给ZkBatchWriter，攒成multi事务提交(getData没有批量写法)。
+ *
+ * 吞吐量(ops/s)和延迟分位数都按单个操作计算(@OperationsPerInvocation)。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@OperationsPerInvocation(ClientOpsBenchmark.BATCH)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ClientOpsBenchmark {
+
+    static final int BATCH = 100;
+
+    private CuratorFramework client;
+    private ZkBatchWriter batchWriter;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setup(Zk zk) throws Exception {
+        client = zk.client;
+        batchWriter = zk.batchWriter;
+        client.create().forPath("/ops/create");
+        List<CuratorOp> ops = new ArrayList<>();
+        ops.add(client.transactionOp().create().forPath("/ops/data"));
+        for (int i = 0; i < BATCH; i++) {
+            ops.add(client.transactionOp().create().forPath(dataPath(i), ZkBenchmarkState.DATA));
+        }
+        client.transaction().forOperations(ops);
+    }
+
+    /**
+     * create测试建的节点每轮清掉，避免节点数随迭代次数一直增长
+     */
+    @TearDown(Level.Iteration)
+    public void cleanCreated() throws Exception {
+        client.delete().deletingChildrenIfNeeded().forPath("/ops/create");
+        client.create().forPath("/ops/create");
+    }
+
+    @Benchmark
+    public void syncCreate() throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            client.create().forPath(nextCreatePath(), ZkBenchmarkState.DATA);
+        }
+    }
+
+    @Benchmark
+    public void asyncCreate() throws Exception {
+        Background background = new Background(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            client.create().inBackground(background).forPath(nextCreatePath(), ZkBenchmarkState.DATA);
+        }
+        background.await();
+    }
+
+    @Benchmark
+    public void batchedCreate() throws Exception {
+        List<CompletableFuture<CuratorTransactionResult>> futures = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            futures.add(batchWriter.create(nextCreatePath(), ZkBenchmarkState.DATA, CreateMode.PERSISTENT));
+        }
+        join(futures);
+    }
+
+    @Benchmark
+    public void syncGetData() throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            client.getData().forPath(dataPath(i));
+        }
+    }
+
+    @Benchmark
+    public void asyncGetData() throws Exception {
+        Background background = new Background(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            client.getData().inBackground(background).forPath(dataPath(i));
+        }
+        background.await();
+    }
+
+    @Benchmark
+    public void syncSetData() throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            client.setData().forPath(dataPath(i), ZkBenchmarkState.DATA);
+        }
+    }
+
+    @Benchmark
+    public void asyncSetData() throws Exception {
+        Background background = new Background(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            client.setData().inBackground(background).forPath(dataPath(i), ZkBenchmarkState.DATA);
+        }
+        background.await();
+    }
+
+    @Benchmark
+    public void batchedSetData() throws Exception {
+        List<CompletableFuture<CuratorTransactionResult>> futures = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            futures.add(batchWriter.setData(dataPath(i), ZkBenchmarkState.DATA));
+        }
+        join(futures);
+    }
+
+    @Benchmark
+    public void syncDelete(DeleteTargets targets) throws Exception {
+        for (String path : targets.paths) {
+            client.delete().forPath(path);
+        }
+    }
+
+    @Benchmark
+    public void asyncDelete(DeleteTargets targets) throws Exception {
+        Background background = new Background(BATCH);
+        for (String path : targets.paths) {
+            client.delete().inBackground(background).forPath(path);
+        }
+        background.await();
+    }
+
+    @Benchmark
+    public void batchedDelete(DeleteTargets targets) throws Exception {
+        List<CompletableFuture<CuratorTransactionResult>> futures = new ArrayList<>(BATCH);
+        for (String path : targets.paths) {
+            futures.add(batchWriter.delete(path));
+        }
+        join(futures);
+    }
+
+    private String nextCreatePath() {
+        return "/ops/create/n" + (sequence++);
+    }
+
+    private static String dataPath(int i) {
+        return "/ops/data/n" + i;
+    }
+
+    private static void join(List<CompletableFuture<CuratorTransactionResult>> futures) {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * delete测试每次调用前用一个multi事务建好BATCH个待删除节点，建节点的耗时不计入结果
+     */
+    @State(Scope.Thread)
+    public static class DeleteTargets {
+        private final List<String> paths = new ArrayList<>(BATCH);
+        private long round;
+
+        @Setup(Level.Trial)
+        public void setupParent(Zk zk) throws Exception {
+            zk.client.create().orSetData().forPath("/ops/delete");
+        }
+
+        @Setup(Level.Invocation)
+        public void createTargets(Zk zk) throws Exception {
+            paths.clear();
+            List<CuratorOp> ops = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                String path = "/ops/delete/r" + round + "-n" + i;
+                paths.add(path);
+                ops.add(zk.client.transactionOp().create().forPath(path, ZkBenchmarkState.DATA));
+            }
+            round++;
+            zk.client.transaction().forOperations(ops);
+        }
+    }
+
+    /**
+     * 等待一组inBackground请求全部回调，任何一个失败都抛出
+     */
+    private static class Background implements BackgroundCallback {
+        private final CountDownLatch latch;
+        private volatile int errorCode;
+
+        Background(int count) {
+            this.latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void processResult(CuratorFramework client, CuratorEvent event) {
+            if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+                errorCode = event.getResultCode();
+            }
+            latch.countDown();
+        }
+
+        void await() throws Exception {
+            if (!latch.await(30, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("等待回调超时");
+            }
+            if (errorCode != 0) {
+                throw KeeperException.create(KeeperException.Code.get(errorCode));
+            }
+        }
+    }
+
+    /**
+     * 只启动ClientOpsBenchmark用到的组件
+     */
+    @State(Scope.Benchmark)
+    public static class Zk extends ZkBenchmarkState {
+        public Zk() {
+            super(ZkBatchWriter.class);
+        }
+    }
+}
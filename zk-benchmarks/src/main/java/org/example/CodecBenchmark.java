@@ -0,0 +1,124 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点数据编解码对比，数据是entries个配置项(key形如service.order.key123，value有100种取值)：
+ * encode/decode：纯CPU开销；
+ * readFromZk：通过ZNodeStore从服务端读出并解码，包含网络传输，超过chunkSize的数据会分片。
+ * 各codec编码后的字节数(即写入zookeeper、网络上传输的字节数)在setup时打印。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"json", "json-lz4", "json-deflate", "binary", "binary-lz4"})
+    public String codec;
+
+    @Param({"2000", "20000"})
+    public int entries;
+
+    private ZNodeCodec<Map<String, String>> nodeCodec;
+    private Map<String, String> value;
+    private byte[] encoded;
+    private String path;
+
+    @Setup(Level.Trial)
+    public void setup(Zk zk) throws Exception {
+        value = new LinkedHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            value.put("service.order.key" + i, "value-" + (i % 100));
+        }
+        nodeCodec = codec(codec);
+        encoded = nodeCodec.encode(value);
+        path = "/ops/codec-" + codec + "-" + entries;
+        zk.nodeStore.write(path, value, nodeCodec);
+        System.out.println();
+        System.out.println(codec + "：" + entries + "个配置项编码后" + encoded.length + "字节"
+                + (encoded.length > zk.nodeStore.chunkSize() ? "，分片存储" : ""));
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return nodeCodec.encode(value);
+    }
+
+    @Benchmark
+    public Map<String, String> decode() {
+        return nodeCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public Map<String, String> readFromZk(Zk zk) throws Exception {
+        return zk.nodeStore.read(path, nodeCodec);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ZNodeCodec<Map<String, String>> codec(String name) {
+        ZNodeCodec<Map<String, String>> json = ZNodeCodec.json((Class<Map<String, String>>) (Class<?>) Map.class);
+        ZNodeCodec<Map<String, String>> binary = ZNodeCodec.binary(new MapSerializer());
+        switch (name) {
+            case "json":
+                return json;
+            case "json-lz4":
+                return json.compressed(Compression.LZ4, 1024);
+            case "json-deflate":
+                return json.compressed(Compression.DEFLATE, 1024);
+            case "binary":
+                return binary;
+            case "binary-lz4":
+                return binary.compressed(Compression.LZ4, 1024);
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    private static class MapSerializer implements BinarySerializer<Map<String, String>> {
+        @Override
+        public void write(Map<String, String> value, BinaryWriter writer) {
+            writer.writeVarint(value.size());
+            for (Map.Entry<String, String> entry : value.entrySet()) {
+                writer.writeString(entry.getKey()).writeString(entry.getValue());
+            }
+        }
+
+        @Override
+        public Map<String, String> read(BinaryReader reader) {
+            int size = reader.readInt();
+            Map<String, String> value = new LinkedHashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                value.put(reader.readString(), reader.readString());
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 只启动CodecBenchmark用到的组件
+     */
+    @State(Scope.Benchmark)
+    public static class Zk extends ZkBenchmarkState {
+        public Zk() {
+            super(ZNodeStore.class);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.example;
+
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听器扇出延迟：subscribers个订阅者通过ZkSubscriptionEngine订阅同一棵子树，
+ * 测量从setData发出到所有订阅者都收到NODE_CHANGED的耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ListenerFanoutBenchmark {
+
+    private static final String ROOT = "/fanout";
+    private static final String NODE = ROOT + "/node";
+
+    @Param({"1", "16", "64"})
+    public int subscribers;
+
+    private final List<ZkSubscriptionEngine.Subscription> subscriptions = new ArrayList<>();
+    private volatile CountDownLatch received;
+    private long version;
+
+    @Setup(Level.Trial)
+    public void setup(Zk zk) throws Exception {
+        zk.client.create().creatingParentsIfNeeded().forPath(NODE, ZkBenchmarkState.DATA);
+        CountDownLatch initialized = new CountDownLatch(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            subscriptions.add(zk.subscriptionEngine.subscribe(ROOT, new CuratorCacheListener() {
+                @Override
+                public void event(Type type, ChildData oldData, ChildData data) {
+                    CountDownLatch latch = received;
+                    if (type == Type.NODE_CHANGED && latch != null) {
+                        latch.countDown();
+                    }
+                }
+
+                @Override
+                public void initialized() {
+                    initialized.countDown();
+                }
+            }));
+        }
+        if (!initialized.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("订阅初始化超时");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        subscriptions.forEach(ZkSubscriptionEngine.Subscription::close);
+    }
+
+    @Benchmark
+    public void fanout(Zk zk) throws Exception {
+        CountDownLatch latch = new CountDownLatch(subscribers);
+        received = latch;
+        zk.client.setData().forPath(NODE, ("v" + (version++)).getBytes(StandardCharsets.UTF_8));
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("还有" + latch.getCount() + "个订阅者没有收到事件");
+        }
+    }
+
+    /**
+     * 只启动ListenerFanoutBenchmark用到的组件
+     */
+    @State(Scope.Benchmark)
+    public static class Zk extends ZkBenchmarkState {
+        public Zk() {
+            super(ZkSubscriptionEngine.class);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.example;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 工作队列的消费吞吐(进程内TestingServer，1/4/16个消费线程)：
+ * 1 ZkWorkQueue：每个批次节点打包maxBatchMessages条消息，消费者按批领取(建租约节点)，每次poll最多4批，一个multi事务确认；
+ * 2 每条消息一个顺序节点：消费者getChildren、排序，依次尝试删除最小的节点，删除成功即领取，NoNode说明被别人抢先。
+ * 消费者越多，第2种方式在同一个节点上的冲突越多，而且每次都要重新列出全部子节点。
+ *
+ * 消费线程数要在同一个进程、同一份预先写入的数据上对比，JMH的@Threads不能参数化，所以和RecursiveWatchBenchmark一样用main方法运行。
+ * java -cp zk-benchmarks/target/benchmarks.jar org.example.QueueBenchmark
+ */
+public class QueueBenchmark {
+
+    private static final int MESSAGES = 20_000;
+    private static final int NAIVE_MESSAGES = 2_000;
+    private static final int[] CONSUMERS = {1, 4, 16};
+    private static final byte[] PAYLOAD = new byte[100];
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        try (TestingServer server = new TestingServer(true);
+             CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(1000))) {
+            client.start();
+            client.blockUntilConnected();
+            AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+            context.registerBean(CuratorFramework.class, () -> client);
+            context.register(BatchWriterConf.class, ZkBatchWriter.class, QueueConf.class, ZkWorkQueue.class);
+            context.refresh();
+            try {
+                ZkWorkQueue workQueue = context.getBean(ZkWorkQueue.class);
+                for (int consumers : CONSUMERS) {
+                    workQueue(workQueue, "bench-" + consumers, consumers);
+                }
+                for (int consumers : CONSUMERS) {
+                    naive(client, "/naive-" + consumers, consumers);
+                }
+                System.out.printf("批次节点 %d 个，领取冲突 %d 次，重新入队 %d 批%n",
+                        workQueue.getPublishedBatches(), workQueue.getClaimConflicts(), workQueue.getRequeuedBatches());
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private static void workQueue(ZkWorkQueue workQueue, String queue, int consumers) throws Exception {
+        List<CompletableFuture<Void>> sent = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            sent.add(workQueue.offer(queue, PAYLOAD));
+        }
+        workQueue.flush(queue);
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        AtomicInteger received = new AtomicInteger();
+        AtomicInteger batches = new AtomicInteger();
+        long elapsedNanos = run(consumers, () -> {
+            try (ZkWorkQueue.Consumer consumer = workQueue.consumer(queue)) {
+                while (received.get() < MESSAGES) {
+                    List<ZkWorkQueue.Batch> claimed = consumer.poll(4, 100, TimeUnit.MILLISECONDS);
+                    consumer.ack(claimed);
+                    batches.addAndGet(claimed.size());
+                    claimed.forEach(batch -> received.addAndGet(batch.getMessages().size()));
+                }
+            }
+        });
+        report("ZkWorkQueue", consumers, received.get(), batches.get(), elapsedNanos);
+    }
+
+    private static void naive(CuratorFramework client, String root, int consumers) throws Exception {
+        client.create().forPath(root);
+        for (int i = 0; i < NAIVE_MESSAGES; i += 500) {
+            List<CuratorOp> ops = new ArrayList<>();
+            for (int j = i; j < Math.min(i + 500, NAIVE_MESSAGES); j++) {
+                ops.add(client.transactionOp().create().forPath(root + String.format("/mq%010d", j), PAYLOAD));
+            }
+            client.transaction().forOperations(ops);
+        }
+
+        AtomicInteger received = new AtomicInteger();
+        long elapsedNanos = run(consumers, () -> {
+            while (received.get() < NAIVE_MESSAGES) {
+                List<String> children = client.getChildren().forPath(root);
+                Collections.sort(children);
+                for (String child : children) {
+                    try {
+                        client.getData().forPath(root + "/" + child);
+                        client.delete().forPath(root + "/" + child);
+                        received.incrementAndGet();
+                        break;
+                    } catch (KeeperException.NoNodeException e) {
+                        // 被其它消费者抢先，试下一个
+                    }
+                }
+            }
+        });
+        report("每条消息一个节点", consumers, received.get(), received.get(), elapsedNanos);
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static long run(int threads, Task task) throws Exception {
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }, "queue-bench-" + i).start();
+        }
+        done.await();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int consumers, int messages, int batches, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%s: 消费者 %d, 消息 %d 条, 耗时 %.2f s, %.0f 条/s, %.0f 批/s%n",
+                name, consumers, messages, seconds, messages / seconds, batches / seconds);
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读路径对比：
+ * cacheHit：ZkReadCache本地命中，不访问服务端；
+ * remote：每次getData都是一次网络往返；
+ * linearizable：ZkReadCache.getDataLinearizable，先sync再读，保证读到最新值。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ReadPathBenchmark {
+
+    @Benchmark
+    public byte[] cacheHit(Zk zk) throws Exception {
+        return zk.readCache.getData(randomPath());
+    }
+
+    @Benchmark
+    public byte[] remote(Zk zk) throws Exception {
+        return zk.client.getData().forPath(randomPath());
+    }
+
+    @Benchmark
+    public byte[] linearizable(Zk zk) throws Exception {
+        return zk.readCache.getDataLinearizable(randomPath());
+    }
+
+    private static String randomPath() {
+        return ZkBenchmarkState.readPath(ThreadLocalRandom.current().nextInt(ZkBenchmarkState.READ_NODES));
+    }
+
+    /**
+     * 只启动ReadPathBenchmark用到的组件
+     */
+    @State(Scope.Benchmark)
+    public static class Zk extends ZkBenchmarkState {
+        public Zk() {
+            super(ZkReadCache.class);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingCluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读会话池的读扩展性(进程内3节点TestingCluster，32个线程并发读)：
+ * sessions=0时所有读都走主会话，即一个socket、一台服务端；sessions>0时读按path分散到各读会话，
+ * 读会话轮流连到3台服务端上。对比不同sessions下的getData吞吐。
+ * readAfterSync每次读之前先sync，是需要读到自己刚写的数据时的代价。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Threads(32)
+@Fork(1)
+public class ReadScalingBenchmark {
+
+    private static final int ENSEMBLE = 3;
+
+    @Param({"0", "1", "3", "6"})
+    public int sessions;
+
+    private TestingCluster cluster;
+    private CuratorFramework client;
+    private AnnotationConfigApplicationContext context;
+    private ZkReadPool readPool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cluster = new TestingCluster(ENSEMBLE);
+        cluster.start();
+        client = CuratorFrameworkFactory.newClient(cluster.getConnectString(), new RetryOneTime(1000));
+        client.start();
+        client.blockUntilConnected();
+
+        List<CuratorOp> ops = new ArrayList<>();
+        ops.add(client.transactionOp().create().forPath("/read"));
+        for (int i = 0; i < ZkBenchmarkState.READ_NODES; i++) {
+            ops.add(client.transactionOp().create().forPath(ZkBenchmarkState.readPath(i), ZkBenchmarkState.DATA));
+        }
+        client.transaction().forOperations(ops);
+
+        CuratorConf curatorConf = new CuratorConf();
+        curatorConf.setConnectString(cluster.getConnectString());
+        curatorConf.setSessionTimeoutMs(60_000);
+        curatorConf.setConnectionTimeoutMs(15_000);
+        curatorConf.setRetryCount(1);
+        curatorConf.setElapsedTimeMs(1000);
+        ReadPoolConf readPoolConf = new ReadPoolConf();
+        readPoolConf.setEnabled(sessions > 0);
+        readPoolConf.setSessions(sessions);
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(CuratorFramework.class, () -> client);
+        context.registerBean(CuratorConf.class, () -> curatorConf);
+        context.registerBean(ReadPoolConf.class, () -> readPoolConf);
+        context.register(RetryConf.class, ZkRetryPolicies.class, ZkReadPool.class);
+        context.refresh();
+        readPool = context.getBean(ZkReadPool.class);
+        System.out.println("读会话优先连接的服务端：" + readPool.getPreferredServers());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        context.close();
+        client.close();
+        cluster.close();
+    }
+
+    @Benchmark
+    public byte[] read() throws Exception {
+        return readPool.getData(randomPath());
+    }
+
+    @Benchmark
+    public byte[] readAfterSync() throws Exception {
+        return readPool.getDataAfterSync(randomPath());
+    }
+
+    private static String randomPath() {
+        return ZkBenchmarkState.readPath(ThreadLocalRandom.current().nextInt(ZkBenchmarkState.READ_NODES));
+    }
+}
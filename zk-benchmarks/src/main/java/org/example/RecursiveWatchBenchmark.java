@@ -0,0 +1,179 @@
+package org.example;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.watch.PersistentWatcher;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TreeCache与持久递归watch的对比(进程内TestingServer，5万个节点)：
+ * 1 服务端watch数：TreeCache每个节点注册data watch和children watch，持久递归watch整棵树只有1个；
+ * 2 初始化耗时：TreeCache启动时要把整棵树读一遍，持久递归watch只注册一次；
+ * 3 事件延迟：setData之后到监听器收到事件的耗时(TreeCache收到事件前还要重读数据并重新注册watch)。
+ *
+ * 不是JMH基准，直接运行main方法：
+ * java -cp zk-benchmarks/target/benchmarks.jar org.example.RecursiveWatchBenchmark
+ */
+public class RecursiveWatchBenchmark {
+
+    private static final String ROOT = "/bench";
+    private static final int PARENTS = 100;
+    private static final int CHILDREN_PER_PARENT = 500;
+    private static final int SAMPLES = 200;
+
+    public static void main(String[] args) throws Exception {
+        // wchs命令默认不在白名单里
+        System.setProperty("zookeeper.4lw.commands.whitelist", "*");
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        try (TestingServer server = new TestingServer(true);
+             CuratorFramework client = newClient(server)) {
+            List<String> leaves = buildTree(client);
+            System.out.println("节点数：" + (leaves.size() + PARENTS + 1));
+
+            // 每种方式用单独的会话，会话关闭后它在服务端注册的watch随之清除，watch数互不影响
+            try (CuratorFramework watching = newClient(server)) {
+                treeCache(watching, client, server, leaves);
+            }
+            try (CuratorFramework watching = newClient(server)) {
+                persistentRecursive(watching, client, server, leaves);
+            }
+        }
+    }
+
+    private static CuratorFramework newClient(TestingServer server) throws InterruptedException {
+        CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(1000));
+        client.start();
+        client.blockUntilConnected();
+        return client;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void treeCache(CuratorFramework watching, CuratorFramework client, TestingServer server, List<String> leaves) throws Exception {
+        Map<String, CountDownLatch> waiting = new ConcurrentHashMap<>();
+        CountDownLatch initialized = new CountDownLatch(1);
+        long start = System.nanoTime();
+        try (TreeCache cache = new TreeCache(watching, ROOT)) {
+            cache.getListenable().addListener((c, event) -> {
+                if (event.getType() == TreeCacheEvent.Type.INITIALIZED) {
+                    initialized.countDown();
+                } else if (event.getType() == TreeCacheEvent.Type.NODE_UPDATED) {
+                    countDown(waiting, event.getData().getPath());
+                }
+            });
+            cache.start();
+            initialized.await();
+            long initMs = (System.nanoTime() - start) / 1_000_000;
+            report("TreeCache", initMs, watchCount(server), measure(client, leaves, waiting));
+        }
+    }
+
+    private static void persistentRecursive(CuratorFramework watching, CuratorFramework client, TestingServer server, List<String> leaves) throws Exception {
+        Map<String, CountDownLatch> waiting = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        try (PersistentWatcher watcher = new PersistentWatcher(watching, ROOT, true)) {
+            CountDownLatch registered = new CountDownLatch(1);
+            watcher.getResetListenable().addListener(registered::countDown);
+            watcher.getListenable().addListener(event -> {
+                if (event.getType() == Watcher.Event.EventType.NodeDataChanged) {
+                    countDown(waiting, event.getPath());
+                }
+            });
+            watcher.start();
+            registered.await();
+            long initMs = (System.nanoTime() - start) / 1_000_000;
+            report("持久递归watch", initMs, watchCount(server), measure(client, leaves, waiting));
+        }
+    }
+
+    /**
+     * 逐个setData随机叶子节点，记录每次从setData发出到监听器收到事件的耗时
+     */
+    private static long[] measure(CuratorFramework client, List<String> leaves, Map<String, CountDownLatch> waiting) throws Exception {
+        Random random = new Random(42);
+        long[] costs = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            String path = leaves.get(random.nextInt(leaves.size()));
+            CountDownLatch latch = new CountDownLatch(1);
+            waiting.put(path, latch);
+            long start = System.nanoTime();
+            client.setData().forPath(path, ("v" + i).getBytes(StandardCharsets.UTF_8));
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("没有收到事件：" + path);
+            }
+            costs[i] = System.nanoTime() - start;
+            waiting.remove(path);
+        }
+        return costs;
+    }
+
+    private static void countDown(Map<String, CountDownLatch> waiting, String path) {
+        CountDownLatch latch = waiting.get(path);
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    private static List<String> buildTree(CuratorFramework client) throws Exception {
+        client.create().forPath(ROOT);
+        List<String> leaves = new ArrayList<>();
+        for (int p = 0; p < PARENTS; p++) {
+            String parent = ROOT + "/p" + p;
+            List<CuratorOp> ops = new ArrayList<>();
+            ops.add(client.transactionOp().create().forPath(parent));
+            for (int c = 0; c < CHILDREN_PER_PARENT; c++) {
+                String leaf = parent + "/c" + c;
+                ops.add(client.transactionOp().create().forPath(leaf, "v".getBytes(StandardCharsets.UTF_8)));
+                leaves.add(leaf);
+            }
+            client.transaction().forOperations(ops);
+        }
+        return leaves;
+    }
+
+    /**
+     * 通过四字命令wchs读取服务端的watch总数
+     */
+    static long watchCount(TestingServer server) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write("wchs".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Total watches:")) {
+                    return Long.parseLong(line.substring("Total watches:".length()).trim());
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void report(String name, long initMs, long watches, long[] costs) {
+        Arrays.sort(costs);
+        System.out.printf("%s: 初始化 %d ms, 服务端watch数 %d, 事件延迟 p50 %.2f ms, p99 %.2f ms%n",
+                name, initMs, watches, costs[costs.length / 2] / 1e6, costs[costs.length * 99 / 100] / 1e6);
+    }
+}
@@ -0,0 +1,152 @@
+package org.example;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.test.InstanceSpec;
+import org.apache.curator.test.TestingCluster;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 各重试策略在集群故障下的表现(进程内3节点TestingCluster，THREADS个线程持续getData)：
+ * 1 运行2秒后停掉一个成员，2秒后重启(客户端连着它时要切到其它成员)；
+ * 2 再运行2秒后停掉两个成员(失去多数派，所有请求失败)，OUTAGE_MS后重启；
+ * 3 再运行3秒。
+ *
+ * 统计成功/失败的请求数、失败请求从发出到抛出异常的耗时(熔断开启时应当很快失败)、单个请求的最大耗时，
+ * 以及多数派恢复后多久第一次成功。
+ *
+ * 不是JMH基准，每个策略都要完整经历一轮停机和重启，直接运行main方法：
+ * java -cp zk-benchmarks/target/benchmarks.jar org.example.RetryFailoverBenchmark
+ */
+public class RetryFailoverBenchmark {
+
+    private static final int THREADS = 16;
+    private static final int NODES = 100;
+    private static final long OUTAGE_MS = 5000;
+
+    private static volatile boolean running;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.ERROR);
+        run("FIXED", RetryConf.Policy.FIXED, false);
+        run("EXPONENTIAL", RetryConf.Policy.EXPONENTIAL, false);
+        run("DEADLINE", RetryConf.Policy.DEADLINE, false);
+        run("ADAPTIVE", RetryConf.Policy.ADAPTIVE, false);
+        run("ADAPTIVE+熔断", RetryConf.Policy.ADAPTIVE, true);
+        System.exit(0);
+    }
+
+    private static void run(String name, RetryConf.Policy policy, boolean circuitBreaker) throws Exception {
+        try (TestingCluster cluster = new TestingCluster(3)) {
+            cluster.start();
+            CuratorConf curatorConf = new CuratorConf();
+            curatorConf.setConnectString(cluster.getConnectString());
+            curatorConf.setRetryCount(1);
+            curatorConf.setElapsedTimeMs(2000);
+            RetryConf retryConf = new RetryConf();
+            retryConf.setPolicy(policy);
+            retryConf.setCircuitBreaker(circuitBreaker);
+            retryConf.setDeadlineMs(10000);
+            AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+            context.registerBean(CuratorConf.class, () -> curatorConf);
+            context.registerBean(RetryConf.class, () -> retryConf);
+            context.register(ZkRetryPolicies.class);
+            context.refresh();
+            ZkRetryPolicies retryPolicies = context.getBean(ZkRetryPolicies.class);
+
+            RetryPolicy retryPolicy = retryPolicies.newPolicy();
+            // 会话超时要比停机时间长，测的是重试而不是会话过期
+            CuratorFramework client = CuratorFrameworkFactory.newClient(cluster.getConnectString(), 60_000, 3000, retryPolicy);
+            retryPolicies.attach(client, retryPolicy);
+            client.start();
+            client.blockUntilConnected();
+            for (int i = 0; i < NODES; i++) {
+                client.create().creatingParentsIfNeeded().forPath("/retry/n" + i, "v".getBytes(StandardCharsets.UTF_8));
+            }
+
+            Stats stats = new Stats();
+            List<Thread> workers = new ArrayList<>();
+            running = true;
+            for (int t = 0; t < THREADS; t++) {
+                Thread worker = new Thread(() -> work(client, stats), "retry-worker-" + t);
+                worker.start();
+                workers.add(worker);
+            }
+
+            List<InstanceSpec> instances = new ArrayList<>(cluster.getInstances());
+            Thread.sleep(2000);
+            cluster.killServer(instances.get(0));
+            Thread.sleep(2000);
+            cluster.restartServer(instances.get(0));
+            Thread.sleep(2000);
+            cluster.killServer(instances.get(1));
+            cluster.killServer(instances.get(2));
+            Thread.sleep(OUTAGE_MS);
+            cluster.restartServer(instances.get(1));
+            cluster.restartServer(instances.get(2));
+            stats.restoredAt = System.nanoTime();
+            Thread.sleep(3000);
+            running = false;
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            client.close();
+            context.close();
+            stats.report(name);
+        }
+    }
+
+    private static void work(CuratorFramework client, Stats stats) {
+        while (running) {
+            long start = System.nanoTime();
+            try {
+                client.getData().forPath("/retry/n" + ThreadLocalRandom.current().nextInt(NODES));
+                stats.success(start, System.nanoTime());
+            } catch (Exception e) {
+                stats.failure(start, System.nanoTime());
+            }
+        }
+    }
+
+    private static class Stats {
+        private final AtomicLong successes = new AtomicLong();
+        private final ConcurrentLinkedQueue<Long> failures = new ConcurrentLinkedQueue<>();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final AtomicLong firstSuccessAfterRestore = new AtomicLong();
+        private volatile long restoredAt;
+
+        void success(long start, long end) {
+            successes.incrementAndGet();
+            maxLatency.accumulateAndGet(end - start, Math::max);
+            if (restoredAt != 0 && end > restoredAt) {
+                firstSuccessAfterRestore.compareAndSet(0, end);
+            }
+        }
+
+        void failure(long start, long end) {
+            failures.add(end - start);
+            maxLatency.accumulateAndGet(end - start, Math::max);
+        }
+
+        void report(String name) {
+            long[] costs = failures.stream().mapToLong(Long::longValue).sorted().toArray();
+            double p50 = costs.length == 0 ? 0 : costs[costs.length / 2] / 1e6;
+            double p99 = costs.length == 0 ? 0 : costs[costs.length * 99 / 100] / 1e6;
+            long recovery = firstSuccessAfterRestore.get() == 0 ? -1 : (firstSuccessAfterRestore.get() - restoredAt) / 1_000_000;
+            System.out.printf("%s: 成功 %d, 失败 %d, 失败耗时 p50 %.0f ms, p99 %.0f ms, 单次最大耗时 %d ms, 多数派恢复后 %d ms 首次成功%n",
+                    name, successes.get(), costs.length, p50, p99, maxLatency.get() / 1_000_000, recovery);
+        }
+    }
+}
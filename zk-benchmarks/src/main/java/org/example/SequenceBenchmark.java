@@ -0,0 +1,57 @@
+package org.example;
+
+import org.apache.zookeeper.CreateMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ID生成对比(4个线程并发取号)：
+ * rangeLeased：ZkSequenceService按段租用、本地分配，绝大多数调用不访问zookeeper；
+ * sequentialZnode：每个ID创建一个PERSISTENT_SEQUENTIAL节点，受限于quorum写入吞吐。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Threads(4)
+@Fork(1)
+public class SequenceBenchmark {
+
+    @Setup(Level.Trial)
+    public void setup(Zk zk) throws Exception {
+        zk.client.create().orSetData().forPath("/ops/seq");
+    }
+
+    @Benchmark
+    public long rangeLeased(Zk zk) {
+        return zk.sequenceService.next("bench");
+    }
+
+    @Benchmark
+    public String sequentialZnode(Zk zk) throws Exception {
+        return zk.client.create().withMode(CreateMode.PERSISTENT_SEQUENTIAL).forPath("/ops/seq/id-");
+    }
+
+    /**
+     * 只启动SequenceBenchmark用到的组件
+     */
+    @State(Scope.Benchmark)
+    public static class Zk extends ZkBenchmarkState {
+        public Zk() {
+            super(ZkAtomicUpdater.class, ZkSequenceService.class);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 分片再平衡耗时：members个成员分担partitions个分区，每次操作让一个非leader成员退出，
+ * 等其余成员接管它的全部分区，再让它重新加入，等它分到分区且每个分区恰好只有一个持有者。
+ * 测得的是两次再平衡(含成员节点watch通知、一次multi写入、各成员收到分配回调)的总耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ShardingBenchmark {
+
+    private static final String GROUP = "bench";
+    private static final long SETTLE_TIMEOUT_MS = 60_000;
+
+    @Param({"500"})
+    public int members;
+
+    @Param({"10000"})
+    public int partitions;
+
+    private Zk zk;
+    private Coverage coverage;
+    private final List<ZkShardingService.ShardMember> joined = new ArrayList<>();
+    private int next;
+    private long moved;
+    private long operations;
+
+    @Setup(Level.Trial)
+    public void setup(Zk zk) throws Exception {
+        this.zk = zk;
+        coverage = new Coverage(partitions);
+        for (int i = 0; i < members; i++) {
+            joined.add(join(i));
+        }
+        coverage.await(() -> true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println("平均每次操作迁移分区数：" + (operations == 0 ? 0 : moved / operations));
+        for (ZkShardingService.ShardMember member : joined) {
+            member.close();
+        }
+    }
+
+    @Benchmark
+    public void leaveAndRejoin() throws Exception {
+        int index = nextNonLeader();
+        ZkShardingService.ShardMember leaving = joined.get(index);
+        moved += leaving.getPartitions().size() * 2L;
+        operations++;
+        coverage.release(leaving.getPartitions());
+        leaving.close();
+        coverage.await(() -> true);
+
+        ZkShardingService.ShardMember rejoined = join(index);
+        joined.set(index, rejoined);
+        coverage.await(() -> !rejoined.getPartitions().isEmpty());
+    }
+
+    private int nextNonLeader() {
+        while (true) {
+            int index = next++ % members;
+            if (!joined.get(index).isLeader()) {
+                return index;
+            }
+        }
+    }
+
+    private ZkShardingService.ShardMember join(int index) throws Exception {
+        return zk.shardingService.join(GROUP, "member-" + index, partitions,
+                (added, removed, current) -> coverage.update(added, removed));
+    }
+
+    /**
+     * 每个分区当前有几个成员持有，covered为至少有一个持有者的分区数，held为所有成员持有的分区总数，
+     * covered == held == partitions 说明每个分区恰好一个持有者
+     */
+    private static class Coverage {
+        private final int[] owners;
+        private int covered;
+        private int held;
+
+        Coverage(int partitions) {
+            this.owners = new int[partitions];
+        }
+
+        synchronized void update(Set<Integer> added, Set<Integer> removed) {
+            for (Integer p : removed) {
+                if (--owners[p] == 0) {
+                    covered--;
+                }
+                held--;
+            }
+            for (Integer p : added) {
+                if (owners[p]++ == 0) {
+                    covered++;
+                }
+                held++;
+            }
+            notifyAll();
+        }
+
+        void release(Set<Integer> partitions) {
+            update(Set.of(), partitions);
+        }
+
+        synchronized void await(BooleanSupplier condition) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+            while (covered != owners.length || held != owners.length || !condition.getAsBoolean()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IllegalStateException("再平衡超时，已覆盖" + covered + "个分区，持有总数" + held);
+                }
+                wait(remaining);
+            }
+        }
+    }
+
+    /**
+     * 只启动ShardingBenchmark用到的组件
+     */
+    @State(Scope.Benchmark)
+    public static class Zk extends ZkBenchmarkState {
+        public Zk() {
+            super(ZkShardingService.class);
+        }
+    }
+}
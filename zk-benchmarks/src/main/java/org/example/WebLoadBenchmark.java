@@ -0,0 +1,152 @@
+package org.example;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.test.TestingServer;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点REST接口的压测(进程内TestingServer + 完整的spring boot应用，Tomcat最多TOMCAT_THREADS个工作线程)：
+ * 同时保持CONCURRENCY个请求在途，共REQUESTS个，80%为GET读节点、20%为PUT写节点，分别压
+ * /zk/nodes(ReactiveZkClient，返回Mono)和/zk/blocking/nodes(同步调用curator)，
+ * 对比吞吐、延迟分位数、Tomcat同时忙碌的工作线程数峰值和JVM线程数峰值。
+ * JDK21+时再加一轮：Tomcat跑在虚拟线程上(curator.reactive.tomcatVirtualThreads)的同步接口。
+ *
+ * 不是JMH基准，压的是完整应用的HTTP接口，直接运行main方法：
+ * java -cp zk-benchmarks/target/benchmarks.jar org.example.WebLoadBenchmark
+ */
+public class WebLoadBenchmark {
+
+    private static final int NODES = 1000;
+    private static final int CONCURRENCY = 500;
+    private static final int REQUESTS = 50_000;
+    private static final int TOMCAT_THREADS = 50;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        try (TestingServer server = new TestingServer(true)) {
+            try (ConfigurableApplicationContext context = start(server, false)) {
+                prepare(context.getBean(CuratorFramework.class));
+                run(context, "/zk/nodes", "Mono");
+                run(context, "/zk/blocking/nodes", "同步");
+            }
+            if (Runtime.version().feature() >= 21) {
+                try (ConfigurableApplicationContext context = start(server, true)) {
+                    run(context, "/zk/blocking/nodes", "同步+虚拟线程");
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static ConfigurableApplicationContext start(TestingServer server, boolean virtualThreads) {
+        return SpringApplication.run(BootApplication.class,
+                "--curator.connectString=" + server.getConnectString(),
+                "--curator.registry.enabled=false",
+                "--curator.reactive.nodeApi.enabled=true",
+                "--curator.reactive.nodeApi.rootPath=/web",
+                "--curator.reactive.tomcatVirtualThreads=" + virtualThreads,
+                "--server.port=0",
+                "--server.tomcat.threads.max=" + TOMCAT_THREADS,
+                "--server.tomcat.max-connections=" + (CONCURRENCY * 2),
+                "--spring.main.banner-mode=off");
+    }
+
+    private static void prepare(CuratorFramework client) throws Exception {
+        List<CuratorOp> ops = new ArrayList<>();
+        ops.add(client.transactionOp().create().forPath("/web"));
+        for (int i = 0; i < NODES; i++) {
+            ops.add(client.transactionOp().create().forPath("/web/n" + i, "v".getBytes(StandardCharsets.UTF_8)));
+        }
+        client.transaction().forOperations(ops);
+    }
+
+    private static void run(ConfigurableApplicationContext context, String prefix, String name) throws Exception {
+        TomcatWebServer webServer = (TomcatWebServer) ((ServletWebServerApplicationContext) context).getWebServer();
+        String base = "http://127.0.0.1:" + webServer.getPort() + prefix + "/web/n";
+        Executor tomcatExecutor = webServer.getTomcat().getConnector().getProtocolHandler().getExecutor();
+        HttpClient http = HttpClient.newBuilder().executor(Executors.newFixedThreadPool(8)).build();
+
+        // 预热
+        load(http, base, 2000);
+
+        AtomicInteger peakBusy = new AtomicInteger();
+        AtomicInteger peakThreads = new AtomicInteger();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            if (tomcatExecutor instanceof ThreadPoolExecutor) {
+                peakBusy.accumulateAndGet(((ThreadPoolExecutor) tomcatExecutor).getActiveCount(), Math::max);
+            }
+            peakThreads.accumulateAndGet(Thread.activeCount(), Math::max);
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        long[] latencies = load(http, base, REQUESTS);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        sampler.shutdownNow();
+
+        Arrays.sort(latencies);
+        System.out.printf("%s: %d req/s, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, Tomcat忙碌线程峰值 %s, JVM线程数峰值 %d%n",
+                name, REQUESTS * 1000L / Math.max(1, elapsedMs),
+                latencies[latencies.length / 2] / 1e6, latencies[latencies.length * 99 / 100] / 1e6,
+                latencies[latencies.length * 999 / 1000] / 1e6,
+                tomcatExecutor instanceof ThreadPoolExecutor ? String.valueOf(peakBusy.get()) : "-(虚拟线程)",
+                peakThreads.get());
+    }
+
+    /**
+     * 用信号量保持CONCURRENCY个请求在途，返回每个请求的耗时(纳秒)；非2xx响应直接失败
+     */
+    private static long[] load(HttpClient http, String base, int requests) throws Exception {
+        long[] latencies = new long[requests];
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        CountDownLatch done = new CountDownLatch(requests);
+        AtomicLong errors = new AtomicLong();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int index = i;
+            URI uri = URI.create(base + ThreadLocalRandom.current().nextInt(NODES));
+            HttpRequest request = ThreadLocalRandom.current().nextInt(10) < 8
+                    ? HttpRequest.newBuilder(uri).GET().build()
+                    : HttpRequest.newBuilder(uri).PUT(HttpRequest.BodyPublishers.ofString("v" + i)).build();
+            long begin = System.nanoTime();
+            http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+                latencies[index] = System.nanoTime() - begin;
+                if (e != null || response.statusCode() / 100 != 2) {
+                    errors.incrementAndGet();
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        if (errors.get() > 0) {
+            throw new IllegalStateException(errors.get() + "个请求失败");
+        }
+        return latencies;
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Statistics;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试入口，分两轮运行：Throughput按ops/s统计，SampleTime按微秒统计延迟分位数(p50/p90/p99/p99.9...)，
+ * 两轮结果合并写到zk.bench.result指定的JSON文件，并在最后打印一份汇总。
+ *
+ * mvn -B package -pl zk-benchmarks -am
+ * java -jar zk-benchmarks/target/benchmarks.jar                       全部运行
+ * java -jar zk-benchmarks/target/benchmarks.jar ReadPath              只运行名字匹配的基准
+ * java -jar zk-benchmarks/target/benchmarks.jar -p ensemble=1,3       单机和3节点集群对比
+ * java -Dzk.bench.result=out.json -jar zk-benchmarks/target/benchmarks.jar
+ *
+ * 其它参数与JMH命令行相同(-f/-wi/-i/-t等)。
+ */
+public class ZkBenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        String resultFile = System.getProperty("zk.bench.result", "zk-benchmarks.json");
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        List<RunResult> results = new ArrayList<>();
+        results.addAll(run(commandLine, Mode.Throughput, TimeUnit.SECONDS));
+        results.addAll(run(commandLine, Mode.SampleTime, TimeUnit.MICROSECONDS));
+
+        try (PrintStream out = new PrintStream(resultFile, "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+
+        System.out.println();
+        for (RunResult runResult : results) {
+            Result<?> primary = runResult.getPrimaryResult();
+            Statistics statistics = primary.getStatistics();
+            String name = runResult.getParams().getBenchmark() + paramsOf(runResult);
+            if (runResult.getParams().getMode() == Mode.SampleTime) {
+                System.out.printf("%-70s p50 %.3f us, p99 %.3f us, p99.9 %.3f us%n", name,
+                        statistics.getPercentile(50), statistics.getPercentile(99), statistics.getPercentile(99.9));
+            } else {
+                System.out.printf("%-70s %.1f %s%n", name, primary.getScore(), primary.getScoreUnit());
+            }
+        }
+        System.out.println("JSON结果：" + resultFile);
+    }
+
+    private static List<RunResult> run(CommandLineOptions commandLine, Mode mode, TimeUnit timeUnit) throws Exception {
+        return new ArrayList<>(new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .mode(mode)
+                .timeUnit(timeUnit)
+                .build()).run());
+    }
+
+    private static String paramsOf(RunResult runResult) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : runResult.getParams().getParamsKeys()) {
+            sb.append(sb.length() == 0 ? " [" : ", ").append(key).append('=').append(runResult.getParams().getParam(key));
+        }
+        return sb.length() == 0 ? "" : sb.append(']').toString();
+    }
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingCluster;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试环境的基类：进程内zookeeper(单机TestingServer或3节点TestingCluster)、一个curator客户端，
+ * 以及一个只包含被测组件的spring容器。每个基准在自己类里声明一个子类，构造时列出用到的组件(连同它们依赖的组件)，
+ * 没列出的组件不会启动，对应字段为null，比如测ZNodeStore时不会有ZkShardingService的选主和ZkReadCache的全量加载在后台跑。
+ *
+ * 预先创建的节点：
+ * /read/n0 ~ /read/n{READ_NODES-1}：只在启动ZkReadCache时创建，读路径测试用，ZkReadCache只缓存/read这棵子树；
+ * /ops：写操作测试用，每个基准方法自己在下面建节点。
+ */
+@State(Scope.Benchmark)
+public abstract class ZkBenchmarkState {
+
+    static final int READ_NODES = 1000;
+    static final byte[] DATA = "zk-benchmark-payload-0123456789".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 1为单机TestingServer，3为TestingCluster，运行时用 -p ensemble=1,3 对比
+     */
+    @Param({"1"})
+    public int ensemble;
+
+    public CuratorFramework client;
+    public ZkBatchWriter batchWriter;
+    public ZkReadCache readCache;
+    public ZkSubscriptionEngine subscriptionEngine;
+    public ZkSequenceService sequenceService;
+    public ZkShardingService shardingService;
+    public ZNodeStore nodeStore;
+    public ZkAtomicUpdater atomicUpdater;
+    public ZkRateLimiter rateLimiter;
+
+    private final Class<?>[] components;
+    private Closeable server;
+    private AnnotationConfigApplicationContext context;
+
+    /**
+     * @param components 要启动的组件，如ZkSequenceService需要同时列出它依赖的ZkAtomicUpdater
+     */
+    protected ZkBenchmarkState(Class<?>... components) {
+        this.components = components;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String connectString;
+        if (ensemble > 1) {
+            TestingCluster cluster = new TestingCluster(ensemble);
+            cluster.start();
+            server = cluster;
+            connectString = cluster.getConnectString();
+        } else {
+            TestingServer testingServer = new TestingServer(true);
+            server = testingServer;
+            connectString = testingServer.getConnectString();
+        }
+        client = CuratorFrameworkFactory.newClient(connectString, new RetryOneTime(1000));
+        client.start();
+        client.blockUntilConnected();
+
+        client.create().forPath("/ops");
+        boolean readCacheUsed = Arrays.asList(components).contains(ZkReadCache.class);
+        if (readCacheUsed) {
+            List<CuratorOp> ops = new ArrayList<>();
+            ops.add(client.transactionOp().create().forPath("/read"));
+            for (int i = 0; i < READ_NODES; i++) {
+                ops.add(client.transactionOp().create().forPath(readPath(i), DATA));
+            }
+            client.transaction().forOperations(ops);
+        }
+
+        // 配置类都是普通属性对象，全部注册，不用跟着组件的依赖关系挑选
+        ReadCacheConf readCacheConf = new ReadCacheConf();
+        readCacheConf.setEnabled(true);
+        readCacheConf.setRootPath("/read");
+        // 基准测试测的是再平衡本身，不加合并延迟
+        ShardingConf shardingConf = new ShardingConf();
+        shardingConf.setRebalanceDelayMs(0);
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(CuratorFramework.class, () -> client);
+        context.registerBean(ReadCacheConf.class, () -> readCacheConf);
+        context.registerBean(ShardingConf.class, () -> shardingConf);
+        context.register(BatchWriterConf.class, SubscriptionConf.class, DispatchConf.class, AtomicUpdaterConf.class,
+                SequenceConf.class, CodecConf.class, RateLimitConf.class);
+        context.register(components);
+        context.refresh();
+        batchWriter = context.getBeanProvider(ZkBatchWriter.class).getIfAvailable();
+        readCache = context.getBeanProvider(ZkReadCache.class).getIfAvailable();
+        subscriptionEngine = context.getBeanProvider(ZkSubscriptionEngine.class).getIfAvailable();
+        sequenceService = context.getBeanProvider(ZkSequenceService.class).getIfAvailable();
+        shardingService = context.getBeanProvider(ZkShardingService.class).getIfAvailable();
+        nodeStore = context.getBeanProvider(ZNodeStore.class).getIfAvailable();
+        atomicUpdater = context.getBeanProvider(ZkAtomicUpdater.class).getIfAvailable();
+        rateLimiter = context.getBeanProvider(ZkRateLimiter.class).getIfAvailable();
+        if (!readCacheUsed) {
+            return;
+        }
+
+        // 等ZkReadCache把/read整棵子树加载完，保证cacheHit测的是命中
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (readCache.getCachedNodes() < READ_NODES + 1) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("ZkReadCache初始化超时，已缓存" + readCache.getCachedNodes() + "个节点");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        context.close();
+        client.close();
+        server.close();
+    }
+
+    static String readPath(int i) {
+        return "/read/n" + i;
+    }
+}
@@ -0,0 +1,101 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * BinaryWriter写出的数据的读取，读越界或varint格式错误时抛出IllegalArgumentException
+ */
+public class BinaryReader {
+
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    public BinaryReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = next();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint超过10个字节");
+    }
+
+    public long readSignedVarint() {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readInt() {
+        long value = readVarint();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("数值超出int范围：" + value);
+        }
+        return (int) value;
+    }
+
+    public boolean readBoolean() {
+        return next() != 0;
+    }
+
+    public double readDouble() {
+        require(8);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits |= (long) (buffer[position++] & 0xFF) << (i * 8);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() {
+        int length = readInt();
+        if (length == 0) {
+            return null;
+        }
+        length--;
+        require(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public byte[] readBytes() {
+        int length = readInt();
+        require(length);
+        byte[] value = Arrays.copyOfRange(buffer, position, position + length);
+        position += length;
+        return value;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+
+    private byte next() {
+        require(1);
+        return buffer[position++];
+    }
+
+    private void require(int length) {
+        if (length > limit - position) {
+            throw new IllegalArgumentException("数据不完整，需要" + length + "字节，剩余" + (limit - position));
+        }
+    }
+}
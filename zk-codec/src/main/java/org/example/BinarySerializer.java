@@ -0,0 +1,12 @@
+package org.example;
+
+/**
+ * 自定义类型的紧凑二进制序列化，配合ZNodeCodec.binary使用。
+ * 字段按固定顺序读写，新增字段只能追加在末尾，读的时候用reader.remaining()判断旧数据里有没有。
+ */
+public interface BinarySerializer<T> {
+
+    void write(T value, BinaryWriter writer);
+
+    T read(BinaryReader reader);
+}
@@ -0,0 +1,109 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 紧凑二进制写入，整数用protobuf风格的varint(每字节7位，最高位表示后面还有)，有符号数先做zigzag，
+ * 小数值只占1~2个字节；字符串和字节数组都是 varint长度 + 内容。
+ */
+public class BinaryWriter {
+
+    private byte[] buffer;
+    private int position;
+
+    public BinaryWriter() {
+        this(64);
+    }
+
+    public BinaryWriter(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * 无符号varint，负数会占10个字节，有符号数请用writeSignedVarint
+     */
+    public BinaryWriter writeVarint(long value) {
+        ensure(10);
+        position = putVarint(buffer, position, value);
+        return this;
+    }
+
+    public BinaryWriter writeSignedVarint(long value) {
+        return writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public BinaryWriter writeBoolean(boolean value) {
+        ensure(1);
+        buffer[position++] = (byte) (value ? 1 : 0);
+        return this;
+    }
+
+    /**
+     * 固定8字节，小端
+     */
+    public BinaryWriter writeDouble(double value) {
+        ensure(8);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            buffer[position++] = (byte) (bits >>> (i * 8));
+        }
+        return this;
+    }
+
+    /**
+     * UTF-8编码，varint(0)表示null，varint(n+1)后跟n个字节表示长度为n的字符串
+     */
+    public BinaryWriter writeString(String value) {
+        if (value == null) {
+            return writeVarint(0);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length + 1L);
+        return writeRaw(bytes, 0, bytes.length);
+    }
+
+    public BinaryWriter writeBytes(byte[] value) {
+        writeVarint(value.length);
+        return writeRaw(value, 0, value.length);
+    }
+
+    public BinaryWriter writeRaw(byte[] value, int offset, int length) {
+        ensure(length);
+        System.arraycopy(value, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    public int size() {
+        return position;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    static int putVarint(byte[] target, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[position++] = (byte) value;
+        return position;
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private void ensure(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 节点数据的压缩算法，编号写在ZNodeCodec头字节的第4~5位。
+ * LZ4：纯Java的LZ4块格式，速度优先；DEFLATE：JDK自带的zlib，压缩率优先，相当于zstd/gzip这一档。
+ */
+public enum Compression {
+    NONE(0) {
+        @Override
+        byte[] compress(byte[] src, int offset, int length) {
+            return Arrays.copyOfRange(src, offset, offset + length);
+        }
+
+        @Override
+        byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+            return Arrays.copyOfRange(src, offset, offset + length);
+        }
+    },
+    LZ4(1) {
+        @Override
+        byte[] compress(byte[] src, int offset, int length) {
+            byte[] dest = new byte[Lz4Block.maxCompressedLength(length)];
+            int written = Lz4Block.compress(src, offset, length, dest);
+            return Arrays.copyOf(dest, written);
+        }
+
+        @Override
+        byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+            return Lz4Block.decompress(src, offset, length, originalLength);
+        }
+    },
+    DEFLATE(2) {
+        @Override
+        byte[] compress(byte[] src, int offset, int length) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(src, offset, length);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(src, offset, length);
+                byte[] dest = new byte[originalLength];
+                int written = 0;
+                while (written < originalLength) {
+                    int n = inflater.inflate(dest, written, originalLength - written);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    written += n;
+                }
+                if (written != originalLength) {
+                    throw new IllegalArgumentException("DEFLATE解压后长度" + written + "与记录的原始长度" + originalLength + "不一致");
+                }
+                return dest;
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("DEFLATE数据损坏", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    private final int id;
+
+    Compression(int id) {
+        this.id = id;
+    }
+
+    int id() {
+        return id;
+    }
+
+    abstract byte[] compress(byte[] src, int offset, int length);
+
+    abstract byte[] decompress(byte[] src, int offset, int length, int originalLength);
+
+    static Compression of(int id) {
+        for (Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("未知的压缩算法编号：" + id);
+    }
+}
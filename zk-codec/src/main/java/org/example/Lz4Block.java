@@ -0,0 +1,163 @@
+package org.example;
+
+/**
+ * 纯Java实现的LZ4块格式(不含帧头)，压缩率不如deflate，但压缩、解压都快得多，适合频繁读的节点。
+ * 格式：若干个序列，每个序列 = token(高4位字面量长度，低4位匹配长度-4) + 扩展长度 + 字面量 + 2字节小端偏移 + 扩展长度，
+ * 最后一个序列只有字面量。和官方实现兼容，解压时需要事先知道原始长度。
+ */
+final class Lz4Block {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 14;
+
+    private Lz4Block() {
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @return 写入dest的字节数
+     */
+    static int compress(byte[] src, int offset, int length, byte[] dest) {
+        int end = offset + length;
+        int anchor = offset;
+        int op = 0;
+        if (length >= MF_LIMIT + 1) {
+            int[] table = new int[1 << HASH_LOG];
+            int matchLimit = end - MF_LIMIT;
+            int ip = offset;
+            while (ip < matchLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                // table里存的是位置+1，0表示空
+                int ref = table[h] - 1;
+                table[h] = ip + 1;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+                while (ip > anchor && ref > offset && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < end - LAST_LITERALS && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dest, op);
+                ip += matchLength;
+                anchor = ip;
+                if (ip - 2 >= offset && ip < matchLimit) {
+                    table[hash(readInt(src, ip - 2))] = ip - 2 + 1;
+                }
+            }
+        }
+        int literals = end - anchor;
+        op = writeLength(dest, op, literals, 0);
+        System.arraycopy(src, anchor, dest, op, literals);
+        return op + literals;
+    }
+
+    static byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+        byte[] dest = new byte[originalLength];
+        int ip = offset;
+        int end = offset + length;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dest, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= end) {
+                    break;
+                }
+                int matchOffset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = op - matchOffset;
+                if (matchOffset == 0 || ref < 0) {
+                    throw new IllegalArgumentException("LZ4数据损坏：非法的匹配偏移" + matchOffset);
+                }
+                if (matchOffset >= matchLength) {
+                    System.arraycopy(dest, ref, dest, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // 匹配区和输出区重叠(例如连续重复的字节)，只能逐字节复制
+                    for (int i = 0; i < matchLength; i++) {
+                        dest[op++] = dest[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("LZ4数据损坏或原始长度不对", e);
+        }
+        if (op != originalLength) {
+            throw new IllegalArgumentException("LZ4解压后长度" + op + "与记录的原始长度" + originalLength + "不一致");
+        }
+        return dest;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int matchOffset, int matchLength,
+                                     byte[] dest, int op) {
+        int matchCode = matchLength - MIN_MATCH;
+        op = writeLength(dest, op, literals, Math.min(matchCode, 15));
+        System.arraycopy(src, literalStart, dest, op, literals);
+        op += literals;
+        dest[op++] = (byte) matchOffset;
+        dest[op++] = (byte) (matchOffset >>> 8);
+        if (matchCode >= 15) {
+            op = writeExtra(dest, op, matchCode - 15);
+        }
+        return op;
+    }
+
+    /**
+     * 写token和字面量的扩展长度
+     */
+    private static int writeLength(byte[] dest, int op, int literals, int matchNibble) {
+        dest[op++] = (byte) ((Math.min(literals, 15) << 4) | matchNibble);
+        if (literals >= 15) {
+            op = writeExtra(dest, op, literals - 15);
+        }
+        return op;
+    }
+
+    private static int writeExtra(byte[] dest, int op, int remaining) {
+        while (remaining >= 255) {
+            dest[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        dest[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF) << 16 | (src[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
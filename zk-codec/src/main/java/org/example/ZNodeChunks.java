@@ -0,0 +1,120 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 超大数据的分片格式，native和curator两边的ZNodeStore共用：
+ * 节点本身存清单：头字节(FORMAT_CHUNKED) + varint(代数) + varint(分片数) + varint(总长度) + varint(CRC32)，
+ * 分片是它的子节点 _chunk-代数-序号，拼起来就是ZNodeCodec编码后的完整数据。
+ *
+ * 写入顺序：先建新一代的分片，再用版本号CAS把清单换成新一代，最后删掉旧一代的分片。
+ * 读的一方先读清单再读分片，分片不存在说明期间被覆盖了，重新读清单即可；拼好后用CRC32校验。
+ */
+public final class ZNodeChunks {
+
+    public static final String CHUNK_PREFIX = "_chunk-";
+
+    private ZNodeChunks() {
+    }
+
+    public static boolean isManifest(byte[] data) {
+        return data != null && data.length > 0 && data[0] == ZNodeCodec.FORMAT_CHUNKED;
+    }
+
+    public static byte[] manifest(Manifest manifest) {
+        BinaryWriter writer = new BinaryWriter(32);
+        writer.writeRaw(new byte[]{ZNodeCodec.FORMAT_CHUNKED}, 0, 1);
+        writer.writeVarint(manifest.generation).writeVarint(manifest.chunks).writeVarint(manifest.length).writeVarint(manifest.crc);
+        return writer.toByteArray();
+    }
+
+    public static Manifest readManifest(byte[] data) {
+        if (!isManifest(data)) {
+            throw new IllegalArgumentException("不是分片清单");
+        }
+        BinaryReader reader = new BinaryReader(data, 1, data.length - 1);
+        return new Manifest(reader.readVarint(), reader.readInt(), reader.readInt(), reader.readVarint());
+    }
+
+    public static String chunkName(long generation, int index) {
+        return CHUNK_PREFIX + generation + "-" + index;
+    }
+
+    public static boolean isChunk(String childName) {
+        return childName.startsWith(CHUNK_PREFIX);
+    }
+
+    public static boolean isChunkOf(String childName, long generation) {
+        return childName.startsWith(CHUNK_PREFIX + generation + "-");
+    }
+
+    /**
+     * 把编码后的数据切成不超过chunkSize的分片，返回对应的清单
+     */
+    public static Manifest split(byte[] payload, int chunkSize, long generation, List<byte[]> chunks) {
+        for (int offset = 0; offset < payload.length; offset += chunkSize) {
+            chunks.add(Arrays.copyOfRange(payload, offset, Math.min(payload.length, offset + chunkSize)));
+        }
+        return new Manifest(generation, chunks.size(), payload.length, crc(payload, 0, payload.length));
+    }
+
+    /**
+     * 按清单拼接分片并校验长度和CRC32
+     */
+    public static byte[] join(Manifest manifest, List<byte[]> chunks) {
+        if (chunks.size() != manifest.chunks) {
+            throw new IllegalArgumentException("分片数" + chunks.size() + "与清单" + manifest.chunks + "不一致");
+        }
+        byte[] payload = new byte[manifest.length];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            if (offset + chunk.length > payload.length) {
+                throw new IllegalArgumentException("分片总长度超过清单记录的" + manifest.length);
+            }
+            System.arraycopy(chunk, 0, payload, offset, chunk.length);
+            offset += chunk.length;
+        }
+        if (offset != payload.length || crc(payload, 0, payload.length) != manifest.crc) {
+            throw new IllegalArgumentException("分片数据校验失败，可能读到了不同代的分片");
+        }
+        return payload;
+    }
+
+    private static long crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    public static class Manifest {
+        private final long generation;
+        private final int chunks;
+        private final int length;
+        private final long crc;
+
+        public Manifest(long generation, int chunks, int length, long crc) {
+            this.generation = generation;
+            this.chunks = chunks;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+    }
+}
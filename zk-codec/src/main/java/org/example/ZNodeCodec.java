@@ -0,0 +1,204 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 节点数据编解码：类型化的序列化 + 可选压缩 + 1个头字节。
+ *
+ * 头字节：第0~2位是格式(1原始字节 2UTF-8字符串 3JSON 4varint二进制 5分片清单 6~7自定义)，
+ * 第4~5位是压缩算法(0不压缩 1LZ4 2DEFLATE)，其余位为0。合法的头字节都是不可打印的控制字符，
+ * 所以没有头字节的旧数据(直接String.getBytes写入的)也能识别出来，按未压缩的原始内容解码。
+ * 压缩后的数据：头字节 + varint(原始长度) + 压缩内容；只有超过阈值且确实变小时才压缩。
+ *
+ * 超过jute.maxbuffer(默认1M)的数据需要分片存储，见ZNodeChunks和各模块的ZNodeStore。
+ * ZNodeCodec不可变，线程安全，可以作为常量共用。
+ */
+public final class ZNodeCodec<T> {
+
+    public static final int FORMAT_RAW = 1;
+    public static final int FORMAT_UTF8 = 2;
+    public static final int FORMAT_JSON = 3;
+    public static final int FORMAT_BINARY = 4;
+    public static final int FORMAT_CHUNKED = 5;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * 序列化器，deserialize只读data的[offset, offset+length)部分
+     */
+    public interface Serializer<T> {
+        byte[] serialize(T value);
+
+        T deserialize(byte[] data, int offset, int length);
+    }
+
+    private final int format;
+    private final Serializer<T> serializer;
+    private final Compression compression;
+    private final int compressionThreshold;
+
+    private ZNodeCodec(int format, Serializer<T> serializer, Compression compression, int compressionThreshold) {
+        this.format = format;
+        this.serializer = serializer;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * 原始字节，解码时接受任何格式(只解压、去掉头字节)
+     */
+    public static ZNodeCodec<byte[]> raw() {
+        return new ZNodeCodec<>(FORMAT_RAW, new Serializer<byte[]>() {
+            @Override
+            public byte[] serialize(byte[] value) {
+                return value;
+            }
+
+            @Override
+            public byte[] deserialize(byte[] data, int offset, int length) {
+                return Arrays.copyOfRange(data, offset, offset + length);
+            }
+        }, Compression.NONE, 0);
+    }
+
+    /**
+     * UTF-8字符串，也能解码JSON格式的数据
+     */
+    public static ZNodeCodec<String> utf8() {
+        return new ZNodeCodec<>(FORMAT_UTF8, new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String deserialize(byte[] data, int offset, int length) {
+                return new String(data, offset, length, StandardCharsets.UTF_8);
+            }
+        }, Compression.NONE, 0);
+    }
+
+    public static <T> ZNodeCodec<T> json(Class<T> type) {
+        return new ZNodeCodec<>(FORMAT_JSON, new Serializer<T>() {
+            @Override
+            public byte[] serialize(T value) {
+                try {
+                    return MAPPER.writeValueAsBytes(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public T deserialize(byte[] data, int offset, int length) {
+                try {
+                    return MAPPER.readValue(data, offset, length, type);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }, Compression.NONE, 0);
+    }
+
+    public static <T> ZNodeCodec<T> binary(BinarySerializer<T> binarySerializer) {
+        return new ZNodeCodec<>(FORMAT_BINARY, new Serializer<T>() {
+            @Override
+            public byte[] serialize(T value) {
+                BinaryWriter writer = new BinaryWriter();
+                binarySerializer.write(value, writer);
+                return writer.toByteArray();
+            }
+
+            @Override
+            public T deserialize(byte[] data, int offset, int length) {
+                return binarySerializer.read(new BinaryReader(data, offset, length));
+            }
+        }, Compression.NONE, 0);
+    }
+
+    /**
+     * 自定义格式，format只能是6或7
+     */
+    public static <T> ZNodeCodec<T> custom(int format, Serializer<T> serializer) {
+        if (format != 6 && format != 7) {
+            throw new IllegalArgumentException("自定义格式编号只能是6或7：" + format);
+        }
+        return new ZNodeCodec<>(format, serializer, Compression.NONE, 0);
+    }
+
+    /**
+     * 返回一个序列化后不小于threshold字节时用compression压缩的新codec
+     */
+    public ZNodeCodec<T> compressed(Compression compression, int threshold) {
+        return new ZNodeCodec<>(format, serializer, compression, threshold);
+    }
+
+    public byte[] encode(T value) {
+        byte[] body = serializer.serialize(value);
+        if (compression != Compression.NONE && body.length >= compressionThreshold) {
+            byte[] packed = compression.compress(body, 0, body.length);
+            int lengthSize = BinaryWriter.varintSize(body.length);
+            if (lengthSize + packed.length < body.length) {
+                byte[] out = new byte[1 + lengthSize + packed.length];
+                out[0] = (byte) (format | compression.id() << 4);
+                int position = BinaryWriter.putVarint(out, 1, body.length);
+                System.arraycopy(packed, 0, out, position, packed.length);
+                return out;
+            }
+        }
+        byte[] out = new byte[1 + body.length];
+        out[0] = (byte) format;
+        System.arraycopy(body, 0, out, 1, body.length);
+        return out;
+    }
+
+    /**
+     * 数据损坏或格式不匹配时抛出IllegalArgumentException，JSON解析失败时抛出UncheckedIOException
+     */
+    public T decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        int header = data.length == 0 ? 0 : data[0] & 0xFF;
+        if (!isHeader(header)) {
+            return serializer.deserialize(data, 0, data.length);
+        }
+        int dataFormat = header & 0x07;
+        if (dataFormat == FORMAT_CHUNKED) {
+            throw new IllegalArgumentException("这是分片数据的清单，需要通过ZNodeStore读取");
+        }
+        if (format != FORMAT_RAW && dataFormat != format && !(format == FORMAT_UTF8 && dataFormat == FORMAT_JSON)) {
+            throw new IllegalArgumentException("数据格式" + dataFormat + "与codec格式" + format + "不匹配");
+        }
+        Compression dataCompression = Compression.of(header >>> 4);
+        if (dataCompression == Compression.NONE) {
+            return serializer.deserialize(data, 1, data.length - 1);
+        }
+        BinaryReader reader = new BinaryReader(data, 1, data.length - 1);
+        int originalLength = reader.readInt();
+        byte[] body = dataCompression.decompress(data, reader.position(), reader.remaining(), originalLength);
+        return serializer.deserialize(body, 0, body.length);
+    }
+
+    /**
+     * 数据的格式，没有头字节的旧数据返回0
+     */
+    public static int formatOf(byte[] data) {
+        int header = data == null || data.length == 0 ? 0 : data[0] & 0xFF;
+        return isHeader(header) ? header & 0x07 : 0;
+    }
+
+    public static Compression compressionOf(byte[] data) {
+        int header = data == null || data.length == 0 ? 0 : data[0] & 0xFF;
+        return isHeader(header) ? Compression.of(header >>> 4) : Compression.NONE;
+    }
+
+    static boolean isHeader(int header) {
+        return (header & 0xC8) == 0 && (header & 0x07) != 0 && (header >>> 4) < 3;
+    }
+}
@@ -0,0 +1,477 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 把watch回调、监听器回调从zookeeper唯一的事件线程上转走的分发器。
+ * zookeeper客户端只有一个事件线程，回调里sleep或做阻塞IO会拖慢之后所有的节点事件和会话事件；这里：
+ * 1 按key(一般是节点路径)的hash分到固定数量的stripe上，同一个key的任务落在同一个stripe，严格按提交顺序执行，不同stripe并行；
+ * 2 每个stripe是一个有界队列，在线程池上串行执行(每轮最多MAX_BATCH个任务后让出线程，繁忙的stripe不会长期占住共享线程池)；
+ * 3 队列满时按OverflowPolicy处理：BLOCK让提交线程等待(背压到zookeeper事件线程)，maxBlockMs>0时最多等这么久，
+ *   超时后丢弃新任务，避免一个卡死的回调让事件线程无限期停住；
+ *   DROP_NEWEST丢弃新任务，DROP_OLDEST丢弃队头最旧的任务，丢弃适合只关心最新状态、可以自行全量核对的场景；
+ * 4 统计队列深度、从提交到开始执行的延迟(dispatch lag)、超过slowHandlerMs的慢回调次数、回调异常次数和丢弃次数。
+ *   慢回调和回调异常每LOG_INTERVAL最多各打印一条日志，附带上次打印之后又发生了多少次，过载时不会刷屏拖慢执行线程。
+ *
+ * 同一stripe上的慢回调仍会拖慢hash到这个stripe的其它key，getSlowHandlers()和getMaxHandlerMs()用来发现它们。
+ * key为null的任务(比如会话事件)都落在0号stripe上。
+ */
+public class StripedDispatcher implements Closeable {
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        BLOCK, DROP_NEWEST, DROP_OLDEST
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(StripedDispatcher.class);
+
+    private static final int MAX_BATCH = 64;
+
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Stripe[] stripes;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long maxBlockNanos;
+    private final long slowHandlerNanos;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private volatile boolean closed;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder slowHandlers = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder totalLagNanos = new LongAdder();
+    private final LongAccumulator maxLagNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxHandlerNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+    private final RateLimitedLog slowLog = new RateLimitedLog();
+    private final RateLimitedLog errorLog = new RateLimitedLog();
+
+    /**
+     * 自带stripes个守护线程(线程名name-序号)，每个stripe都能分到一个线程，close时关闭
+     */
+    public StripedDispatcher(String name, int stripes, int queueCapacity, OverflowPolicy overflowPolicy, long slowHandlerMs) {
+        this(name, stripes, queueCapacity, overflowPolicy, 0, slowHandlerMs);
+    }
+
+    /**
+     * 自带线程池，BLOCK时提交线程最多等待maxBlockMs
+     */
+    public StripedDispatcher(String name, int stripes, int queueCapacity, OverflowPolicy overflowPolicy, long maxBlockMs, long slowHandlerMs) {
+        this(stripes, queueCapacity, overflowPolicy, maxBlockMs, slowHandlerMs, newThreadPool(name, stripes), true);
+    }
+
+    /**
+     * BLOCK时不限制等待时间
+     */
+    public StripedDispatcher(int stripes, int queueCapacity, OverflowPolicy overflowPolicy, long slowHandlerMs, Executor executor) {
+        this(stripes, queueCapacity, overflowPolicy, 0, slowHandlerMs, executor, false);
+    }
+
+    /**
+     * @param stripes        stripe数，即最大并行度
+     * @param queueCapacity  每个stripe的队列容量
+     * @param overflowPolicy 队列满时的处理方式
+     * @param maxBlockMs     BLOCK时提交线程最多等待多久，超时丢弃新任务，0表示一直等
+     * @param slowHandlerMs  单个任务执行超过该耗时计为慢回调，0表示不统计
+     * @param executor       执行任务的线程池，由调用方负责关闭
+     */
+    public StripedDispatcher(int stripes, int queueCapacity, OverflowPolicy overflowPolicy, long maxBlockMs, long slowHandlerMs,
+                             Executor executor) {
+        this(stripes, queueCapacity, overflowPolicy, maxBlockMs, slowHandlerMs, executor, false);
+    }
+
+    private StripedDispatcher(int stripes, int queueCapacity, OverflowPolicy overflowPolicy, long maxBlockMs, long slowHandlerMs,
+                              Executor executor, boolean ownsExecutor) {
+        if (stripes <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("stripes和queueCapacity必须大于0");
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockMs);
+        this.slowHandlerNanos = TimeUnit.MILLISECONDS.toNanos(slowHandlerMs);
+        this.executor = executor;
+        this.ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+    }
+
+    /**
+     * 提交一个任务，同一个key的任务按提交顺序执行。
+     * 返回false表示任务被丢弃(DROP_NEWEST队列满、分发器已关闭、BLOCK等待超过maxBlockMs或被中断)；DROP_OLDEST总是返回true，丢弃的是队头的旧任务
+     */
+    public boolean dispatch(String key, Runnable task) {
+        return dispatch(key, task, null);
+    }
+
+    /**
+     * @param onDropped 任务被丢弃时在丢弃它的线程上回调(DROP_OLDEST时是挤掉它的提交线程)，
+     *                  丢弃事件的订阅者可以在这里安排一次全量核对，为null表示不关心
+     */
+    public boolean dispatch(String key, Runnable task, Runnable onDropped) {
+        Task newTask = new Task(key, task, onDropped);
+        if (closed) {
+            drop(newTask);
+            return false;
+        }
+        submitted.increment();
+        Stripe stripe = stripes[indexOf(key)];
+        if (!reserve(stripe)) {
+            drop(newTask);
+            return false;
+        }
+        stripe.tasks.addLast(newTask);
+        stripe.schedule();
+        return true;
+    }
+
+    /**
+     * 等待队列里已有的任务执行完，最多等timeout，返回是否已经全部执行完
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (getQueueDepth() > 0 || isRunning()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * BLOCK策略下提交线程因为队列满而等待的次数，等待超时被丢弃的任务同时计入getDropped()
+     */
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    /**
+     * 当前所有stripe排队中的任务数
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Stripe stripe : stripes) {
+            depth += stripe.size.get();
+        }
+        return depth;
+    }
+
+    /**
+     * 单个stripe出现过的最大排队数，接近queueCapacity说明该stripe上有慢回调或者热点key
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * 从提交到开始执行的平均等待时间
+     */
+    public double getAvgLagMs() {
+        long count = started.sum();
+        return count == 0 ? 0 : totalLagNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxLagMs() {
+        return maxLagNanos.get() / 1e6;
+    }
+
+    public long getSlowHandlers() {
+        return slowHandlers.sum();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public double getMaxHandlerMs() {
+        return maxHandlerNanos.get() / 1e6;
+    }
+
+    /**
+     * 任务和onDropped回调抛出异常的次数，异常被吞掉不影响同一stripe的后续任务
+     */
+    public long getHandlerErrors() {
+        return handlerErrors.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("提交%d, 执行%d, 丢弃%d, 等待%d次, 排队%d(峰值%d), 分发延迟 avg %.2f ms, max %.2f ms, 慢回调%d次(max %.2f ms), 回调异常%d次",
+                getSubmitted(), getExecuted(), getDropped(), getBlocked(), getQueueDepth(), getMaxQueueDepth(),
+                getAvgLagMs(), getMaxLagMs(), getSlowHandlers(), getMaxHandlerMs(), getHandlerErrors());
+    }
+
+    /**
+     * 关闭后不再接受新任务(计入丢弃)。已经排队的任务继续执行：正在执行的stripe不再每MAX_BATCH个让出线程，一直执行到队列为空，
+     * 所以自带的线程池shutdown后也不会有任务留在队列里；线程池拒绝执行时(调用方的线程池已经关闭)，
+     * 该stripe队列里剩下的任务计入丢弃并回调onDropped，不会悄悄消失
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.notifyAll();
+            }
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private int indexOf(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    private boolean isRunning() {
+        for (Stripe stripe : stripes) {
+            if (stripe.running.get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在stripe的队列里占一个位置，按overflowPolicy处理队列满的情况
+     */
+    private boolean reserve(Stripe stripe) {
+        while (true) {
+            int size = stripe.size.get();
+            // 在本stripe的回调里再提交到本stripe时不受容量限制，否则BLOCK会等自己执行完而死锁
+            if (size < queueCapacity || stripe.drainer == Thread.currentThread()) {
+                if (stripe.size.compareAndSet(size, size + 1)) {
+                    maxQueueDepth.accumulate(size + 1);
+                    return true;
+                }
+                continue;
+            }
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    return false;
+                case DROP_OLDEST:
+                    Task oldest = stripe.tasks.pollFirst();
+                    if (oldest != null) {
+                        stripe.size.decrementAndGet();
+                        drop(oldest);
+                    }
+                    break;
+                case BLOCK:
+                default:
+                    blocked.increment();
+                    if (!awaitSpace(stripe)) {
+                        return false;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void drop(Task task) {
+        dropped.increment();
+        if (task.onDropped != null) {
+            try {
+                task.onDropped.run();
+            } catch (RuntimeException e) {
+                handlerErrors.increment();
+                long suppressed = errorLog.acquire();
+                if (suppressed >= 0) {
+                    log.error("丢弃回调执行异常：{}，上次打印后另有{}次回调异常", task.key, suppressed, e);
+                }
+            }
+        }
+    }
+
+    private boolean awaitSpace(Stripe stripe) {
+        long start = System.nanoTime();
+        synchronized (stripe) {
+            stripe.waiting++;
+            try {
+                while (stripe.size.get() >= queueCapacity) {
+                    if (closed) {
+                        return false;
+                    }
+                    if (maxBlockNanos > 0 && System.nanoTime() - start >= maxBlockNanos) {
+                        return false;
+                    }
+                    // 带超时等待，唤醒丢失或等待超时时最多晚10ms
+                    stripe.wait(10);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                stripe.waiting--;
+            }
+        }
+    }
+
+    private static ExecutorService newThreadPool(String name, int threads) {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, name + "-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 每LOG_INTERVAL最多放行一条日志，被压下的次数在下一条日志里一起报告
+     */
+    private static class RateLimitedLog {
+        private final AtomicLong lastLogNanos = new AtomicLong(System.nanoTime() - LOG_INTERVAL_NANOS);
+        private final AtomicLong suppressed = new AtomicLong();
+
+        /**
+         * 返回上次打印之后被压下的次数，-1表示这次也不打印
+         */
+        long acquire() {
+            long now = System.nanoTime();
+            long last = lastLogNanos.get();
+            if (now - last >= LOG_INTERVAL_NANOS && lastLogNanos.compareAndSet(last, now)) {
+                return suppressed.getAndSet(0);
+            }
+            suppressed.incrementAndGet();
+            return -1;
+        }
+    }
+
+    private static class Task {
+        private final String key;
+        private final Runnable runnable;
+        private final Runnable onDropped;
+        private final long enqueuedNanos = System.nanoTime();
+
+        Task(String key, Runnable runnable, Runnable onDropped) {
+            this.key = key;
+            this.runnable = runnable;
+            this.onDropped = onDropped;
+        }
+    }
+
+    private class Stripe {
+        private final ConcurrentLinkedDeque<Task> tasks = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean running = new AtomicBoolean();
+        private volatile Thread drainer;
+        private volatile int waiting;
+
+        void schedule() {
+            if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // 线程池已关闭，剩下的任务不会再执行，计入丢弃
+                    Task task;
+                    while ((task = tasks.pollFirst()) != null) {
+                        size.decrementAndGet();
+                        drop(task);
+                    }
+                    running.set(false);
+                    signalSpace();
+                    // 与drain退出时一样，清空和running复位之间可能有新任务入队
+                    schedule();
+                }
+            }
+        }
+
+        private void drain() {
+            drainer = Thread.currentThread();
+            try {
+                Task task;
+                int count = 0;
+                // 关闭后不再让出线程：自带的线程池已经shutdown，重新提交会被拒绝
+                while ((count++ < MAX_BATCH || closed) && (task = tasks.pollFirst()) != null) {
+                    size.decrementAndGet();
+                    signalSpace();
+                    run(task);
+                }
+            } finally {
+                drainer = null;
+                running.set(false);
+                // drain退出和新任务入队之间可能有竞争，再检查一次
+                schedule();
+            }
+        }
+
+        private void signalSpace() {
+            if (waiting > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private void run(Task task) {
+            long start = System.nanoTime();
+            long lag = start - task.enqueuedNanos;
+            started.increment();
+            totalLagNanos.add(lag);
+            maxLagNanos.accumulate(lag);
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                handlerErrors.increment();
+                long suppressed = errorLog.acquire();
+                if (suppressed >= 0) {
+                    log.error("事件回调执行异常：{}，上次打印后另有{}次回调异常", task.key, suppressed, e);
+                }
+            }
+            long cost = System.nanoTime() - start;
+            maxHandlerNanos.accumulate(cost);
+            executed.increment();
+            if (slowHandlerNanos > 0 && cost > slowHandlerNanos) {
+                slowHandlers.increment();
+                long suppressed = slowLog.acquire();
+                if (suppressed >= 0) {
+                    log.warn("事件回调耗时{}ms：{}，上次打印后另有{}次慢回调", TimeUnit.NANOSECONDS.toMillis(cost), task.key, suppressed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * 收集一组操作的耗时，按分位数断言。线程安全，测试里的样本数不大，直接存所有样本排序计算。
+ */
+public class LatencyStats {
+
+    private final String name;
+    private long[] samples = new long[1024];
+    private int count;
+
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    /**
+     * 执行call并记录耗时，返回call的结果
+     */
+    public <T> T time(Callable<T> call) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile 0~1，如0.99
+     */
+    public synchronized double percentileMs(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(count - 1, Math.ceil(percentile * count) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * 断言percentile分位数耗时不超过预算(预算乘以zk.test.budgetScale)
+     */
+    public void assertPercentile(double percentile, long budgetMs) {
+        double actual = percentileMs(percentile);
+        if (actual > TimingAssertions.budget(budgetMs)) {
+            throw new AssertionError(name + "的p" + percentile * 100 + "耗时" + String.format("%.2f", actual)
+                    + "ms，超出预算" + TimingAssertions.budget(budgetMs) + "ms(" + this + ")");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d次, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                name, getCount(), percentileMs(0.5), percentileMs(0.99), percentileMs(1));
+    }
+}
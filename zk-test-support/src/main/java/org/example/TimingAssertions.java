@@ -0,0 +1,52 @@
+package org.example;
+
+import java.util.concurrent.Callable;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 带耗时预算的断言，超出预算抛AssertionError，测试框架按失败处理。
+ *
+ * 预算统一乘以系统属性zk.test.budgetScale(默认1)，CI机器慢时用-Dzk.test.budgetScale=3放宽，不用改测试代码。
+ */
+public final class TimingAssertions {
+
+    private static final double BUDGET_SCALE = Double.parseDouble(System.getProperty("zk.test.budgetScale", "1"));
+
+    private TimingAssertions() {
+    }
+
+    /**
+     * 乘以zk.test.budgetScale之后的预算
+     */
+    public static long budget(long budgetMs) {
+        return Math.round(budgetMs * BUDGET_SCALE);
+    }
+
+    /**
+     * 执行call并断言在预算内完成，返回call的结果
+     */
+    public static <T> T assertWithin(long budgetMs, String what, Callable<T> call) throws Exception {
+        long start = System.nanoTime();
+        T result = call.call();
+        long costMs = (System.nanoTime() - start) / 1_000_000;
+        if (costMs > budget(budgetMs)) {
+            throw new AssertionError(what + "耗时" + costMs + "ms，超出预算" + budget(budgetMs) + "ms");
+        }
+        return result;
+    }
+
+    /**
+     * 轮询condition直到为true，超出预算仍未满足时失败，返回等待的毫秒数
+     */
+    public static long awaitWithin(long budgetMs, String what, BooleanSupplier condition) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + budget(budgetMs) * 1_000_000;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError(what + "在" + budget(budgetMs) + "ms内未完成");
+            }
+            Thread.sleep(1);
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,225 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 放在客户端和一台zookeeper服务端之间的TCP代理，用来注入网络故障：
+ * 1 setLatencyMs：每个方向的数据都延迟这么久再转发，相当于往返时间增加两倍的latencyMs；
+ * 2 partition：不再转发任何数据，连接保持不断(相当于网络黑洞，客户端要靠心跳超时才能发现)，新连接也只接受不转发；
+ *   heal时关闭分区期间存在过的所有连接，客户端重连后恢复，不会把分区期间积压的数据发出去；
+ * 3 dropConnections：立即断开当前所有连接(连接丢失但会话还在)。
+ *
+ * 每个连接每个方向一个读线程、一个写线程，只用于测试。
+ */
+public class ZkFaultProxy implements Closeable {
+
+    private final InetSocketAddress target;
+    private final ServerSocket serverSocket;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile long latencyMs;
+    private volatile boolean partitioned;
+    private volatile boolean closed;
+
+    public ZkFaultProxy(InetSocketAddress target) throws IOException {
+        this.target = target;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "zk-fault-proxy-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getConnectString() {
+        return "127.0.0.1:" + getPort();
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    public void partition() {
+        for (Connection connection : connections) {
+            connection.stale = true;
+        }
+        partitioned = true;
+    }
+
+    public void heal() {
+        partitioned = false;
+        for (Connection connection : connections) {
+            if (connection.stale) {
+                connection.close();
+            }
+        }
+    }
+
+    public void dropConnections() {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    public int getConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // 关闭时的异常不影响测试
+        }
+        dropConnections();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server;
+                try {
+                    server = new Socket(target.getAddress(), target.getPort());
+                } catch (IOException e) {
+                    // 服务端已停止，相当于连接被拒绝
+                    client.close();
+                    continue;
+                }
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                Connection connection = new Connection(client, server);
+                connection.stale = partitioned;
+                connections.add(connection);
+                connection.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("故障代理接受连接失败：" + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一对socket，两个方向各有一条带发送时间的队列
+     */
+    private class Connection {
+        private final Socket client;
+        private final Socket server;
+        private volatile boolean stale;
+
+        Connection(Socket client, Socket server) {
+            this.client = client;
+            this.server = server;
+        }
+
+        void start() {
+            pipe(client, server, "up");
+            pipe(server, client, "down");
+        }
+
+        private void pipe(Socket from, Socket to, String direction) {
+            LinkedBlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+            Thread reader = new Thread(() -> read(from, queue), "zk-fault-proxy-" + direction + "-read");
+            Thread writer = new Thread(() -> write(to, queue), "zk-fault-proxy-" + direction + "-write");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        private void read(Socket from, LinkedBlockingQueue<Chunk> queue) {
+            byte[] buffer = new byte[16 * 1024];
+            try {
+                InputStream in = from.getInputStream();
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    queue.add(new Chunk(Arrays.copyOf(buffer, n), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMs)));
+                }
+            } catch (IOException ignored) {
+                // 连接被关闭
+            }
+            queue.add(Chunk.EOF);
+        }
+
+        private void write(Socket to, LinkedBlockingQueue<Chunk> queue) {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk == Chunk.EOF) {
+                        break;
+                    }
+                    long waitNanos = chunk.sendAt - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                    // 分区期间不转发，分区恢复后这个连接会被关掉，积压的数据直接丢弃
+                    while (stale) {
+                        if (to.isClosed()) {
+                            return;
+                        }
+                        Thread.sleep(10);
+                    }
+                    out.write(chunk.data);
+                    out.flush();
+                }
+            } catch (SocketException ignored) {
+                // 连接被关闭
+            } catch (IOException | InterruptedException ignored) {
+                // 测试结束
+            }
+            close();
+        }
+
+        void close() {
+            connections.remove(this);
+            closeQuietly(client);
+            closeQuietly(server);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 已关闭
+        }
+    }
+
+    private static class Chunk {
+        static final Chunk EOF = new Chunk(new byte[0], 0);
+
+        final byte[] data;
+        final long sendAt;
+
+        Chunk(byte[] data, long sendAt) {
+            this.data = data;
+            this.sendAt = sendAt;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.example;
+
+import org.apache.curator.test.InstanceSpec;
+import org.apache.curator.test.TestingCluster;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 测试用的进程内zookeeper：单机(TestingServer)或n个成员的集群(TestingCluster)，数据目录在临时目录，关闭时删除。
+ * 不再依赖本机2181~2183上手动起的集群，测试可以直接在CI里跑。
+ *
+ * 每个成员前面放一个ZkFaultProxy，getConnectString()返回的是代理地址，客户端连代理就可以注入故障：
+ * 1 setLatencyMs：所有成员的网络延迟；
+ * 2 partition/heal：客户端和成员之间断网/恢复(成员之间的选举和同步不受影响)；
+ * 3 dropConnections：断开所有客户端连接，会话仍在；
+ * 4 kill/restart：停掉/重启一个成员，端口不变；
+ * 5 expireSession：让一个客户端的会话在服务端过期。
+ *
+ * shared()是整个JVM共用的单机实例，启动一次供多个测试类使用，不要在上面注入故障；需要注入故障的测试自己创建。
+ */
+public class ZkTestEnsemble implements Closeable {
+
+    private static volatile ZkTestEnsemble shared;
+
+    private final TestingServer server;
+    private final TestingCluster cluster;
+    private final List<InstanceSpec> instances;
+    private final List<Integer> ports;
+    private final List<ZkFaultProxy> proxies = new ArrayList<>();
+
+    private ZkTestEnsemble(TestingServer server, TestingCluster cluster) throws IOException {
+        this.server = server;
+        this.cluster = cluster;
+        this.instances = server != null ? List.of() : new ArrayList<>(cluster.getInstances());
+        this.ports = server != null ? List.of(server.getPort()) : instances.stream().map(InstanceSpec::getPort).collect(Collectors.toList());
+        for (int port : ports) {
+            proxies.add(new ZkFaultProxy(new InetSocketAddress("127.0.0.1", port)));
+        }
+    }
+
+    public static ZkTestEnsemble standalone() throws Exception {
+        return new ZkTestEnsemble(new TestingServer(true), null);
+    }
+
+    public static ZkTestEnsemble cluster(int size) throws Exception {
+        TestingCluster cluster = new TestingCluster(size);
+        cluster.start();
+        return new ZkTestEnsemble(null, cluster);
+    }
+
+    /**
+     * JVM内共用的单机实例，第一次调用时启动，JVM退出时关闭
+     */
+    public static ZkTestEnsemble shared() {
+        if (shared == null) {
+            synchronized (ZkTestEnsemble.class) {
+                if (shared == null) {
+                    try {
+                        shared = standalone().closeOnExit();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("启动测试用zookeeper失败", e);
+                    }
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * JVM退出时再关闭。spring测试的上下文会被缓存到JVM退出，在它之前关掉服务端，客户端会一直重连
+     */
+    public ZkTestEnsemble closeOnExit() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "zk-test-ensemble-shutdown"));
+        return this;
+    }
+
+    /**
+     * 经过故障代理的地址，测试里的客户端都应该连这个
+     */
+    public String getConnectString() {
+        return proxies.stream().map(ZkFaultProxy::getConnectString).collect(Collectors.joining(","));
+    }
+
+    /**
+     * 直连成员的地址，不受注入的故障影响
+     */
+    public String getDirectConnectString() {
+        return ports.stream().map(port -> "127.0.0.1:" + port).collect(Collectors.joining(","));
+    }
+
+    public int size() {
+        return ports.size();
+    }
+
+    public ZkFaultProxy getProxy(int index) {
+        return proxies.get(index);
+    }
+
+    public void setLatencyMs(long latencyMs) {
+        for (ZkFaultProxy proxy : proxies) {
+            proxy.setLatencyMs(latencyMs);
+        }
+    }
+
+    public void partition() {
+        for (ZkFaultProxy proxy : proxies) {
+            proxy.partition();
+        }
+    }
+
+    /**
+     * 只断开客户端和第index个成员之间的网络
+     */
+    public void partition(int index) {
+        proxies.get(index).partition();
+    }
+
+    public void heal() {
+        for (ZkFaultProxy proxy : proxies) {
+            proxy.heal();
+        }
+    }
+
+    public void dropConnections() {
+        for (ZkFaultProxy proxy : proxies) {
+            proxy.dropConnections();
+        }
+    }
+
+    public void kill(int index) throws Exception {
+        if (server != null) {
+            server.stop();
+        } else {
+            cluster.killServer(instances.get(index));
+        }
+    }
+
+    public void restart(int index) throws Exception {
+        if (server != null) {
+            server.restart();
+        } else {
+            cluster.restartServer(instances.get(index));
+        }
+    }
+
+    /**
+     * 用同一个sessionId和密码建一个新连接再关闭它，服务端随之关闭这个会话，
+     * 原客户端下一次和服务端交互时收到Expired事件，和真实的会话过期走同一条路径
+     */
+    public void expireSession(ZooKeeper zk) throws Exception {
+        CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper twin = new ZooKeeper(getDirectConnectString(), zk.getSessionTimeout(), event -> {
+            if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+                connected.countDown();
+            }
+        }, zk.getSessionId(), zk.getSessionPasswd());
+        try {
+            if (!connected.await(zk.getSessionTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("会话0x" + Long.toHexString(zk.getSessionId()) + "复制连接超时");
+            }
+        } finally {
+            twin.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ZkFaultProxy proxy : proxies) {
+            proxy.close();
+        }
+        try {
+            if (server != null) {
+                server.close();
+            } else {
+                cluster.close();
+            }
+        } catch (IOException e) {
+            System.out.println("关闭测试用zookeeper失败：" + e);
+        }
+    }
+}